@@ -5,9 +5,11 @@ import android.os.Handler;
 import android.os.Looper;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.OptIn;
 import androidx.media3.common.util.UnstableApi;
 import androidx.media3.common.C;
+import androidx.media3.common.MediaItem;
 import androidx.media3.common.MediaLibraryInfo;
 import androidx.media3.common.MediaMetadata;
 import androidx.media3.common.PlaybackException;
@@ -696,6 +698,13 @@ public class NRTrackerExoPlayer extends NRVideoTracker implements Player.Listene
         NRLog.d("}");
     }
 
+    @Override
+    public void onMediaItemTransition(@Nullable MediaItem mediaItem, int reason) {
+        NRLog.d("onMediaItemTransition");
+        // New source: derived attributes (videoId, src) must be recomputed
+        invalidateViewAttributes();
+    }
+
     @Override
     public void onPlayerError(@NonNull PlaybackException error) {
         NRLog.d("onPlayerError");
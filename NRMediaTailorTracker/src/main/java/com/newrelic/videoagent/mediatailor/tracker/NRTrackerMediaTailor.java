@@ -207,6 +207,7 @@ public class NRTrackerMediaTailor extends NRVideoTracker implements Player.Liste
     @Override
     public void onMediaItemTransition(MediaItem mediaItem, int reason) {
         if (isDisposed.get()) return;
+        invalidateViewAttributes();
         Uri uri = mediaItem != null && mediaItem.localConfiguration != null
                 ? mediaItem.localConfiguration.uri : null;
         detectSource(uri);
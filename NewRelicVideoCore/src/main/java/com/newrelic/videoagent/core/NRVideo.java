@@ -254,6 +254,9 @@ public final class NRVideo {
             // Always use crash-safe storage - it's now the default behavior
             harvestManager = new HarvestManager(config, applicationContext);
 
+            // App token fetched in the background, the first harvest does not wait for it
+            harvestManager.getFactory().getHttpClient().warmUp();
+
             // Create and register lifecycle observer with crash-safe factory
             if (applicationContext instanceof Application) {
                 Application app = (Application) applicationContext;
@@ -3,6 +3,7 @@ package com.newrelic.videoagent.core;
 import android.app.ActivityManager;
 import android.content.Context;
 import android.content.pm.PackageManager;
+import com.newrelic.videoagent.core.harvest.HarvestTransport;
 import com.newrelic.videoagent.core.utils.NRLog;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -50,6 +51,16 @@ public final class NRVideoConfiguration {
     private final boolean isTV;
     private final String collectorAddress;
     private final int qoeAggregateIntervalMultiplier;
+    private final boolean preSerializedEvents;
+    private final boolean eventJournal;
+    private final long backupMaxBytes;
+    private final int backupMaxRows;
+    private final int compressionLevel;
+    private final long harvestCoalescingWindowMs;
+    private final int maxPayloadBytes;
+    private final int maxCompressedPayloadBytes;
+    private final HarvestTransport harvestTransport;
+    private final Map<String, List<String>> fallbackCollectorAddresses;
     // React analogy: this is like a frozen array in JS — Collections.unmodifiableList()
     // means nobody can accidentally push() to it after the config is built.
     private final List<ObfuscationRule> obfuscationRules;
@@ -65,12 +76,20 @@ public final class NRVideoConfiguration {
     private static final int DEFAULT_REGULAR_BATCH_SIZE_BYTES = 64 * 1024; // 64KB
     private static final int DEFAULT_LIVE_BATCH_SIZE_BYTES = 32 * 1024;    // 32KB
     private static final int DEFAULT_MAX_DEAD_LETTER_SIZE = 100;
+    private static final long DEFAULT_BACKUP_MAX_BYTES = 2 * 1024 * 1024; // 2MB
+    private static final int DEFAULT_BACKUP_MAX_ROWS = 5000;
+    private static final int DEFAULT_COMPRESSION_LEVEL = 6; // zlib default, good ratio for JSON
+    private static final long DEFAULT_HARVEST_COALESCING_WINDOW_MS = 5000; // 5 seconds
+    private static final int DEFAULT_MAX_PAYLOAD_BYTES = 2 * 1024 * 1024; // 2MB
+    private static final int DEFAULT_MAX_COMPRESSED_PAYLOAD_BYTES = 1024 * 1024; // 1MB, collector request limit
 
     // TV-specific optimizations
     private static final int TV_HARVEST_CYCLE_SECONDS = 3 * 60; // 3 minutes
     private static final int TV_LIVE_HARVEST_CYCLE_SECONDS = 10; // 10 seconds
     private static final int TV_REGULAR_BATCH_SIZE_BYTES = 128 * 1024; // 128KB
     private static final int TV_LIVE_BATCH_SIZE_BYTES = 64 * 1024;     // 64KB
+    private static final long TV_BACKUP_MAX_BYTES = 8 * 1024 * 1024; // 8MB, boxes stay offline for days
+    private static final int TV_BACKUP_MAX_ROWS = 20000;
 
     // Memory-optimized settings
     private static final int MEMORY_OPTIMIZED_HARVEST_CYCLE_SECONDS = 60;
@@ -78,6 +97,9 @@ public final class NRVideoConfiguration {
     private static final int MEMORY_OPTIMIZED_REGULAR_BATCH_SIZE_BYTES = 32 * 1024; // 32KB
     private static final int MEMORY_OPTIMIZED_LIVE_BATCH_SIZE_BYTES = 16 * 1024;    // 16KB
     private static final int MEMORY_OPTIMIZED_MAX_DEAD_LETTER_SIZE = 50;
+    private static final long MEMORY_OPTIMIZED_BACKUP_MAX_BYTES = 1024 * 1024; // 1MB
+    private static final int MEMORY_OPTIMIZED_BACKUP_MAX_ROWS = 2500;
+    private static final int MEMORY_OPTIMIZED_COMPRESSION_LEVEL = 1; // Fastest, least CPU on low-end devices
 
     private NRVideoConfiguration(Builder builder) {
         if (builder.applicationToken == null || builder.applicationToken.trim().isEmpty()) {
@@ -96,6 +118,18 @@ public final class NRVideoConfiguration {
         this.isTV = builder.isTV;
         this.collectorAddress = builder.collectorAddress;
         this.qoeAggregateIntervalMultiplier = builder.qoeAggregateIntervalMultiplier;
+        this.preSerializedEvents = builder.preSerializedEvents;
+        this.eventJournal = builder.eventJournal;
+        this.backupMaxBytes = builder.backupMaxBytes;
+        this.backupMaxRows = builder.backupMaxRows;
+        this.compressionLevel = builder.compressionLevel;
+        this.harvestCoalescingWindowMs = builder.harvestCoalescingWindowMs;
+        this.maxPayloadBytes = builder.maxPayloadBytes;
+        this.maxCompressedPayloadBytes = builder.maxCompressedPayloadBytes;
+        this.harvestTransport = builder.harvestTransport;
+        this.fallbackCollectorAddresses = Collections.unmodifiableMap(
+            new HashMap<>(builder.fallbackCollectorAddresses)
+        );
         // Make a defensive copy and wrap it as unmodifiable.
         // React analogy: like Object.freeze([...builder.obfuscationRules]) — same idea.
         this.obfuscationRules = Collections.unmodifiableList(
@@ -120,6 +154,24 @@ public final class NRVideoConfiguration {
     public boolean isTV() { return isTV; }
     public String getCollectorAddress() { return collectorAddress; }
     public int getQoeAggregateIntervalMultiplier() { return qoeAggregateIntervalMultiplier; }
+    public boolean isPreSerializedEventsEnabled() { return preSerializedEvents; }
+    public boolean isEventJournalEnabled() { return eventJournal; }
+    public long getBackupMaxBytes() { return backupMaxBytes; }
+    public int getBackupMaxRows() { return backupMaxRows; }
+    public int getCompressionLevel() { return compressionLevel; }
+    public long getHarvestCoalescingWindowMs() { return harvestCoalescingWindowMs; }
+    public int getMaxPayloadBytes() { return maxPayloadBytes; }
+    public int getMaxCompressedPayloadBytes() { return maxCompressedPayloadBytes; }
+    public HarvestTransport getHarvestTransport() { return harvestTransport; }
+
+    /**
+     * Collector hosts to fail over to, in order, when the region's endpoint is unavailable
+     * @return empty list if none were configured
+     */
+    public List<String> getFallbackCollectorAddresses(String region) {
+        List<String> hosts = region != null ? fallbackCollectorAddresses.get(region.toUpperCase()) : null;
+        return hosts != null ? hosts : Collections.<String>emptyList();
+    }
     public List<ObfuscationRule> getObfuscationRules() { return obfuscationRules; }
 
     // Runtime configuration getters and setters
@@ -250,6 +302,16 @@ public final class NRVideoConfiguration {
         private String collectorAddress = null;
         private boolean qoeAggregateEnabled = true; // Default enabled
         private int qoeAggregateIntervalMultiplier = 2; // Default 2 (send every other harvest cycle)
+        private boolean preSerializedEvents = false; // Default disabled
+        private boolean eventJournal = false; // Default disabled
+        private long backupMaxBytes = DEFAULT_BACKUP_MAX_BYTES;
+        private int backupMaxRows = DEFAULT_BACKUP_MAX_ROWS;
+        private int compressionLevel = DEFAULT_COMPRESSION_LEVEL;
+        private long harvestCoalescingWindowMs = DEFAULT_HARVEST_COALESCING_WINDOW_MS;
+        private int maxPayloadBytes = DEFAULT_MAX_PAYLOAD_BYTES;
+        private int maxCompressedPayloadBytes = DEFAULT_MAX_COMPRESSED_PAYLOAD_BYTES;
+        private HarvestTransport harvestTransport = null; // Default HttpURLConnection
+        private Map<String, List<String>> fallbackCollectorAddresses = new HashMap<>();
         // React analogy: this starts as an empty array [] — no rules by default.
         private List<ObfuscationRule> obfuscationRules = new ArrayList<>();
 
@@ -376,6 +438,154 @@ public final class NRVideoConfiguration {
             return this;
         }
 
+        /**
+         * Serialize events to UTF-8 JSON once when they are buffered (default: disabled)
+         * Harvest then copies the bytes and batches by exact size, at the cost of keeping
+         * both the event and its encoding in memory until it is sent
+         * @return Builder instance for method chaining
+         */
+        public Builder enablePreSerializedEvents() {
+            this.preSerializedEvents = true;
+            return this;
+        }
+
+        /**
+         * Configure serialization of events when they are buffered
+         * @param enabled true to serialize events at enqueue time, false to serialize at harvest
+         * @return Builder instance for method chaining
+         */
+        public Builder enablePreSerializedEvents(boolean enabled) {
+            this.preSerializedEvents = enabled;
+            return this;
+        }
+
+        /**
+         * Enable the memory-mapped event journal
+         * Buffered events are also appended to a journal file, so they survive crashes that
+         * skip the emergency backup (native crashes, OOM and low memory killer terminations)
+         * @return Builder instance for method chaining
+         */
+        public Builder enableEventJournal() {
+            this.eventJournal = true;
+            return this;
+        }
+
+        /**
+         * Configure the memory-mapped event journal
+         * @param enabled true to journal buffered events for crash recovery
+         * @return Builder instance for method chaining
+         */
+        public Builder enableEventJournal(boolean enabled) {
+            this.eventJournal = enabled;
+            return this;
+        }
+
+        /**
+         * Bound the offline backup database
+         * Once either limit is reached the lowest value events (heartbeats, dropped frame reports)
+         * are evicted first, errors, QoE aggregates and START/END events last
+         * @param maxBytes stored event bytes, 64KB-64MB
+         * @param maxRows stored events, 100-100000
+         * @return Builder instance for method chaining
+         */
+        public Builder withBackupStorageQuota(long maxBytes, int maxRows) {
+            if (maxBytes < 64 * 1024 || maxBytes > 64L * 1024 * 1024) {
+                throw new IllegalArgumentException("Backup storage bytes must be between 64KB-64MB");
+            }
+            if (maxRows < 100 || maxRows > 100000) {
+                throw new IllegalArgumentException("Backup storage rows must be between 100-100000");
+            }
+            this.backupMaxBytes = maxBytes;
+            this.backupMaxRows = maxRows;
+            return this;
+        }
+
+        /**
+         * Set the gzip level of harvest payloads
+         * Lower levels trade a few percent of payload size for much less CPU (low-power devices)
+         * @param level 1 (fastest) - 9 (smallest)
+         * @return Builder instance for method chaining
+         */
+        public Builder withCompressionLevel(int level) {
+            if (level < 1 || level > 9) {
+                throw new IllegalArgumentException("Compression level must be between 1-9");
+            }
+            this.compressionLevel = level;
+            return this;
+        }
+
+        /**
+         * Merge live and on-demand harvests that are due close together into one request
+         * When one timer fires and the other is due within the window, both queues go out in a
+         * single payload (live events first, up to the larger batch size) and the other timer
+         * restarts from now
+         * @param windowMs 0 to disable - 0-60000ms
+         * @return Builder instance for method chaining
+         */
+        public Builder withHarvestCoalescingWindow(long windowMs) {
+            if (windowMs < 0 || windowMs > 60000) {
+                throw new IllegalArgumentException("Harvest coalescing window must be between 0-60000ms");
+            }
+            this.harvestCoalescingWindowMs = windowMs;
+            return this;
+        }
+
+        /**
+         * Hard limits on the size of a single harvest request
+         * Larger batches are split in halves before sending, as are batches the collector rejects
+         * with 413; an event that exceeds the limits on its own is quarantined (dropped and counted)
+         * @param maxBytes payload before compression, 16KB-8MB
+         * @param maxCompressedBytes gzip'd payload, 8KB-1MB and at most maxBytes
+         * @return Builder instance for method chaining
+         */
+        public Builder withMaxPayloadSize(int maxBytes, int maxCompressedBytes) {
+            if (maxBytes < 16 * 1024 || maxBytes > 8 * 1024 * 1024) {
+                throw new IllegalArgumentException("Max payload size must be between 16KB-8MB");
+            }
+            if (maxCompressedBytes < 8 * 1024 || maxCompressedBytes > 1024 * 1024 || maxCompressedBytes > maxBytes) {
+                throw new IllegalArgumentException("Max compressed payload size must be between 8KB-1MB and not above the max payload size");
+            }
+            this.maxPayloadBytes = maxBytes;
+            this.maxCompressedPayloadBytes = maxCompressedBytes;
+            return this;
+        }
+
+        /**
+         * Send harvests through the app's own HTTP client
+         * Apps that already ship OkHttp or Cronet can share their HTTP/2 connections with the
+         * agent instead of opening extra TLS connections. The transport owns its timeouts
+         * @param transport thread-safe transport, null for the default HttpURLConnection one
+         * @return Builder instance for method chaining
+         */
+        public Builder withHarvestTransport(HarvestTransport transport) {
+            this.harvestTransport = transport;
+            return this;
+        }
+
+        /**
+         * Collector hosts to fail over to when the region's endpoint keeps failing
+         * Each endpoint has its own circuit breaker; the primary endpoint is preferred again
+         * as soon as its circuit closes
+         * @param region region code ("US", "EU", "AP", "GOV", "JP")
+         * @param hosts host names in failover order, e.g. "collector-backup.example.com"
+         * @return Builder instance for method chaining
+         */
+        public Builder withFallbackCollectorAddresses(String region, List<String> hosts) {
+            if (region == null || region.trim().isEmpty()) {
+                throw new IllegalArgumentException("Region cannot be null or empty");
+            }
+            List<String> validHosts = new ArrayList<>();
+            if (hosts != null) {
+                for (String host : hosts) {
+                    if (host != null && !host.trim().isEmpty()) {
+                        validHosts.add(host.trim());
+                    }
+                }
+            }
+            this.fallbackCollectorAddresses.put(region.trim().toUpperCase(), Collections.unmodifiableList(validHosts));
+            return this;
+        }
+
         /**
          * Set regex-based rules to mask sensitive data before events are transmitted.
          * Rules are applied in order — each rule's output becomes the next rule's input.
@@ -397,6 +607,8 @@ public final class NRVideoConfiguration {
             this.liveHarvestCycleSeconds = TV_LIVE_HARVEST_CYCLE_SECONDS;
             this.regularBatchSizeBytes = TV_REGULAR_BATCH_SIZE_BYTES;
             this.liveBatchSizeBytes = TV_LIVE_BATCH_SIZE_BYTES;
+            this.backupMaxBytes = TV_BACKUP_MAX_BYTES;
+            this.backupMaxRows = TV_BACKUP_MAX_ROWS;
         }
 
         private void applyMemoryOptimizations() {
@@ -405,6 +617,9 @@ public final class NRVideoConfiguration {
             this.regularBatchSizeBytes = MEMORY_OPTIMIZED_REGULAR_BATCH_SIZE_BYTES;
             this.liveBatchSizeBytes = MEMORY_OPTIMIZED_LIVE_BATCH_SIZE_BYTES;
             this.maxDeadLetterSize = MEMORY_OPTIMIZED_MAX_DEAD_LETTER_SIZE;
+            this.backupMaxBytes = MEMORY_OPTIMIZED_BACKUP_MAX_BYTES;
+            this.backupMaxRows = MEMORY_OPTIMIZED_BACKUP_MAX_ROWS;
+            this.compressionLevel = MEMORY_OPTIMIZED_COMPRESSION_LEVEL;
         }
 
         public NRVideoConfiguration build() {
@@ -484,8 +699,14 @@ public final class NRVideoConfiguration {
                 ", regularBatchSize=" + (regularBatchSizeBytes / 1024) + "KB" +
                 ", liveBatchSize=" + (liveBatchSizeBytes / 1024) + "KB" +
                 ", maxDeadLetterSize=" + maxDeadLetterSize +
+                ", backupQuota=" + (backupMaxBytes / 1024) + "KB/" + backupMaxRows + " events" +
+                ", compressionLevel=" + compressionLevel +
+                ", harvestCoalescingWindow=" + harvestCoalescingWindowMs + "ms" +
+                ", maxPayload=" + (maxPayloadBytes / 1024) + "KB/" + (maxCompressedPayloadBytes / 1024) + "KB gzip" +
+                ", harvestTransport=" + (harvestTransport != null ? harvestTransport.getClass().getSimpleName() : "default") +
                 ", memoryOptimized=" + memoryOptimized +
                 ", isTV=" + isTV +
+                ", preSerializedEvents=" + preSerializedEvents +
                 ", debugLogging=" + debugLoggingEnabled +
                 '}';
     }
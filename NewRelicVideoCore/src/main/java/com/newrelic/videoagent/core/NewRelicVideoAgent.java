@@ -1,5 +1,6 @@
 package com.newrelic.videoagent.core;
 
+import com.newrelic.videoagent.core.model.NREventAttributes;
 import com.newrelic.videoagent.core.model.NRTrackerPair;
 import com.newrelic.videoagent.core.tracker.NRTracker;
 import com.newrelic.videoagent.core.tracker.NRVideoTracker;
@@ -20,6 +21,8 @@ public class NewRelicVideoAgent {
     private Integer trackerIdIndex;
     private String uuid;
     private final AtomicBoolean isTV = new AtomicBoolean(false);
+    // Global attribute scope shared by every tracker, the latest write of a key wins
+    private final NREventAttributes globalAttributes = new NREventAttributes();
 
     /**
      * Get shared instance.
@@ -49,6 +52,15 @@ public class NewRelicVideoAgent {
         return uuid;
     }
 
+    /**
+     * Get the global attribute scope shared by all trackers.
+     *
+     * @return Global attributes.
+     */
+    public NREventAttributes getGlobalAttributes() {
+        return globalAttributes;
+    }
+
     public void setTv() {
         isTV.set(true);
     }
@@ -198,21 +210,15 @@ public class NewRelicVideoAgent {
 
     /**
      * Sets a global attribute.
+     * Applies to every tracker, including ones started later, and overrides a value the tracker
+     * set earlier for the same key.
      *
      * @param key The attribute key.
      * @param value The attribute value.
      * @param action The action name to associate with the attribute.
      */
     public void setGlobalAttribute(String key, Object value, String action) {
-        for (Integer trackerId : trackerPairs.keySet()) {
-            NRTrackerPair pair = trackerPairs.get(trackerId);
-            if (pair.getFirst() != null) {
-                pair.getFirst().setAttribute(key, value, action);
-            }
-            if (pair.getSecond() != null) {
-                pair.getSecond().setAttribute(key, value, action);
-            }
-        }
+        globalAttributes.setAttribute(key, value, action);
     }
 
     /**
@@ -245,20 +251,14 @@ public class NewRelicVideoAgent {
 
     /**
      * Sets a global attribute.
+     * Applies to every tracker, including ones started later, and overrides a value the tracker
+     * set earlier for the same key.
      *
      * @param key The attribute key.
      * @param value The attribute value.
      */
     public void setGlobalAttribute(String key, Object value) {
-        for (Integer trackerId : trackerPairs.keySet()) {
-            NRTrackerPair pair = trackerPairs.get(trackerId);
-            if (pair.getFirst() != null) {
-                pair.getFirst().setAttribute(key, value);
-            }
-            if (pair.getSecond() != null) {
-                pair.getSecond().setAttribute(key, value);
-            }
-        }
+        globalAttributes.setAttribute(key, value, null);
     }
 
 
@@ -1,5 +1,6 @@
 package com.newrelic.videoagent.core;
 
+import com.newrelic.videoagent.core.model.VideoEvent;
 import com.newrelic.videoagent.core.utils.NRLog;
 
 import java.util.ArrayList;
@@ -21,11 +22,13 @@ public class ObfuscationEngine {
 
     /**
      * Returns a new list of events with all obfuscation rules applied to every
-     * string-valued attribute. The original list and maps are never modified.
+     * string-valued attribute. The original list and maps are never modified;
+     * an event is copied only when a rule actually changes one of its values.
      *
      * @param events The raw event batch (may include QOE, regular, dead-letter events).
      * @param rules  The rules from NRVideoConfiguration. Empty list is a no-op.
-     * @return A new list with obfuscated copies, or the original list if rules is empty.
+     * @return A new list with obfuscated copies (unchanged events are shared),
+     *         or the original list if rules is empty.
      */
     public static List<Map<String, Object>> apply(
             List<Map<String, Object>> events,
@@ -41,12 +44,13 @@ public class ObfuscationEngine {
         List<Map<String, Object>> result = new ArrayList<>(events.size());
 
         for (Map<String, Object> event : events) {
-            // Shallow copy — safe because String is immutable (same in Java and JS).
-            Map<String, Object> copy = new HashMap<>(event);
+            // Copy-on-write: shallow copy only once a value changes — safe because String is immutable.
+            Map<String, Object> copy = null;
 
-            for (Map.Entry<String, Object> entry : copy.entrySet()) {
+            for (Map.Entry<String, Object> entry : event.entrySet()) {
                 if (entry.getValue() instanceof String) {
-                    String value = (String) entry.getValue();
+                    String original = (String) entry.getValue();
+                    String value = original;
 
                     for (ObfuscationRule rule : rules) {
                         try {
@@ -60,11 +64,16 @@ public class ObfuscationEngine {
                         }
                     }
 
-                    entry.setValue(value);
+                    if (!value.equals(original)) {
+                        if (copy == null) {
+                            copy = event instanceof VideoEvent ? new VideoEvent(event) : new HashMap<>(event);
+                        }
+                        copy.put(entry.getKey(), value);
+                    }
                 }
             }
 
-            result.add(copy);
+            result.add(copy != null ? copy : event);
         }
 
         return result;
@@ -5,6 +5,7 @@ import android.content.SharedPreferences;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
+import android.util.JsonReader;
 import com.newrelic.videoagent.core.NRVideoConfiguration;
 import com.newrelic.videoagent.core.device.DeviceInformation;
 import com.newrelic.videoagent.core.util.JsonStreamUtil;
@@ -13,6 +14,7 @@ import com.newrelic.videoagent.core.utils.NRLog;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -20,6 +22,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -29,7 +39,9 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * Features:
  * - Thread-safe token generation and caching
  * - Persistent storage with SharedPreferences
- * - Automatic token refresh and validation
+ * - Automatic token refresh and validation: prefetched at startup, refreshed ahead of expiry
+ *   on a background thread, one shared refresh in flight at a time
+ * - Connect response parsed with a streaming JSON tokenizer
  * - Performance optimizations for mobile/TV environments
  * - Comprehensive error handling and fallback strategies
  */
@@ -42,15 +54,24 @@ public final class TokenManager {
     private static final long TOKEN_VALIDITY_MS = 14L * 24 * 60 * 60 * 1000; // 14 days for security
     private static final int CONNECT_TIMEOUT_MS = 15000; // 15 seconds for TV networks
     private static final int READ_TIMEOUT_MS = 30000;    // 30 seconds for TV networks
-    private static final int BUFFER_SIZE = 8192;
+    private static final long REFRESH_AHEAD_MS = 24L * 60 * 60 * 1000; // Refresh during the last day
+    private static final long REFRESH_RETRY_MS = 15L * 60 * 1000;      // Between failed ahead-of-expiry refreshes
+    private static final long REFRESH_WAIT_MS = CONNECT_TIMEOUT_MS + READ_TIMEOUT_MS + 5000;
+    private static final String REFRESH_THREAD_NAME = "NRVideo-TokenRefresh";
 
     // Thread-safe fields
     private final Context context;
     private final NRVideoConfiguration configuration;
     private final AtomicReference<List<Long>> cachedToken = new AtomicReference<>();
     private final AtomicLong lastTokenTime = new AtomicLong(0);
+    // Bumped whenever the token changes, lets callers cache what they derive from it
+    private final AtomicLong tokenGeneration = new AtomicLong(0);
     private final ReentrantReadWriteLock tokenLock = new ReentrantReadWriteLock();
-    private final Object tokenGenerationLock = new Object();
+    private final AtomicLong lastRefreshFailureTime = new AtomicLong(0);
+
+    // Single-flight refresh: every sender without a valid token waits on the same connect request
+    private final Object refreshLock = new Object();
+    private FutureTask<List<Long>> inFlightRefresh; // Guarded by refreshLock
 
     // Immutable fields for performance
     private final String tokenEndpoint;
@@ -78,68 +99,173 @@ public final class TokenManager {
     /**
      * Get valid app token with optimized thread-safe access
      * Uses read-write locks for better concurrent performance
+     * Without a valid token the caller waits for the shared refresh (one connect request no
+     * matter how many senders ask); during the token's last day a refresh is started ahead of
+     * expiry and the current token is returned right away
      */
     public List<Long> getAppToken() throws IOException {
         // Fast path: read lock for checking cached token
+        List<Long> validToken = null;
         tokenLock.readLock().lock();
         try {
             List<Long> token = cachedToken.get();
             if (token != null && isTokenValid()) {
-                return new ArrayList<>(token); // Return defensive copy
+                validToken = new ArrayList<>(token); // Return defensive copy
             }
         } finally {
             tokenLock.readLock().unlock();
         }
-
-        // Slow path: generate new token with proper synchronization
-        synchronized (tokenGenerationLock) {
-            // Double-check pattern
-            tokenLock.readLock().lock();
-            try {
-                List<Long> token = cachedToken.get();
-                if (token != null && isTokenValid()) {
-                    return new ArrayList<>(token);
-                }
-            } finally {
-                tokenLock.readLock().unlock();
-            }
-
-            // Generate new token
-            List<Long> newToken = generateAppToken();
-            if (newToken != null && !newToken.isEmpty()) {
-                tokenLock.writeLock().lock();
-                try {
-                    cacheToken(newToken);
-                    cachedToken.set(newToken);
-                    lastTokenTime.set(System.currentTimeMillis());
-                    return new ArrayList<>(newToken);
-                } finally {
-                    tokenLock.writeLock().unlock();
-                }
-            } else {
-                throw new IOException("Failed to generate valid app token");
+        if (validToken != null) {
+            if (isRefreshDue()) {
+                refreshInBackground();
             }
+            return validToken;
         }
+
+        // Slow path: wait for the refresh in flight, or start it
+        return awaitRefresh(sharedRefresh());
     }
 
     /**
      * Refresh token - force generation of new token
      */
     public void refreshToken() throws IOException {
-        synchronized (tokenGenerationLock) {
-            tokenLock.writeLock().lock();
+        clearToken();
+        awaitRefresh(sharedRefresh());
+    }
+
+    /**
+     * Drop a token the collector rejected (401/403) and fetch a new one in the background
+     * Does nothing if the token of that generation was already replaced
+     * @param generation getTokenGeneration() of the rejected token
+     */
+    public void invalidateToken(long generation) {
+        if (tokenGeneration.get() != generation) {
+            return; // Another sender already got the token replaced
+        }
+        clearToken();
+        sharedRefresh();
+    }
+
+    /**
+     * Fetch the token in the background if none is cached or it is about to expire
+     * Called once at startup so the first harvest does not wait for the connect request
+     */
+    public void prefetchToken() {
+        if (!hasValidToken() || isRefreshDue()) {
+            sharedRefresh();
+        }
+    }
+
+    /**
+     * Changes every time the token is replaced or cleared
+     */
+    public long getTokenGeneration() {
+        return tokenGeneration.get();
+    }
+
+    /**
+     * True if a token is cached and not expired - getAppToken() would not hit the network
+     */
+    public boolean hasValidToken() {
+        return cachedToken.get() != null && isTokenValid();
+    }
+
+    private void clearToken() {
+        tokenLock.writeLock().lock();
+        try {
+            // Clear cached token to force regeneration
+            cachedToken.set(null);
+            lastTokenTime.set(0);
+            tokenGeneration.incrementAndGet();
+            clearCachedToken();
+            NRLog.d("Token cache cleared, forcing refresh");
+        } finally {
+            tokenLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Token in its last day of validity
+     */
+    private boolean isRefreshDue() {
+        long tokenAge = System.currentTimeMillis() - lastTokenTime.get();
+        return tokenAge >= TOKEN_VALIDITY_MS - REFRESH_AHEAD_MS;
+    }
+
+    /**
+     * Ahead-of-expiry refresh, at most one attempt per REFRESH_RETRY_MS while it keeps failing
+     */
+    private void refreshInBackground() {
+        long now = System.currentTimeMillis();
+        long lastFailure = lastRefreshFailureTime.get();
+        if (lastFailure > 0 && now - lastFailure < REFRESH_RETRY_MS) {
+            return;
+        }
+        sharedRefresh();
+    }
+
+    /**
+     * The refresh in flight, or a new one started on the refresh thread
+     */
+    private Future<List<Long>> sharedRefresh() {
+        synchronized (refreshLock) {
+            if (inFlightRefresh != null) {
+                return inFlightRefresh;
+            }
+            FutureTask<List<Long>> refresh = new FutureTask<>(() -> {
+                try {
+                    return generateAndCacheToken();
+                } finally {
+                    synchronized (refreshLock) {
+                        inFlightRefresh = null;
+                    }
+                }
+            });
+            inFlightRefresh = refresh;
             try {
-                // Clear cached token to force regeneration
-                cachedToken.set(null);
-                lastTokenTime.set(0);
-                clearCachedToken();
-                NRLog.d("Token cache cleared, forcing refresh");
-            } finally {
-                tokenLock.writeLock().unlock();
+                RefreshExecutor.INSTANCE.execute(refresh);
+            } catch (RejectedExecutionException e) {
+                refresh.run(); // Refresh thread unavailable - run it on the caller
+            }
+            return refresh;
+        }
+    }
+
+    private static List<Long> awaitRefresh(Future<List<Long>> refresh) throws IOException {
+        try {
+            return new ArrayList<>(refresh.get(REFRESH_WAIT_MS, TimeUnit.MILLISECONDS));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
             }
+            throw new IOException("Token refresh failed: " + cause, cause);
+        } catch (TimeoutException e) {
+            throw new IOException("Token refresh did not finish within " + REFRESH_WAIT_MS + "ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for token refresh");
+        }
+    }
+
+    private List<Long> generateAndCacheToken() throws IOException {
+        List<Long> newToken = generateAppToken();
+        if (newToken == null || newToken.isEmpty()) {
+            lastRefreshFailureTime.set(System.currentTimeMillis());
+            throw new IOException("Failed to generate valid app token");
+        }
 
-            // Generate new token
-            getAppToken();
+        tokenLock.writeLock().lock();
+        try {
+            cacheToken(newToken);
+            cachedToken.set(newToken);
+            lastTokenTime.set(System.currentTimeMillis());
+            lastRefreshFailureTime.set(0);
+            tokenGeneration.incrementAndGet();
+            return newToken;
+        } finally {
+            tokenLock.writeLock().unlock();
         }
     }
 
@@ -284,88 +410,42 @@ public final class TokenManager {
 
     /**
      * Parse token response from New Relic API
+     * Expected format: {"data_token":[123456,789854],...} - other fields are skipped unread
+     * @return null if the response has no usable data_token
      */
-    private List<Long> parseTokenResponse(InputStream inputStream) {
-        // Simple JSON parsing for token response
-        // Expected format: {"data_token":[123456,789854],...}
+    static List<Long> parseTokenResponse(InputStream inputStream) {
+        JsonReader reader = null;
         try {
-            // Read response and extract token array
-            // This is a simplified implementation - in production, use proper JSON parsing
-            byte[] buffer = new byte[BUFFER_SIZE];
-            StringBuilder response = new StringBuilder();
-            int bytesRead;
-
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                response.append(new String(buffer, 0, bytesRead, "UTF-8"));
-            }
-
-            String responseStr = response.toString().trim();
-            // Expected format: {"data_token":[123456,789854],...}
-            String dataTokenKey = "\"data_token\"";
-            int dataTokenIndex = responseStr.indexOf(dataTokenKey);
-
-            if (dataTokenIndex == -1) {
-                NRLog.w("data_token field not found in response");
-                return null;
-            }
-
-            // Find the start of the array after "data_token":
-            int colonIndex = responseStr.indexOf(':', dataTokenIndex);
-            if (colonIndex == -1) {
-                return null;
-            }
-
-            int arrayStartIndex = responseStr.indexOf('[', colonIndex);
-            if (arrayStartIndex == -1) {
-                return null;
-            }
-
-            // Find the matching closing bracket, not just the first ']'
-            int arrayEndIndex = findMatchingCloseBracket(responseStr, arrayStartIndex);
-            if (arrayEndIndex == -1) {
-                return null;
-            }
-
-            // Extract the content between brackets: 123456,789854
-            String arrayContent = response.substring(arrayStartIndex + 1, arrayEndIndex).trim();
-
-            List<Long> tokens = new ArrayList<>();
-            for (String part: arrayContent.split(",")) {
-                try {
-                    tokens.add(Long.parseLong(part));
-                } catch (NumberFormatException e) {
-                    return null;
+            reader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"));
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"data_token".equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
                 }
+                List<Long> tokens = new ArrayList<>(2);
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    tokens.add(reader.nextLong());
+                }
+                reader.endArray();
+                return tokens.isEmpty() ? null : tokens;
             }
-            return tokens;
+            NRLog.w("data_token field not found in response");
+            return null;
 
-        } catch (Exception e) {
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
             NRLog.w("Error parsing data_token array in response " + e.getMessage());
             return null;
-        }
-    }
-
-    /**
-     * Find the index of the matching closing bracket for a given opening bracket index
-     * Handles nested brackets and different data formats more robustly
-     */
-    private int findMatchingCloseBracket(String response, int openIndex) {
-        int bracketCount = 0;
-
-        for (int i = openIndex; i < response.length(); i++) {
-            char c = response.charAt(i);
-
-            if (c == '[') {
-                bracketCount++;
-            } else if (c == ']') {
-                bracketCount--;
-                if (bracketCount == 0) {
-                    return i; // Matching closing bracket found
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                    // Response stream is closed by the caller as well
                 }
             }
         }
-
-        return -1; // No matching closing bracket found
     }
 
     /**
@@ -447,4 +527,14 @@ public final class TokenManager {
         }
     }
 
+    /**
+     * Background thread for token refreshes, shared by all instances and created on first use
+     */
+    private static final class RefreshExecutor {
+        static final ExecutorService INSTANCE = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, REFRESH_THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
 }
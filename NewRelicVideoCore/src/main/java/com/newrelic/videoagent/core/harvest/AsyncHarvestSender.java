@@ -0,0 +1,160 @@
+package com.newrelic.videoagent.core.harvest;
+
+import com.newrelic.videoagent.core.utils.NRLog;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends harvest batches off the harvest thread
+ * The harvest timer only assembles a batch and hands it over; the HTTP request (with its
+ * timeouts and immediate retries) runs on a sender thread and reports the outcome through a
+ * completion callback, which acks or nacks the lease
+ *
+ * Each lane (live, ondemand) has at most one request in flight, so a stalled on-demand POST
+ * never holds back live harvests. The in-flight window is one request per lane (MAX_IN_FLIGHT)
+ * A lane that is still busy is skipped: its events stay buffered for the next harvest
+ */
+public class AsyncHarvestSender {
+
+    public static final int MAX_IN_FLIGHT = 2; // One per lane
+
+    private static final String THREAD_NAME = "NRVideo-Sender-";
+
+    /**
+     * Outcome of a send, called on the sender thread
+     */
+    public interface Completion {
+        void onComplete(boolean success);
+    }
+
+    /**
+     * Outcome of a send the client may have split, called on the sender thread
+     * deliveredCount leading events were delivered, events.size() on success
+     */
+    public interface DeliveryCompletion {
+        void onComplete(int deliveredCount);
+    }
+
+    private final HttpClientInterface httpClient;
+    private final ExecutorService executor;
+    private final Map<String, AtomicBoolean> busyLanes = new ConcurrentHashMap<>();
+
+    public AsyncHarvestSender(HttpClientInterface httpClient) {
+        this.httpClient = httpClient;
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        this.executor = Executors.newFixedThreadPool(MAX_IN_FLIGHT, runnable -> {
+            Thread thread = new Thread(runnable, THREAD_NAME + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Claim the lane for one send
+     * @return false if a send of this lane is still in flight
+     */
+    public boolean tryReserve(String lane) {
+        return lane(lane).compareAndSet(false, true);
+    }
+
+    /**
+     * Give back a reserved lane that had nothing to send
+     */
+    public void release(String lane) {
+        lane(lane).set(false);
+    }
+
+    public boolean isInFlight(String lane) {
+        return lane(lane).get();
+    }
+
+    /**
+     * Send a batch on a reserved lane and return immediately
+     * The lane is released once the completion callback returned
+     */
+    public void send(final String lane, final List<Map<String, Object>> events, final Completion completion) {
+        sendReportingDelivered(lane, events, deliveredCount -> completion.onComplete(deliveredCount >= events.size()));
+    }
+
+    /**
+     * Same as send, reporting how many leading events were delivered so a caller can retry
+     * only the rest of a batch that failed part way
+     */
+    public void sendReportingDelivered(final String lane, final List<Map<String, Object>> events,
+                                       final DeliveryCompletion completion) {
+        sendReportingDelivered(lane, events, -1, completion);
+    }
+
+    /**
+     * Same as sendReportingDelivered with the serialized size of the events already known
+     * @param eventBytes sum of the events' JSON encodings, -1 if unknown
+     */
+    public void sendReportingDelivered(final String lane, final List<Map<String, Object>> events,
+                                       final long eventBytes, final DeliveryCompletion completion) {
+        try {
+            executor.execute(() -> {
+                int deliveredCount = 0;
+                try {
+                    deliveredCount = httpClient.sendEventsReportingDelivered(events, lane, eventBytes);
+                } catch (Exception e) {
+                    NRLog.e(lane + " harvest send failed: " + e.getMessage(), e);
+                }
+                complete(lane, completion, deliveredCount);
+            });
+        } catch (RejectedExecutionException e) {
+            NRLog.w(lane + " harvest not sent - sender is shut down");
+            complete(lane, completion, 0);
+        }
+    }
+
+    /**
+     * Stop accepting batches - sends already handed over still complete
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Wait for the sends handed over before shutdown(), completion callbacks included
+     * @return true if all of them completed within the deadline
+     */
+    public boolean awaitTermination(long timeoutMs) {
+        try {
+            return executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    private void complete(String lane, DeliveryCompletion completion, int deliveredCount) {
+        try {
+            completion.onComplete(deliveredCount);
+        } catch (Exception e) {
+            NRLog.e(lane + " harvest completion failed: " + e.getMessage(), e);
+        } finally {
+            release(lane);
+        }
+    }
+
+    private AtomicBoolean lane(String lane) {
+        AtomicBoolean busy = busyLanes.get(lane);
+        if (busy == null) {
+            busyLanes.putIfAbsent(lane, new AtomicBoolean(false));
+            busy = busyLanes.get(lane);
+        }
+        return busy;
+    }
+}
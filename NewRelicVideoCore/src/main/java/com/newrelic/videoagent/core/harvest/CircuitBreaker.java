@@ -0,0 +1,135 @@
+package com.newrelic.videoagent.core.harvest;
+
+import com.newrelic.videoagent.core.utils.NRLog;
+
+/**
+ * Circuit breaker of one collector endpoint
+ *
+ * CLOSED: requests go out, outcomes are kept in a window of the last WINDOW_SIZE requests.
+ * Once at least MIN_REQUESTS are in it and half or more failed, the circuit opens
+ * OPEN: no request goes out until the open period is over (30s, doubled after every failed
+ * probe up to 5 minutes), harvests keep their events buffered
+ * HALF_OPEN: a single probe request is let through; success closes the circuit, failure opens it again
+ *
+ * Failures are endpoint failures only (no response, 5xx) - 4xx and 429 prove the collector is up
+ * Times are passed in (monotonic milliseconds) so callers share one clock. Thread-safe
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    static final int WINDOW_SIZE = 10;
+    static final int MIN_REQUESTS = 3;
+    static final double FAILURE_RATE_THRESHOLD = 0.5;
+    static final long BASE_OPEN_MS = 30000;      // 30 seconds
+    static final long MAX_OPEN_MS = 5 * 60000;   // 5 minutes
+
+    private final String name;
+
+    // Outcomes of the last requests while closed, true = failure
+    private final boolean[] window = new boolean[WINDOW_SIZE];
+    private int windowCount;
+    private int windowNext;
+    private int windowFailures;
+
+    private State state = State.CLOSED;
+    private long openUntilMs;
+    private long openDurationMs = BASE_OPEN_MS;
+    private boolean probeInFlight;
+
+    public CircuitBreaker(String name) {
+        this.name = name;
+    }
+
+    /**
+     * May a request go out now - in HALF_OPEN the caller that gets true is the probe
+     */
+    public synchronized boolean allowRequest(long nowMs) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (nowMs < openUntilMs) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probeInFlight = true;
+                NRLog.d("Circuit half-open, probing " + name);
+                return true;
+            default:
+                if (probeInFlight) {
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            NRLog.d("Circuit closed for " + name);
+            state = State.CLOSED;
+            probeInFlight = false;
+            openDurationMs = BASE_OPEN_MS;
+            clearWindow();
+            return;
+        }
+        addOutcome(false);
+    }
+
+    public synchronized void recordFailure(long nowMs) {
+        if (state == State.HALF_OPEN) {
+            openDurationMs = Math.min(openDurationMs * 2, MAX_OPEN_MS);
+            open(nowMs);
+            return;
+        }
+        if (state == State.OPEN) {
+            return; // Request started before the circuit opened
+        }
+        addOutcome(true);
+        if (windowCount >= MIN_REQUESTS && windowFailures >= windowCount * FAILURE_RATE_THRESHOLD) {
+            open(nowMs);
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Time until a probe may go out
+     * @return 0 unless the circuit is open
+     */
+    public synchronized long getOpenRemainingMs(long nowMs) {
+        return state == State.OPEN ? Math.max(0, openUntilMs - nowMs) : 0;
+    }
+
+    private void open(long nowMs) {
+        state = State.OPEN;
+        probeInFlight = false;
+        openUntilMs = nowMs + openDurationMs;
+        clearWindow();
+        NRLog.w("Circuit open for " + name + " - no requests for " + openDurationMs + "ms");
+    }
+
+    private void addOutcome(boolean failure) {
+        if (windowCount == WINDOW_SIZE) {
+            if (window[windowNext]) {
+                windowFailures--;
+            }
+        } else {
+            windowCount++;
+        }
+        window[windowNext] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        windowNext = (windowNext + 1) % WINDOW_SIZE;
+    }
+
+    private void clearWindow() {
+        windowCount = 0;
+        windowNext = 0;
+        windowFailures = 0;
+    }
+}
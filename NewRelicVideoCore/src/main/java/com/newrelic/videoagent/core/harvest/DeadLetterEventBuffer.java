@@ -1,65 +1,137 @@
 package com.newrelic.videoagent.core.harvest;
 
+import com.newrelic.videoagent.core.NRVideoConstants;
+
 import java.util.List;
 import java.util.Map;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Specialized event buffer for dead letter queue - retry events only
  * Does NOT trigger schedulers or callbacks - just stores and retrieves events
  * Simpler, focused implementation without scheduler integration
+ * Retry counts are kept next to each queued event, the events themselves are never copied
  */
 public class DeadLetterEventBuffer implements EventBufferInterface {
 
-    private final ConcurrentLinkedQueue<Map<String, Object>> retryEvents = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<RetryEvent> retryEvents = new ConcurrentLinkedQueue<>();
     private final int maxCapacity;
-    private final boolean isAndroidTVDevice;
 
     public DeadLetterEventBuffer(boolean isTV) {
-        this.isAndroidTVDevice = isTV;
         // Smaller capacity for dead letter queue - it's just for retries
         this.maxCapacity = isTV ? 200 : 100;
     }
 
     @Override
     public void addEvent(Map<String, Object> event) {
-        if (event == null) return;
+        addEvent(event, 0);
+    }
+
+    /**
+     * Queue an event together with the number of failed attempts so far
+     */
+    public void addEvent(Map<String, Object> event, int retryCount) {
+        addEvent(event, retryCount, NRVideoConstants.EVENT_TYPE_ONDEMAND);
+    }
+
+    /**
+     * Queue an event with its failed attempts and the harvest lane it failed on
+     * @return events dropped to make room, oldest first
+     */
+    public List<Map<String, Object>> addEvent(Map<String, Object> event, int retryCount, String bufferType) {
+        if (event == null) return Collections.emptyList();
 
         // Simple add with capacity management - no callbacks, no scheduler triggers
-        retryEvents.offer(event);
+        retryEvents.offer(new RetryEvent(event, retryCount, bufferType));
 
         // Simple overflow protection - remove oldest if over capacity
+        List<Map<String, Object>> dropped = Collections.emptyList();
         while (retryEvents.size() > maxCapacity) {
-            retryEvents.poll();
+            RetryEvent oldest = retryEvents.poll();
+            if (oldest == null) break;
+            if (dropped.isEmpty()) {
+                dropped = new ArrayList<>();
+            }
+            dropped.add(oldest.event);
         }
+        return dropped;
     }
 
     @Override
     public List<Map<String, Object>> pollBatchByPriority(int maxSizeBytes, SizeEstimator sizeEstimator, String priority) {
-        List<Map<String, Object>> batch = new ArrayList<>();
-
-        // Simple FIFO - no priority separation needed for retry events
-        int maxEvents = isAndroidTVDevice ? 20 : 10; // Small batches for retries
-        int currentSize = 0;
+        List<RetryEvent> retryBatch = pollRetryBatch(maxSizeBytes, sizeEstimator, false);
+        List<Map<String, Object>> batch = new ArrayList<>(retryBatch.size());
+        for (RetryEvent retryEvent : retryBatch) {
+            batch.add(retryEvent.event);
+        }
+        return batch;
+    }
 
-        for (int i = 0; i < maxEvents && !retryEvents.isEmpty(); i++) {
-            Map<String, Object> event = retryEvents.poll();
-            if (event == null) break;
+    /**
+     * Poll the oldest queued events with their retry counts, bounded by serialized bytes only
+     * An event that does not fit stays at the head, so the queue keeps its order
+     * @param strictBudget true to never exceed maxSizeBytes, not even with a single event
+     */
+    public List<RetryEvent> pollRetryBatch(int maxSizeBytes, SizeEstimator sizeEstimator, boolean strictBudget) {
+        return pollRetryBatch(maxSizeBytes, sizeEstimator, strictBudget, null);
+    }
 
-            int eventSize = sizeEstimator != null ? sizeEstimator.estimate(event) : 2048;
-            if (currentSize + eventSize > maxSizeBytes && !batch.isEmpty()) {
-                retryEvents.offer(event); // Put back
+    /**
+     * Same as pollRetryBatch for the events of one harvest lane only
+     * Events of the other lane keep their place in the queue
+     * @param bufferType lane to poll, null for any
+     */
+    public List<RetryEvent> pollRetryBatch(int maxSizeBytes, SizeEstimator sizeEstimator, boolean strictBudget,
+                                           String bufferType) {
+        List<RetryEvent> batch = new ArrayList<>();
+        long currentSize = 0;
+
+        // FIFO within the lane
+        for (RetryEvent retryEvent : retryEvents) {
+            if (bufferType != null && !bufferType.equals(retryEvent.bufferType)) {
+                continue;
+            }
+            int eventSize = estimate(retryEvent, sizeEstimator);
+            if (currentSize + eventSize > maxSizeBytes && (!batch.isEmpty() || strictBudget)) {
                 break;
             }
 
-            batch.add(event);
-            currentSize += eventSize;
+            // Overflow protection may have dropped the event meanwhile
+            if (retryEvents.remove(retryEvent)) {
+                batch.add(retryEvent);
+                currentSize += eventSize;
+            }
         }
 
         return batch;
     }
 
+    /**
+     * Harvest lane of the oldest queued event, or null if the queue is empty
+     */
+    public String peekBufferType() {
+        RetryEvent head = retryEvents.peek();
+        return head != null ? head.bufferType : null;
+    }
+
+    private static int estimate(RetryEvent retryEvent, SizeEstimator sizeEstimator) {
+        return sizeEstimator != null ? sizeEstimator.estimate(retryEvent.event) : 2048;
+    }
+
+    /**
+     * Remove every queued event, oldest first (emergency backup)
+     */
+    public List<RetryEvent> drainAll() {
+        List<RetryEvent> drained = new ArrayList<>(retryEvents.size());
+        RetryEvent retryEvent;
+        while ((retryEvent = retryEvents.poll()) != null) {
+            drained.add(retryEvent);
+        }
+        return drained;
+    }
+
     @Override
     public int getEventCount() {
         return retryEvents.size();
@@ -85,4 +157,19 @@ public class DeadLetterEventBuffer implements EventBufferInterface {
     public void setCapacityCallback(CapacityCallback callback) {
         // No-op - dead letter queues don't start schedulers
     }
+
+    /**
+     * Queued event and how many times sending it has failed
+     */
+    public static final class RetryEvent {
+        public final Map<String, Object> event;
+        public final int retryCount;
+        public final String bufferType;
+
+        RetryEvent(Map<String, Object> event, int retryCount, String bufferType) {
+            this.event = event;
+            this.retryCount = retryCount;
+            this.bufferType = bufferType;
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package com.newrelic.videoagent.core.harvest;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -20,6 +21,41 @@ public interface EventBufferInterface {
      */
     List<Map<String, Object>> pollBatchByPriority(int maxSizeBytes, SizeEstimator sizeEstimator, String priority);
 
+    /**
+     * Lease a batch of events based on priority and size constraints
+     * Leased events stay owned by the buffer until ack(leaseId) or nack(leaseId)
+     * Default: plain poll, returned as a detached lease the buffer no longer tracks
+     */
+    default EventLease leaseBatchByPriority(int maxSizeBytes, SizeEstimator sizeEstimator, String priority) {
+        return EventLease.detached(priority, pollBatchByPriority(maxSizeBytes, sizeEstimator, priority));
+    }
+
+    /**
+     * Harvest succeeded - release the leased events
+     */
+    default void ack(long leaseId) {
+        // No-op by default - nothing is tracked for detached leases
+    }
+
+    /**
+     * Harvest failed - give the leased events back to the buffer, ahead of newer events
+     * @param maxRetries failed attempts an event may be retried after
+     * @return events that exhausted their retries, released to the caller (e.g. for backup)
+     */
+    default List<Map<String, Object>> nack(long leaseId, int maxRetries) {
+        return Collections.emptyList(); // Nothing is tracked for detached leases
+    }
+
+    /**
+     * Harvest delivered only the first deliveredCount leased events (a split batch failed part way)
+     * Those are released like ack, the others go back like nack
+     * Default: the whole lease goes back
+     * @return events that exhausted their retries, released to the caller (e.g. for backup)
+     */
+    default List<Map<String, Object>> nackUndelivered(long leaseId, int deliveredCount, int maxRetries) {
+        return nack(leaseId, maxRetries);
+    }
+
     /**
      * Get total number of events in buffer
      */
@@ -50,6 +86,13 @@ public interface EventBufferInterface {
         // Default: no-op for buffers that don't support capacity monitoring
     }
 
+    /**
+     * Set eviction callback for bounded buffers that drop their oldest events when full
+     */
+    default void setEvictionCallback(EvictionCallback callback) {
+        // Default: no-op for buffers that never evict
+    }
+
     /**
      * Called after a successful harvest to trigger any pending recovery operations
      * Default implementation is no-op - only crash-safe implementations need to override
@@ -65,6 +108,13 @@ public interface EventBufferInterface {
         void onBufferNearFull(String bufferType);
     }
 
+    /**
+     * Interface for eviction notification callback, runs on the thread adding the event
+     */
+    interface EvictionCallback {
+        void onEventEvicted(Map<String, Object> event);
+    }
+
     /**
      * Interface for capacity monitoring callback
      */
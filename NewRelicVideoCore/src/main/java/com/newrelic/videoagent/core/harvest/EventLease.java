@@ -0,0 +1,99 @@
+package com.newrelic.videoagent.core.harvest;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Batch of events handed out by an event buffer for one harvest attempt
+ * The buffer keeps ownership of the leased events until the outcome is known:
+ * ack(leaseId) releases them, nack(leaseId) returns them for another attempt
+ *
+ * The event list is mutable: the harvest may append events the buffer does not own
+ * (QOE aggregates, recovered backups). Those come after the leased ones and are
+ * reported by getUnleasedEvents() so failure handling can treat them separately
+ */
+public final class EventLease {
+
+    /**
+     * Lease id of batches the buffer does not track (empty batches, buffers without leasing)
+     */
+    public static final long DETACHED_ID = 0L;
+
+    private final long leaseId;
+    private final String priority;
+    private final List<Map<String, Object>> events;
+    private final int leasedCount;
+    private final long leasedBytes;
+
+    public EventLease(long leaseId, String priority, List<Map<String, Object>> events) {
+        this(leaseId, priority, events, -1);
+    }
+
+    /**
+     * @param leasedBytes serialized size of the leased events, -1 if the buffer does not track it
+     */
+    public EventLease(long leaseId, String priority, List<Map<String, Object>> events, long leasedBytes) {
+        this.leaseId = leaseId;
+        this.priority = priority;
+        this.events = events;
+        this.leasedCount = events.size();
+        this.leasedBytes = leasedBytes;
+    }
+
+    /**
+     * Untracked batch: the buffer already released these events
+     */
+    public static EventLease detached(String priority, List<Map<String, Object>> events) {
+        return new EventLease(DETACHED_ID, priority, events);
+    }
+
+    public long getLeaseId() {
+        return leaseId;
+    }
+
+    public String getPriority() {
+        return priority;
+    }
+
+    /**
+     * Serialized size of the leased events in bytes, -1 if unknown
+     */
+    public long getLeasedBytes() {
+        return leasedBytes;
+    }
+
+    public boolean isDetached() {
+        return leaseId == DETACHED_ID;
+    }
+
+    /**
+     * All events of the batch, leased ones first
+     */
+    public List<Map<String, Object>> getEvents() {
+        return events;
+    }
+
+    /**
+     * Events added to the batch after it was leased (or all of them if detached)
+     */
+    public List<Map<String, Object>> getUnleasedEvents() {
+        if (isDetached()) {
+            return events;
+        }
+        if (events.size() <= leasedCount) {
+            return Collections.emptyList();
+        }
+        return events.subList(leasedCount, events.size());
+    }
+
+    public boolean isEmpty() {
+        return events.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "EventLease{id=" + leaseId + ", priority=" + priority +
+               ", leased=" + leasedCount + ", total=" + events.size() + '}';
+    }
+}
@@ -0,0 +1,194 @@
+package com.newrelic.videoagent.core.harvest;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free ring buffer for video events
+ * Multiple producers (player callbacks, trackers) offer without locking
+ * Consumer side is drained by the harvest thread under the buffer polling lock
+ * Size is derived from head/tail sequences - O(1), no queue traversal
+ * When full, the oldest event is evicted so recent playback state is never lost
+ *
+ * Each slot carries a sequence number that tells producers and consumers whether
+ * the slot is free for writing (sequence == position) or holds a published event
+ * (sequence == position + 1). Head and tail only ever move forward.
+ */
+public final class EventRingBuffer<E> {
+
+    private final int capacity;
+    private final AtomicReferenceArray<E> slots;
+    private final AtomicLongArray sequences;
+
+    // Next position to read / next position to write
+    private final AtomicLong head = new AtomicLong(0);
+    private final AtomicLong tail = new AtomicLong(0);
+
+    public EventRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Ring buffer capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Offer an element without blocking
+     * @return false if the ring is full
+     */
+    public boolean offer(E element) {
+        if (element == null) return false;
+
+        long position = tail.get();
+        while (true) {
+            int index = indexOf(position);
+            long difference = sequences.get(index) - position;
+
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.set(index, element);
+                    sequences.set(index, position + 1); // Publish to consumers
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false; // Slot not yet consumed - ring is full
+            } else {
+                position = tail.get(); // Another producer claimed this slot
+            }
+        }
+    }
+
+    /**
+     * Offer an element, evicting the oldest elements until there is room
+     * @return number of elements evicted to make room
+     */
+    public int offerEvictingOldest(E element) {
+        if (element == null) return 0;
+
+        int evicted = 0;
+        while (!offer(element)) {
+            if (poll() != null) {
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Remove and return the oldest element, or null if empty
+     */
+    public E poll() {
+        long position = head.get();
+        while (true) {
+            int index = indexOf(position);
+            long difference = sequences.get(index) - (position + 1);
+
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    return release(index, position);
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                return null; // Nothing published at head yet
+            } else {
+                position = head.get(); // Another consumer took this slot
+            }
+        }
+    }
+
+    /**
+     * Return the oldest element without removing it, or null if empty
+     */
+    public E peek() {
+        long position = head.get();
+        int index = indexOf(position);
+        if (sequences.get(index) == position + 1) {
+            E element = slots.get(index);
+            // Head may have moved while reading; only trust a stable snapshot
+            if (head.get() == position) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove the head element only if it is still the expected instance
+     * Used after peek() so a producer evicting concurrently cannot make us consume the wrong event
+     */
+    public boolean pollIfHead(E expected) {
+        if (expected == null) return false;
+
+        long position = head.get();
+        while (true) {
+            int index = indexOf(position);
+            if (sequences.get(index) != position + 1 || slots.get(index) != expected) {
+                return false;
+            }
+            if (head.compareAndSet(position, position + 1)) {
+                release(index, position);
+                return true;
+            }
+            position = head.get();
+        }
+    }
+
+    /**
+     * Batch drain up to maxElements into the target list
+     * @return number of elements drained
+     */
+    public int drainTo(List<E> target, int maxElements) {
+        int drained = 0;
+        while (drained < maxElements) {
+            E element = poll();
+            if (element == null) break;
+            target.add(element);
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * O(1) size from head/tail sequences
+     * May briefly include a slot a producer has claimed but not yet published
+     */
+    public int size() {
+        long currentHead = head.get();
+        long currentTail = tail.get();
+        long size = currentTail - currentHead;
+        if (size < 0) return 0;
+        return size > capacity ? capacity : (int) size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public void clear() {
+        while (poll() != null) {
+            // Drain everything currently published
+        }
+    }
+
+    private E release(int index, long position) {
+        E element = slots.get(index);
+        slots.set(index, null); // Let the event be collected
+        sequences.set(index, position + capacity); // Free slot for the next lap
+        return element;
+    }
+
+    private int indexOf(long position) {
+        return (int) (position % capacity);
+    }
+}
@@ -0,0 +1,111 @@
+package com.newrelic.videoagent.core.harvest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Reusable gzip stream for harvest payloads
+ * GZIPOutputStream allocates a native Deflater and its buffers per request; an encoder keeps
+ * both for its lifetime and is reset between payloads. It writes the gzip header and the
+ * CRC32/size trailer itself around raw deflate data
+ * Not thread-safe: one encoder per sender lane
+ */
+public class GzipEncoder extends OutputStream {
+
+    private static final int BUFFER_BYTES = 8192;
+
+    // Magic, deflate method, no flags, no mtime, no extra flags, unknown OS
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] buffer = new byte[BUFFER_BYTES];
+    private final byte[] singleByte = new byte[1];
+
+    private OutputStream target;
+    private long uncompressedBytes;
+    private long compressedBytes;
+
+    /**
+     * @param level Deflater level, 1 (fastest) - 9 (smallest)
+     */
+    public GzipEncoder(int level) {
+        this.deflater = new Deflater(level, true); // Raw deflate, the gzip framing is ours
+    }
+
+    /**
+     * Start a payload written to target
+     */
+    public void begin(OutputStream target) throws IOException {
+        deflater.reset();
+        crc.reset();
+        this.target = target;
+        uncompressedBytes = 0;
+        compressedBytes = HEADER.length;
+        target.write(HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        singleByte[0] = (byte) b;
+        write(singleByte, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return;
+        }
+        crc.update(bytes, offset, length);
+        uncompressedBytes += length;
+        deflater.setInput(bytes, offset, length);
+        while (!deflater.needsInput()) {
+            deflate();
+        }
+    }
+
+    /**
+     * Complete the payload - the target stream is left open
+     * @return compressed bytes written, header and trailer included
+     */
+    public long finish() throws IOException {
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflate();
+        }
+        writeIntLE(crc.getValue());
+        writeIntLE(uncompressedBytes);
+        target = null;
+        return compressedBytes;
+    }
+
+    public long getUncompressedBytes() {
+        return uncompressedBytes;
+    }
+
+    /**
+     * Release the native Deflater, the encoder cannot be used afterwards
+     */
+    public void end() {
+        deflater.end();
+    }
+
+    private void deflate() throws IOException {
+        int length = deflater.deflate(buffer, 0, buffer.length);
+        if (length > 0) {
+            target.write(buffer, 0, length);
+            compressedBytes += length;
+        }
+    }
+
+    private void writeIntLE(long value) throws IOException {
+        buffer[0] = (byte) value;
+        buffer[1] = (byte) (value >> 8);
+        buffer[2] = (byte) (value >> 16);
+        buffer[3] = (byte) (value >> 24);
+        target.write(buffer, 0, 4);
+        compressedBytes += 4;
+    }
+}
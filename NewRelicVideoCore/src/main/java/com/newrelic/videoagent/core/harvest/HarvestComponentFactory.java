@@ -27,7 +27,28 @@ public interface HarvestComponentFactory {
     HttpClientInterface getHttpClient();
     SchedulerInterface getScheduler();
     IntegratedDeadLetterHandler getDeadLetterHandler();
+
+    /**
+     * Sender that posts harvest batches off the harvest thread
+     * @return null to send synchronously on the harvest thread
+     */
+    default AsyncHarvestSender getSender() {
+        return null;
+    }
+
+    /**
+     * Back up buffered events to storage - may run asynchronously and return immediately
+     */
     void performEmergencyBackup();
+
+    /**
+     * Wait for the last emergency backup to complete
+     * @return true if it completed within timeoutMs (always true for synchronous backups)
+     */
+    default boolean awaitEmergencyBackup(long timeoutMs) {
+        return true;
+    }
+
     boolean isRecovering();
     String getRecoveryStats();
 }
@@ -2,9 +2,9 @@ package com.newrelic.videoagent.core.harvest;
 
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
 import java.util.Locale;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -12,7 +12,9 @@ import java.util.concurrent.atomic.AtomicInteger;
 import android.content.Context;
 import com.newrelic.videoagent.core.NRVideoConfiguration;
 import com.newrelic.videoagent.core.storage.CrashSafeHarvestFactory;
+import com.newrelic.videoagent.core.storage.IntegratedDeadLetterHandler;
 import com.newrelic.videoagent.core.NRVideoConstants;
+import com.newrelic.videoagent.core.model.VideoEvent;
 import com.newrelic.videoagent.core.utils.NRLog;
 
 /**
@@ -23,16 +25,19 @@ import com.newrelic.videoagent.core.utils.NRLog;
  * - Proper 60% capacity threshold scheduler startup
  * - OPTIMIZED: Always uses CrashSafeHarvestFactory for consistent behavior
  * - QOE Provider support for harvest-time QOE_AGGREGATE injection
+ * - Harvests only assemble batches: the factory's sender posts them and acks/nacks on completion
  */
 public class HarvestManager implements EventBufferInterface.CapacityCallback {
 
     private final CrashSafeHarvestFactory factory;
     private final CopyOnWriteArrayList<QoeProvider> qoeProviders = new CopyOnWriteArrayList<>();
     private final AtomicInteger harvestCycleNumber = new AtomicInteger(0);
+    // Stateless exact sizer shared by every harvest cycle
+    private final SizeEstimator sizeEstimator = new DefaultSizeEstimator();
 
     public HarvestManager(NRVideoConfiguration configuration,
                           Context context) {
-        this.factory = new CrashSafeHarvestFactory(configuration, context, this::harvestNow, this, this::harvestOnDemand, this::harvestLive);
+        this.factory = new CrashSafeHarvestFactory(configuration, context, this::harvestNow, this, this::harvestOnDemand, this::harvestLive, this::harvestCoalesced);
     }
 
     /**
@@ -52,7 +57,8 @@ public class HarvestManager implements EventBufferInterface.CapacityCallback {
      */
     public void recordEvent(String eventType, Map<String, Object> attributes) {
         if (eventType != null && !eventType.trim().isEmpty()) {
-            Map<String, Object> event = new HashMap<>(attributes != null ? attributes : new HashMap<>());
+            // Tracker events are already typed records and are completed in place
+            VideoEvent event = VideoEvent.from(attributes);
             event.put("eventType", eventType);
             event.put("timestamp", System.currentTimeMillis());
 
@@ -81,6 +87,104 @@ public class HarvestManager implements EventBufferInterface.CapacityCallback {
         harvest(batchSizeBytes, NRVideoConstants.EVENT_TYPE_LIVE, NRVideoConstants.EVENT_TYPE_LIVE);
     }
 
+    /**
+     * Harvest live and on-demand events in one request
+     * Run by the scheduler instead of both harvests when their timers are due close together.
+     * Live events are leased first, on-demand events fill the rest of the larger batch size;
+     * each queue keeps its own lease so the send outcome is applied to both
+     * While one lane still has a batch in flight only the other one is harvested
+     */
+    public void harvestCoalesced() {
+        NRVideoConfiguration config = factory.getConfiguration();
+        int batchSizeBytes = Math.max(config.getLiveBatchSizeBytes(), config.getRegularBatchSizeBytes());
+
+        HttpClientInterface httpClient = factory.getHttpClient();
+        long blockedMs = httpClient != null ? httpClient.getSendBlockedRemainingMs() : 0;
+        if (blockedMs > 0) {
+            NRLog.d("Coalesced harvest skipped - collector unavailable for another " + blockedMs + "ms");
+            return;
+        }
+
+        final AsyncHarvestSender sender = factory.getSender();
+        if (sender != null) {
+            if (!sender.tryReserve(NRVideoConstants.EVENT_TYPE_LIVE)) {
+                harvestOnDemand();
+                return;
+            }
+            if (!sender.tryReserve(NRVideoConstants.EVENT_TYPE_ONDEMAND)) {
+                sender.release(NRVideoConstants.EVENT_TYPE_LIVE);
+                harvestLive();
+                return;
+            }
+        }
+
+        boolean handedOver = false;
+        try {
+            int currentCycle = harvestCycleNumber.incrementAndGet();
+
+            final EventBufferInterface eventBuffer = factory.getEventBuffer();
+            final EventLease liveLease = eventBuffer.leaseBatchByPriority(
+                batchSizeBytes,
+                sizeEstimator,
+                NRVideoConstants.EVENT_TYPE_LIVE
+            );
+            injectQoeEventsIfNeeded(liveLease.getEvents(), currentCycle);
+
+            long liveBytes = measureBatchBytes(liveLease);
+            long spareBytes = batchSizeBytes - liveBytes;
+            final EventLease onDemandLease = spareBytes > 0
+                ? eventBuffer.leaseBatchByPriority((int) spareBytes, sizeEstimator, NRVideoConstants.EVENT_TYPE_ONDEMAND)
+                : EventLease.detached(NRVideoConstants.EVENT_TYPE_ONDEMAND, new ArrayList<Map<String, Object>>());
+
+            if (!liveLease.getEvents().isEmpty() || !onDemandLease.getEvents().isEmpty()) {
+                // Queued retries ride on the on-demand lease, which reports them on failure
+                final IntegratedDeadLetterHandler deadLetterHandler = factory.getDeadLetterHandler();
+                long onDemandBytes = measureBatchBytes(onDemandLease);
+                final List<DeadLetterEventBuffer.RetryEvent> retries =
+                    deadLetterHandler.pollRetriesForHarvest(spareBytes - onDemandBytes);
+                for (DeadLetterEventBuffer.RetryEvent retry : retries) {
+                    onDemandLease.getEvents().add(retry.event);
+                    onDemandBytes += sizeEstimator.estimate(retry.event);
+                }
+                final long eventBytes = liveBytes + onDemandBytes;
+
+                List<Map<String, Object>> events = new ArrayList<>(
+                    liveLease.getEvents().size() + onDemandLease.getEvents().size());
+                events.addAll(liveLease.getEvents());
+                events.addAll(onDemandLease.getEvents());
+
+                if (sender != null) {
+                    // The request runs on the live lane, the on-demand lane is freed with it
+                    sender.sendReportingDelivered(NRVideoConstants.EVENT_TYPE_LIVE, events, eventBytes, deliveredCount -> {
+                        try {
+                            onCoalescedSendComplete(deliveredCount, liveLease, onDemandLease, retries, eventBuffer, deadLetterHandler);
+                        } finally {
+                            sender.release(NRVideoConstants.EVENT_TYPE_ONDEMAND);
+                        }
+                    });
+                    handedOver = true;
+                } else {
+                    int deliveredCount = 0;
+                    try {
+                        deliveredCount = factory.getHttpClient().sendEventsReportingDelivered(
+                            events, NRVideoConstants.EVENT_TYPE_LIVE, eventBytes);
+                    } catch (Exception e) {
+                        NRLog.e("Coalesced harvest send failed: " + e.getMessage(), e);
+                    }
+                    onCoalescedSendComplete(deliveredCount, liveLease, onDemandLease, retries, eventBuffer, deadLetterHandler);
+                }
+            }
+
+        } catch (Exception e) {
+            NRLog.e("Coalesced harvest failed: " + e.getMessage(), e);
+        } finally {
+            if (sender != null && !handedOver) {
+                sender.release(NRVideoConstants.EVENT_TYPE_LIVE);
+                sender.release(NRVideoConstants.EVENT_TYPE_ONDEMAND);
+            }
+        }
+    }
+
     /**
      * Force immediate harvest - strict buffer type validation
      * Each session should know exactly what type of content is being watched
@@ -130,43 +234,142 @@ public class HarvestManager implements EventBufferInterface.CapacityCallback {
     /**
      * Generic harvest method for both regular and live events
      * OPTIMIZED: Updated for 2KB events with device-specific batch sizes
+     * The batch is handed to the sender and this returns without waiting for the network;
+     * while the lane's previous batch is still in flight nothing is leased
      * @param batchSizeBytes Maximum batch size in bytes (optimized for 2KB events)
      * @param priorityFilter Priority level to filter ("ondemand", "live")
      * @param harvestType HTTP endpoint type ("regular", "live")
      */
     private void harvest(int batchSizeBytes, String priorityFilter, String harvestType) {
+        // Nothing would reach the network - leave the events buffered instead of failing a lease
+        HttpClientInterface httpClient = factory.getHttpClient();
+        long blockedMs = httpClient != null ? httpClient.getSendBlockedRemainingMs() : 0;
+        if (blockedMs > 0) {
+            NRLog.d(harvestType + " harvest skipped - collector unavailable for another " + blockedMs + "ms");
+            return;
+        }
+
+        AsyncHarvestSender sender = factory.getSender();
+        if (sender != null && !sender.tryReserve(harvestType)) {
+            NRLog.d(harvestType + " harvest skipped - previous batch still in flight");
+            return;
+        }
+
+        boolean handedOver = false;
         try {
             // Increment harvest cycle number (thread-safe atomic operation)
             int currentCycle = harvestCycleNumber.incrementAndGet();
 
-            SizeEstimator sizeEstimator = new DefaultSizeEstimator();
-            List<Map<String, Object>> events = factory.getEventBuffer().pollBatchByPriority(
+            // Leased events stay owned by the buffer until the send outcome is known
+            final EventBufferInterface eventBuffer = factory.getEventBuffer();
+            final EventLease lease = eventBuffer.leaseBatchByPriority(
                 batchSizeBytes,
                 sizeEstimator,
                 priorityFilter
             );
+            final List<Map<String, Object>> events = lease.getEvents();
 
             // Inject QOE events BEFORE checking if batch is empty
             // QOE should be generated based on cycle number, even if there are no other events
             injectQoeEventsIfNeeded(events, currentCycle);
 
             if (!events.isEmpty()) {
-                boolean success = factory.getHttpClient().sendEvents(events, harvestType);
-                if (!success) {
-                    factory.getDeadLetterHandler().handleFailedEvents(events, harvestType);
-                } else {
-                    // Notify event buffer about successful harvest to trigger any pending recovery
-                    factory.getEventBuffer().onSuccessfulHarvest();
+                // Piggyback queued retries on this request when the batch leaves budget to spare
+                final IntegratedDeadLetterHandler deadLetterHandler = factory.getDeadLetterHandler();
+                long batchBytes = measureBatchBytes(lease);
+                final List<DeadLetterEventBuffer.RetryEvent> retries =
+                    deadLetterHandler.pollRetriesForHarvest(batchSizeBytes - batchBytes);
+                for (DeadLetterEventBuffer.RetryEvent retry : retries) {
+                    events.add(retry.event);
+                    batchBytes += sizeEstimator.estimate(retry.event);
                 }
+                // Known sizes spare the client serializing the batch just to measure it
+                final long eventBytes = batchBytes;
 
-                // Debug logging for optimization monitoring
-                NRLog.d(harvestType + " harvest: " +
-                    events.size() + " events, ~" + (events.size() * 2) + "KB");
+                if (sender != null) {
+                    sender.sendReportingDelivered(harvestType, events, eventBytes, deliveredCount ->
+                        onSendComplete(deliveredCount, lease, retries, harvestType, eventBuffer, deadLetterHandler));
+                    handedOver = true;
+                } else {
+                    int deliveredCount = 0;
+                    try {
+                        deliveredCount = factory.getHttpClient().sendEventsReportingDelivered(events, harvestType, eventBytes);
+                    } catch (Exception e) {
+                        NRLog.e(harvestType + " harvest send failed: " + e.getMessage(), e);
+                    }
+                    onSendComplete(deliveredCount, lease, retries, harvestType, eventBuffer, deadLetterHandler);
+                }
             }
 
         } catch (Exception e) {
             NRLog.e(harvestType + " harvest failed: " + e.getMessage(), e);
+        } finally {
+            if (sender != null && !handedOver) {
+                sender.release(harvestType);
+            }
+        }
+    }
+
+    /**
+     * Feed the send outcome back to the buffer and the dead letter queue
+     * Runs on the sender thread for asynchronous sends
+     * @param deliveredCount leading events delivered; a batch split by the client may fail part way
+     */
+    private void onSendComplete(int deliveredCount, EventLease lease, List<DeadLetterEventBuffer.RetryEvent> retries,
+                                String harvestType, EventBufferInterface eventBuffer,
+                                IntegratedDeadLetterHandler deadLetterHandler) {
+        if (deliveredCount < lease.getEvents().size()) {
+            deadLetterHandler.handleFailedLease(lease, harvestType, retries, deliveredCount);
+        } else {
+            eventBuffer.ack(lease.getLeaseId());
+            deadLetterHandler.onRetriesDelivered(retries);
+            // Notify event buffer about successful harvest to trigger any pending recovery
+            eventBuffer.onSuccessfulHarvest();
+        }
+
+        // Debug logging for optimization monitoring
+        NRLog.d(harvestType + " harvest: " + lease.getEvents().size() + " events");
+    }
+
+    /**
+     * Apply the outcome of a coalesced request to both leases
+     * Live events lead the request, so a partial delivery covers them before any on-demand event
+     */
+    private void onCoalescedSendComplete(int deliveredCount, EventLease liveLease, EventLease onDemandLease,
+                                         List<DeadLetterEventBuffer.RetryEvent> retries,
+                                         EventBufferInterface eventBuffer,
+                                         IntegratedDeadLetterHandler deadLetterHandler) {
+        int liveCount = liveLease.getEvents().size();
+        if (deliveredCount < liveCount + onDemandLease.getEvents().size()) {
+            deadLetterHandler.handleFailedLease(liveLease, NRVideoConstants.EVENT_TYPE_LIVE,
+                Collections.<DeadLetterEventBuffer.RetryEvent>emptyList(), Math.min(deliveredCount, liveCount));
+            deadLetterHandler.handleFailedLease(onDemandLease, NRVideoConstants.EVENT_TYPE_ONDEMAND, retries,
+                Math.max(0, deliveredCount - liveCount));
+        } else {
+            eventBuffer.ack(liveLease.getLeaseId());
+            eventBuffer.ack(onDemandLease.getLeaseId());
+            deadLetterHandler.onRetriesDelivered(retries);
+            eventBuffer.onSuccessfulHarvest();
+        }
+
+        NRLog.d("Coalesced harvest: " + liveLease.getEvents().size() + " live, "
+            + onDemandLease.getEvents().size() + " ondemand events");
+    }
+
+    /**
+     * Serialized size of a leased batch including events added after leasing
+     */
+    private long measureBatchBytes(EventLease lease) {
+        long bytes = lease.getLeasedBytes();
+        List<Map<String, Object>> unmeasured = lease.getUnleasedEvents();
+        if (bytes < 0) {
+            bytes = 0;
+            unmeasured = lease.getEvents();
+        }
+        for (Map<String, Object> event : unmeasured) {
+            bytes += sizeEstimator.estimate(event);
         }
+        return bytes;
     }
 
     /**
@@ -0,0 +1,44 @@
+package com.newrelic.videoagent.core.harvest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Transport SPI: how encoded harvest payloads reach the collector
+ * OptimizedHttpClient builds the payload (envelope, events, gzip) and hands it over as a byte
+ * stream; the transport owns connections, TLS and timeouts. The default one uses
+ * HttpURLConnection, apps that already ship OkHttp or Cronet can plug in their own client
+ * (NRVideoConfiguration.Builder.withHarvestTransport) and multiplex harvests over its
+ * existing HTTP/2 connections
+ *
+ * Implementations must be thread-safe: each harvest lane posts from its own sender thread
+ */
+public interface HarvestTransport {
+
+    /**
+     * Writes the request body, may be called again if the transport retries the request
+     */
+    interface BodyWriter {
+        void writeTo(OutputStream outputStream) throws IOException;
+    }
+
+    /**
+     * POST a body and wait for the response
+     * The response body is consumed (and discarded) by the transport so the connection can be reused
+     * @param url collector endpoint
+     * @param headers request headers, Content-Encoding included when the body is gzip'd
+     * @param body streams the payload
+     * @return status and headers of the response
+     * @throws IOException if no response was received
+     */
+    TransportResponse post(String url, Map<String, String> headers, BodyWriter body) throws IOException;
+
+    /**
+     * Connections opened so far, for connection reuse metrics
+     * @return -1 if the transport cannot tell
+     */
+    default long getConnectionsOpened() {
+        return -1;
+    }
+}
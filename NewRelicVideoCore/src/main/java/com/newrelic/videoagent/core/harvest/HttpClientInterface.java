@@ -17,4 +17,44 @@ public interface HttpClientInterface {
      * @return true if successful, false otherwise
      */
     boolean sendEvents(List<Map<String, Object>> events, String endpointType);
+
+    /**
+     * Same as sendEvents for clients that may split a batch into several requests sent in order
+     * A failing request stops the send, so the events delivered always are the head of the batch
+     * @return number of leading events delivered (or dropped as undeliverable), events.size() on success
+     */
+    default int sendEventsReportingDelivered(List<Map<String, Object>> events, String endpointType) {
+        return sendEvents(events, endpointType) ? events.size() : 0;
+    }
+
+    /**
+     * Same as sendEventsReportingDelivered for a batch whose serialized size the caller already knows
+     * @param eventBytes serialized size of the events (sum of their JSON encodings), -1 if unknown
+     */
+    default int sendEventsReportingDelivered(List<Map<String, Object>> events, String endpointType, long eventBytes) {
+        return sendEventsReportingDelivered(events, endpointType);
+    }
+
+    /**
+     * Prepare for the first harvest without blocking (e.g. fetch credentials in the background)
+     */
+    default void warmUp() {
+    }
+
+    /**
+     * Remaining time the collector asked us to back off (429 Retry-After), applies to every send
+     * @return milliseconds until sending is allowed again, 0 if not rate limited
+     */
+    default long getRetryAfterRemainingMs() {
+        return 0;
+    }
+
+    /**
+     * Remaining time no request would go out at all (Retry-After, or every collector circuit open)
+     * Harvests skip their tick meanwhile and keep the events buffered
+     * @return milliseconds until a send may reach the network, 0 if it can now
+     */
+    default long getSendBlockedRemainingMs() {
+        return getRetryAfterRemainingMs();
+    }
 }
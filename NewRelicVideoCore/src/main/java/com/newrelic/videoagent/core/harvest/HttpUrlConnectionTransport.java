@@ -0,0 +1,164 @@
+package com.newrelic.videoagent.core.harvest;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Default transport over the platform HttpURLConnection
+ * Connections are pooled by the platform (keep-alive is on by default) as long as every
+ * response is fully read, which this transport does. No process-wide networking properties
+ * are changed - they would affect every connection of the host app
+ * New TLS connections are counted through a wrapping socket factory; plain HTTP connections
+ * (local test collectors) cannot be counted, getConnectionsOpened() reports -1 once one was used
+ */
+public class HttpUrlConnectionTransport implements HarvestTransport {
+
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final CountingSocketFactory socketFactory;
+    private volatile boolean usedPlainHttp;
+
+    public HttpUrlConnectionTransport(int connectTimeoutMs, int readTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.socketFactory = new CountingSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory());
+    }
+
+    @Override
+    public TransportResponse post(String url, Map<String, String> headers, BodyWriter body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (connection instanceof HttpsURLConnection) {
+            // Same factory instance for every request, the platform pools connections per factory
+            ((HttpsURLConnection) connection).setSSLSocketFactory(socketFactory);
+        } else {
+            usedPlainHttp = true;
+        }
+
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setDoInput(true);
+            connection.setUseCaches(false);
+            connection.setConnectTimeout(connectTimeoutMs);
+            connection.setReadTimeout(readTimeoutMs);
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+
+            try (OutputStream outputStream = new BufferedOutputStream(connection.getOutputStream())) {
+                body.writeTo(outputStream);
+                outputStream.flush();
+            }
+
+            int responseCode = connection.getResponseCode();
+            TransportResponse response = new TransportResponse(responseCode, readHeaders(connection));
+            drain(connection, response.isSuccessful());
+            return response;
+        } catch (IOException e) {
+            connection.disconnect(); // The connection state is unknown, do not return it to the pool
+            throw e;
+        }
+    }
+
+    @Override
+    public long getConnectionsOpened() {
+        return usedPlainHttp ? -1 : socketFactory.created.get();
+    }
+
+    private static Map<String, String> readHeaders(HttpURLConnection connection) {
+        Map<String, String> headers = new HashMap<>();
+        for (Map.Entry<String, List<String>> field : connection.getHeaderFields().entrySet()) {
+            // The status line has a null key
+            if (field.getKey() != null && field.getValue() != null && !field.getValue().isEmpty()) {
+                headers.put(field.getKey(), field.getValue().get(0));
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Read the response to the end, an unread body keeps the connection out of the pool
+     */
+    private static void drain(HttpURLConnection connection, boolean success) throws IOException {
+        try (InputStream responseStream = success ? connection.getInputStream() : connection.getErrorStream()) {
+            if (responseStream != null) {
+                byte[] buffer = new byte[4096];
+                //noinspection StatementWithEmptyBody
+                while (responseStream.read(buffer) != -1) {
+                    // Discard response data to enable connection reuse
+                }
+            }
+        }
+    }
+
+    /**
+     * Delegates to the platform factory and counts the TLS sockets it creates
+     */
+    private static final class CountingSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory delegate;
+        final AtomicLong created = new AtomicLong(0);
+
+        CountingSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            created.incrementAndGet();
+            return delegate.createSocket();
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            created.incrementAndGet();
+            return delegate.createSocket(socket, host, port, autoClose);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            created.incrementAndGet();
+            return delegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            created.incrementAndGet();
+            return delegate.createSocket(host, port, localHost, localPort);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            created.incrementAndGet();
+            return delegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            created.incrementAndGet();
+            return delegate.createSocket(address, port, localAddress, localPort);
+        }
+    }
+}
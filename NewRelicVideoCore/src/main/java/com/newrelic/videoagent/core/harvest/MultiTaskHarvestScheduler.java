@@ -2,6 +2,7 @@ package com.newrelic.videoagent.core.harvest;
 
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import com.newrelic.videoagent.core.NRVideoConfiguration;
 import com.newrelic.videoagent.core.NRVideoConstants;
 import com.newrelic.videoagent.core.utils.NRLog;
@@ -12,32 +13,51 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * Android-optimized harvest scheduler using Handler instead of ScheduledExecutorService
  * Better for mobile/TV environments - respects Android lifecycle and power management
  * Uses NRVideoConfiguration for device type detection instead of redundant detection
+ * Also runs the dead letter retry task on the same thread, on demand with a caller-chosen delay
+ *
+ * With a coalesced task and a coalescing window, a timer whose counterpart is due within the
+ * window runs the coalesced task instead (one request for both queues) and restarts the other timer
  */
 public class MultiTaskHarvestScheduler implements SchedulerInterface {
 
     private final Handler backgroundHandler;
     private final Runnable onDemandHarvestTask;
     private final Runnable liveHarvestTask;
+    private final Runnable retryTask;
+    private final Runnable coalescedHarvestTask;
     private final int onDemandIntervalMs;
     private final int liveIntervalMs;
+    private final long coalescingWindowMs;
     private final AtomicBoolean isOnDemandRunning = new AtomicBoolean(false);
     private final AtomicBoolean isLiveRunning = new AtomicBoolean(false);
     private final AtomicBoolean isShutdown = new AtomicBoolean(false);
     private final boolean isAndroidTVDevice;
 
+    // Pending dead letter retry, re-posted on resume after a pause
+    private volatile boolean isRetryPending = false;
+    private volatile long retryDelayMs = 0;
+
+    // Uptime at which each harvest timer fires next, read when deciding to coalesce
+    private volatile long onDemandDueAtMs = 0;
+    private volatile long liveDueAtMs = 0;
+
     // Runnable wrappers for self-scheduling
     private final Runnable onDemandHarvestRunnable = new Runnable() {
         @Override
         public void run() {
             if (isOnDemandRunning.get() && !isShutdown.get() && onDemandHarvestTask != null) {
                 try {
-                    onDemandHarvestTask.run();
+                    if (coalesceWithLive()) {
+                        coalescedHarvestTask.run();
+                    } else {
+                        onDemandHarvestTask.run();
+                    }
                 } catch (Exception e) {
                     NRLog.e("OnDemand harvest task failed", e);
                 }
                 // Re-schedule next execution if still running
                 if (isOnDemandRunning.get() && !isShutdown.get()) {
-                    backgroundHandler.postDelayed(this, onDemandIntervalMs);
+                    postOnDemandHarvest(onDemandIntervalMs);
                 }
             }
         }
@@ -48,13 +68,31 @@ public class MultiTaskHarvestScheduler implements SchedulerInterface {
         public void run() {
             if (isLiveRunning.get() && !isShutdown.get() && liveHarvestTask != null) {
                 try {
-                    liveHarvestTask.run();
+                    if (coalesceWithOnDemand()) {
+                        coalescedHarvestTask.run();
+                    } else {
+                        liveHarvestTask.run();
+                    }
                 } catch (Exception e) {
                     NRLog.e("Live harvest task failed", e);
                 }
                 // Re-schedule next execution if still running
                 if (isLiveRunning.get() && !isShutdown.get()) {
-                    backgroundHandler.postDelayed(this, liveIntervalMs);
+                    postLiveHarvest(liveIntervalMs);
+                }
+            }
+        }
+    };
+
+    private final Runnable retryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            isRetryPending = false;
+            if (!isShutdown.get() && retryTask != null) {
+                try {
+                    retryTask.run();
+                } catch (Exception e) {
+                    NRLog.e("Dead letter retry task failed", e);
                 }
             }
         }
@@ -62,10 +100,27 @@ public class MultiTaskHarvestScheduler implements SchedulerInterface {
 
     public MultiTaskHarvestScheduler(Runnable onDemandHarvestTask, Runnable liveHarvestTask,
                                    NRVideoConfiguration configuration) {
+        this(onDemandHarvestTask, liveHarvestTask, null, configuration);
+    }
+
+    public MultiTaskHarvestScheduler(Runnable onDemandHarvestTask, Runnable liveHarvestTask,
+                                   Runnable retryTask, NRVideoConfiguration configuration) {
+        this(onDemandHarvestTask, liveHarvestTask, null, retryTask, configuration);
+    }
+
+    /**
+     * @param coalescedHarvestTask harvests both queues in one request, null to never coalesce
+     */
+    public MultiTaskHarvestScheduler(Runnable onDemandHarvestTask, Runnable liveHarvestTask,
+                                   Runnable coalescedHarvestTask, Runnable retryTask,
+                                   NRVideoConfiguration configuration) {
         this.onDemandHarvestTask = onDemandHarvestTask;
         this.liveHarvestTask = liveHarvestTask;
+        this.coalescedHarvestTask = coalescedHarvestTask;
+        this.retryTask = retryTask;
         this.onDemandIntervalMs = configuration.getHarvestCycleSeconds() * 1000;
         this.liveIntervalMs = configuration.getLiveHarvestCycleSeconds() * 1000;
+        this.coalescingWindowMs = coalescedHarvestTask != null ? configuration.getHarvestCoalescingWindowMs() : 0;
         this.isAndroidTVDevice = configuration.isTV();
 
         // Create background handler with platform-optimized thread priority
@@ -98,13 +153,13 @@ public class MultiTaskHarvestScheduler implements SchedulerInterface {
         if (NRVideoConstants.EVENT_TYPE_LIVE.equals(bufferType)) {
             if (isLiveRunning.compareAndSet(false, true)) {
                 // Live events need immediate processing - minimal delay
-                backgroundHandler.postDelayed(liveHarvestRunnable, 500); // 0.5 seconds
+                postLiveHarvest(500); // 0.5 seconds
                 NRLog.d("Live scheduler started with immediate harvest");
             }
         } else if (NRVideoConstants.EVENT_TYPE_ONDEMAND.equals(bufferType)) {
             if (isOnDemandRunning.compareAndSet(false, true)) {
                 // Immediate first harvest to prevent event loss during startup
-                backgroundHandler.postDelayed(onDemandHarvestRunnable, 1000); // 1 second instead of 5
+                postOnDemandHarvest(1000); // 1 second instead of 5
                 NRLog.d("OnDemand scheduler started with quick first harvest");
             }
         }
@@ -119,6 +174,8 @@ public class MultiTaskHarvestScheduler implements SchedulerInterface {
             stopAllSchedulers();
 
             // CRITICAL: Harvest remaining events immediately before shutdown
+            // Lanes still in flight are skipped - their events stay buffered for the factory's
+            // cleanup, which waits for sends in flight and backs up what is left
             executeImmediateHarvest("SHUTDOWN");
 
             // Cleanup handler thread
@@ -166,6 +223,16 @@ public class MultiTaskHarvestScheduler implements SchedulerInterface {
         }
     }
 
+    @Override
+    public void scheduleRetry(long delayMs) {
+        if (isShutdown.get() || retryTask == null) return;
+
+        retryDelayMs = Math.max(0, delayMs);
+        isRetryPending = true;
+        backgroundHandler.removeCallbacks(retryRunnable);
+        backgroundHandler.postDelayed(retryRunnable, retryDelayMs);
+    }
+
     // ========== PRIVATE HELPER METHODS ==========
 
     /**
@@ -188,6 +255,47 @@ public class MultiTaskHarvestScheduler implements SchedulerInterface {
         }
     }
 
+    private void postOnDemandHarvest(long delayMs) {
+        onDemandDueAtMs = SystemClock.uptimeMillis() + delayMs;
+        backgroundHandler.postDelayed(onDemandHarvestRunnable, delayMs);
+    }
+
+    private void postLiveHarvest(long delayMs) {
+        liveDueAtMs = SystemClock.uptimeMillis() + delayMs;
+        backgroundHandler.postDelayed(liveHarvestRunnable, delayMs);
+    }
+
+    /**
+     * On-demand timer fired: take the live harvest along if it is due within the window
+     * The live timer then restarts from now, so live events are never held back longer than its interval
+     */
+    private boolean coalesceWithLive() {
+        if (!isLiveRunning.get() || !isDueWithinWindow(liveDueAtMs)) {
+            return false;
+        }
+        backgroundHandler.removeCallbacks(liveHarvestRunnable);
+        postLiveHarvest(liveIntervalMs);
+        NRLog.d("Coalescing live harvest into on-demand harvest");
+        return true;
+    }
+
+    /**
+     * Live timer fired: take the on-demand harvest along if it is due within the window
+     */
+    private boolean coalesceWithOnDemand() {
+        if (!isOnDemandRunning.get() || !isDueWithinWindow(onDemandDueAtMs)) {
+            return false;
+        }
+        backgroundHandler.removeCallbacks(onDemandHarvestRunnable);
+        postOnDemandHarvest(onDemandIntervalMs);
+        NRLog.d("Coalescing on-demand harvest into live harvest");
+        return true;
+    }
+
+    private boolean isDueWithinWindow(long dueAtMs) {
+        return coalescingWindowMs > 0 && dueAtMs - SystemClock.uptimeMillis() <= coalescingWindowMs;
+    }
+
     /**
      * Stop all running schedulers without executing harvest
      */
@@ -204,6 +312,7 @@ public class MultiTaskHarvestScheduler implements SchedulerInterface {
         if (backgroundHandler != null) {
             backgroundHandler.removeCallbacks(onDemandHarvestRunnable);
             backgroundHandler.removeCallbacks(liveHarvestRunnable);
+            backgroundHandler.removeCallbacks(retryRunnable);
         }
     }
 
@@ -212,10 +321,13 @@ public class MultiTaskHarvestScheduler implements SchedulerInterface {
      */
     private void resumeWithExtendedIntervals() {
         if (isOnDemandRunning.get()) {
-            backgroundHandler.postDelayed(onDemandHarvestRunnable, onDemandIntervalMs * 2);
+            postOnDemandHarvest(onDemandIntervalMs * 2);
         }
         if (isLiveRunning.get()) {
-            backgroundHandler.postDelayed(liveHarvestRunnable, liveIntervalMs * 2);
+            postLiveHarvest(liveIntervalMs * 2);
+        }
+        if (isRetryPending) {
+            backgroundHandler.postDelayed(retryRunnable, Math.max(retryDelayMs, onDemandIntervalMs * 2));
         }
     }
 
@@ -224,10 +336,13 @@ public class MultiTaskHarvestScheduler implements SchedulerInterface {
      */
     private void resumeWithNormalIntervals() {
         if (isOnDemandRunning.get()) {
-            backgroundHandler.postDelayed(onDemandHarvestRunnable, 1000); // Resume in 1 second
+            postOnDemandHarvest(1000); // Resume in 1 second
         }
         if (isLiveRunning.get()) {
-            backgroundHandler.postDelayed(liveHarvestRunnable, 500);     // Resume in 0.5 seconds
+            postLiveHarvest(500);     // Resume in 0.5 seconds
+        }
+        if (isRetryPending) {
+            backgroundHandler.postDelayed(retryRunnable, retryDelayMs);
         }
     }
 
@@ -6,18 +6,19 @@ import com.newrelic.videoagent.core.device.DeviceInformation;
 import com.newrelic.videoagent.core.util.JsonStreamUtil;
 import com.newrelic.videoagent.core.utils.NRLog;
 
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Arrays;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import com.newrelic.videoagent.core.ObfuscationEngine;
 
 /**
@@ -27,8 +28,19 @@ import com.newrelic.videoagent.core.ObfuscationEngine;
  * - Automatic app token management with persistent caching
  * - Regional endpoint selection
  * - Mobile/TV specific optimizations (battery, bandwidth)
- * - Connection reuse where possible
+ * - Pluggable transport (HarvestTransport): HttpURLConnection by default, or the app's own
+ *   HTTP/2 client; payloads are handed over as byte streams
  * - Device information integration for analytics
+ * - Client-wide 429 Retry-After: no request goes out until the window has passed
+ * - Circuit breaker per collector endpoint, with failover to the region's fallback hosts;
+ *   while every circuit is open no request goes out and events stay buffered
+ * - Payload envelope (token, device data, placeholders) pre-encoded once per token: each
+ *   request writes the cached prefix, streams the events and writes the closing bracket
+ * - Gzip decided by exact payload size, with one pooled Deflater per harvest lane and the
+ *   configured compression level; the achieved ratio is tracked (getCompressionRatio)
+ * - Hard limits on uncompressed and compressed payload size: oversized batches and batches
+ *   rejected with 413 are split in halves and resent, single events too large on their own
+ *   are quarantined (getQuarantinedEventCount) instead of cycling through the dead letter path
  */
 public class OptimizedHttpClient implements HttpClientInterface {
 
@@ -48,47 +60,126 @@ public class OptimizedHttpClient implements HttpClientInterface {
         REGIONAL_ENDPOINTS.put("DEFAULT", REGIONAL_ENDPOINTS.get("US"));
     }
 
-    // Single endpoint URL for current region
+    // Endpoint URL for current region
     private final String endpointUrl;
 
-    // Mobile/TV optimized timeouts
+    // Primary endpoint first, then the configured fallback hosts of the region, each with its circuit breaker
+    private final List<CollectorEndpoint> endpoints = new ArrayList<>();
+
+    // Mobile/TV optimized timeouts (default transport only)
     private int connectionTimeoutMs = 30000;  // 30 seconds
     private int readTimeoutMs = 60000;        // 60 seconds
 
+    // Connection strategy: the app's transport if it provided one, HttpURLConnection otherwise
+    private final HarvestTransport transport;
+    private final TransportMetrics transportMetrics;
+
+    // Monotonic deadline of the last 429 Retry-After, shared by all harvest lanes
+    private volatile long rateLimitedUntilMs = 0;
+
+    // Everything of the payload after the events array
+    private static final byte[] PAYLOAD_SUFFIX = {']'};
+    // Encoded envelope for the current token, rebuilt when the token changes
+    private volatile PayloadEnvelope envelope;
+
+    // Smaller payloads fit a single packet anyway, gzip would only cost CPU
+    static final int COMPRESSION_THRESHOLD_BYTES = 1024;
+
+    // Idle gzip encoders by lane - taken out while a request uses one
+    private final Map<String, GzipEncoder> gzipEncoders = new ConcurrentHashMap<>();
+
+    // Payload bytes before and after gzip, for compressed requests only
+    private final AtomicLong uncompressedBytesSent = new AtomicLong(0);
+    private final AtomicLong compressedBytesSent = new AtomicLong(0);
+
+    // Events dropped because no payload holding them fits the limits
+    private final AtomicLong quarantinedEvents = new AtomicLong(0);
+
+    private enum SendOutcome { DELIVERED, FAILED, TOO_LARGE }
+
     public OptimizedHttpClient(NRVideoConfiguration configuration, android.content.Context context) {
+        this(configuration, context, null);
+    }
+
+    /**
+     * @param collectorUrls full endpoint URLs in failover order, override the region, collectorAddress
+     *                      and fallback hosts (local test collectors)
+     */
+    OptimizedHttpClient(NRVideoConfiguration configuration, android.content.Context context, List<String> collectorUrls) {
         this.configuration = configuration;
         this.tokenManager = new TokenManager(context, configuration);
         this.deviceInfo = DeviceInformation.getInstance(context);
 
-        // If collectorAddress is explicitly set, use it
-        if (configuration.getCollectorAddress() != null && !configuration.getCollectorAddress().isEmpty()) {
+        // Explicit collector URLs (tests), then an explicit collectorAddress, then the region endpoint
+        String region = configuration.getRegion();
+        region = (region != null) ? region.toUpperCase() : "US";
+        if (collectorUrls != null && !collectorUrls.isEmpty()) {
+            this.endpointUrl = collectorUrls.get(0);
+        } else if (configuration.getCollectorAddress() != null && !configuration.getCollectorAddress().isEmpty()) {
             this.endpointUrl = "https://" + configuration.getCollectorAddress() + "/mobile/v3/data";
         } else {
             // Otherwise, auto-detect from region
-            String region = configuration.getRegion();
-            region = (region != null) ? region.toUpperCase() : "US";
             String endpoint = REGIONAL_ENDPOINTS.get(region);
             this.endpointUrl = (endpoint != null) ? endpoint : REGIONAL_ENDPOINTS.get("DEFAULT");
         }
 
+        if (collectorUrls != null && !collectorUrls.isEmpty()) {
+            for (String url : collectorUrls) {
+                endpoints.add(new CollectorEndpoint(url));
+            }
+        } else {
+            endpoints.add(new CollectorEndpoint(endpointUrl));
+            List<String> fallbackHosts = configuration.getFallbackCollectorAddresses(region);
+            if (fallbackHosts != null) {
+                for (String host : fallbackHosts) {
+                    endpoints.add(new CollectorEndpoint("https://" + host + "/mobile/v3/data"));
+                }
+            }
+        }
+
         if (configuration.isMemoryOptimized()) {
             connectionTimeoutMs = 6000;
             readTimeoutMs = 10000;
         }
 
-        // Enable HTTP/2 and connection reuse where available (Android 5.0+)
-        System.setProperty("http.keepAlive", "true");
-        System.setProperty("http.keepAliveDuration", "300000"); // 5 minutes
-        System.setProperty("http.maxConnections", "5");
+        HarvestTransport appTransport = configuration.getHarvestTransport();
+        this.transport = appTransport != null ?
+            appTransport : new HttpUrlConnectionTransport(connectionTimeoutMs, readTimeoutMs);
+        this.transportMetrics = new TransportMetrics(transport);
 
         NRLog.d("Initialized with region: " + configuration.getRegion() +
-              ", endpoint URL: " + endpointUrl);
+              ", endpoint URL: " + endpointUrl + ", fallback endpoints: " + (endpoints.size() - 1));
     }
 
     @Override
     public boolean sendEvents(List<Map<String, Object>> events, String endpointType) {
+        return events == null || sendEventsReportingDelivered(events, endpointType) == events.size();
+    }
+
+    /**
+     * Oversized batches go out in halves; the halves delivered before a failing one count as
+     * delivered, so the caller only retries the rest
+     */
+    @Override
+    public int sendEventsReportingDelivered(List<Map<String, Object>> events, String endpointType) {
+        return sendEventsReportingDelivered(events, endpointType, -1);
+    }
+
+    /**
+     * The known size saves serializing the batch just to check it against the payload limits
+     * It is ignored once obfuscation rewrote events, their size changed with it
+     */
+    @Override
+    public int sendEventsReportingDelivered(List<Map<String, Object>> events, String endpointType, long eventBytes) {
         if (events == null || events.isEmpty()) {
-            return true;
+            return 0;
+        }
+
+        // Honor Retry-After for every lane - sending now would only earn another 429
+        long retryAfterMs = getRetryAfterRemainingMs();
+        if (retryAfterMs > 0) {
+            NRLog.d("Rate limited - skipping send of " + events.size() + " events for another " + retryAfterMs + "ms");
+            return 0;
         }
 
         // Apply obfuscation rules to a COPY of the events before sending.
@@ -103,36 +194,175 @@ public class OptimizedHttpClient implements HttpClientInterface {
         // By working on a copy, the original list stays clean for any retry path.
         List<Map<String, Object>> safeEvents = ObfuscationEngine.apply(events, configuration.getObfuscationRules());
 
-        return sendEventsWithRetry(safeEvents);
+        String lane = endpointType != null ? endpointType : "";
+        int jsonBytes;
+        if (safeEvents == events && eventBytes >= 0) {
+            // Events plus the array's brackets and separators
+            jsonBytes = (int) Math.min(Integer.MAX_VALUE, eventBytes + events.size() + 1);
+        } else {
+            jsonBytes = measureEvents(safeEvents);
+            if (jsonBytes < 0) {
+                return 0;
+            }
+        }
+        return sendSplittingOversized(safeEvents, jsonBytes, lane);
+    }
+
+    /**
+     * Send a batch, halving it while it exceeds the payload limits or the collector answers 413
+     * A single event that is still too large is quarantined and counts as handled, so it never
+     * reaches the dead letter path. Halves go out one after the other and the first failing half
+     * stops the send
+     * Only the first half is measured, the second one's size follows from the batch size
+     * @param jsonBytes serialized size of the events as a JSON array
+     * @return number of leading events delivered or quarantined
+     */
+    private int sendSplittingOversized(List<Map<String, Object>> events, int jsonBytes, String lane) {
+        SendOutcome outcome = sendEventsWithRetry(events, jsonBytes, lane);
+        if (outcome != SendOutcome.TOO_LARGE) {
+            return outcome == SendOutcome.DELIVERED ? events.size() : 0;
+        }
+        if (events.size() == 1) {
+            quarantine(events.get(0));
+            return 1;
+        }
+
+        int half = events.size() / 2;
+        NRLog.d("Payload too large - splitting " + events.size() + " events in halves");
+        List<Map<String, Object>> firstHalf = events.subList(0, half);
+        int firstBytes = measureEvents(firstHalf);
+        if (firstBytes < 0) {
+            return 0;
+        }
+        int delivered = sendSplittingOversized(firstHalf, firstBytes, lane);
+        if (delivered < half) {
+            return delivered;
+        }
+        // The separator between the halves becomes the second half's opening bracket
+        int secondBytes = Math.max(2, jsonBytes - firstBytes + 1);
+        return half + sendSplittingOversized(events.subList(half, events.size()), secondBytes, lane);
+    }
+
+    /**
+     * Serialized size of events as a JSON array
+     * @return -1 if an event cannot be serialized
+     */
+    private static int measureEvents(List<Map<String, Object>> events) {
+        try {
+            return JsonStreamUtil.measureJson(events);
+        } catch (IOException e) {
+            NRLog.w("Events could not be serialized: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    private void quarantine(Map<String, Object> event) {
+        long total = quarantinedEvents.incrementAndGet();
+        NRLog.w("Quarantined " + event.get("actionName") + " event - too large for a payload on its own ("
+            + total + " quarantined so far)");
+    }
+
+    /**
+     * Fetch the app token in the background so the first harvest does not wait for it
+     */
+    @Override
+    public void warmUp() {
+        tokenManager.prefetchToken();
+    }
+
+    @Override
+    public long getRetryAfterRemainingMs() {
+        long until = rateLimitedUntilMs;
+        if (until == 0) {
+            return 0;
+        }
+        return Math.max(0, until - nowMs());
+    }
+
+    /**
+     * Retry-After window, or the time until the first collector endpoint leaves its open circuit
+     */
+    @Override
+    public long getSendBlockedRemainingMs() {
+        long now = nowMs();
+        long circuitOpenMs = Long.MAX_VALUE;
+        for (CollectorEndpoint endpoint : endpoints) {
+            circuitOpenMs = Math.min(circuitOpenMs, endpoint.breaker.getOpenRemainingMs(now));
+        }
+        return Math.max(getRetryAfterRemainingMs(), circuitOpenMs);
+    }
+
+    private static long nowMs() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * Request and connection reuse counters of the transport
+     */
+    public TransportMetrics getTransportMetrics() {
+        return transportMetrics;
+    }
+
+    /**
+     * Compressed size over uncompressed size of every gzip'd payload sent so far
+     * @return 1.0 if nothing was compressed yet
+     */
+    public double getCompressionRatio() {
+        long uncompressed = uncompressedBytesSent.get();
+        return uncompressed == 0 ? 1.0 : (double) compressedBytesSent.get() / uncompressed;
     }
 
-    private boolean sendEventsWithRetry(List<Map<String, Object>> events) {
+    /**
+     * Events dropped because they exceed the payload limits on their own
+     */
+    public long getQuarantinedEventCount() {
+        return quarantinedEvents.get();
+    }
+
+    private SendOutcome sendEventsWithRetry(List<Map<String, Object>> events, int jsonBytes, String lane) {
         final int maxRetryAttempts = 3;
         int attempt = 0;
+        int nextEndpoint = 0; // Primary first, retries rotate through the fallbacks
 
         while (attempt < maxRetryAttempts) {
             try {
-                boolean result = performHttpRequest(events, endpointUrl);
-                if (result) {
-                    NRLog.d("Successfully sent " + events.size() + " events on attempt " + (attempt + 1) + " to " + endpointUrl);
-                    return true;
+                // Envelope of the current app token (cached or generate new one)
+                PayloadEnvelope payloadEnvelope = currentEnvelope();
+                // Limits are checked before an endpoint is picked - an oversized payload never goes out
+                int payloadBytes = payloadEnvelope.prefix.length + jsonBytes + PAYLOAD_SUFFIX.length;
+                byte[] compressedPayload = compressIfOverLimit(payloadEnvelope.prefix, events, payloadBytes, lane);
+
+                CollectorEndpoint endpoint = selectEndpoint(nextEndpoint);
+                if (endpoint == null) {
+                    NRLog.d("Circuit open for every collector endpoint - " + events.size() + " events stay buffered");
+                    return SendOutcome.FAILED;
+                }
+                nextEndpoint = endpoints.indexOf(endpoint) + 1;
+
+                int responseCode = sendToEndpoint(events, payloadEnvelope, payloadBytes, compressedPayload, endpoint, lane);
+                if (responseCode >= 200 && responseCode < 300) {
+                    NRLog.d("Successfully sent " + events.size() + " events on attempt " + (attempt + 1) + " to " + endpoint.url);
+                    return SendOutcome.DELIVERED;
                 }
 
+            } catch (PayloadTooLargeException e) {
+                NRLog.d(e.getMessage());
+                return SendOutcome.TOO_LARGE; // Resending the same payload cannot succeed
             } catch (IOException e) {
                 NRLog.w("Attempt " + (attempt + 1) + " failed: " + e.getMessage());
 
                 // Handle rate limiting specially - don't retry immediately
                 if (e.getMessage() != null && e.getMessage().contains("Rate limit exceeded (429)")) {
                     NRLog.w("Rate limit hit - deferring to HarvestManager for delayed retry");
-                    return false; // Let HarvestManager handle rate limit delays
+                    return SendOutcome.FAILED; // Let HarvestManager handle rate limit delays
                 }
             }
 
             attempt++;
             // MOBILE/TV OPTIMIZATION: Remove Thread.sleep() to avoid blocking
             // Instead of sleeping here, we rely on:
-            // 1. Domain rotation (immediate failover to different endpoints)
-            // 2. Circuit breaker pattern (switches to backup domains)
+            // 1. Domain rotation (immediate failover to the region's fallback endpoints)
+            // 2. Circuit breakers (no requests to an endpoint that keeps failing)
             // 3. HarvestManager's scheduled retries for application-level delays
             if (attempt < maxRetryAttempts) {
                 NRLog.d("Immediate retry " + (attempt + 1) + "/" + maxRetryAttempts + " (no delay for mobile/TV performance)");
@@ -141,128 +371,185 @@ public class OptimizedHttpClient implements HttpClientInterface {
 
         // All immediate retries failed - let HarvestManager handle application-level retries
         NRLog.w("All " + maxRetryAttempts + " immediate attempts failed for " + events.size() + " events. Queuing for HarvestManager retry.");
-        return false;
+        return SendOutcome.FAILED;
     }
 
-    private boolean performHttpRequest(List<Map<String, Object>> events, String endpointUrl) throws IOException {
-        URL url = new URL(endpointUrl);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    /**
+     * Enforce the payload limits before sending
+     * A payload above the compressed limit before compression is gzip'd up front to learn its
+     * exact compressed size; smaller ones are streamed through gzip while sending as usual
+     * @return the gzip'd payload if it had to be compressed up front, null otherwise
+     * @throws PayloadTooLargeException if the payload exceeds either limit
+     */
+    private byte[] compressIfOverLimit(byte[] prefix, List<Map<String, Object>> events,
+                                       int payloadBytes, String lane) throws IOException {
+        int maxBytes = configuration.getMaxPayloadBytes();
+        if (maxBytes > 0 && payloadBytes > maxBytes) {
+            throw new PayloadTooLargeException("Payload of " + events.size() + " events is "
+                + payloadBytes + " bytes, limit " + maxBytes);
+        }
+        int maxCompressedBytes = configuration.getMaxCompressedPayloadBytes();
+        if (maxCompressedBytes <= 0 || payloadBytes <= maxCompressedBytes) {
+            return null;
+        }
 
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(maxCompressedBytes / 2);
+        GzipEncoder gzip = acquireGzipEncoder(lane);
         try {
-            // Optimize connection settings for mobile/TV
-            connection.setRequestMethod("POST");
-            connection.setDoOutput(true);
-            connection.setDoInput(true);
-            connection.setUseCaches(false);
-            connection.setConnectTimeout(connectionTimeoutMs);
-            connection.setReadTimeout(readTimeoutMs);
+            gzip.begin(compressed);
+            writePayload(prefix, events, gzip);
+            gzip.finish();
+        } finally {
+            releaseGzipEncoder(lane, gzip);
+        }
+        if (compressed.size() > maxCompressedBytes) {
+            throw new PayloadTooLargeException("Payload of " + events.size() + " events is "
+                + compressed.size() + " bytes compressed, limit " + maxCompressedBytes);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * First endpoint from start on (wrapping) whose circuit lets a request through
+     * @return null if every circuit is open
+     */
+    private CollectorEndpoint selectEndpoint(int start) {
+        long now = nowMs();
+        int count = endpoints.size();
+        for (int i = 0; i < count; i++) {
+            CollectorEndpoint endpoint = endpoints.get((start + i) % count);
+            if (endpoint.breaker.allowRequest(now)) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
 
-            // Pre-calculate compression decision based on event count (faster than JSON size)
-            boolean useCompression = events.size() > 10;
+    /**
+     * Send to one endpoint and feed the outcome to its circuit breaker
+     * No response and 5xx count as endpoint failures, any other response (429 and 413 included) shows it is up
+     */
+    private int sendToEndpoint(List<Map<String, Object>> events, PayloadEnvelope payloadEnvelope,
+                               int payloadBytes, byte[] compressedPayload,
+                               CollectorEndpoint endpoint, String lane) throws IOException {
+        int responseCode;
+        try {
+            responseCode = performHttpRequest(events, payloadEnvelope, payloadBytes, compressedPayload, endpoint.url, lane);
+        } catch (IOException e) {
+            if (e instanceof PayloadTooLargeException
+                    || (e.getMessage() != null && e.getMessage().contains("Rate limit exceeded (429)"))) {
+                endpoint.breaker.recordSuccess();
+            } else {
+                endpoint.breaker.recordFailure(nowMs());
+            }
+            throw e;
+        }
+        if (responseCode >= 500) {
+            endpoint.breaker.recordFailure(nowMs());
+        } else {
+            endpoint.breaker.recordSuccess();
+        }
+        return responseCode;
+    }
 
-            // Get app token (cached or generate new one)
-            List<Long> appToken = tokenManager.getAppToken();
+    private int performHttpRequest(final List<Map<String, Object>> events, PayloadEnvelope payloadEnvelope,
+                                   final int payloadBytes, final byte[] compressedPayload,
+                                   String endpointUrl, final String lane) throws IOException {
+        try {
+            final byte[] payloadPrefix = payloadEnvelope.prefix;
+            // Compression decided by the exact payload size (pre-serialized events are not re-encoded)
+            final boolean useCompression = compressedPayload != null || payloadBytes >= COMPRESSION_THRESHOLD_BYTES;
 
             // Set headers with app token and device information
-            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
-            connection.setRequestProperty("Accept", "application/json");
-            connection.setRequestProperty("User-Agent", deviceInfo.getUserAgent());
-            connection.setRequestProperty("Connection", "keep-alive");
-            connection.setRequestProperty("X-App-License-Key", configuration.getApplicationToken());
-
-            List<Object> payload = new ArrayList<>();
-            payload.add(appToken);
-
-            // Build device metadata map
-            HashMap<String, Object> deviceMetadata = new HashMap<>();
-            deviceMetadata.put("size", deviceInfo.getSize());
-            deviceMetadata.put("platform", deviceInfo.getApplicationFramework());
-            deviceMetadata.put("platformVersion", deviceInfo.getApplicationFrameworkVersion());
-
-            payload.add(Arrays.asList(
-                    deviceInfo.getOsName(),
-                    deviceInfo.getOsVersion(),
-                    deviceInfo.getArchitecture(),
-                    deviceInfo.getAgentName(),
-                    deviceInfo.getAgentVersion(),
-                    deviceInfo.getDeviceId(),
-                    "",
-                    "",
-                    deviceInfo.getManufacturer(),
-                    deviceMetadata
-            ));
-            payload.add(0);
-            payload.add(new ArrayList<>()); // []
-            payload.add(new ArrayList<>()); // []
-            payload.add(new ArrayList<>()); // []
-            payload.add(new ArrayList<>()); // []
-            payload.add(new ArrayList<>()); // []
-            payload.add(new HashMap<>());   // {}
-            payload.add(events);
+            Map<String, String> headers = new LinkedHashMap<>();
+            headers.put("Content-Type", "application/json; charset=utf-8");
+            headers.put("Accept", "application/json");
+            headers.put("User-Agent", deviceInfo.getUserAgent());
+            headers.put("Connection", "keep-alive");
+            headers.put("X-App-License-Key", configuration.getApplicationToken());
 
             if (useCompression) {
-                connection.setRequestProperty("Content-Encoding", "gzip");
-                connection.setRequestProperty("Accept-Encoding", "gzip");
+                headers.put("Content-Encoding", "gzip");
+                headers.put("Accept-Encoding", "gzip");
             }
 
             // OPTIMIZATION: Stream JSON directly to output without intermediate string
-            try (OutputStream outputStream = new BufferedOutputStream(connection.getOutputStream())) {
-                if (useCompression) {
-                    try (GZIPOutputStream gzipStream = new GZIPOutputStream(outputStream)) {
-                        streamJsonToOutputStream(payload, gzipStream);
-                        gzipStream.finish();
+            transportMetrics.recordRequest();
+            TransportResponse response;
+            try {
+                response = transport.post(endpointUrl, headers, outputStream -> {
+                    if (compressedPayload != null) {
+                        outputStream.write(compressedPayload);
+                        recordCompression(payloadBytes, compressedPayload.length);
+                    } else if (useCompression) {
+                        GzipEncoder gzip = acquireGzipEncoder(lane);
+                        try {
+                            gzip.begin(outputStream);
+                            writePayload(payloadPrefix, events, gzip);
+                            recordCompression(gzip.getUncompressedBytes(), gzip.finish());
+                        } finally {
+                            releaseGzipEncoder(lane, gzip);
+                        }
+                    } else {
+                        writePayload(payloadPrefix, events, outputStream);
                     }
-                } else {
-                    streamJsonToOutputStream(payload, outputStream);
-                }
-                outputStream.flush();
+                });
+            } catch (IOException e) {
+                transportMetrics.recordFailure();
+                throw e;
             }
 
             // Check response
-            int responseCode = connection.getResponseCode();
-            boolean success = responseCode >= 200 && responseCode < 300;
+            int responseCode = response.getStatusCode();
             // Handle different error scenarios
             if (responseCode == 401 || responseCode == 403) {
-                // Token might be expired, refresh and retry once
-                try {
-                    tokenManager.refreshToken();
-                    NRLog.d("Token refreshed due to auth failure (response: " + responseCode + ")");
-                } catch (IOException tokenRefreshError) {
-                    NRLog.e("Token refresh failed", tokenRefreshError);
-                }
+                // Token might be expired - the refresh runs in the background, the next attempt waits for it
+                envelope = null;
+                tokenManager.invalidateToken(payloadEnvelope.tokenGeneration);
+                NRLog.d("Token refresh started due to auth failure (response: " + responseCode + ")");
+            } else if (responseCode == 413) {
+                // Not a collector failure - the batch has to go out in smaller payloads
+                throw new PayloadTooLargeException("Payload of " + events.size() + " events rejected by collector (413)");
             } else if (responseCode == 429) {
                 // Rate limit exceeded - extract retry-after header if present
-                String retryAfter = connection.getHeaderField("Retry-After");
+                String retryAfter = response.getHeader("Retry-After");
                 long retryAfterMs = parseRetryAfter(retryAfter);
 
                 NRLog.w("Rate limit exceeded (429). Retry after: " + retryAfterMs + "ms");
+                rateLimitedUntilMs = nowMs() + retryAfterMs;
 
                 // Don't sleep here - let caller handle the retry delay
                 // Mark this as a temporary failure by throwing a specific exception
                 throw new IOException("Rate limit exceeded (429). Retry after: " + retryAfterMs + "ms");
             }
 
-            // OPTIMIZATION: More efficient response reading
-            if (success || responseCode < 500) { // Only read response for non-server errors
-                try (InputStream responseStream = success ? connection.getInputStream() : connection.getErrorStream()) {
-                    if (responseStream != null) {
-                        // Optimized response draining with larger buffer
-                        byte[] buffer = new byte[4096]; // Larger buffer for better performance
-                        //noinspection StatementWithEmptyBody
-                        while (responseStream.read(buffer) != -1) {
-                            // Discard response data to enable connection reuse
-                        }
-                    }
-                }
-            }
-
-            return success;
+            return responseCode;
 
+        } catch (PayloadTooLargeException e) {
+            throw e;
         } catch (Exception e) {
             throw new IOException("Request failed: " + e.getMessage(), e);
         }
     }
 
+    private GzipEncoder acquireGzipEncoder(String lane) {
+        GzipEncoder encoder = gzipEncoders.remove(lane);
+        return encoder != null ? encoder : new GzipEncoder(configuration.getCompressionLevel());
+    }
+
+    private void releaseGzipEncoder(String lane, GzipEncoder encoder) {
+        if (gzipEncoders.putIfAbsent(lane, encoder) != null) {
+            encoder.end(); // Another request of this lane returned its encoder first
+        }
+    }
+
+    private void recordCompression(long uncompressed, long compressed) {
+        uncompressedBytesSent.addAndGet(uncompressed);
+        compressedBytesSent.addAndGet(compressed);
+        NRLog.d("Payload compressed " + uncompressed + " -> " + compressed + " bytes (overall ratio "
+            + String.format(Locale.US, "%.2f", getCompressionRatio()) + ")");
+    }
+
     /**
      * Parse Retry-After header value to milliseconds
      * Supports both delay-seconds and HTTP-date formats
@@ -283,12 +570,103 @@ public class OptimizedHttpClient implements HttpClientInterface {
         }
     }
 
+    /**
+     * Encoded payload up to the events array, reused while the token stays the same
+     * Device information is fixed for the process, so the token is the only thing that changes
+     */
+    private PayloadEnvelope currentEnvelope() throws IOException {
+        PayloadEnvelope cached = envelope;
+        long generation = tokenManager.getTokenGeneration();
+        if (cached != null && cached.tokenGeneration == generation && tokenManager.hasValidToken()) {
+            return cached;
+        }
+
+        // Generation read before the token: a refresh in between only causes another rebuild
+        List<Long> appToken = tokenManager.getAppToken();
+        PayloadEnvelope rebuilt = new PayloadEnvelope(generation, encodeEnvelopePrefix(appToken, deviceInfo));
+        envelope = rebuilt;
+        return rebuilt;
+    }
+
+    /**
+     * "[token,[device...],0,[],[],[],[],[],{}," - the payload before the events array
+     */
+    static byte[] encodeEnvelopePrefix(List<Long> appToken, DeviceInformation deviceInfo) throws IOException {
+        List<Object> payload = new ArrayList<>();
+        payload.add(appToken);
+
+        // Build device metadata map
+        HashMap<String, Object> deviceMetadata = new HashMap<>();
+        deviceMetadata.put("size", deviceInfo.getSize());
+        deviceMetadata.put("platform", deviceInfo.getApplicationFramework());
+        deviceMetadata.put("platformVersion", deviceInfo.getApplicationFrameworkVersion());
+
+        payload.add(Arrays.asList(
+                deviceInfo.getOsName(),
+                deviceInfo.getOsVersion(),
+                deviceInfo.getArchitecture(),
+                deviceInfo.getAgentName(),
+                deviceInfo.getAgentVersion(),
+                deviceInfo.getDeviceId(),
+                "",
+                "",
+                deviceInfo.getManufacturer(),
+                deviceMetadata
+        ));
+        payload.add(0);
+        payload.add(new ArrayList<>()); // []
+        payload.add(new ArrayList<>()); // []
+        payload.add(new ArrayList<>()); // []
+        payload.add(new ArrayList<>()); // []
+        payload.add(new ArrayList<>()); // []
+        payload.add(new HashMap<>());   // {}
+
+        // Encode the envelope as an array and keep it open for the events
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(256);
+        JsonStreamUtil.streamJsonToOutputStream(payload, encoded);
+        byte[] prefix = encoded.toByteArray();
+        prefix[prefix.length - 1] = ',';
+        return prefix;
+    }
+
     /**
      * OPTIMIZATION: Stream JSON directly to OutputStream without creating intermediate strings
-     * This saves memory and is faster for large event batches
+     * The cached envelope is copied as bytes, only the events are serialized
+     */
+    static void writePayload(byte[] prefix, List<Map<String, Object>> events, OutputStream outputStream) throws IOException {
+        outputStream.write(prefix);
+        JsonStreamUtil.streamEventsToOutputStream(events, outputStream);
+        outputStream.write(PAYLOAD_SUFFIX);
+    }
+
+    /**
+     * A payload over the size limits, or one the collector rejected with 413
      */
-    private void streamJsonToOutputStream(List<Object> events, OutputStream outputStream) throws IOException {
-        JsonStreamUtil.streamJsonToOutputStream(events, outputStream);
+    static final class PayloadTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        PayloadTooLargeException(String message) {
+            super(message);
+        }
     }
 
+    private static final class CollectorEndpoint {
+        final String url;
+        final CircuitBreaker breaker;
+
+        CollectorEndpoint(String url) {
+            this.url = url;
+            this.breaker = new CircuitBreaker(url);
+        }
+    }
+
+    private static final class PayloadEnvelope {
+        final long tokenGeneration;
+        final byte[] prefix;
+
+        PayloadEnvelope(long tokenGeneration, byte[] prefix) {
+            this.tokenGeneration = tokenGeneration;
+            this.prefix = prefix;
+        }
+    }
 }
@@ -1,9 +1,13 @@
 package com.newrelic.videoagent.core.harvest;
 
+import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.ArrayList;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.TimeUnit;
 import com.newrelic.videoagent.core.NRVideoConstants;
@@ -11,17 +15,39 @@ import com.newrelic.videoagent.core.NRVideoConstants;
 /**
  * Video-optimized priority event buffer for mobile/TV environments
  * Separates live streaming events from on-demand content events
- * Uses thread-safe ConcurrentLinkedQueue for better reliability
+ * Uses bounded lock-free ring buffers with O(1) size tracking per priority
+ * Each event's serialized UTF-8 size is measured once on add; running byte totals per
+ * priority and exact byte budgets drive batching (no fixed event-count caps)
+ * Harvests lease batches: leased events stay owned by the buffer until ack/nack, failed
+ * ones go back to a per-priority retry lane served before newer events, and attempt counts
+ * live on the buffer entries - event maps are never copied
  * Simple overflow detection triggers immediate harvest
  * Deduplicates CONTIGUOUS events by actionName with O(1) atomic tracking
  * OPTIMIZED: Reduced buffer sizes for 2KB events with dynamic device detection
  */
 public class PriorityEventBuffer implements EventBufferInterface {
     // Live streaming events need immediate processing (live TV, sports, news)
-    private final ConcurrentLinkedQueue<Map<String, Object>> liveEvents = new ConcurrentLinkedQueue<>();
+    private final EventRingBuffer<SizedEvent> liveEvents;
 
     // On-demand events can tolerate some delay (movies, series, recorded content)
-    private final ConcurrentLinkedQueue<Map<String, Object>> ondemandEvents = new ConcurrentLinkedQueue<>();
+    private final EventRingBuffer<SizedEvent> ondemandEvents;
+
+    // Running serialized byte totals per priority
+    private final AtomicLong liveBytes = new AtomicLong(0);
+    private final AtomicLong ondemandBytes = new AtomicLong(0);
+
+    // Exact UTF-8 sizing, measured once per event on add
+    private final SizeEstimator eventSizer = new DefaultSizeEstimator();
+
+    // Nacked events waiting for the next harvest, oldest first (guarded by the polling locks)
+    private final ArrayDeque<SizedEvent> liveRetries = new ArrayDeque<>();
+    private final ArrayDeque<SizedEvent> ondemandRetries = new ArrayDeque<>();
+    private final AtomicInteger liveRetryCount = new AtomicInteger(0);
+    private final AtomicInteger ondemandRetryCount = new AtomicInteger(0);
+
+    // Batches handed out for harvest and not yet acked/nacked
+    private final Map<Long, LeasedBatch> leases = new ConcurrentHashMap<>();
+    private final AtomicLong nextLeaseId = new AtomicLong(EventLease.DETACHED_ID + 1);
 
     // Optimized locks for atomic polling operations with timeout support
     private final ReentrantLock livePollingLock = new ReentrantLock();
@@ -39,6 +65,7 @@ public class PriorityEventBuffer implements EventBufferInterface {
     // Enhanced callback support
     private OverflowCallback overflowCallback;
     private CapacityCallback capacityCallback;
+    private volatile EvictionCallback evictionCallback;
 
     public PriorityEventBuffer(boolean isTV) {
         this.isAndroidTVDevice = isTV;
@@ -53,6 +80,9 @@ public class PriorityEventBuffer implements EventBufferInterface {
             this.MAX_LIVE_EVENTS = 150;      // 150 × 2KB = 300KB (conservative for mobile)
             this.MAX_ONDEMAND_EVENTS = 350;  // 350 × 2KB = 700KB (balanced for mobile)
         }
+
+        this.liveEvents = new EventRingBuffer<>(MAX_LIVE_EVENTS);
+        this.ondemandEvents = new EventRingBuffer<>(MAX_ONDEMAND_EVENTS);
     }
 
     /**
@@ -74,22 +104,35 @@ public class PriorityEventBuffer implements EventBufferInterface {
         boolean shouldStartScheduler = false;
         String harvestType = null;
 
-        // Get the target queue and last action tracker for this event
-        ConcurrentLinkedQueue<Map<String, Object>> targetQueue = isLiveContent ? liveEvents : ondemandEvents;
+        // Get the target queue and byte total for this event
+        EventRingBuffer<SizedEvent> targetQueue = isLiveContent ? liveEvents : ondemandEvents;
+        AtomicLong targetBytes = isLiveContent ? liveBytes : ondemandBytes;
         int maxCapacity = isLiveContent ? MAX_LIVE_EVENTS : MAX_ONDEMAND_EVENTS;
 
         // SCHEDULER STARTUP: Start scheduler on FIRST event of each category
         boolean wasEmpty = targetQueue.isEmpty();
 
         // Add the new event (this will be the most recent one)
-        targetQueue.offer(event);
+        // Ring is bounded: if we reach max capacity the oldest events are evicted
+        SizedEvent entry = new SizedEvent(event, eventSizer.estimate(event));
+        targetBytes.addAndGet(entry.sizeBytes);
+        while (!targetQueue.offer(entry)) {
+            SizedEvent evicted = targetQueue.poll();
+            if (evicted != null) {
+                targetBytes.addAndGet(-evicted.sizeBytes);
+                EvictionCallback callback = evictionCallback;
+                if (callback != null) {
+                    callback.onEventEvicted(evicted.event);
+                }
+            }
+        }
 
         // CRITICAL: Start scheduler on first event of this category
         if (wasEmpty) {
             shouldStartScheduler = true;
         }
 
-        // Check capacity thresholds AFTER the event is added
+        // Check capacity thresholds AFTER the event is added (O(1) size)
         double currentCapacity = (double) targetQueue.size() / maxCapacity;
 
         // Check for 90% threshold (overflow prevention)
@@ -98,14 +141,6 @@ public class PriorityEventBuffer implements EventBufferInterface {
             harvestType = isLiveContent ? NRVideoConstants.EVENT_TYPE_LIVE : NRVideoConstants.EVENT_TYPE_ONDEMAND;
         }
 
-        // Fallback: if we somehow still reach max capacity, remove oldest events
-        while (liveEvents.size() > MAX_LIVE_EVENTS) {
-            liveEvents.poll();
-        }
-        while (ondemandEvents.size() > MAX_ONDEMAND_EVENTS) {
-            ondemandEvents.poll();
-        }
-
         if (shouldStartScheduler) {
             capacityCallback.onCapacityThresholdReached(0.0, isLiveContent ? NRVideoConstants.EVENT_TYPE_LIVE : NRVideoConstants.EVENT_TYPE_ONDEMAND);
         }
@@ -115,10 +150,160 @@ public class PriorityEventBuffer implements EventBufferInterface {
         }
     }
 
+    /**
+     * Poll the oldest events of a priority up to maxSizeBytes of serialized JSON
+     * Polled events are released immediately (no lease)
+     * Uses the sizes measured on add; sizeEstimator is only part of the buffer interface
+     */
     @Override
     public List<Map<String, Object>> pollBatchByPriority(int maxSizeBytes, SizeEstimator sizeEstimator, String priority) {
-        // Platform-specific optimization: Use different strategies for mobile vs TV
+        List<SizedEvent> entries = takeBatch(maxSizeBytes, NRVideoConstants.EVENT_TYPE_LIVE.equals(priority));
+        List<Map<String, Object>> batch = new ArrayList<>(entries.size());
+        for (SizedEvent entry : entries) {
+            batch.add(entry.event);
+        }
+        return batch;
+    }
+
+    /**
+     * Lease the oldest events of a priority (retries first) up to maxSizeBytes of serialized JSON
+     * Events stay owned by the buffer until ack or nack - no copies are made
+     */
+    @Override
+    public EventLease leaseBatchByPriority(int maxSizeBytes, SizeEstimator sizeEstimator, String priority) {
         boolean isLivePriority = NRVideoConstants.EVENT_TYPE_LIVE.equals(priority);
+        List<SizedEvent> entries = takeBatch(maxSizeBytes, isLivePriority);
+
+        List<Map<String, Object>> events = new ArrayList<>(entries.size() + 1); // Room for a QOE event
+        long leasedBytes = 0;
+        for (SizedEvent entry : entries) {
+            events.add(entry.event);
+            leasedBytes += entry.sizeBytes;
+        }
+        if (entries.isEmpty()) {
+            return new EventLease(EventLease.DETACHED_ID, priority, events, 0);
+        }
+
+        long leaseId = nextLeaseId.getAndIncrement();
+        leases.put(leaseId, new LeasedBatch(isLivePriority, entries));
+        return new EventLease(leaseId, priority, events, leasedBytes);
+    }
+
+    @Override
+    public void ack(long leaseId) {
+        leases.remove(leaseId);
+    }
+
+    /**
+     * Return a failed lease to its retry lane, keeping event order
+     * Events that already failed more than maxRetries times are released instead, as are
+     * events that do not fit the retry lane (bounded to the ring capacity)
+     */
+    @Override
+    public List<Map<String, Object>> nack(long leaseId, int maxRetries) {
+        return nackUndelivered(leaseId, 0, maxRetries);
+    }
+
+    /**
+     * Drop the delivered head of a lease and return the rest to its retry lane like nack
+     */
+    @Override
+    public List<Map<String, Object>> nackUndelivered(long leaseId, int deliveredCount, int maxRetries) {
+        LeasedBatch batch = leases.remove(leaseId);
+        if (batch == null) {
+            return Collections.emptyList();
+        }
+        int delivered = Math.max(0, deliveredCount);
+
+        ReentrantLock pollingLock = batch.isLive ? livePollingLock : ondemandPollingLock;
+        ArrayDeque<SizedEvent> retries = batch.isLive ? liveRetries : ondemandRetries;
+        AtomicInteger retryCount = batch.isLive ? liveRetryCount : ondemandRetryCount;
+        AtomicLong targetBytes = batch.isLive ? liveBytes : ondemandBytes;
+        int laneCapacity = batch.isLive ? MAX_LIVE_EVENTS : MAX_ONDEMAND_EVENTS;
+
+        List<Map<String, Object>> released = new ArrayList<>();
+        pollingLock.lock();
+        try {
+            // Walk backwards so addFirst keeps the original order ahead of older retries
+            for (int i = batch.entries.size() - 1; i >= delivered; i--) {
+                SizedEvent entry = batch.entries.get(i);
+                entry.failures++;
+                if (entry.failures > maxRetries || retries.size() >= laneCapacity) {
+                    released.add(entry.event);
+                } else {
+                    retries.addFirst(entry);
+                    targetBytes.addAndGet(entry.sizeBytes);
+                }
+            }
+            retryCount.set(retries.size());
+        } finally {
+            pollingLock.unlock();
+        }
+
+        Collections.reverse(released);
+        return released;
+    }
+
+    /**
+     * Remove every buffered event of both priorities, retry lanes first, in one atomic step
+     * Both polling locks are held, so no harvest can take events halfway through; events
+     * leased by harvests in flight are not included (they come back via nack if those fail)
+     */
+    public void drainAll(List<Map<String, Object>> liveOut, List<Map<String, Object>> ondemandOut) {
+        livePollingLock.lock();
+        ondemandPollingLock.lock();
+        try {
+            drainLocked(liveRetries, liveRetryCount, liveEvents, liveBytes, liveOut);
+            drainLocked(ondemandRetries, ondemandRetryCount, ondemandEvents, ondemandBytes, ondemandOut);
+        } finally {
+            ondemandPollingLock.unlock();
+            livePollingLock.unlock();
+        }
+    }
+
+    private static void drainLocked(ArrayDeque<SizedEvent> retries, AtomicInteger retryCount,
+                                    EventRingBuffer<SizedEvent> queue, AtomicLong bytes,
+                                    List<Map<String, Object>> out) {
+        SizedEvent entry;
+        while ((entry = retries.pollFirst()) != null) {
+            bytes.addAndGet(-entry.sizeBytes);
+            out.add(entry.event);
+        }
+        retryCount.set(0);
+        while ((entry = queue.poll()) != null) {
+            bytes.addAndGet(-entry.sizeBytes);
+            out.add(entry.event);
+        }
+    }
+
+    /**
+     * Copy the events of every outstanding lease, which stay leased
+     */
+    public void copyLeased(List<Map<String, Object>> liveOut, List<Map<String, Object>> ondemandOut) {
+        for (LeasedBatch batch : leases.values()) {
+            List<Map<String, Object>> out = batch.isLive ? liveOut : ondemandOut;
+            for (SizedEvent entry : batch.entries) {
+                out.add(entry.event);
+            }
+        }
+    }
+
+    /**
+     * Events leased for harvests still in flight
+     */
+    public int getLeasedEventCount() {
+        int count = 0;
+        for (LeasedBatch batch : leases.values()) {
+            count += batch.entries.size();
+        }
+        return count;
+    }
+
+    /**
+     * Take the oldest entries of a priority within the byte budget, retry lane first
+     */
+    private List<SizedEvent> takeBatch(int maxSizeBytes, boolean isLivePriority) {
+        // Platform-specific optimization: Use different strategies for mobile vs TV
         ReentrantLock pollingLock = isLivePriority ? livePollingLock : ondemandPollingLock;
 
         // Mobile/TV optimized timeout: TV can wait longer for larger batches
@@ -126,71 +311,63 @@ public class PriorityEventBuffer implements EventBufferInterface {
 
         try {
             // Fast path: Check if queue is empty before acquiring lock (optimization)
-            ConcurrentLinkedQueue<Map<String, Object>> targetQueue = isLivePriority ? liveEvents : ondemandEvents;
-            if (targetQueue.isEmpty()) {
-                return new ArrayList<>(); // No lock needed for empty queue
+            EventRingBuffer<SizedEvent> targetQueue = isLivePriority ? liveEvents : ondemandEvents;
+            ArrayDeque<SizedEvent> retries = isLivePriority ? liveRetries : ondemandRetries;
+            AtomicInteger retryCount = isLivePriority ? liveRetryCount : ondemandRetryCount;
+            AtomicLong targetBytes = isLivePriority ? liveBytes : ondemandBytes;
+            if (targetQueue.isEmpty() && retryCount.get() == 0) {
+                return Collections.emptyList(); // No lock needed for empty queue
             }
 
             // Acquire the lock with platform-optimized timeout
             if (!pollingLock.tryLock(lockTimeout, TimeUnit.MILLISECONDS)) {
-                return new ArrayList<>(); // Timeout, return empty batch
+                return Collections.emptyList(); // Timeout, return empty batch
             }
 
-            // Pre-allocate batch with optimal capacity for mobile/TV
-            int estimatedBatchSize = isAndroidTVDevice ?
-                (isLivePriority ? 25 : 50) : (isLivePriority ? 15 : 30);
-            List<Map<String, Object>> batch = new ArrayList<>(estimatedBatchSize);
-
-            int currentSize = 0;
-            // PLATFORM-OPTIMIZED: Different strategies for mobile vs TV
-            int maxEvents;
-            if (isLivePriority) {
-                // Live events: Prioritize low latency
-                if (isAndroidTVDevice) {
-                    maxEvents = 25;  // TV: 50KB batches for live streaming
-                } else {
-                    maxEvents = 12;  // Mobile: Smaller batches to reduce memory pressure and improve battery
-                }
-            } else {
-                // On-demand events: Optimize for throughput
-                if (isAndroidTVDevice) {
-                    maxEvents = 60;  // TV: Larger batches for better network efficiency
-                } else {
-                    maxEvents = 25;  // Mobile: Balance between efficiency and memory usage
-                }
-            }
+            // Mobile optimization: smaller batches under memory pressure
+            int byteBudget = isRunningInLowMemory ? maxSizeBytes / 2 : maxSizeBytes;
 
-            for (int i = 0; i < maxEvents && !targetQueue.isEmpty(); i++) {
-                Map<String, Object> event = targetQueue.poll();
-                if (event == null) break;
+            // Pre-allocate batch: whole queue if it fits the budget, else typical 2KB events
+            long bufferedBytes = targetBytes.get();
+            int queuedEvents = targetQueue.size() + retries.size();
+            int expectedEvents = bufferedBytes <= byteBudget ?
+                queuedEvents : Math.max(1, byteBudget / 2048);
+            List<SizedEvent> batch = new ArrayList<>(Math.min(expectedEvents, queuedEvents));
 
-                // Platform-optimized size estimation
-                int eventSize;
-                if (sizeEstimator != null) {
-                    eventSize = sizeEstimator.estimate(event);
-                } else {
-                    // Mobile: Conservative estimate, TV: Accurate estimate
-                    eventSize = isAndroidTVDevice ? 2048 : 1800; // TV can handle larger estimates
-                }
+            long currentSize = 0;
 
-                // Size-based early break with platform considerations
-                if (currentSize + eventSize > maxSizeBytes && !batch.isEmpty()) {
-                    // Put the event back and break
-                    targetQueue.offer(event);
+            // Failed events first, they are older than anything in the ring
+            SizedEvent retry;
+            while ((retry = retries.peekFirst()) != null) {
+                if (currentSize + retry.sizeBytes > byteBudget && !batch.isEmpty()) {
                     break;
                 }
-                // Mobile optimization: Early break if memory pressure is high
-                // Mobile: Break early if low memory and we have some events
-                if (isRunningInLowMemory && batch.size() >= 8) {
-                    targetQueue.offer(event); // Put back for next harvest
+                retries.pollFirst();
+                targetBytes.addAndGet(-retry.sizeBytes);
+                batch.add(retry);
+                currentSize += retry.sizeBytes;
+            }
+            retryCount.set(retries.size());
+
+            while (retries.isEmpty()) {
+                // Peek first so an event that does not fit stays at the head, preserving order
+                SizedEvent entry = targetQueue.peek();
+                if (entry == null) break;
+
+                // Exact byte budget; an oversized event still goes alone so it cannot block the queue
+                if (currentSize + entry.sizeBytes > byteBudget && !batch.isEmpty()) {
+                    // Leave the event at the head and break
                     break;
                 }
 
-                batch.add(event);
-                currentSize += eventSize;
+                // A producer may have evicted this event while we were sizing it
+                if (!targetQueue.pollIfHead(entry)) {
+                    continue;
+                }
+                targetBytes.addAndGet(-entry.sizeBytes);
 
-                // TV optimization: Continue until batch is substantial
-                // Mobile optimization: Prefer smaller, frequent batches for responsiveness
+                batch.add(entry);
+                currentSize += entry.sizeBytes;
             }
 
             return batch;
@@ -200,7 +377,7 @@ public class PriorityEventBuffer implements EventBufferInterface {
 
             // Mobile optimization: Return immediately to preserve battery
             // TV optimization: Could retry once for stream continuity, but keep it simple for now
-            return new ArrayList<>(); // Return empty batch on interrupt
+            return Collections.emptyList(); // Return empty batch on interrupt
         } finally {
             if (pollingLock.isHeldByCurrentThread()) { // Safety check before unlock
                 pollingLock.unlock();
@@ -210,12 +387,13 @@ public class PriorityEventBuffer implements EventBufferInterface {
 
     @Override
     public int getEventCount() {
-        return liveEvents.size() + ondemandEvents.size();
+        return liveEvents.size() + ondemandEvents.size() + liveRetryCount.get() + ondemandRetryCount.get();
     }
 
     @Override
     public boolean isEmpty() {
-        return liveEvents.isEmpty() && ondemandEvents.isEmpty();
+        return liveEvents.isEmpty() && ondemandEvents.isEmpty()
+            && liveRetryCount.get() == 0 && ondemandRetryCount.get() == 0;
     }
 
     @Override
@@ -223,15 +401,46 @@ public class PriorityEventBuffer implements EventBufferInterface {
         clear();
     }
 
+    /**
+     * Serialized UTF-8 bytes currently buffered for a priority
+     */
+    public long getBufferedBytes(String priority) {
+        return NRVideoConstants.EVENT_TYPE_LIVE.equals(priority) ? liveBytes.get() : ondemandBytes.get();
+    }
+
     public void clear() {
-        liveEvents.clear();
-        ondemandEvents.clear();
+        drainRetries(livePollingLock, liveRetries, liveRetryCount, liveBytes);
+        drainRetries(ondemandPollingLock, ondemandRetries, ondemandRetryCount, ondemandBytes);
+        drain(liveEvents, liveBytes);
+        drain(ondemandEvents, ondemandBytes);
+        leases.clear();
+    }
+
+    private static void drainRetries(ReentrantLock lock, ArrayDeque<SizedEvent> retries,
+                                     AtomicInteger retryCount, AtomicLong bytes) {
+        lock.lock();
+        try {
+            SizedEvent entry;
+            while ((entry = retries.pollFirst()) != null) {
+                bytes.addAndGet(-entry.sizeBytes);
+            }
+            retryCount.set(0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void drain(EventRingBuffer<SizedEvent> queue, AtomicLong bytes) {
+        SizedEvent entry;
+        while ((entry = queue.poll()) != null) {
+            bytes.addAndGet(-entry.sizeBytes);
+        }
     }
 
     /**
      * Determines if an event is from live streaming content
      */
-    private boolean isLiveStreamingEvent(Map<String, Object> event) {
+    public static boolean isLiveStreamingEvent(Map<String, Object> event) {
         // Check for explicit live content marker
         Boolean isLive = (Boolean) event.get("contentIsLive");
         if (isLive != null) {
@@ -246,4 +455,36 @@ public class PriorityEventBuffer implements EventBufferInterface {
     public void setCapacityCallback(CapacityCallback callback) {
         this.capacityCallback = callback;
     }
+
+    /**
+     * Notified of every event dropped from a full ring - never for events taken by a harvest
+     */
+    @Override
+    public void setEvictionCallback(EvictionCallback callback) {
+        this.evictionCallback = callback;
+    }
+
+    /**
+     * Buffered event with its serialized size and failed harvest attempts
+     */
+    private static final class SizedEvent {
+        final Map<String, Object> event;
+        final int sizeBytes;
+        int failures; // Only changed under the polling lock
+
+        SizedEvent(Map<String, Object> event, int sizeBytes) {
+            this.event = event;
+            this.sizeBytes = sizeBytes;
+        }
+    }
+
+    private static final class LeasedBatch {
+        final boolean isLive;
+        final List<SizedEvent> entries;
+
+        LeasedBatch(boolean isLive, List<SizedEvent> entries) {
+            this.isLive = isLive;
+            this.entries = entries;
+        }
+    }
 }
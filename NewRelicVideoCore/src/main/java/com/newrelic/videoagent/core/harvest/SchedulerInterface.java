@@ -44,4 +44,13 @@ public interface SchedulerInterface {
      * @param useExtendedIntervals true for background/TV behavior, false for normal intervals
      */
     void resume(boolean useExtendedIntervals);
+
+    /**
+     * Run the dead letter retry task on the harvest thread after the given delay
+     * A pending retry is replaced, so only the latest delay applies
+     * @param delayMs delay before the retry runs
+     */
+    default void scheduleRetry(long delayMs) {
+        // No-op for schedulers without a retry task
+    }
 }
@@ -0,0 +1,66 @@
+package com.newrelic.videoagent.core.harvest;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request and connection reuse counters of a harvest transport
+ */
+public class TransportMetrics {
+
+    private final HarvestTransport transport;
+    private final AtomicLong requests = new AtomicLong(0);
+    private final AtomicLong failedRequests = new AtomicLong(0);
+
+    public TransportMetrics(HarvestTransport transport) {
+        this.transport = transport;
+    }
+
+    void recordRequest() {
+        requests.incrementAndGet();
+    }
+
+    void recordFailure() {
+        failedRequests.incrementAndGet();
+    }
+
+    /**
+     * Requests handed to the transport, failed ones included
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Requests that got no response (connect, TLS or I/O errors)
+     */
+    public long getFailedRequestCount() {
+        return failedRequests.get();
+    }
+
+    /**
+     * @return -1 if the transport does not report its connections
+     */
+    public long getConnectionsOpened() {
+        return transport.getConnectionsOpened();
+    }
+
+    /**
+     * Share of requests sent over an already open connection
+     * @return -1 if unknown, 0 before the first request
+     */
+    public double getConnectionReuseRatio() {
+        long opened = transport.getConnectionsOpened();
+        if (opened < 0) {
+            return -1;
+        }
+        long sent = requests.get();
+        return sent == 0 ? 0 : Math.max(0, sent - opened) / (double) sent;
+    }
+
+    @Override
+    public String toString() {
+        return "TransportMetrics{requests=" + getRequestCount() +
+                ", failed=" + getFailedRequestCount() +
+                ", connectionsOpened=" + getConnectionsOpened() + '}';
+    }
+}
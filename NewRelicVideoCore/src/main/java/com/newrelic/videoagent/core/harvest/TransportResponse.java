@@ -0,0 +1,43 @@
+package com.newrelic.videoagent.core.harvest;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Status and headers of a collector response
+ */
+public final class TransportResponse {
+
+    private final int statusCode;
+    private final Map<String, String> headers;
+
+    /**
+     * @param headers response headers, looked up case-insensitively
+     */
+    public TransportResponse(int statusCode, Map<String, String> headers) {
+        this.statusCode = statusCode;
+        if (headers == null || headers.isEmpty()) {
+            this.headers = Collections.emptyMap();
+        } else {
+            Map<String, String> copy = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            copy.putAll(headers);
+            this.headers = copy;
+        }
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public boolean isSuccessful() {
+        return statusCode >= 200 && statusCode < 300;
+    }
+
+    /**
+     * @return the header value, null if absent
+     */
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+}
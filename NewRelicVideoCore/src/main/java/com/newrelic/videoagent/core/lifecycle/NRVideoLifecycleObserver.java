@@ -29,6 +29,9 @@ public class NRVideoLifecycleObserver implements Application.ActivityLifecycleCa
     // Emergency backup protection
     private final AtomicBoolean emergencyBackupInProgress = new AtomicBoolean(false);
 
+    // Longest a crashing thread waits for its backup before the process goes down
+    private static final long CRASH_BACKUP_DEADLINE_MS = 2000;
+
     public NRVideoLifecycleObserver(HarvestComponentFactory crashSafeFactory) {
         this.crashSafeFactory = crashSafeFactory;
         this.isAndroidTV = crashSafeFactory.getConfiguration().isTV();
@@ -106,7 +109,7 @@ public class NRVideoLifecycleObserver implements Application.ActivityLifecycleCa
             // Always perform emergency backup to SQLite (reliable)
             crashSafeFactory.performEmergencyBackup();
 
-            NRLog.d("Emergency backup to SQLite completed - " + (isAndroidTV ? "TV" : "Mobile") + " - Reason: " + reason + " (network harvest skipped for reliability)");
+            NRLog.d("Emergency backup to SQLite requested - " + (isAndroidTV ? "TV" : "Mobile") + " - Reason: " + reason + " (network harvest skipped for reliability)");
         } catch (Exception e) {
             NRLog.e("Emergency backup failed: " + e.getMessage());
         } finally {
@@ -126,6 +129,8 @@ public class NRVideoLifecycleObserver implements Application.ActivityLifecycleCa
             public void uncaughtException(Thread thread, Throwable exception) {
                 // CRITICAL: Immediate emergency harvest and storage before crash
                 performEmergencyHarvest("APP_CRASH");
+                // The backup runs on its own thread - give it a bounded time to commit
+                crashSafeFactory.awaitEmergencyBackup(CRASH_BACKUP_DEADLINE_MS);
                 if (defaultHandler != null) {
                     defaultHandler.uncaughtException(thread, exception);
                 } else {
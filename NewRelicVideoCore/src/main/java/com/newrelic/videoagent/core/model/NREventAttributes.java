@@ -1,21 +1,64 @@
 package com.newrelic.videoagent.core.model;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 /**
  * Event attributes model.
+ *
+ * Attributes are layered in scopes: an optional parent scope (e.g. global attributes shared by
+ * every tracker) and this scope's own action-filter buckets. Filters are compiled once, the
+ * buckets matching each action are memoized, and the merged result per action is cached as an
+ * immutable snapshot until any scope in the chain changes.
+ *
+ * When several scopes or buckets hold the same key, the value written last wins, whatever scope
+ * it was written to. This is what copying global attributes into every tracker used to do: a
+ * later global attribute overrides a tracker's own value, and a later tracker value overrides
+ * the global one.
+ *
+ * Events reference the snapshot taken when they are generated instead of copying its entries:
+ * the snapshot is immutable, so values set later never reach events generated before. The
+ * serializers merge it into the event's own values (VideoEvent.setSharedAttributes).
  */
 public class NREventAttributes {
 
-    private Map<String, Map<String, Object>> attributeBuckets;
+    private static final String DEFAULT_FILTER = "[A-Z_]+";
+
+    // Orders writes across all scopes, so the latest one wins on key conflicts
+    private static final AtomicLong WRITE_SEQUENCE = new AtomicLong(0);
+
+    private final NREventAttributes parentScope;
+    private final Map<String, AttributeBucket> attributeBuckets;
+    private volatile AttributeBucket[] bucketList = new AttributeBucket[0];
+    private final AtomicInteger version = new AtomicInteger(0);
+
+    // Memoized per action name: which buckets match, and the merged attribute snapshot
+    private final Map<String, MatchingBuckets> matchingBuckets = new ConcurrentHashMap<>();
+    private final Map<String, ResolvedAttributes> resolvedAttributes = new ConcurrentHashMap<>();
 
     /**
      * Ïnit a new event attributes model.
      */
     public NREventAttributes() {
-        attributeBuckets = new HashMap<>();
+        this(null);
+    }
+
+    /**
+     * Init a new event attributes model layered on top of a parent scope.
+     * On key conflicts the value written last wins, in either scope.
+     *
+     * @param parentScope Parent scope, or null.
+     */
+    public NREventAttributes(NREventAttributes parentScope) {
+        this.parentScope = parentScope;
+        this.attributeBuckets = new LinkedHashMap<>();
     }
 
     /**
@@ -25,18 +68,25 @@ public class NREventAttributes {
      * @param value Attribute value.
      * @param filter Action filter, a regular expression.
      */
-    public void setAttribute(String key, Object value, String filter) {
+    public synchronized void setAttribute(String key, Object value, String filter) {
         // If no filter defined, use universal filter that matches any action name
         if (filter == null) {
-            filter = "[A-Z_]+";
+            filter = DEFAULT_FILTER;
         }
 
-        // Attribute doesn't exit yet, create it
-        if (!attributeBuckets.containsKey(filter)) {
-            attributeBuckets.put(filter, new HashMap<>());
+        AttributeBucket bucket = attributeBuckets.get(filter);
+
+        // Bucket doesn't exist yet, create it and forget memoized matches
+        if (bucket == null) {
+            bucket = new AttributeBucket(filter);
+            attributeBuckets.put(filter, bucket);
+            bucketList = attributeBuckets.values().toArray(new AttributeBucket[0]);
+            matchingBuckets.clear();
         }
 
-        attributeBuckets.get(filter).put(key, value);
+        bucket.put(key, value, WRITE_SEQUENCE.incrementAndGet());
+        version.incrementAndGet();
+        resolvedAttributes.clear();
     }
 
     /**
@@ -47,25 +97,87 @@ public class NREventAttributes {
      * @return Map of attributes.
      */
     public Map<String, Object> generateAttributes(String action, Map<String, Object> attributes) {
-        Map<String, Object> attr = new HashMap<>();
+        Map<String, Object> resolved = resolveAttributes(action);
+
+        // Events built by the tracker pipeline are filled in place, anything else is copied
+        VideoEvent attr = attributes instanceof VideoEvent ?
+            (VideoEvent) attributes : new VideoEvent(attributes);
+        attr.setSharedAttributes(resolved);
+
+        return attr;
+    }
 
-        if (attributes != null) {
-            attr.putAll(attributes);
+    /**
+     * Resolve the attributes of every scope that apply to a given action.
+     * The returned snapshot is immutable and shared until an attribute changes, so it can be
+     * referenced by an event instead of being copied into it.
+     *
+     * @param action Action.
+     * @return Immutable map of attributes.
+     */
+    public Map<String, Object> resolveAttributes(String action) {
+        if (action == null) {
+            return Collections.emptyMap();
+        }
+        return resolve(action).values;
+    }
+
+    private ResolvedAttributes resolve(String action) {
+        // Read version before resolving: a concurrent change makes the cached entry stale
+        int scopeVersion = getScopeVersion();
+        ResolvedAttributes cached = resolvedAttributes.get(action);
+        if (cached != null && cached.version == scopeVersion) {
+            return cached;
         }
 
-        for (Map.Entry<String, Map<String, Object>> pair : attributeBuckets.entrySet()) {
-            String filter = pair.getKey();
-            if (checkFilter(filter, action)) {
-                Map<String, Object> bucket = pair.getValue();
-                attr.putAll(bucket);
+        Map<String, Attribute> merged = new HashMap<>();
+        if (parentScope != null) {
+            merged.putAll(parentScope.resolve(action).attributes);
+        }
+        for (AttributeBucket bucket : getMatchingBuckets(action)) {
+            for (Map.Entry<String, Attribute> entry : bucket.attributes.entrySet()) {
+                Attribute current = merged.get(entry.getKey());
+                if (current == null || entry.getValue().sequence > current.sequence) {
+                    merged.put(entry.getKey(), entry.getValue());
+                }
             }
         }
 
-        return attr;
+        ResolvedAttributes resolved = new ResolvedAttributes(scopeVersion, merged);
+        resolvedAttributes.put(action, resolved);
+        return resolved;
     }
 
-    private boolean checkFilter(String filter, String action) {
-        return Pattern.matches(filter, action);
+    private AttributeBucket[] getMatchingBuckets(String action) {
+        AttributeBucket[] buckets = bucketList;
+        MatchingBuckets memoized = matchingBuckets.get(action);
+        // Only valid if computed against the current bucket list
+        if (memoized != null && memoized.source == buckets) {
+            return memoized.matches;
+        }
+
+        int count = 0;
+        AttributeBucket[] candidates = new AttributeBucket[buckets.length];
+        for (AttributeBucket bucket : buckets) {
+            if (bucket.matches(action)) {
+                candidates[count++] = bucket;
+            }
+        }
+
+        AttributeBucket[] matches = count == buckets.length ? candidates : Arrays.copyOf(candidates, count);
+        matchingBuckets.put(action, new MatchingBuckets(buckets, matches));
+        return matches;
+    }
+
+    /**
+     * Monotonic version of this scope and all its parents.
+     */
+    private int getScopeVersion() {
+        int scopeVersion = version.get();
+        if (parentScope != null) {
+            scopeVersion += parentScope.getScopeVersion();
+        }
+        return scopeVersion;
     }
 
     public String toString() {
@@ -75,9 +187,86 @@ public class NREventAttributes {
      /** All attribute keys across every action-filter bucket (user-defined via setAttribute). */
     public java.util.Set<String> getAllKeys() {
         java.util.Set<String> keys = new java.util.HashSet<>();
-        for (Map<String, Object> bucket : attributeBuckets.values()) {
-            keys.addAll(bucket.keySet());
+        if (parentScope != null) {
+            keys.addAll(parentScope.getAllKeys());
+        }
+        for (AttributeBucket bucket : bucketList) {
+            keys.addAll(bucket.attributes.keySet());
         }
         return keys;
     }
+
+    /**
+     * Attributes for one action filter, with the filter compiled once.
+     * Values are copy-on-write so readers never see a map being modified.
+     */
+    private static class AttributeBucket {
+        private final Pattern pattern;
+        private volatile Map<String, Attribute> attributes = Collections.emptyMap();
+
+        AttributeBucket(String filter) {
+            this.pattern = Pattern.compile(filter);
+        }
+
+        boolean matches(String action) {
+            return pattern.matcher(action).matches();
+        }
+
+        void put(String key, Object value, long sequence) {
+            Map<String, Attribute> updated = new HashMap<>(attributes);
+            updated.put(key, new Attribute(value, sequence));
+            attributes = updated;
+        }
+
+        public String toString() {
+            return attributes.toString();
+        }
+    }
+
+    /**
+     * Attribute value and the sequence number of the write that set it.
+     */
+    private static class Attribute {
+        private final Object value;
+        private final long sequence;
+
+        Attribute(Object value, long sequence) {
+            this.value = value;
+            this.sequence = sequence;
+        }
+
+        public String toString() {
+            return String.valueOf(value);
+        }
+    }
+
+    private static class MatchingBuckets {
+        private final AttributeBucket[] source;
+        private final AttributeBucket[] matches;
+
+        MatchingBuckets(AttributeBucket[] source, AttributeBucket[] matches) {
+            this.source = source;
+            this.matches = matches;
+        }
+    }
+
+    private static class ResolvedAttributes {
+        private final int version;
+        private final Map<String, Attribute> attributes;
+        private final Map<String, Object> values;
+
+        ResolvedAttributes(int version, Map<String, Attribute> attributes) {
+            this.version = version;
+            this.attributes = attributes;
+            if (attributes.isEmpty()) {
+                this.values = Collections.emptyMap();
+            } else {
+                Map<String, Object> plain = new HashMap<>(attributes.size() * 2);
+                for (Map.Entry<String, Attribute> entry : attributes.entrySet()) {
+                    plain.put(entry.getKey(), entry.getValue().value);
+                }
+                this.values = Collections.unmodifiableMap(plain);
+            }
+        }
+    }
 }
@@ -9,6 +9,7 @@ public class NRTimeSince {
     private String action;
     private String attributeName;
     private String filter;
+    private Pattern filterPattern;
     private long timestamp;
 
     /**
@@ -22,6 +23,7 @@ public class NRTimeSince {
         this.action = action;
         this.attributeName = attribute;
         this.filter = filter;
+        this.filterPattern = Pattern.compile(filter);
         this.timestamp = 0;
     }
 
@@ -40,7 +42,7 @@ public class NRTimeSince {
      * @return True if applies, false otherwise.
      */
     public boolean isMatch(String action) {
-        return Pattern.matches(filter, action);
+        return filterPattern.matcher(action).matches();
     }
 
     /**
@@ -3,19 +3,24 @@ package com.newrelic.videoagent.core.model;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Time since table model.
+ * Each action gets a precomputed dispatch plan the first time it is seen, so applying
+ * attributes is a single array walk with no regex work.
  */
 public class NRTimeSinceTable {
 
     private List<NRTimeSince> timeSinceTable;
+    private final Map<String, ActionPlan> actionPlans;
 
     /**
      * Init a new time since table.
      */
     public NRTimeSinceTable() {
         timeSinceTable = new ArrayList<>();
+        actionPlans = new ConcurrentHashMap<>();
     }
 
     /**
@@ -34,8 +39,10 @@ public class NRTimeSinceTable {
      *
      * @param ts Model.
      */
-    public void addEntry(NRTimeSince ts) {
+    public synchronized void addEntry(NRTimeSince ts) {
         timeSinceTable.add(ts);
+        // Plans are built from the entry list, rebuild them lazily
+        actionPlans.clear();
     }
 
     /**
@@ -45,13 +52,70 @@ public class NRTimeSinceTable {
      * @param attributes Attribute list.
      */
     public void applyAttributes(String action, Map<String, Object> attributes) {
+        if (action == null) return;
+
+        ActionPlan plan = actionPlans.get(action);
+        if (plan == null) {
+            plan = buildPlan(action);
+        }
+        plan.apply(attributes);
+    }
+
+    /**
+     * Build and cache the plan for an action: matching entries in table order, flagging the ones it resets.
+     */
+    private synchronized ActionPlan buildPlan(String action) {
+        ActionPlan plan = actionPlans.get(action);
+        if (plan != null) {
+            return plan;
+        }
+
+        int size = timeSinceTable.size();
+        NRTimeSince[] entries = new NRTimeSince[size];
+        boolean[] applies = new boolean[size];
+        boolean[] resets = new boolean[size];
+        int count = 0;
         for (NRTimeSince ts : timeSinceTable) {
-            if (ts.isMatch(action)) {
-                attributes.put(ts.getAttribute(), ts.timeSince());
+            boolean isMatch = ts.isMatch(action);
+            boolean isAction = ts.isAction(action);
+            if (isMatch || isAction) {
+                entries[count] = ts;
+                applies[count] = isMatch;
+                resets[count] = isAction;
+                count++;
             }
-            if (ts.isAction(action)) {
-                // attributes.put("elapsedTime", ts.timeSince());
-                ts.now();
+        }
+
+        plan = new ActionPlan(count, entries, applies, resets);
+        actionPlans.put(action, plan);
+        return plan;
+    }
+
+    /**
+     * Precomputed list of entries relevant to one action.
+     */
+    private static class ActionPlan {
+        private final int count;
+        private final NRTimeSince[] entries;
+        private final boolean[] applies;
+        private final boolean[] resets;
+
+        ActionPlan(int count, NRTimeSince[] entries, boolean[] applies, boolean[] resets) {
+            this.count = count;
+            this.entries = entries;
+            this.applies = applies;
+            this.resets = resets;
+        }
+
+        void apply(Map<String, Object> attributes) {
+            for (int i = 0; i < count; i++) {
+                NRTimeSince ts = entries[i];
+                if (applies[i]) {
+                    attributes.put(ts.getAttribute(), ts.timeSince());
+                }
+                if (resets[i]) {
+                    ts.now();
+                }
             }
         }
     }
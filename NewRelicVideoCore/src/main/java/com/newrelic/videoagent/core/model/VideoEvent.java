@@ -0,0 +1,696 @@
+package com.newrelic.videoagent.core.model;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Typed video event record.
+ *
+ * Known attributes of the video data model (see DATAMODEL.md) live in fixed, indexed slots;
+ * anything else (custom attributes, tracker specific extras) goes to a small overflow map.
+ * It is a {@code Map<String, Object>} so it flows unchanged through trackers, the event
+ * buffers and the serializers, but without rehashing ~40 keys per event.
+ *
+ * Instances are owned by the event pipeline: code that receives a VideoEvent may fill it in
+ * place instead of copying it.
+ *
+ * An event may also carry its UTF-8 JSON encoding, attached once when it is buffered so the
+ * harvest can copy bytes instead of serializing again. Any change to the event drops it.
+ *
+ * Attributes resolved for the event's action (NREventAttributes) are referenced as an immutable
+ * snapshot shared by many events instead of being copied in. The map reads through it, own
+ * values shadow it, and the serializers merge it in behind the own values.
+ */
+public final class VideoEvent extends AbstractMap<String, Object> {
+
+    /**
+     * Attribute schema, one slot per key. Order is also the serialization order.
+     */
+    private static final String[] SLOT_KEYS = {
+        // Event
+        "actionName", "eventType", "timestamp", "agentSession",
+        "instrumentation.provider", "instrumentation.name", "instrumentation.version",
+        "enduser.id",
+        // Tracker and view
+        "trackerName", "trackerVersion", "src", "playerName", "playerVersion",
+        "viewSession", "viewId", "numberOfAds", "numberOfVideos", "numberOfErrors",
+        "totalPlaytime", "totalAdPlaytime", "elapsedTime", "bufferType", "isBackgroundEvent",
+        // Content
+        "contentId", "contentTitle", "contentIsLive", "contentBitrate", "contentRenditionBitrate",
+        "contentManifestBitrate", "contentSegmentDownloadBitrate", "contentNetworkDownloadBitrate",
+        "contentRenditionName", "contentRenditionWidth", "contentRenditionHeight",
+        "contentDuration", "contentPlayhead", "contentLanguage", "contentSrc", "contentPlayrate",
+        "contentIsMuted", "contentIsFullscreen", "contentCdn", "contentIsAutoplayed",
+        "contentPreload", "contentFps",
+        // Ads
+        "adId", "adTitle", "adBitrate", "adRenditionBitrate", "adRenditionName",
+        "adRenditionWidth", "adRenditionHeight", "adDuration", "adPlayhead", "adLanguage",
+        "adSrc", "adCdn", "adIsMuted", "adFps", "adQuartile", "adPosition", "adCreativeId",
+        "adPartner", "adBreakId", "adPlayrate",
+        // Errors
+        "errorMessage", "errorCode",
+        // Time since
+        "timeSinceTrackerReady", "timeSinceRequested", "timeSinceStarted", "timeSincePaused",
+        "timeSinceResumed", "timeSinceSeekBegin", "timeSinceSeekEnd", "timeSinceBufferBegin",
+        "timeSinceLastHeartbeat", "timeSinceLastError", "timeSinceLastRenditionChange",
+        "timeSinceLastAd", "timeSinceAdRequested", "timeSinceAdStarted", "timeSinceAdPaused",
+        "timeSinceAdResumed", "timeSinceAdSeekBegin", "timeSinceAdSeekEnd",
+        "timeSinceAdBufferBegin", "timeSinceLastAdHeartbeat", "timeSinceLastAdError",
+        "timeSinceLastAdRenditionChange", "timeSinceAdBreakBegin", "timeSinceLastAdQuartile"
+    };
+
+    private static final Map<String, Integer> SLOT_INDEX = new HashMap<>(SLOT_KEYS.length * 2);
+
+    static {
+        for (int i = 0; i < SLOT_KEYS.length; i++) {
+            SLOT_INDEX.put(SLOT_KEYS[i], i);
+        }
+    }
+
+    // Marks a slot that is present with a null value (empty slots are plain null)
+    private static final Object NULL_VALUE = new Object();
+
+    private final Object[] slots;
+    private int slotCount;
+    private Map<String, Object> overflow;
+    private byte[] encoded;
+
+    // Immutable snapshot shared with other events, and its keys removed from this event
+    private Map<String, Object> shared;
+    private Set<String> removedShared;
+
+    public VideoEvent() {
+        this.slots = new Object[SLOT_KEYS.length];
+    }
+
+    /**
+     * Create an event with the given attributes.
+     *
+     * @param attributes Initial attributes, may be null.
+     */
+    public VideoEvent(Map<String, Object> attributes) {
+        if (attributes instanceof VideoEvent) {
+            VideoEvent source = (VideoEvent) attributes;
+            this.slots = source.slots.clone();
+            this.slotCount = source.slotCount;
+            if (source.overflow != null && !source.overflow.isEmpty()) {
+                this.overflow = new HashMap<>(source.overflow);
+            }
+            this.shared = source.shared;
+            if (source.removedShared != null) {
+                this.removedShared = new HashSet<>(source.removedShared);
+            }
+        } else {
+            this.slots = new Object[SLOT_KEYS.length];
+            if (attributes != null) {
+                putAll(attributes);
+            }
+        }
+    }
+
+    /**
+     * Wrap attributes as a VideoEvent, reusing the instance if it already is one.
+     *
+     * @param attributes Attributes, may be null.
+     * @return VideoEvent.
+     */
+    public static VideoEvent from(Map<String, Object> attributes) {
+        if (attributes instanceof VideoEvent) {
+            return (VideoEvent) attributes;
+        }
+        return new VideoEvent(attributes);
+    }
+
+    // ========== Indexed slot access (serializers) ==========
+
+    /**
+     * Number of schema slots.
+     */
+    public static int getSlotCount() {
+        return SLOT_KEYS.length;
+    }
+
+    /**
+     * Attribute name of a slot.
+     */
+    public static String getSlotKey(int index) {
+        return SLOT_KEYS[index];
+    }
+
+    /**
+     * Slot index of an attribute, or -1 if it is not part of the schema.
+     */
+    public static int getSlotIndex(String key) {
+        Integer index = key != null ? SLOT_INDEX.get(key) : null;
+        return index != null ? index : -1;
+    }
+
+    /**
+     * True if the slot holds a value (which may be null).
+     */
+    public boolean hasSlot(int index) {
+        return slots[index] != null;
+    }
+
+    /**
+     * Value of a slot, null if absent.
+     */
+    public Object getSlot(int index) {
+        return unmask(slots[index]);
+    }
+
+    /**
+     * Set a slot by index (deserializers), same as put() with the slot's key.
+     */
+    public void putSlot(int index, Object value) {
+        encoded = null;
+        if (slots[index] == null) {
+            slotCount++;
+        }
+        slots[index] = value != null ? value : NULL_VALUE;
+    }
+
+    /**
+     * Attributes outside the schema. Read-only view, never null.
+     */
+    public Map<String, Object> getOverflowAttributes() {
+        return overflow != null ? Collections.unmodifiableMap(overflow) : Collections.<String, Object>emptyMap();
+    }
+
+    // ========== Shared attributes ==========
+
+    /**
+     * Reference an immutable snapshot of attributes instead of copying it into this event.
+     * Its keys replace the values held so far, values put afterwards shadow it. A snapshot
+     * referenced before is folded into the own values first.
+     *
+     * @param attributes Immutable snapshot, never modified through this event. May be null.
+     */
+    public void setSharedAttributes(Map<String, Object> attributes) {
+        encoded = null;
+        if (shared != null) {
+            for (Map.Entry<String, Object> entry : shared.entrySet()) {
+                if (!hidesShared(entry.getKey())) {
+                    put(entry.getKey(), entry.getValue());
+                }
+            }
+            shared = null;
+            removedShared = null;
+        }
+        if (attributes == null || attributes.isEmpty()) {
+            return;
+        }
+        for (String key : attributes.keySet()) {
+            removeOwn(key);
+        }
+        shared = attributes;
+    }
+
+    /**
+     * Referenced snapshot, including the attributes this event hides. Never null.
+     */
+    public Map<String, Object> getSharedAttributes() {
+        return shared != null ? shared : Collections.<String, Object>emptyMap();
+    }
+
+    /**
+     * True if a shared attribute is shadowed by an own value or was removed from this event.
+     */
+    public boolean hidesShared(String key) {
+        return containsOwn(key) || (removedShared != null && removedShared.contains(key));
+    }
+
+    private boolean isSharedVisible(Object key) {
+        return shared != null && shared.containsKey(key)
+            && !(removedShared != null && removedShared.contains(key));
+    }
+
+    private Object getShared(Object key) {
+        return isSharedVisible(key) ? shared.get(key) : null;
+    }
+
+    /**
+     * Removing a key must not reveal the shared value an own value shadowed.
+     */
+    private void hideShared(Object key) {
+        if (shared != null && key instanceof String && shared.containsKey(key)) {
+            if (removedShared == null) {
+                removedShared = new HashSet<>(4);
+            }
+            removedShared.add((String) key);
+        }
+    }
+
+    private int visibleSharedCount() {
+        if (shared == null) {
+            return 0;
+        }
+        int count = 0;
+        for (String key : shared.keySet()) {
+            if (!hidesShared(key)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private boolean containsOwn(Object key) {
+        int index = key instanceof String ? getSlotIndex((String) key) : -1;
+        if (index >= 0) {
+            return slots[index] != null;
+        }
+        return overflow != null && overflow.containsKey(key);
+    }
+
+    private Object removeOwn(Object key) {
+        int index = key instanceof String ? getSlotIndex((String) key) : -1;
+        if (index >= 0) {
+            return clearSlot(index);
+        }
+        encoded = null;
+        return overflow != null ? overflow.remove(key) : null;
+    }
+
+    // ========== Pre-serialized form ==========
+
+    /**
+     * Attach the UTF-8 JSON encoding of the current content. Dropped on the next change.
+     *
+     * @param encoded Encoded bytes, or null to drop them.
+     */
+    public void setEncoded(byte[] encoded) {
+        this.encoded = encoded;
+    }
+
+    /**
+     * UTF-8 JSON encoding of this event, null if not encoded or changed since.
+     * The array is shared, callers must not modify it.
+     */
+    public byte[] getEncoded() {
+        return encoded;
+    }
+
+    // ========== Map implementation ==========
+
+    @Override
+    public Object get(Object key) {
+        int index = key instanceof String ? getSlotIndex((String) key) : -1;
+        if (index >= 0) {
+            Object value = slots[index];
+            return value != null ? unmask(value) : getShared(key);
+        }
+        if (overflow != null) {
+            Object value = overflow.get(key);
+            if (value != null || overflow.containsKey(key)) {
+                return value;
+            }
+        }
+        return shared != null ? getShared(key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return containsOwn(key) || isSharedVisible(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        encoded = null;
+        int index = getSlotIndex(key);
+        if (index >= 0) {
+            Object previous = slots[index];
+            slots[index] = value != null ? value : NULL_VALUE;
+            if (previous == null) {
+                slotCount++;
+                return getShared(key);
+            }
+            return unmask(previous);
+        }
+        if (overflow == null) {
+            overflow = new HashMap<>(8);
+        }
+        if (shared != null && !overflow.containsKey(key)) {
+            Object previous = getShared(key);
+            overflow.put(key, value);
+            return previous;
+        }
+        return overflow.put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        encoded = null;
+        Object previous = containsOwn(key) ? removeOwn(key) : getShared(key);
+        hideShared(key);
+        return previous;
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ?> attributes) {
+        if (attributes instanceof VideoEvent) {
+            // Slot to slot copy, no key lookups
+            VideoEvent source = (VideoEvent) attributes;
+            encoded = null;
+            for (int i = 0; i < slots.length; i++) {
+                Object value = source.slots[i];
+                if (value != null) {
+                    if (slots[i] == null) {
+                        slotCount++;
+                    }
+                    slots[i] = value;
+                }
+            }
+            if (source.overflow != null) {
+                for (Map.Entry<String, Object> entry : source.overflow.entrySet()) {
+                    put(entry.getKey(), entry.getValue());
+                }
+            }
+            if (source.shared != null) {
+                for (Map.Entry<String, Object> entry : source.shared.entrySet()) {
+                    if (!source.hidesShared(entry.getKey())) {
+                        put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            return;
+        }
+        for (Map.Entry<? extends String, ?> entry : attributes.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public int size() {
+        return slotCount + (overflow != null ? overflow.size() : 0) + visibleSharedCount();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(slots, null);
+        slotCount = 0;
+        overflow = null;
+        encoded = null;
+        shared = null;
+        removedShared = null;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super Object> action) {
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null) {
+                action.accept(SLOT_KEYS[i], unmask(slots[i]));
+            }
+        }
+        if (overflow != null) {
+            overflow.forEach(action);
+        }
+        if (shared != null) {
+            for (Map.Entry<String, Object> entry : shared.entrySet()) {
+                if (!hidesShared(entry.getKey())) {
+                    action.accept(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return VideoEvent.this.size();
+            }
+        };
+    }
+
+    private Object clearSlot(int index) {
+        encoded = null;
+        Object previous = slots[index];
+        if (previous != null) {
+            slots[index] = null;
+            slotCount--;
+        }
+        return unmask(previous);
+    }
+
+    private static Object unmask(Object value) {
+        return value == NULL_VALUE ? null : value;
+    }
+
+    /**
+     * Walks populated slots in schema order, then the overflow map, then the visible shared attributes.
+     */
+    private class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+        private int nextSlot = advance(0);
+        private int lastSlot = -1;
+        private Iterator<Map.Entry<String, Object>> overflowIterator;
+        private String lastOverflowKey;
+        private Iterator<Map.Entry<String, Object>> sharedIterator;
+        private Map.Entry<String, Object> nextShared;
+        private String lastSharedKey;
+
+        private int advance(int from) {
+            int index = from;
+            while (index < slots.length && slots[index] == null) {
+                index++;
+            }
+            return index;
+        }
+
+        private Iterator<Map.Entry<String, Object>> overflowIterator() {
+            if (overflowIterator == null) {
+                overflowIterator = overflow != null ?
+                    overflow.entrySet().iterator() : Collections.<Map.Entry<String, Object>>emptyIterator();
+            }
+            return overflowIterator;
+        }
+
+        /**
+         * Next shared attribute that no own value shadows and that was not removed, null if none
+         */
+        private Map.Entry<String, Object> peekShared() {
+            if (nextShared == null) {
+                if (sharedIterator == null) {
+                    sharedIterator = shared != null ?
+                        shared.entrySet().iterator() : Collections.<Map.Entry<String, Object>>emptyIterator();
+                }
+                while (sharedIterator.hasNext()) {
+                    Map.Entry<String, Object> entry = sharedIterator.next();
+                    if (!hidesShared(entry.getKey())) {
+                        nextShared = entry;
+                        break;
+                    }
+                }
+            }
+            return nextShared;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextSlot < slots.length || overflowIterator().hasNext() || peekShared() != null;
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            lastSlot = -1;
+            lastOverflowKey = null;
+            lastSharedKey = null;
+            if (nextSlot < slots.length) {
+                lastSlot = nextSlot;
+                nextSlot = advance(nextSlot + 1);
+                return new SlotEntry(lastSlot);
+            }
+            if (overflowIterator().hasNext()) {
+                Map.Entry<String, Object> entry = overflowIterator().next();
+                lastOverflowKey = entry.getKey();
+                return new OverflowEntry(entry);
+            }
+            Map.Entry<String, Object> entry = peekShared();
+            if (entry == null) {
+                throw new NoSuchElementException();
+            }
+            nextShared = null;
+            lastSharedKey = entry.getKey();
+            return new SharedEntry(entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        public void remove() {
+            if (lastSlot >= 0) {
+                clearSlot(lastSlot);
+                hideShared(SLOT_KEYS[lastSlot]);
+                lastSlot = -1;
+            } else if (lastOverflowKey != null) {
+                overflowIterator.remove();
+                encoded = null;
+                hideShared(lastOverflowKey);
+                lastOverflowKey = null;
+            } else if (lastSharedKey != null) {
+                encoded = null;
+                hideShared(lastSharedKey);
+                lastSharedKey = null;
+            } else {
+                throw new IllegalStateException();
+            }
+        }
+    }
+
+    /**
+     * Write-through entry for a schema slot.
+     */
+    private class SlotEntry implements Map.Entry<String, Object> {
+        private final int index;
+
+        SlotEntry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String getKey() {
+            return SLOT_KEYS[index];
+        }
+
+        @Override
+        public Object getValue() {
+            return unmask(slots[index]);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            encoded = null;
+            Object previous = slots[index];
+            slots[index] = value != null ? value : NULL_VALUE;
+            if (previous == null) {
+                slotCount++;
+            }
+            return unmask(previous);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Map.Entry)) return false;
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) other;
+            return getKey().equals(entry.getKey()) && Objects.equals(getValue(), entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return getKey().hashCode() ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    /**
+     * Entry for a shared attribute, setting its value shadows it with an own value.
+     */
+    private class SharedEntry implements Map.Entry<String, Object> {
+        private final String key;
+        private Object value;
+
+        SharedEntry(String key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            Object previous = this.value;
+            put(key, value);
+            this.value = value;
+            return previous;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Map.Entry)) return false;
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) other;
+            return key.equals(entry.getKey()) && Objects.equals(value, entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ Objects.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    /**
+     * Write-through entry for an overflow attribute, dropping the encoding on change.
+     */
+    private class OverflowEntry implements Map.Entry<String, Object> {
+        private final Map.Entry<String, Object> entry;
+
+        OverflowEntry(Map.Entry<String, Object> entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public String getKey() {
+            return entry.getKey();
+        }
+
+        @Override
+        public Object getValue() {
+            return entry.getValue();
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            encoded = null;
+            return entry.setValue(value);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return entry.equals(other);
+        }
+
+        @Override
+        public int hashCode() {
+            return entry.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return entry.toString();
+        }
+    }
+}
@@ -5,14 +5,24 @@ import android.content.SharedPreferences;
 import com.newrelic.videoagent.core.NRVideoConfiguration;
 import com.newrelic.videoagent.core.NRVideoConstants;
 import com.newrelic.videoagent.core.harvest.EventBufferInterface;
+import com.newrelic.videoagent.core.harvest.EventLease;
 import com.newrelic.videoagent.core.harvest.PriorityEventBuffer;
 import com.newrelic.videoagent.core.harvest.SizeEstimator;
+import com.newrelic.videoagent.core.model.VideoEvent;
+import com.newrelic.videoagent.core.util.JsonStreamUtil;
 import com.newrelic.videoagent.core.utils.NRLog;
 
+import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Crash-safe event buffer optimized for mobile/TV environments
@@ -24,6 +34,13 @@ import java.util.concurrent.atomic.AtomicInteger;
  * - TV-optimized with larger buffers and background persistence
  * - Zero performance impact during normal operation
  * - Enhanced capacity monitoring for scheduler startup
+ * - Optional pre-serialization: events are encoded once on enqueue and copied as bytes afterwards
+ * - Harvests lease in-memory events and recovered SQLite rows alike: recovered rows are read
+ *   without deleting them and deleted only once the harvest carrying them was acked; a nack
+ *   returns their range to be read again by the next harvest
+ * - Recovery drains every backup priority class round-robin within each harvest's byte budget
+ * - Optional memory-mapped journal: buffered events survive crashes that skip the emergency backup
+ *   and are replayed into SQLite on the next launch
  */
 public class CrashSafeEventBuffer implements EventBufferInterface {
 
@@ -31,6 +48,10 @@ public class CrashSafeEventBuffer implements EventBufferInterface {
     private final VideoEventStorage storage;
     private final SharedPreferences crashPrefs;
     private final boolean isTVDevice;
+    private final boolean preSerializeEvents;
+    private final EventJournal journal; // Null unless journaling is enabled
+    // Leased events per lease id, released from the journal on ack
+    private final Map<Long, List<Map<String, Object>>> journaledLeases = new ConcurrentHashMap<>();
 
     // TV vs Mobile optimization
     private final int emergencyBackupThreshold;
@@ -40,10 +61,33 @@ public class CrashSafeEventBuffer implements EventBufferInterface {
     private static final String KEY_SESSION_ACTIVE = "session_active";
     private static final String KEY_LAST_EVENT_COUNT = "last_event_count";
 
+    private static final String JOURNAL_DIR = "nr_video_journal";
+
+    // Backup priority classes drained during recovery, in round-robin order
+    private static final String[] RECOVERY_CLASSES = {
+        VideoEventStorage.PRIORITY_LIVE,
+        VideoEventStorage.PRIORITY_ONDEMAND,
+        VideoEventStorage.PRIORITY_FAILED
+    };
+    // Share of the harvest budget kept for recovered events so a busy buffer cannot starve recovery
+    private static final int RECOVERY_RESERVE_DIVISOR = 4;
+    // Backup rows past their age are expired in small steps from the harvest thread
+    private static final long EXPIRY_INTERVAL_MS = 60 * 1000;
+
     // Recovery state
     private volatile boolean isRecovering = false;
     private volatile boolean hasPendingRecovery = false; // New flag for deferred recovery
+    private volatile boolean hasBackupRows = false; // Rows may be in SQLite, checked without COUNT(*)
+    private final boolean[] drainedClasses = new boolean[RECOVERY_CLASSES.length]; // Guarded by this
+    private int nextRecoveryClass = 0; // Guarded by this
+    private final long[] recoveryCursors = new long[RECOVERY_CLASSES.length]; // Last _id read per class, guarded by this
+    private final ArrayDeque<RecoveryRange> returnedRanges = new ArrayDeque<>(); // Nacked rows, read first, guarded by this
+    // Recovered row ranges per lease id, deleted on ack
+    private final Map<Long, List<RecoveryRange>> recoveryLeases = new ConcurrentHashMap<>();
+    // Ids of leases that only carry recovered rows, negative so they never clash with buffer leases
+    private final AtomicLong nextRecoveryLeaseId = new AtomicLong(-1);
     private final AtomicInteger lastEventCount = new AtomicInteger(0);
+    private final AtomicLong nextExpiryTime = new AtomicLong(0);
 
     public CrashSafeEventBuffer(Context context, NRVideoConfiguration configuration, VideoEventStorage videoEventStorage) {
         this.memoryBuffer = new PriorityEventBuffer(configuration.isTV());
@@ -52,9 +96,20 @@ public class CrashSafeEventBuffer implements EventBufferInterface {
 
         // Use the already detected device type from configuration instead of duplicating detection logic
         this.isTVDevice = configuration.isTV();
+        this.preSerializeEvents = configuration.isPreSerializedEventsEnabled();
+        this.journal = configuration.isEventJournalEnabled()
+            ? new EventJournal(new File(context.getFilesDir(), JOURNAL_DIR)) : null;
 
         // TV optimization: larger thresholds for better performance
         this.emergencyBackupThreshold = isTVDevice ? 200 : 100;
+        Arrays.fill(recoveryCursors, -1);
+
+        // Journaled events of the previous process become backup rows, then regular recovery applies
+        if (journal != null) {
+            replayJournal();
+            // Events dropped from a full ring are gone for good - so are their records
+            memoryBuffer.setEvictionCallback(journal::release);
+        }
 
         // Check for crash recovery on startup
         checkCrashRecovery();
@@ -73,6 +128,16 @@ public class CrashSafeEventBuffer implements EventBufferInterface {
 
     @Override
     public void addEvent(Map<String, Object> event) {
+        // The journal encodes every event anyway - keep the bytes for the harvest
+        if ((preSerializeEvents || journal != null) && event instanceof VideoEvent) {
+            preSerialize((VideoEvent) event);
+        }
+
+        // Journal before buffering so a harvest can never release the event ahead of its record
+        if (journal != null && event != null) {
+            journal.append(event);
+        }
+
         // Always add to memory buffer first (fast path)
         memoryBuffer.addEvent(event);
         lastEventCount.incrementAndGet();
@@ -85,24 +150,275 @@ public class CrashSafeEventBuffer implements EventBufferInterface {
 
     @Override
     public List<Map<String, Object>> pollBatchByPriority(int maxSizeBytes, SizeEstimator sizeEstimator, String priority) {
-        // Primary: get events from memory (normal operation)
-        List<Map<String, Object>> batch = new ArrayList<>(memoryBuffer.pollBatchByPriority(maxSizeBytes, sizeEstimator, priority));
-
-        // Recovery: Always try to recover SQLite events when in recovery mode
+        // Primary: get events from memory (normal operation), leaving a share of the budget for recovery
+        List<Map<String, Object>> memoryEvents = memoryBuffer.pollBatchByPriority(memoryBudget(maxSizeBytes), sizeEstimator, priority);
+        if (journal != null) {
+            journal.release(memoryEvents); // Polled events are no longer tracked by the buffer
+        }
+        List<Map<String, Object>> batch = new ArrayList<>(memoryEvents);
         if (isRecovering) {
-            // Calculate remaining capacity in the batch (size-based or count-based)
-            int remainingCapacity = Math.max(0, getOptimalBatchSize(priority) - batch.size());
+            long usedBytes = 0;
+            for (Map<String, Object> event : memoryEvents) {
+                usedBytes += sizeEstimator != null ? sizeEstimator.estimate(event) : 0;
+            }
+            // Nothing to ack for a plain poll - recovered rows are deleted right away
+            List<RecoveryRange> ranges = new ArrayList<>();
+            appendRecoveryEvents(batch, maxSizeBytes, usedBytes, ranges);
+            deleteRecoveredRanges(ranges);
+        }
+        return batch;
+    }
+
+    /**
+     * Lease in-memory events followed by recovered rows; both are part of the lease
+     * Recovered rows stay in SQLite until ack, so a failed send never loses them
+     */
+    @Override
+    public EventLease leaseBatchByPriority(int maxSizeBytes, SizeEstimator sizeEstimator, String priority) {
+        maybeExpireBackups();
+        EventLease lease = memoryBuffer.leaseBatchByPriority(memoryBudget(maxSizeBytes), sizeEstimator, priority);
+        if (journal != null && !lease.isDetached()) {
+            journaledLeases.put(lease.getLeaseId(), new ArrayList<>(lease.getEvents()));
+        }
+        if (!isRecovering) {
+            return lease;
+        }
 
-            // Always try to recover at least some events, even if batch is full
-            int minRecoverySize = Math.max(remainingCapacity, isRecovering ? 5 : 0); // Minimum 5 events when recovering
+        long leasedBytes = Math.max(0, lease.getLeasedBytes());
+        List<RecoveryRange> ranges = new ArrayList<>();
+        long recoveredBytes = appendRecoveryEvents(lease.getEvents(), maxSizeBytes, leasedBytes, ranges);
+        if (ranges.isEmpty()) {
+            return lease;
+        }
+        long leaseId = lease.isDetached() ? nextRecoveryLeaseId.getAndDecrement() : lease.getLeaseId();
+        recoveryLeases.put(leaseId, ranges);
+        return new EventLease(leaseId, priority, lease.getEvents(), leasedBytes + recoveredBytes);
+    }
+
+    @Override
+    public void ack(long leaseId) {
+        memoryBuffer.ack(leaseId);
+        if (journal != null) {
+            journal.release(journaledLeases.remove(leaseId));
+        }
+        deleteRecoveredRanges(recoveryLeases.remove(leaseId));
+    }
+
+    /**
+     * Events going back to the buffer stay journaled, and so do the released ones: they stay
+     * in memory with the caller until it backs them up (backupFailedEvents) or delivers them
+     * (releaseDelivered), so the journal still covers a crash in between
+     * Recovered rows were never deleted - their ranges are read again by the next harvest
+     */
+    @Override
+    public List<Map<String, Object>> nack(long leaseId, int maxRetries) {
+        return nackUndelivered(leaseId, 0, maxRetries);
+    }
 
-            if (minRecoverySize > 0) {
-                List<Map<String, Object>> recoveryEvents = pollRecoveryEvents(priority, minRecoverySize);
-                batch.addAll(recoveryEvents);
+    /**
+     * Like nack for the events past deliveredCount, like ack for the ones before it
+     * A recovered range delivered in part is split at its first undelivered row
+     */
+    @Override
+    public List<Map<String, Object>> nackUndelivered(long leaseId, int deliveredCount, int maxRetries) {
+        List<Map<String, Object>> released = memoryBuffer.nackUndelivered(leaseId, deliveredCount, maxRetries);
+        if (journal != null) {
+            List<Map<String, Object>> leased = journaledLeases.remove(leaseId);
+            if (leased != null && deliveredCount > 0) {
+                journal.release(leased.subList(0, Math.min(deliveredCount, leased.size())));
+            }
+        }
+        List<RecoveryRange> ranges = recoveryLeases.remove(leaseId);
+        if (ranges != null) {
+            List<RecoveryRange> delivered = new ArrayList<>();
+            List<RecoveryRange> undelivered = new ArrayList<>();
+            for (RecoveryRange range : ranges) {
+                int rowsDelivered = Math.max(0, Math.min(deliveredCount - range.batchIndex, range.eventIds.length));
+                if (rowsDelivered == range.eventIds.length) {
+                    delivered.add(range);
+                } else if (rowsDelivered == 0) {
+                    undelivered.add(range);
+                } else {
+                    long splitId = range.eventIds[rowsDelivered];
+                    delivered.add(new RecoveryRange(range.classIndex, range.firstId, splitId - 1));
+                    undelivered.add(new RecoveryRange(range.classIndex, splitId, range.lastId));
+                }
+            }
+            deleteRecoveredRanges(delivered);
+            if (!undelivered.isEmpty()) {
+                returnRecoveredRanges(undelivered);
             }
         }
+        return released;
+    }
 
-        return batch;
+    /**
+     * One bounded expiry step per interval; a full step means more rows are due, so the
+     * next harvest continues right away
+     */
+    private void maybeExpireBackups() {
+        long now = System.currentTimeMillis();
+        long due = nextExpiryTime.get();
+        if (now < due || !nextExpiryTime.compareAndSet(due, now + EXPIRY_INTERVAL_MS)) {
+            return;
+        }
+        try {
+            if (storage.expireOldEvents(VideoEventStorage.EXPIRY_BATCH_ROWS) == VideoEventStorage.EXPIRY_BATCH_ROWS) {
+                nextExpiryTime.set(0);
+            }
+        } catch (Exception e) {
+            NRLog.w("Backup expiry failed: " + e.getMessage());
+        }
+    }
+
+    private int memoryBudget(int maxSizeBytes) {
+        return isRecovering ? maxSizeBytes - maxSizeBytes / RECOVERY_RESERVE_DIVISOR : maxSizeBytes;
+    }
+
+    /**
+     * Fill the rest of the byte budget with recovered rows
+     * Every priority class gets an equal share, a class that needs less leaves the rest to the
+     * next ones, and the class polled first rotates between harvests
+     * Nacked ranges of a class are read before its unread rows; rows are not deleted here
+     * Recovery ends once every class reported no rows left
+     * @param ranges receives the row ranges read, to be deleted once delivered
+     * @return serialized bytes of the recovered events
+     */
+    private synchronized long appendRecoveryEvents(List<Map<String, Object>> batch, int maxSizeBytes, long usedBytes,
+                                                   List<RecoveryRange> ranges) {
+        if (!isRecovering) return 0;
+
+        long remaining = Math.max(0, maxSizeBytes - usedBytes);
+        int classCount = RECOVERY_CLASSES.length;
+        int first = nextRecoveryClass;
+        nextRecoveryClass = (first + 1) % classCount;
+
+        long recoveredBytes = 0;
+        try {
+            for (int i = 0; i < classCount; i++) {
+                int index = (first + i) % classCount;
+                if (drainedClasses[index]) continue;
+
+                long share = remaining / (classCount - i);
+                long used = readReturnedRanges(index, batch, share, maxSizeBytes, ranges);
+                if (used >= 0) {
+                    VideoEventStorage.RecoveryBatch rows = storage.peekEventsWithinBytes(RECOVERY_CLASSES[index],
+                        recoveryCursors[index], Long.MAX_VALUE, share - used, maxSizeBytes);
+                    addRecovered(index, rows, batch, ranges);
+                    if (!rows.isEmpty()) {
+                        recoveryCursors[index] = rows.lastId;
+                    }
+                    drainedClasses[index] = rows.drained && !hasReturnedRanges(index);
+                    used += rows.sizeBytes;
+                } else {
+                    used = share; // Returned ranges filled the share
+                }
+                remaining -= Math.min(remaining, used);
+            }
+        } catch (Exception e) {
+            NRLog.e("Recovery polling failed: " + e.getMessage(), e);
+        }
+
+        for (RecoveryRange range : ranges) {
+            recoveredBytes += range.sizeBytes;
+        }
+        if (!ranges.isEmpty()) {
+            NRLog.d("Recovered " + ranges.size() + " row ranges (" + recoveredBytes + " bytes)");
+        }
+        if (allClassesDrained()) {
+            isRecovering = false;
+            hasBackupRows = false;
+            NRLog.i("Recovery complete");
+        }
+        return recoveredBytes;
+    }
+
+    /**
+     * Read nacked ranges of a class, oldest first, within the share
+     * @return bytes used, or -1 if a range did not fit (the class is done for this harvest)
+     */
+    private long readReturnedRanges(int index, List<Map<String, Object>> batch, long share, int maxSizeBytes,
+                                    List<RecoveryRange> ranges) {
+        long used = 0;
+        Iterator<RecoveryRange> iterator = returnedRanges.iterator();
+        while (iterator.hasNext()) {
+            RecoveryRange returned = iterator.next();
+            if (returned.classIndex != index) continue;
+
+            VideoEventStorage.RecoveryBatch rows = storage.peekEventsWithinBytes(RECOVERY_CLASSES[index],
+                returned.firstId - 1, returned.lastId, share - used, maxSizeBytes);
+            addRecovered(index, rows, batch, ranges);
+            used += rows.sizeBytes;
+            if (rows.isEmpty() && !rows.drained) {
+                return -1; // No budget left
+            }
+            if (rows.drained) {
+                iterator.remove(); // Whole range read (or evicted meanwhile)
+            } else {
+                returned.firstId = rows.lastId + 1;
+                return -1;
+            }
+        }
+        return used;
+    }
+
+    private static void addRecovered(int index, VideoEventStorage.RecoveryBatch rows,
+                                     List<Map<String, Object>> batch, List<RecoveryRange> ranges) {
+        if (rows.isEmpty()) return;
+        ranges.add(new RecoveryRange(index, rows.firstId, rows.lastId, rows.sizeBytes, rows.eventIds, batch.size()));
+        batch.addAll(rows.events);
+    }
+
+    private boolean hasReturnedRanges(int index) {
+        for (RecoveryRange range : returnedRanges) {
+            if (range.classIndex == index) return true;
+        }
+        return false;
+    }
+
+    /**
+     * A harvest carrying recovered rows failed - read them again before newer rows
+     */
+    private synchronized void returnRecoveredRanges(List<RecoveryRange> ranges) {
+        for (int i = ranges.size() - 1; i >= 0; i--) {
+            RecoveryRange range = ranges.get(i);
+            returnedRanges.addFirst(range);
+            drainedClasses[range.classIndex] = false;
+        }
+        hasBackupRows = true;
+        isRecovering = true;
+    }
+
+    private void deleteRecoveredRanges(List<RecoveryRange> ranges) {
+        if (ranges == null) return;
+        try {
+            for (RecoveryRange range : ranges) {
+                storage.deleteRange(RECOVERY_CLASSES[range.classIndex], range.firstId, range.lastId);
+            }
+        } catch (Exception e) {
+            NRLog.e("Failed to delete delivered backup rows: " + e.getMessage(), e);
+        }
+    }
+
+    private boolean allClassesDrained() {
+        for (boolean drained : drainedClasses) {
+            if (!drained) return false;
+        }
+        return true;
+    }
+
+    /**
+     * New rows were backed up - their classes have to be drained again
+     */
+    private synchronized void markBackedUp(String... priorities) {
+        hasBackupRows = true;
+        for (String priority : priorities) {
+            for (int i = 0; i < RECOVERY_CLASSES.length; i++) {
+                if (RECOVERY_CLASSES[i].equals(priority)) {
+                    drainedClasses[i] = false;
+                }
+            }
+        }
     }
 
     @Override
@@ -114,12 +430,19 @@ public class CrashSafeEventBuffer implements EventBufferInterface {
 
     @Override
     public boolean isEmpty() {
-        return memoryBuffer.isEmpty() && (!isRecovering || storage.isEmpty());
+        // Recovery mode lasts exactly as long as backed up rows are left - no COUNT(*) needed
+        return memoryBuffer.isEmpty() && !isRecovering;
     }
 
     @Override
     public void cleanup() {
         memoryBuffer.cleanup();
+        if (journal != null) {
+            // Unreleased events stay in the journal and are replayed on the next launch
+            journal.close();
+            journaledLeases.clear();
+        }
+        recoveryLeases.clear(); // Undelivered recovered rows stay in SQLite
         storage.cleanup();
         markSessionEnd();
     }
@@ -128,19 +451,76 @@ public class CrashSafeEventBuffer implements EventBufferInterface {
      * CRITICAL: Emergency backup for app kill/crash scenarios
      */
     public void emergencyBackup() {
-        try {
-            List<Map<String, Object>> liveEvents = memoryBuffer.pollBatchByPriority(Integer.MAX_VALUE, null, NRVideoConstants.EVENT_TYPE_LIVE);
-            List<Map<String, Object>> ondemandEvents = memoryBuffer.pollBatchByPriority(Integer.MAX_VALUE, null, NRVideoConstants.EVENT_TYPE_ONDEMAND);
+        emergencyBackup(Collections.<Map<String, Object>>emptyList());
+    }
 
-            if (!liveEvents.isEmpty() || !ondemandEvents.isEmpty()) {
-                storage.backupEvents(liveEvents, ondemandEvents);
-                NRLog.d("Emergency backup: " + (liveEvents.size() + ondemandEvents.size()) + " events saved");
+    /**
+     * Emergency backup of the whole buffer plus the given dead letter events in one transaction
+     * Both priority queues are drained completely in one atomic snapshot (no batch limits)
+     * Runs on the backup thread - see EmergencyBackupExecutor
+     */
+    public void emergencyBackup(List<Map<String, Object>> deadLetterEvents) {
+        try {
+            List<Map<String, Object>> liveEvents = new ArrayList<>();
+            List<Map<String, Object>> ondemandEvents = new ArrayList<>();
+            memoryBuffer.drainAll(liveEvents, ondemandEvents);
+
+            if (!liveEvents.isEmpty() || !ondemandEvents.isEmpty() || !deadLetterEvents.isEmpty()) {
+                storage.backupEvents(liveEvents, ondemandEvents, deadLetterEvents);
+                markBackedUp(VideoEventStorage.PRIORITY_LIVE, VideoEventStorage.PRIORITY_ONDEMAND);
+                if (!deadLetterEvents.isEmpty()) {
+                    markBackedUp(VideoEventStorage.PRIORITY_FAILED);
+                    isRecovering = true; // Same as backupFailedEvents
+                }
+                if (journal != null) {
+                    journal.release(liveEvents);
+                    journal.release(ondemandEvents);
+                    journal.release(deadLetterEvents);
+                }
+                NRLog.d("Emergency backup: " + (liveEvents.size() + ondemandEvents.size()) + " events and " +
+                    deadLetterEvents.size() + " dead letter events saved");
             }
         } catch (Exception e) {
             NRLog.e("Emergency backup failed: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Back up the events of harvests whose outcome is still unknown, at shutdown
+     * A send that still succeeds later delivers them twice - never lost is preferred here
+     */
+    public void backupLeasedEvents() {
+        try {
+            List<Map<String, Object>> liveEvents = new ArrayList<>();
+            List<Map<String, Object>> ondemandEvents = new ArrayList<>();
+            memoryBuffer.copyLeased(liveEvents, ondemandEvents);
+            if (liveEvents.isEmpty() && ondemandEvents.isEmpty()) {
+                return;
+            }
+            storage.backupEvents(liveEvents, ondemandEvents);
+            markBackedUp(VideoEventStorage.PRIORITY_LIVE, VideoEventStorage.PRIORITY_ONDEMAND);
+            if (journal != null) {
+                journal.release(liveEvents);
+                journal.release(ondemandEvents);
+            }
+            NRLog.w("Backed up " + (liveEvents.size() + ondemandEvents.size()) + " events of unfinished harvests");
+        } catch (Exception e) {
+            NRLog.e("Leased event backup failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Encode the event once so harvest, size checks and backups reuse the bytes
+     * On failure the event stays unencoded and is serialized at harvest as usual
+     */
+    private void preSerialize(VideoEvent event) {
+        try {
+            event.setEncoded(JsonStreamUtil.encodeEvent(event));
+        } catch (Exception e) {
+            NRLog.w("Event pre-serialization failed: " + e.getMessage());
+        }
+    }
+
     /**
      * Backup failed events when retries exhausted
      */
@@ -148,6 +528,10 @@ public class CrashSafeEventBuffer implements EventBufferInterface {
         if (failedEvents != null && !failedEvents.isEmpty()) {
             try {
                 storage.backupFailedEvents(failedEvents);
+                markBackedUp(VideoEventStorage.PRIORITY_FAILED);
+                if (journal != null) {
+                    journal.release(failedEvents); // Only once the rows are committed
+                }
                 if (!isRecovering) {
                     isRecovering = true;
                     NRLog.d("Recovery mode enabled for " + failedEvents.size() + " failed events");
@@ -159,41 +543,52 @@ public class CrashSafeEventBuffer implements EventBufferInterface {
     }
 
     /**
-     * Check for crash recovery on app startup - defer until first successful harvest
+     * Events released by nack were delivered (or dropped) on the dead letter path
+     * No-op without a journal or for events that were never journaled
      */
-    private void checkCrashRecovery() {
-        boolean wasSessionActive = crashPrefs.getBoolean(KEY_SESSION_ACTIVE, false);
+    public void releaseDelivered(List<Map<String, Object>> events) {
+        if (journal != null) {
+            journal.release(events);
+        }
+    }
 
-        if (wasSessionActive) {
-            // Previous session didn't end cleanly - likely a crash
-            if (storage.hasBackupData()) {
-                hasPendingRecovery = true; // Set pending instead of immediate recovery
-                NRLog.w("Crash detected - recovery will start after first successful harvest");
+    /**
+     * Move the events journaled by the previous process into SQLite
+     * The journal segments are only deleted once the rows are committed
+     */
+    private void replayJournal() {
+        try {
+            List<Map<String, Object>> events = journal.readLeftoverEvents();
+            if (!events.isEmpty()) {
+                List<Map<String, Object>> liveEvents = new ArrayList<>();
+                List<Map<String, Object>> ondemandEvents = new ArrayList<>();
+                for (Map<String, Object> event : events) {
+                    (PriorityEventBuffer.isLiveStreamingEvent(event) ? liveEvents : ondemandEvents).add(event);
+                }
+                storage.backupEvents(liveEvents, ondemandEvents);
+                NRLog.w("Replayed " + events.size() + " journaled events of the previous session");
             }
+            journal.deleteLeftoverSegments();
+        } catch (Exception e) {
+            NRLog.e("Event journal replay failed: " + e.getMessage(), e);
         }
     }
 
     /**
-     * Poll recovery events in small batches
+     * Check for crash recovery on app startup - defer until first successful harvest
      */
-    private List<Map<String, Object>> pollRecoveryEvents(String priority, int maxSize) {
-        try {
-            List<Map<String, Object>> recoveryEvents = storage.pollEvents(priority, maxSize);
+    private void checkCrashRecovery() {
+        boolean wasSessionActive = crashPrefs.getBoolean(KEY_SESSION_ACTIVE, false);
 
-            if (!recoveryEvents.isEmpty()) {
-                NRLog.d("Recovered " + recoveryEvents.size() + " events (" + priority + ")");
+        // The only row count query: later sessions track backed up rows themselves
+        hasBackupRows = storage.hasBackupData();
 
-                // Check if recovery is complete
-                if (storage.isEmpty()) {
-                    isRecovering = false;
-                    NRLog.i("Recovery complete");
-                }
+        if (wasSessionActive) {
+            // Previous session didn't end cleanly - likely a crash
+            if (hasBackupRows) {
+                hasPendingRecovery = true; // Set pending instead of immediate recovery
+                NRLog.w("Crash detected - recovery will start after first successful harvest");
             }
-
-            return recoveryEvents;
-        } catch (Exception e) {
-            NRLog.e("Recovery polling failed: " + e.getMessage(), e);
-            return new ArrayList<>();
         }
     }
 
@@ -218,12 +613,6 @@ public class CrashSafeEventBuffer implements EventBufferInterface {
         crashPrefs.edit().putInt(KEY_LAST_EVENT_COUNT, lastEventCount.get()).apply();
     }
 
-    // Helper methods
-    private int getOptimalBatchSize(String priority) {
-        int baseSize = NRVideoConstants.EVENT_TYPE_LIVE.equals(priority) ? 50 : 100;
-        return isTVDevice ? baseSize * 2 : baseSize; // TV can handle larger batches
-    }
-
     /**
      * Get recovery statistics
      */
@@ -251,8 +640,8 @@ public class CrashSafeEventBuffer implements EventBufferInterface {
             NRLog.i("Starting crash recovery after successful harvest - scheduler is now active");
         }
 
-        // Case 2: Check if there's SQLite data to recover (even without pending flag)
-        if (!isRecovering && storage.hasBackupData()) {
+        // Case 2: Rows were backed up in this session (even without pending flag)
+        if (!isRecovering && hasBackupRows) {
             shouldStartRecovery = true;
             NRLog.i("Starting SQLite recovery after successful harvest - backup data detected");
         }
@@ -282,4 +671,32 @@ public class CrashSafeEventBuffer implements EventBufferInterface {
                                isRecovering, backupEvents, memoryEvents, isTVDevice);
         }
     }
+
+    /**
+     * Recovered rows of one priority class handed to a harvest
+     */
+    private static final class RecoveryRange {
+        final int classIndex;
+        long firstId; // Advanced when a returned range is read in parts
+        final long lastId;
+        final long sizeBytes;
+        final long[] eventIds; // Row id per event of the range
+        final int batchIndex; // Position of the first event in the harvest batch
+
+        RecoveryRange(int classIndex, long firstId, long lastId, long sizeBytes, long[] eventIds, int batchIndex) {
+            this.classIndex = classIndex;
+            this.firstId = firstId;
+            this.lastId = lastId;
+            this.sizeBytes = sizeBytes;
+            this.eventIds = eventIds;
+            this.batchIndex = batchIndex;
+        }
+
+        /**
+         * Part of a range split by a partial delivery, only deleted or read again
+         */
+        RecoveryRange(int classIndex, long firstId, long lastId) {
+            this(classIndex, firstId, lastId, 0, new long[0], 0);
+        }
+    }
 }
@@ -2,6 +2,7 @@ package com.newrelic.videoagent.core.storage;
 
 import android.content.Context;
 import com.newrelic.videoagent.core.NRVideoConfiguration;
+import com.newrelic.videoagent.core.harvest.AsyncHarvestSender;
 import com.newrelic.videoagent.core.harvest.HarvestComponentFactory;
 import com.newrelic.videoagent.core.harvest.EventBufferInterface;
 import com.newrelic.videoagent.core.harvest.HttpClientInterface;
@@ -15,12 +16,17 @@ import com.newrelic.videoagent.core.utils.NRLog;
  * Drop-in replacement that adds crash safety with zero performance impact
  */
 public class CrashSafeHarvestFactory implements HarvestComponentFactory {
+    // How long cleanup waits for harvests in flight before backing up their events
+    private static final long SHUTDOWN_SEND_DEADLINE_MS = 5000;
+
     private final Context context;
     private final CrashSafeEventBuffer crashSafeBuffer;
     private final IntegratedDeadLetterHandler integratedHandler;
     private final NRVideoConfiguration configuration;
     private final HttpClientInterface httpClient;
+    private final AsyncHarvestSender sender;
     private final SchedulerInterface scheduler;
+    private final EmergencyBackupExecutor backupExecutor;
 
     public CrashSafeHarvestFactory(NRVideoConfiguration configuration,
                                    Context context,
@@ -28,27 +34,61 @@ public class CrashSafeHarvestFactory implements HarvestComponentFactory {
                                    EventBufferInterface.CapacityCallback capacityCallback,
                                    Runnable onDemandTask,
                                    Runnable liveTask) {
+        this(configuration, context, overflowCallback, capacityCallback, onDemandTask, liveTask, null);
+    }
+
+    /**
+     * @param coalescedTask harvests both queues in one request when their timers are due close together
+     */
+    public CrashSafeHarvestFactory(NRVideoConfiguration configuration,
+                                   Context context,
+                                   EventBufferInterface.OverflowCallback overflowCallback,
+                                   EventBufferInterface.CapacityCallback capacityCallback,
+                                   Runnable onDemandTask,
+                                   Runnable liveTask,
+                                   Runnable coalescedTask) {
         this.context = context;
         this.configuration = configuration;
-        crashSafeBuffer = new CrashSafeEventBuffer(context, configuration, new VideoEventStorage(context));
+        crashSafeBuffer = new CrashSafeEventBuffer(context, configuration,
+            new VideoEventStorage(context, configuration.getBackupMaxBytes(), configuration.getBackupMaxRows()));
         httpClient = new OptimizedHttpClient(getConfiguration(), context);
+        // Harvests hand their batches to the sender, the harvest thread never waits on the network
+        sender = new AsyncHarvestSender(httpClient);
         integratedHandler = new IntegratedDeadLetterHandler(crashSafeBuffer, httpClient, configuration);
-        scheduler = new MultiTaskHarvestScheduler(onDemandTask, liveTask, configuration);
+        integratedHandler.setSender(sender);
+        scheduler = new MultiTaskHarvestScheduler(onDemandTask, liveTask, coalescedTask,
+            integratedHandler::retryPendingEvents, configuration);
+        // Dead letter retries run on the harvest thread
+        integratedHandler.setRetryScheduler(scheduler);
         // Set overflow callback for immediate harvest when buffer is getting full
         crashSafeBuffer.setOverflowCallback(overflowCallback);
         // Set capacity callback for 60% threshold scheduler startup
         crashSafeBuffer.setCapacityCallback(capacityCallback);
+        // Lifecycle callbacks run on the main thread - backups go to their own thread
+        backupExecutor = new EmergencyBackupExecutor(this::runEmergencyBackup);
     }
 
 
     /**
      * Emergency backup for app lifecycle events
+     * Queued on the backup thread, returns immediately
      */
     @Override
     public void performEmergencyBackup() {
+        backupExecutor.request();
+    }
+
+    @Override
+    public boolean awaitEmergencyBackup(long timeoutMs) {
+        return backupExecutor.await(timeoutMs);
+    }
+
+    /**
+     * Snapshot of both priority queues and the dead letter queue, written in one transaction
+     */
+    private void runEmergencyBackup() {
         try {
-            crashSafeBuffer.emergencyBackup();
-            integratedHandler.emergencyBackup();
+            crashSafeBuffer.emergencyBackup(integratedHandler.drainForBackup());
         } catch (Exception e) {
             NRLog.w("[CrashSafeFactory] Emergency backup failed: " + e.getMessage());
         }
@@ -81,10 +121,25 @@ public class CrashSafeHarvestFactory implements HarvestComponentFactory {
         return context;
     }
 
+    /**
+     * Sends in flight get a bounded time to ack or nack their leases; nacked events and whatever
+     * else is still buffered are backed up, leases still unanswered at the deadline as well
+     * Runs on the backup thread, the caller does not wait
+     */
     @Override
     public void cleanup() {
-        crashSafeBuffer.cleanup();
-        NRLog.d("CrashSafeHarvestFactory cleaned up successfully");
+        // Batches already handed over still complete
+        sender.shutdown();
+        // Runs after a backup queued just before (e.g. on the last activity's destroy)
+        backupExecutor.shutdownAfter(() -> {
+            boolean sendsCompleted = sender.awaitTermination(SHUTDOWN_SEND_DEADLINE_MS);
+            runEmergencyBackup();
+            if (!sendsCompleted) {
+                crashSafeBuffer.backupLeasedEvents();
+            }
+            crashSafeBuffer.cleanup();
+            NRLog.d("CrashSafeHarvestFactory cleaned up successfully");
+        });
     }
 
     @Override
@@ -97,6 +152,11 @@ public class CrashSafeHarvestFactory implements HarvestComponentFactory {
         return httpClient;
     }
 
+    @Override
+    public AsyncHarvestSender getSender() {
+        return sender;
+    }
+
     @Override
     public SchedulerInterface getScheduler() {
         return scheduler;
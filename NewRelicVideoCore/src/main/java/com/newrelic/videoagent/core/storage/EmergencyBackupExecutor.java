@@ -0,0 +1,110 @@
+package com.newrelic.videoagent.core.storage;
+
+import com.newrelic.videoagent.core.utils.NRLog;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs emergency backups on a dedicated background thread
+ * Lifecycle callbacks only queue a backup and return - the SQLite transaction never runs on the
+ * main thread. Requests arriving while a backup is queued share it; a request arriving while
+ * one is running queues the next run, so events added in between are backed up as well.
+ * Callers that must not return before the data is safe (crash handler) wait with a deadline.
+ */
+public class EmergencyBackupExecutor {
+
+    private static final String THREAD_NAME = "NRVideo-EmergencyBackup";
+
+    private final Runnable backupTask;
+    private final ExecutorService executor;
+    private final AtomicBoolean isQueued = new AtomicBoolean(false);
+    private volatile Future<?> lastRun;
+    private volatile Thread workerThread;
+
+    public EmergencyBackupExecutor(Runnable backupTask) {
+        this.backupTask = backupTask;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queue a backup and return immediately
+     */
+    public void request() {
+        if (!isQueued.compareAndSet(false, true)) {
+            return; // The queued run has not taken its snapshot yet
+        }
+        try {
+            lastRun = executor.submit(() -> {
+                workerThread = Thread.currentThread();
+                isQueued.set(false); // Later requests need another snapshot
+                try {
+                    backupTask.run();
+                } catch (Exception e) {
+                    NRLog.e("Emergency backup failed: " + e.getMessage(), e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            isQueued.set(false);
+            NRLog.w("Emergency backup rejected - executor is shut down");
+        }
+    }
+
+    /**
+     * Wait for the last requested backup
+     * @return true if it completed within the deadline
+     */
+    public boolean await(long timeoutMs) {
+        Future<?> run = lastRun;
+        if (run == null) {
+            return true;
+        }
+        if (Thread.currentThread() == workerThread) {
+            return false; // Called from the backup itself (e.g. it crashed) - waiting would only time out
+        }
+        try {
+            run.get(timeoutMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            NRLog.w("Emergency backup did not finish within " + timeoutMs + "ms");
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Run a final task after any queued backup, then stop the thread - does not block
+     */
+    public void shutdownAfter(Runnable finalTask) {
+        try {
+            executor.execute(() -> {
+                try {
+                    finalTask.run();
+                } catch (Exception e) {
+                    NRLog.e("Emergency backup shutdown task failed: " + e.getMessage(), e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            NRLog.w("Emergency backup executor already shut down");
+        }
+        executor.shutdown();
+    }
+
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+}
@@ -0,0 +1,371 @@
+package com.newrelic.videoagent.core.storage;
+
+import com.newrelic.videoagent.core.model.VideoEvent;
+import com.newrelic.videoagent.core.util.JsonStreamUtil;
+import com.newrelic.videoagent.core.utils.NRLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only journal of buffered events in memory-mapped segment files
+ *
+ * Events are appended when they enter the buffer and released once they left it for good
+ * (harvest acknowledged, evicted from the ring, backed up to SQLite or delivered as a retry)
+ * Appends are plain memory writes into the page cache, never fsync'd: they survive the process
+ * dying without running any Java code (native crash, OOM kill, low memory killer), not a power loss
+ *
+ * Segment layout: magic int, then records of [int length][UTF-8 JSON], a zero length ends the segment
+ * The terminator behind a record is written before its length, so a torn append is never replayed
+ * Releasing an event negates its record length in place, replay skips released records
+ * The active segment is rewound once all its events were released, full ones are deleted then
+ * Segments left by a previous process are read back on the next launch (readLeftoverEvents)
+ *
+ * Thread-safe, every operation holds the journal lock for a few memory writes at most
+ */
+public class EventJournal {
+
+    static final int DEFAULT_SEGMENT_BYTES = 256 * 1024;
+    // Bounds disk use, the oldest segment is dropped beyond this even with events still outstanding
+    static final int MAX_SEGMENTS = 8;
+
+    private static final int MAGIC = 0x4E524A31; // "NRJ1"
+    private static final int HEADER_BYTES = 4;
+    private static final int LENGTH_BYTES = 4;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".nrj";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8"); // Compatibility with API level 16
+
+    private final File directory;
+    private final int segmentBytes;
+    private final long firstSessionSequence; // Segments below it were written by a previous process
+    private long nextSequence;
+
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>(); // Oldest first, last is active
+    private final IdentityHashMap<Map<String, Object>, Record> owners = new IdentityHashMap<>();
+    private boolean closed;
+
+    public EventJournal(File directory) {
+        this(directory, DEFAULT_SEGMENT_BYTES);
+    }
+
+    EventJournal(File directory, int segmentBytes) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            NRLog.w("Event journal directory could not be created: " + directory);
+        }
+        long highest = -1;
+        for (File file : listSegmentFiles()) {
+            highest = Math.max(highest, sequenceOf(file));
+        }
+        this.firstSessionSequence = highest + 1;
+        this.nextSequence = firstSessionSequence;
+    }
+
+    // ========== Replay ==========
+
+    /**
+     * Events of segments left by a previous process, oldest first
+     * The segments stay on disk until deleteLeftoverSegments() - call it once the events are safe
+     */
+    public synchronized List<Map<String, Object>> readLeftoverEvents() {
+        List<Map<String, Object>> events = new ArrayList<>();
+        for (File file : leftoverSegmentFiles()) {
+            try {
+                readSegment(file, events);
+            } catch (IOException e) {
+                NRLog.w("Unreadable journal segment " + file.getName() + ": " + e.getMessage());
+            }
+        }
+        return events;
+    }
+
+    public synchronized void deleteLeftoverSegments() {
+        for (File file : leftoverSegmentFiles()) {
+            deleteFile(file);
+        }
+    }
+
+    private void readSegment(File file, List<Map<String, Object>> events) throws IOException {
+        byte[] data;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            data = new byte[(int) Math.min(raf.length(), Integer.MAX_VALUE)];
+            raf.readFully(data);
+        } finally {
+            raf.close();
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (data.length < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            return;
+        }
+        int position = HEADER_BYTES;
+        while (position + LENGTH_BYTES <= data.length) {
+            int length = buffer.getInt(position);
+            boolean released = length < 0;
+            if (released) {
+                length = -length;
+            }
+            if (length == 0 || length > data.length - position - LENGTH_BYTES) {
+                break;
+            }
+            if (!released) {
+                Map<String, Object> event = VideoEventStorage.jsonToMap(
+                    new String(data, position + LENGTH_BYTES, length, UTF_8));
+                if (event != null) {
+                    events.add(event);
+                }
+            }
+            position += LENGTH_BYTES + length;
+        }
+    }
+
+    // ========== Append / release ==========
+
+    /**
+     * Journal an event that is entering the buffer
+     * Pre-serialized events are copied as is
+     * @return false if the event could not be journaled (too large, I/O error, closed)
+     */
+    public boolean append(Map<String, Object> event) {
+        byte[] bytes = event instanceof VideoEvent ? ((VideoEvent) event).getEncoded() : null;
+        if (bytes == null) {
+            try {
+                bytes = JsonStreamUtil.encodeEvent(event);
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        // Record plus the terminator behind it
+        int needed = LENGTH_BYTES + bytes.length + LENGTH_BYTES;
+        if (HEADER_BYTES + needed > segmentBytes) {
+            return false;
+        }
+
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            Segment active = segments.peekLast();
+            if (active == null || active.position + needed > segmentBytes) {
+                try {
+                    active = rotate();
+                } catch (IOException e) {
+                    NRLog.w("Event journal segment could not be created: " + e.getMessage());
+                    return false;
+                }
+            }
+
+            MappedByteBuffer buffer = active.buffer;
+            int position = active.position;
+            buffer.position(position + LENGTH_BYTES);
+            buffer.put(bytes);
+            buffer.putInt(position + LENGTH_BYTES + bytes.length, 0);
+            buffer.putInt(position, bytes.length); // Commits the record
+            active.position = position + LENGTH_BYTES + bytes.length;
+
+            active.outstanding++;
+            Record previous = owners.put(event, new Record(active, position));
+            if (previous != null) {
+                releaseRecord(previous); // Same instance added twice - only the newest record counts
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Events left the buffer for good
+     */
+    public synchronized void release(Collection<Map<String, Object>> events) {
+        if (events == null) return;
+        for (Map<String, Object> event : events) {
+            release(event);
+        }
+    }
+
+    /**
+     * Event left the buffer for good - events that were never journaled are ignored
+     */
+    public synchronized void release(Map<String, Object> event) {
+        Record record = owners.remove(event);
+        if (record != null) {
+            releaseRecord(record);
+        }
+    }
+
+    /**
+     * Stop journaling - segments stay on disk with whatever was not released
+     */
+    public synchronized void close() {
+        closed = true;
+        owners.clear();
+        segments.clear();
+    }
+
+    synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    synchronized int getOutstandingCount() {
+        return owners.size();
+    }
+
+    private void releaseRecord(Record record) {
+        Segment segment = record.segment;
+        if (segment.dropped) {
+            return;
+        }
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.putInt(record.offset, -buffer.getInt(record.offset)); // Marks it released for replay
+        if (--segment.outstanding > 0) {
+            return;
+        }
+        if (segment == segments.peekLast()) {
+            rewind(segment);
+        } else {
+            segments.remove(segment);
+            drop(segment);
+        }
+    }
+
+    private Segment rotate() throws IOException {
+        Segment full = segments.peekLast();
+        if (full != null && full.outstanding == 0) {
+            segments.pollLast();
+            drop(full);
+        }
+
+        Segment segment = openSegment(nextSequence++);
+        segments.addLast(segment);
+        while (segments.size() > MAX_SEGMENTS) {
+            Segment oldest = segments.pollFirst();
+            NRLog.w("Event journal full - dropping " + oldest.outstanding + " unreleased events of the oldest segment");
+            forgetOwners(oldest);
+            drop(oldest);
+        }
+        return segment;
+    }
+
+    private Segment openSegment(long sequence) throws IOException {
+        File file = new File(directory, SEGMENT_PREFIX + sequence + SEGMENT_SUFFIX);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(segmentBytes);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            buffer.putInt(0, MAGIC);
+            Segment segment = new Segment(file, buffer);
+            rewind(segment);
+            return segment;
+        } finally {
+            raf.close(); // The mapping stays valid
+        }
+    }
+
+    private static void rewind(Segment segment) {
+        segment.position = HEADER_BYTES;
+        segment.buffer.putInt(HEADER_BYTES, 0);
+    }
+
+    private void drop(Segment segment) {
+        segment.dropped = true;
+        deleteFile(segment.file);
+    }
+
+    private void forgetOwners(Segment segment) {
+        Iterator<Record> iterator = owners.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().segment == segment) {
+                iterator.remove();
+            }
+        }
+    }
+
+    // ========== Files ==========
+
+    private List<File> leftoverSegmentFiles() {
+        List<File> leftovers = new ArrayList<>();
+        for (File file : listSegmentFiles()) {
+            if (sequenceOf(file) < firstSessionSequence) {
+                leftovers.add(file);
+            }
+        }
+        return leftovers;
+    }
+
+    /**
+     * Segment files in sequence order
+     */
+    private List<File> listSegmentFiles() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        List<File> segmentFiles = new ArrayList<>();
+        for (File file : files) {
+            if (sequenceOf(file) >= 0) {
+                segmentFiles.add(file);
+            }
+        }
+        File[] sorted = segmentFiles.toArray(new File[0]);
+        Arrays.sort(sorted, (a, b) -> Long.compare(sequenceOf(a), sequenceOf(b)));
+        return Arrays.asList(sorted);
+    }
+
+    private static long sequenceOf(File file) {
+        String name = file.getName();
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            NRLog.w("Event journal segment could not be deleted: " + file.getName());
+        }
+    }
+
+    private static final class Segment {
+        final File file;
+        final MappedByteBuffer buffer;
+        int position;
+        int outstanding; // Journaled events not released yet
+        boolean dropped;
+
+        Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private static final class Record {
+        final Segment segment;
+        final int offset; // Of the record's length
+
+        Record(Segment segment, int offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+}
@@ -0,0 +1,541 @@
+package com.newrelic.videoagent.core.storage;
+
+import com.newrelic.videoagent.core.model.VideoEvent;
+
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary record format for backed up events
+ *
+ * Record: version byte, attribute count, then one key reference + typed value per attribute
+ * Key reference: dictionary id << 1, or (UTF-8 length << 1) | 1 followed by the key bytes
+ * Value: type tag byte followed by its payload. Integers are zigzag varints, doubles/floats
+ * their raw IEEE bits, strings a byte length + UTF-8, maps and lists an entry count + entries
+ *
+ * Attribute names come from a per-database key dictionary: the VideoEvent schema keys plus
+ * up to MAX_LEARNED_KEYS top-level keys seen while backing up. Keys added during a write stay
+ * pending until the caller persisted them (commitKeys) or gave up on the write (rollbackKeys)
+ *
+ * Not thread-safe - VideoEventStorage only uses it under its write lock
+ */
+public final class EventRecordCodec {
+
+    public static final int FORMAT_VERSION = 1;
+
+    // Top-level keys learned on top of the schema keys
+    static final int MAX_LEARNED_KEYS = 256;
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_FALSE = 1;
+    private static final int TAG_TRUE = 2;
+    private static final int TAG_INT = 3;
+    private static final int TAG_LONG = 4;
+    private static final int TAG_DOUBLE = 5;
+    private static final int TAG_FLOAT = 6;
+    private static final int TAG_STRING = 7;
+    private static final int TAG_MAP = 8;
+    private static final int TAG_LIST = 9;
+    private static final int TAG_SHORT = 10;
+    private static final int TAG_BYTE = 11;
+    private static final int TAG_NUMBER = 12; // Other Number types, kept as their decimal literal
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8"); // Compatibility with API level 16
+
+    // Scratch buffer is dropped back to its initial size if a huge event made it grow too much
+    private static final int INITIAL_BUFFER_BYTES = 1024;
+    private static final int MAX_RETAINED_BUFFER_BYTES = 16 * 1024;
+
+    // Key dictionary, indexed by id
+    private final List<String> keyNames = new ArrayList<>();
+    private final Map<String, Integer> keyIds = new HashMap<>();
+    private int committedKeys;
+    private int learnedKeys;
+    private int committedLearnedKeys;
+
+    // Slot index -> key id and key id -> slot index, -1 when unmapped
+    private final int[] slotKeyIds = new int[VideoEvent.getSlotCount()];
+    private int[] keySlots = new int[0];
+
+    private byte[] buffer = new byte[INITIAL_BUFFER_BYTES];
+    private int position;
+
+    public EventRecordCodec() {
+        Arrays.fill(slotKeyIds, -1);
+    }
+
+    // ========== Key dictionary ==========
+
+    /**
+     * Register a persisted dictionary entry
+     */
+    public void registerKey(int id, String name) {
+        if (id < 0 || name == null || keyIds.containsKey(name)) {
+            return;
+        }
+        while (keyNames.size() <= id) {
+            keyNames.add(null);
+        }
+        keyNames.set(id, name);
+        keyIds.put(name, id);
+        mapSlot(id, name);
+        committedKeys = keyNames.size();
+        if (VideoEvent.getSlotIndex(name) < 0) {
+            learnedKeys++;
+            committedLearnedKeys = learnedKeys;
+        }
+    }
+
+    /**
+     * Dictionary id of a key, -1 if it has none
+     */
+    public int getKeyId(String name) {
+        Integer id = keyIds.get(name);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Add a key as a pending dictionary entry
+     * @return its id
+     */
+    public int addKey(String name) {
+        int id = keyNames.size();
+        keyNames.add(name);
+        keyIds.put(name, id);
+        mapSlot(id, name);
+        if (VideoEvent.getSlotIndex(name) < 0) {
+            learnedKeys++;
+        }
+        return id;
+    }
+
+    /**
+     * Id of the first pending dictionary entry
+     */
+    public int getFirstPendingKeyId() {
+        return committedKeys;
+    }
+
+    /**
+     * Dictionary entries added since the last commit, in id order
+     */
+    public List<String> getPendingKeys() {
+        if (committedKeys == keyNames.size()) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(keyNames.subList(committedKeys, keyNames.size()));
+    }
+
+    /**
+     * Pending entries were persisted with the records that use them
+     */
+    public void commitKeys() {
+        committedKeys = keyNames.size();
+        committedLearnedKeys = learnedKeys;
+    }
+
+    /**
+     * The write that added the pending entries did not commit - forget them
+     */
+    public void rollbackKeys() {
+        for (int id = keyNames.size() - 1; id >= committedKeys; id--) {
+            String name = keyNames.remove(id);
+            keyIds.remove(name);
+            int slot = VideoEvent.getSlotIndex(name);
+            if (slot >= 0 && slotKeyIds[slot] == id) {
+                slotKeyIds[slot] = -1;
+            }
+            if (id < keySlots.length) {
+                keySlots[id] = -1;
+            }
+        }
+        learnedKeys = committedLearnedKeys;
+    }
+
+    private void mapSlot(int id, String name) {
+        if (keySlots.length <= id) {
+            int oldLength = keySlots.length;
+            keySlots = Arrays.copyOf(keySlots, Math.max(id + 1, oldLength * 2));
+            Arrays.fill(keySlots, oldLength, keySlots.length, -1);
+        }
+        int slot = VideoEvent.getSlotIndex(name);
+        keySlots[id] = slot;
+        if (slot >= 0) {
+            slotKeyIds[slot] = id;
+        }
+    }
+
+    // ========== Encoding ==========
+
+    /**
+     * Encode an event as one record
+     * Top-level keys outside the dictionary are added to it (pending) while there is room
+     */
+    public byte[] encode(Map<String, Object> event) {
+        position = 0;
+        writeByte(FORMAT_VERSION);
+        writeVarint(event.size());
+
+        Map<String, Object> remaining = event;
+        if (event instanceof VideoEvent) {
+            // Schema slots map straight to dictionary ids, no key lookups
+            VideoEvent videoEvent = (VideoEvent) event;
+            for (int i = 0; i < slotKeyIds.length; i++) {
+                if (videoEvent.hasSlot(i)) {
+                    int id = slotKeyIds[i];
+                    if (id < 0) {
+                        id = addKey(VideoEvent.getSlotKey(i));
+                    }
+                    writeVarint((long) id << 1);
+                    writeValue(videoEvent.getSlot(i));
+                }
+            }
+            remaining = videoEvent.getOverflowAttributes();
+        }
+
+        for (Map.Entry<String, Object> entry : remaining.entrySet()) {
+            writeKey(entry.getKey(), true);
+            writeValue(entry.getValue());
+        }
+        if (event instanceof VideoEvent) {
+            // Shared attributes of the event's action, the ones its own values do not shadow
+            VideoEvent videoEvent = (VideoEvent) event;
+            for (Map.Entry<String, Object> entry : videoEvent.getSharedAttributes().entrySet()) {
+                if (!videoEvent.hidesShared(entry.getKey())) {
+                    writeKey(entry.getKey(), true);
+                    writeValue(entry.getValue());
+                }
+            }
+        }
+
+        byte[] record = Arrays.copyOf(buffer, position);
+        if (buffer.length > MAX_RETAINED_BUFFER_BYTES) {
+            buffer = new byte[INITIAL_BUFFER_BYTES];
+        }
+        return record;
+    }
+
+    private void writeKey(String key, boolean learn) {
+        String name = key != null ? key : "null";
+        int id = getKeyId(name);
+        if (id < 0 && learn && learnedKeys < MAX_LEARNED_KEYS) {
+            id = addKey(name);
+        }
+        if (id >= 0) {
+            writeVarint((long) id << 1);
+        } else {
+            writeStringBytes(name, true);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeValue(Object value) {
+        if (value == null) {
+            writeByte(TAG_NULL);
+        } else if (value instanceof String) {
+            writeByte(TAG_STRING);
+            writeStringBytes((String) value, false);
+        } else if (value instanceof Boolean) {
+            writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Integer) {
+            writeByte(TAG_INT);
+            writeZigzag((Integer) value);
+        } else if (value instanceof Long) {
+            writeByte(TAG_LONG);
+            writeZigzag((Long) value);
+        } else if (value instanceof Double) {
+            writeByte(TAG_DOUBLE);
+            writeFixed64(Double.doubleToRawLongBits((Double) value));
+        } else if (value instanceof Float) {
+            writeByte(TAG_FLOAT);
+            writeFixed32(Float.floatToRawIntBits((Float) value));
+        } else if (value instanceof Short) {
+            writeByte(TAG_SHORT);
+            writeZigzag((Short) value);
+        } else if (value instanceof Byte) {
+            writeByte(TAG_BYTE);
+            writeZigzag((Byte) value);
+        } else if (value instanceof Number) {
+            writeByte(TAG_NUMBER);
+            writeStringBytes(value.toString(), false);
+        } else if (value instanceof Map) {
+            Map<String, Object> map = (Map<String, Object>) value;
+            writeByte(TAG_MAP);
+            writeVarint(map.size());
+            for (Map.Entry<String, Object> entry : map.entrySet()) {
+                writeKey(entry.getKey(), false); // Nested keys are looked up, never learned
+                writeValue(entry.getValue());
+            }
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            writeByte(TAG_LIST);
+            writeVarint(list.size());
+            for (int i = 0; i < list.size(); i++) {
+                writeValue(list.get(i));
+            }
+        } else {
+            // Fallback: same as the JSON serializer, keep the string form
+            writeByte(TAG_STRING);
+            writeStringBytes(value.toString(), false);
+        }
+    }
+
+    /**
+     * UTF-8 bytes with a varint length prefix (shifted and flagged for inline keys)
+     * Unpaired surrogates become '?', as with String.getBytes
+     */
+    private void writeStringBytes(String value, boolean inlineKey) {
+        int length = value.length();
+        int utf8Length = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                utf8Length++;
+            } else if (c < 0x800) {
+                utf8Length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                utf8Length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                utf8Length++;
+            } else {
+                utf8Length += 3;
+            }
+        }
+
+        writeVarint(inlineKey ? ((long) utf8Length << 1) | 1 : utf8Length);
+        ensureCapacity(utf8Length);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buffer[position++] = '?';
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void writeZigzag(long value) {
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    private void writeVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeFixed64(long value) {
+        ensureCapacity(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[position++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void writeFixed32(int value) {
+        ensureCapacity(4);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            buffer[position++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void writeByte(int value) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) value;
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (position + bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+        }
+    }
+
+    // ========== Decoding ==========
+
+    /**
+     * Decode a record back into an event, value types are preserved
+     * @throws IllegalArgumentException if the record is malformed, of an unknown version
+     *         or refers to a key the dictionary does not have
+     */
+    public VideoEvent decode(byte[] record) {
+        Reader reader = new Reader(record);
+        try {
+            int version = reader.readByte();
+            if (version != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported record version " + version);
+            }
+
+            VideoEvent event = new VideoEvent();
+            int count = reader.readCount();
+            for (int i = 0; i < count; i++) {
+                long keyRef = reader.readVarint();
+                if ((keyRef & 1) == 0) {
+                    int id = keyId(keyRef);
+                    Object value = readValue(reader);
+                    int slot = keySlots[id];
+                    if (slot >= 0) {
+                        event.putSlot(slot, value);
+                    } else {
+                        event.put(keyNames.get(id), value);
+                    }
+                } else {
+                    String name = reader.readString(keyRef >>> 1);
+                    event.put(name, readValue(reader));
+                }
+            }
+            if (reader.position != record.length) {
+                throw new IllegalArgumentException("Trailing bytes in record");
+            }
+            return event;
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated record", e);
+        }
+    }
+
+    private int keyId(long keyRef) {
+        long id = keyRef >>> 1;
+        if (id >= keyNames.size() || keyNames.get((int) id) == null) {
+            throw new IllegalArgumentException("Unknown key id " + id);
+        }
+        return (int) id;
+    }
+
+    private Object readValue(Reader reader) {
+        int tag = reader.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_INT:
+                return (int) reader.readZigzag();
+            case TAG_LONG:
+                return reader.readZigzag();
+            case TAG_DOUBLE:
+                return Double.longBitsToDouble(reader.readFixed64());
+            case TAG_FLOAT:
+                return Float.intBitsToFloat(reader.readFixed32());
+            case TAG_STRING:
+                return reader.readString(reader.readVarint());
+            case TAG_SHORT:
+                return (short) reader.readZigzag();
+            case TAG_BYTE:
+                return (byte) reader.readZigzag();
+            case TAG_NUMBER:
+                try {
+                    return new BigDecimal(reader.readString(reader.readVarint()));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Bad number literal", e);
+                }
+            case TAG_MAP: {
+                int count = reader.readCount();
+                Map<String, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < count; i++) {
+                    long keyRef = reader.readVarint();
+                    String name = (keyRef & 1) == 0 ? keyNames.get(keyId(keyRef)) : reader.readString(keyRef >>> 1);
+                    map.put(name, readValue(reader));
+                }
+                return map;
+            }
+            case TAG_LIST: {
+                int count = reader.readCount();
+                List<Object> list = new ArrayList<>(Math.min(count, 64));
+                for (int i = 0; i < count; i++) {
+                    list.add(readValue(reader));
+                }
+                return list;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown type tag " + tag);
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() {
+            return data[position++] & 0xFF;
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        long readZigzag() {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        // Element counts can never exceed the remaining bytes
+        int readCount() {
+            long count = readVarint();
+            if (count > data.length - position) {
+                throw new IllegalArgumentException("Bad element count " + count);
+            }
+            return (int) count;
+        }
+
+        long readFixed64() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (data[position++] & 0xFF);
+            }
+            return value;
+        }
+
+        int readFixed32() {
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                value = (value << 8) | (data[position++] & 0xFF);
+            }
+            return value;
+        }
+
+        String readString(long length) {
+            if (length > data.length - position) {
+                throw new IllegalArgumentException("Bad string length " + length);
+            }
+            String value = new String(data, position, (int) length, UTF_8);
+            position += (int) length;
+            return value;
+        }
+    }
+}
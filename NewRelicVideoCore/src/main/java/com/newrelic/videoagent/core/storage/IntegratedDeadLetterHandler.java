@@ -2,26 +2,43 @@ package com.newrelic.videoagent.core.storage;
 
 import com.newrelic.videoagent.core.NRVideoConstants;
 import com.newrelic.videoagent.core.NRVideoConfiguration;
+import com.newrelic.videoagent.core.harvest.AsyncHarvestSender;
 import com.newrelic.videoagent.core.harvest.DeadLetterEventBuffer;
 import com.newrelic.videoagent.core.harvest.HttpClientInterface;
-import com.newrelic.videoagent.core.harvest.EventBufferInterface;
 import com.newrelic.videoagent.core.harvest.DefaultSizeEstimator;
+import com.newrelic.videoagent.core.harvest.EventLease;
+import com.newrelic.videoagent.core.harvest.SchedulerInterface;
+import com.newrelic.videoagent.core.harvest.SizeEstimator;
 import com.newrelic.videoagent.core.utils.NRLog;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Integrated dead letter handler with crash-safe backup
  * Optimized for Android TV and Mobile devices using NRVideoConfiguration settings
+ *
+ * Queued retries are drained from the harvest thread: one batch per retry run, posted through
+ * the harvest sender so it counts against the same in-flight window as harvests, exponential
+ * backoff with jitter after failures, never while sends are blocked (Retry-After, or every
+ * collector circuit open) - those runs are postponed and cost no attempt.
+ * Regular harvests with spare byte budget also carry queued retries along.
  */
 public class IntegratedDeadLetterHandler {
 
-    private final EventBufferInterface inMemoryQueue;
+    // Backoff growth is capped at 2^5 times the base interval, and 15 minutes overall
+    private static final int MAX_BACKOFF_EXPONENT = 5;
+    private static final long MAX_RETRY_BACKOFF_MS = 15 * 60 * 1000L;
+    // Delay between batches while the queue drains after a successful retry
+    private static final long DRAIN_DELAY_MS = 1000L;
+
+    private final DeadLetterEventBuffer inMemoryQueue;
     private final CrashSafeEventBuffer mainBuffer;
     private final HttpClientInterface httpClient;
     private final NRVideoConfiguration configuration;
@@ -35,8 +52,13 @@ public class IntegratedDeadLetterHandler {
     // Add tracking fields for enhanced statistics
     private final AtomicLong totalEventsBackedUp = new AtomicLong(0);
 
-    // Thread safety
-    private final AtomicBoolean isProcessing = new AtomicBoolean(false);
+    // Retry scheduling - runs on the harvest thread
+    private final SizeEstimator sizeEstimator = new DefaultSizeEstimator();
+    private final Random jitter = new Random();
+    private final AtomicInteger consecutiveRetryFailures = new AtomicInteger(0);
+    private final AtomicBoolean isRetryScheduled = new AtomicBoolean(false);
+    private volatile SchedulerInterface retryScheduler;
+    private volatile AsyncHarvestSender sender;
 
     public IntegratedDeadLetterHandler(CrashSafeEventBuffer mainBuffer,
                                      HttpClientInterface httpClient,
@@ -72,78 +94,289 @@ public class IntegratedDeadLetterHandler {
             ", LiveRetryInterval: " + liveRetryInterval + "ms");
     }
 
+    /**
+     * Handle a failed harvest lease - leased events go back to the main buffer for retry,
+     * only the ones that exhausted their retries are backed up
+     * Events added to the batch after leasing (QOE, recovered backups) take the dead letter path
+     */
+    public void handleFailedLease(EventLease lease, String bufferType) {
+        handleFailedLease(lease, bufferType, Collections.<DeadLetterEventBuffer.RetryEvent>emptyList());
+    }
+
+    /**
+     * Same as handleFailedLease(lease, bufferType) for a batch that also carried queued retries
+     * @param retries retries from pollRetriesForHarvest, appended last to the lease events
+     */
+    public void handleFailedLease(EventLease lease, String bufferType, List<DeadLetterEventBuffer.RetryEvent> retries) {
+        handleFailedLease(lease, bufferType, retries, 0);
+    }
+
+    /**
+     * Same as handleFailedLease(lease, bufferType, retries) for a batch the client delivered in part
+     * (a split batch that failed part way) - only the events from deliveredCount on are retried
+     * @param deliveredCount leading events of lease.getEvents() that were delivered
+     */
+    public void handleFailedLease(EventLease lease, String bufferType, List<DeadLetterEventBuffer.RetryEvent> retries,
+                                  int deliveredCount) {
+        if (lease == null) return;
+
+        List<Map<String, Object>> unleased = lease.getUnleasedEvents();
+        int leasedCount = lease.getEvents().size() - unleased.size();
+        if (!lease.isDetached()) {
+            List<Map<String, Object>> exhausted = deliveredCount > 0
+                ? mainBuffer.nackUndelivered(lease.getLeaseId(), Math.min(deliveredCount, leasedCount), maxRetries)
+                : mainBuffer.nack(lease.getLeaseId(), maxRetries);
+            if (!exhausted.isEmpty()) {
+                backupEvents(exhausted);
+            }
+        }
+
+        // Behind the leased events come the batch's own unleased events, then the retries
+        int deliveredBehind = Math.max(0, deliveredCount - leasedCount);
+        int ownEvents = Math.max(0, unleased.size() - retries.size());
+        if (ownEvents > deliveredBehind) {
+            handleFailedEvents(unleased.subList(deliveredBehind, ownEvents), bufferType);
+        }
+        int deliveredRetries = Math.min(retries.size(), Math.max(0, deliveredBehind - ownEvents));
+        if (deliveredRetries > 0) {
+            onRetriesDelivered(retries.subList(0, deliveredRetries));
+        }
+        if (deliveredRetries < retries.size()) {
+            requeueRetries(retries.subList(deliveredRetries, retries.size()));
+            scheduleRetry(bufferType, false);
+        }
+    }
+
     /**
      * Handle failed events - retry in memory, backup when exhausted
      * Uses configuration-driven batch sizes and retry limits
+     * Serialized rather than skipped, so concurrent failures are never dropped
      */
-    public void handleFailedEvents(List<Map<String, Object>> failedEvents, String bufferType) {
+    public synchronized void handleFailedEvents(List<Map<String, Object>> failedEvents, String bufferType) {
         if (failedEvents == null || failedEvents.isEmpty()) return;
 
-        // Prevent concurrent processing
-        if (!isProcessing.compareAndSet(false, true)) {
-            NRLog.d("Already retry is processing, queuing for later");
+        int retried = 0;
+        List<Map<String, Object>> toBackup = new ArrayList<>();
+
+        // Separate events based on retry count and configuration-driven limits
+        for (Map<String, Object> event : failedEvents) {
+            int retryCount = getRetryCount(event);
+
+            if (retryCount < maxRetries && hasMemoryCapacity()) {
+                // Queue for retry - the count is kept next to the event, not inside it
+                queueRetryEvent(event, retryCount + 1, bufferType);
+                retried++;
+            } else {
+                // Retries exhausted or memory constrained - backup to SQLite
+                toBackup.add(cleanEvent(event));
+            }
+        }
+
+        // Backup exhausted events
+        if (!toBackup.isEmpty()) {
+            backupEvents(toBackup);
+
+            NRLog.d("Device: " + (configuration.isTV() ? NRVideoConstants.ANDROID_TV : NRVideoConstants.MOBILE) +
+                " - Retrying: " + retried +
+                ", Backed up: " + toBackup.size());
+        }
+
+        if (retried > 0) {
+            scheduleRetry(bufferType, false);
+        }
+    }
+
+    /**
+     * Set the scheduler whose harvest thread runs retryPendingEvents
+     */
+    public void setRetryScheduler(SchedulerInterface scheduler) {
+        this.retryScheduler = scheduler;
+    }
+
+    /**
+     * Set the sender that posts retry batches, sharing the per-lane in-flight window with harvests
+     * Without one, retries are sent synchronously on the calling thread
+     */
+    public void setSender(AsyncHarvestSender sender) {
+        this.sender = sender;
+    }
+
+    /**
+     * Resend one batch of queued retries - called on the harvest thread by the scheduler
+     * The batch holds the retries of the oldest retry's lane only, within that lane's batch size,
+     * and is handed to the sender on that lane; while the lane has a request in flight the run
+     * is postponed instead of adding another request
+     * Keeps draining while sends succeed, backs off exponentially while they fail
+     */
+    public void retryPendingEvents() {
+        isRetryScheduled.set(false);
+        String lane = inMemoryQueue.peekBufferType();
+        if (lane == null) {
+            consecutiveRetryFailures.set(0);
             return;
         }
 
+        // Client-wide Retry-After or every circuit open: wait it out instead of burning an attempt
+        if (httpClient.getSendBlockedRemainingMs() > 0) {
+            scheduleRetry(lane, true);
+            return;
+        }
+
+        final AsyncHarvestSender sender = this.sender;
+        if (sender != null && !sender.tryReserve(lane)) {
+            scheduleRetryAfter(DRAIN_DELAY_MS);
+            return;
+        }
+
+        boolean handedOver = false;
         try {
-            List<Map<String, Object>> toRetry = new ArrayList<>();
-            List<Map<String, Object>> toBackup = new ArrayList<>();
-
-            // Separate events based on retry count and configuration-driven limits
-            for (Map<String, Object> event : failedEvents) {
-                int retryCount = getRetryCount(event);
-
-                if (retryCount < maxRetries && hasMemoryCapacity()) {
-                    // Add retry metadata and queue for retry
-                    Map<String, Object> retryEvent = addRetryMetadata(event, bufferType, retryCount + 1);
-                    toRetry.add(retryEvent);
-                } else {
-                    // Retries exhausted or memory constrained - backup to SQLite
-                    toBackup.add(cleanEvent(event));
+            final List<DeadLetterEventBuffer.RetryEvent> retries =
+                inMemoryQueue.pollRetryBatch(retryBatchSizeFor(lane), sizeEstimator, false, lane);
+            if (retries.isEmpty()) return;
+
+            if (sender != null) {
+                sender.sendReportingDelivered(lane, toEvents(retries),
+                    deliveredCount -> onRetrySendComplete(deliveredCount, retries, lane));
+                handedOver = true;
+            } else {
+                int deliveredCount = 0;
+                try {
+                    deliveredCount = httpClient.sendEventsReportingDelivered(toEvents(retries), lane);
+                } catch (Exception e) {
+                    NRLog.e("Dead letter retry failed: " + e.getMessage(), e);
                 }
+                onRetrySendComplete(deliveredCount, retries, lane);
             }
+        } finally {
+            if (sender != null && !handedOver) {
+                sender.release(lane);
+            }
+        }
+    }
 
-            // Queue events for retry with configuration-appropriate limits
-            queueRetryEvents(toRetry);
+    /**
+     * Outcome of a retry batch - runs on the sender thread for asynchronous sends
+     * Retries delivered before a failing part of a split batch are not sent again
+     */
+    private void onRetrySendComplete(int deliveredCount, List<DeadLetterEventBuffer.RetryEvent> retries, String lane) {
+        int delivered = Math.max(0, Math.min(deliveredCount, retries.size()));
+        if (delivered > 0) {
+            mainBuffer.releaseDelivered(toEvents(retries.subList(0, delivered)));
+        }
+        if (delivered == retries.size()) {
+            consecutiveRetryFailures.set(0);
+            NRLog.d("Dead letter retry sent " + retries.size() + " events");
+            if (!inMemoryQueue.isEmpty()) {
+                scheduleRetryAfter(DRAIN_DELAY_MS);
+            }
+        } else {
+            consecutiveRetryFailures.incrementAndGet();
+            requeueRetries(retries.subList(delivered, retries.size()));
+            scheduleRetry(lane, true);
+        }
+    }
+
+    /**
+     * Take queued retries that fit the spare byte budget of a regular harvest
+     * The caller appends them after its own events and reports the outcome with
+     * onRetriesDelivered or handleFailedLease(lease, bufferType, retries)
+     */
+    public List<DeadLetterEventBuffer.RetryEvent> pollRetriesForHarvest(long spareBytes) {
+        if (spareBytes <= 0 || inMemoryQueue.isEmpty() || httpClient.getSendBlockedRemainingMs() > 0) {
+            return Collections.emptyList();
+        }
+        int budget = (int) Math.min(spareBytes, Integer.MAX_VALUE);
+        return inMemoryQueue.pollRetryBatch(budget, sizeEstimator, true);
+    }
+
+    /**
+     * Retries carried by a regular harvest were accepted
+     */
+    public void onRetriesDelivered(List<DeadLetterEventBuffer.RetryEvent> retries) {
+        if (!retries.isEmpty()) {
+            consecutiveRetryFailures.set(0);
+            mainBuffer.releaseDelivered(toEvents(retries));
+        }
+    }
+
+    /**
+     * Backoff before the next retry run: base interval of the lane doubled per consecutive
+     * failure, with jitter in the upper half so clients do not retry in lockstep, and never
+     * shorter than sends stay blocked (Retry-After, open circuits)
+     */
+    long computeRetryDelayMs(String bufferType) {
+        long base = NRVideoConstants.EVENT_TYPE_LIVE.equals(bufferType) ? liveRetryInterval : retryInterval;
+        int exponent = Math.min(consecutiveRetryFailures.get(), MAX_BACKOFF_EXPONENT);
+        long delay = Math.min(base << exponent, MAX_RETRY_BACKOFF_MS);
+        long halfDelay = delay / 2;
+        long jittered = halfDelay + (long) (jitter.nextDouble() * (delay - halfDelay));
+        return Math.max(jittered, httpClient.getSendBlockedRemainingMs());
+    }
+
+    private int retryBatchSizeFor(String lane) {
+        return NRVideoConstants.EVENT_TYPE_LIVE.equals(lane) ? liveBatchSizeForRetry : regularBatchSizeForRetry;
+    }
+
+    int getConsecutiveRetryFailures() {
+        return consecutiveRetryFailures.get();
+    }
+
+    /**
+     * @param replace true to move an already scheduled retry, false to keep it
+     */
+    private void scheduleRetry(String bufferType, boolean replace) {
+        if (retryScheduler == null || inMemoryQueue.isEmpty()) return;
+        if (!isRetryScheduled.compareAndSet(false, true) && !replace) return;
+        retryScheduler.scheduleRetry(computeRetryDelayMs(bufferType));
+    }
 
-            // Backup exhausted events
-            if (!toBackup.isEmpty()) {
-                mainBuffer.backupFailedEvents(toBackup);
-                totalEventsBackedUp.addAndGet(toBackup.size());
+    private void scheduleRetryAfter(long delayMs) {
+        SchedulerInterface scheduler = retryScheduler;
+        if (scheduler == null) return;
+        isRetryScheduled.set(true);
+        scheduler.scheduleRetry(delayMs);
+    }
 
-                NRLog.d("Device: " + (configuration.isTV() ? NRVideoConstants.ANDROID_TV : NRVideoConstants.MOBILE) +
-                    " - Retrying: " + toRetry.size() +
-                    ", Backed up: " + toBackup.size());
+    /**
+     * Put failed retries back with one more attempt, or back them up once exhausted
+     */
+    private synchronized void requeueRetries(List<DeadLetterEventBuffer.RetryEvent> retries) {
+        List<Map<String, Object>> toBackup = new ArrayList<>();
+        for (DeadLetterEventBuffer.RetryEvent retry : retries) {
+            if (retry.retryCount < maxRetries && hasMemoryCapacity()) {
+                queueRetryEvent(retry.event, retry.retryCount + 1, retry.bufferType);
+            } else {
+                toBackup.add(cleanEvent(retry.event));
             }
-        } finally {
-            isProcessing.set(false);
+        }
+        if (!toBackup.isEmpty()) {
+            backupEvents(toBackup);
         }
     }
 
+    private static List<Map<String, Object>> toEvents(List<DeadLetterEventBuffer.RetryEvent> retries) {
+        List<Map<String, Object>> events = new ArrayList<>(retries.size());
+        for (DeadLetterEventBuffer.RetryEvent retry : retries) {
+            events.add(retry.event);
+        }
+        return events;
+    }
+
+    private void backupEvents(List<Map<String, Object>> events) {
+        mainBuffer.backupFailedEvents(events);
+        totalEventsBackedUp.addAndGet(events.size());
+    }
+
 
 
     /**
      * Emergency backup of pending retries during app kill
-     * Uses configuration-based memory management
      */
     public void emergencyBackup() {
         try {
-            // Use configuration-based emergency batch size
-            int emergencyBatchSize = configuration.isTV() ?
-                configuration.getMaxDeadLetterSize() * 3 : // TV can handle more
-                configuration.getMaxDeadLetterSize() * 2;   // Mobile is conservative
-
-            List<Map<String, Object>> pendingEvents = inMemoryQueue.pollBatchByPriority(
-                emergencyBatchSize, null, NRVideoConstants.EVENT_TYPE_ONDEMAND);
-
-            if (!pendingEvents.isEmpty()) {
-                List<Map<String, Object>> cleanEvents = new ArrayList<>();
-                for (Map<String, Object> event : pendingEvents) {
-                    cleanEvents.add(extractOriginalEvent(event));
-                }
+            List<Map<String, Object>> cleanEvents = drainForBackup();
+            if (!cleanEvents.isEmpty()) {
                 mainBuffer.backupFailedEvents(cleanEvents);
-                totalEventsBackedUp.addAndGet(cleanEvents.size());
-
                 NRLog.d("Emergency backup (" + (configuration.isTV() ? NRVideoConstants.ANDROID_TV : NRVideoConstants.MOBILE) +
                     "): " + cleanEvents.size() + " events");
             }
@@ -152,25 +385,41 @@ public class IntegratedDeadLetterHandler {
         }
     }
 
+    /**
+     * Take every pending retry out of the queue for an emergency backup, retry metadata removed
+     * The caller owns the events and must back them up
+     */
+    public synchronized List<Map<String, Object>> drainForBackup() {
+        List<DeadLetterEventBuffer.RetryEvent> pending = inMemoryQueue.drainAll();
+        List<Map<String, Object>> cleanEvents = new ArrayList<>(pending.size());
+        for (DeadLetterEventBuffer.RetryEvent retry : pending) {
+            cleanEvents.add(extractOriginalEvent(retry.event));
+        }
+        totalEventsBackedUp.addAndGet(cleanEvents.size());
+        return cleanEvents;
+    }
+
 
 
-    private void queueRetryEvents(List<Map<String, Object>> toRetry) {
-        for (Map<String, Object> event : toRetry) {
-            // Check memory constraints before adding
-            if (inMemoryQueue.getEventCount() >= configuration.getMaxDeadLetterSize()) {
-                // Make room by removing oldest events - use configuration-based approach
-                int eventsToRemove = Math.max(configuration.getMaxDeadLetterSize() / 20, 1); // Remove 5% at minimum
-                if (configuration.isTV()) {
-                    eventsToRemove *= 2; // TV can afford to remove more
-                }
+    private void queueRetryEvent(Map<String, Object> event, int retryCount, String bufferType) {
+        // Check memory constraints before adding
+        if (inMemoryQueue.getEventCount() >= configuration.getMaxDeadLetterSize()) {
+            // Make room by removing oldest events - use configuration-based approach
+            int eventsToRemove = Math.max(configuration.getMaxDeadLetterSize() / 20, 1); // Remove 5% at minimum
+            if (configuration.isTV()) {
+                eventsToRemove *= 2; // TV can afford to remove more
+            }
 
-                for (int i = 0; i < eventsToRemove; i++) {
-                    List<Map<String, Object>> removed = inMemoryQueue.pollBatchByPriority(
-                        1, new DefaultSizeEstimator(), NRVideoConstants.EVENT_TYPE_ONDEMAND);
-                    if (removed.isEmpty()) break;
-                }
+            for (int i = 0; i < eventsToRemove; i++) {
+                List<Map<String, Object>> removed = inMemoryQueue.pollBatchByPriority(
+                    1, sizeEstimator, NRVideoConstants.EVENT_TYPE_ONDEMAND);
+                if (removed.isEmpty()) break;
+                mainBuffer.releaseDelivered(removed); // Dropped for good
             }
-            inMemoryQueue.addEvent(event);
+        }
+        List<Map<String, Object>> dropped = inMemoryQueue.addEvent(event, retryCount, bufferType);
+        if (!dropped.isEmpty()) {
+            mainBuffer.releaseDelivered(dropped);
         }
     }
 
@@ -191,6 +440,9 @@ public class IntegratedDeadLetterHandler {
         }
     }
 
+    /**
+     * Retry count carried by events queued before counts moved out of the event (legacy retryMetadata)
+     */
     private int getRetryCount(Map<String, Object> event) {
         Object metadata = event.get("retryMetadata");
         if (metadata instanceof Map) {
@@ -200,21 +452,13 @@ public class IntegratedDeadLetterHandler {
         return 0;
     }
 
-    private Map<String, Object> addRetryMetadata(Map<String, Object> event, String bufferType, int retryCount) {
-        Map<String, Object> retryEvent = new HashMap<>(event);
-        Map<String, Object> metadata = new HashMap<>();
-        metadata.put("retryCount", retryCount);
-        metadata.put("category", bufferType);
-        metadata.put("deviceType", configuration.isTV() ? NRVideoConstants.ANDROID_TV : NRVideoConstants.MOBILE);
-        metadata.put("timestamp", System.currentTimeMillis());
-        retryEvent.put("retryMetadata", metadata);
-        return retryEvent;
-    }
-
     private Map<String, Object> cleanEvent(Map<String, Object> event) {
-        Map<String, Object> clean = new HashMap<>(event);
-        clean.remove("retryMetadata");
-        return clean;
+        // Failed events are no longer referenced elsewhere; only touch them (and drop a
+        // pre-serialized encoding) when legacy metadata is actually present
+        if (event.containsKey("retryMetadata")) {
+            event.remove("retryMetadata");
+        }
+        return event;
     }
 
     @SuppressWarnings("unchecked")
@@ -1,26 +1,49 @@
 package com.newrelic.videoagent.core.storage;
 
+import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import com.newrelic.videoagent.core.NRDef;
+import com.newrelic.videoagent.core.model.VideoEvent;
+import com.newrelic.videoagent.core.util.JsonStreamUtil;
+import com.newrelic.videoagent.core.utils.NRLog;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Optimized SQLite storage for crash recovery and failed event backup
  * Designed for minimal overhead - only used during failures/crashes
  * No longer a singleton - managed by CrashSafeHarvestFactory
+ *
+ * Write path: one transaction per backup, a compiled INSERT statement reused for every row,
+ * WAL journaling with synchronous=NORMAL (durable across app crashes, fsync only at checkpoints)
+ * Read path: rows are polled in _id order per priority and removed with a single range delete
+ * Recovery reads a range without deleting it (peekEventsWithinBytes) and deletes it once the
+ * harvest carrying it was accepted (deleteRange), so a failed send loses nothing
+ * Row count and stored bytes are kept in memory, the table is only counted once per connection
+ * A byte and row quota is enforced on every backup: the lowest value events go first (heartbeats
+ * before regular actions before errors, QoE aggregates and START/END events), oldest first
+ * Rows past the maximum age are expired in small steps (expireOldEvents), never all at once
+ * Rows are EventRecordCodec records (BLOB) keyed by the key_dictionary table; TEXT rows
+ * written as JSON by older versions are still read
  */
 public class VideoEventStorage extends SQLiteOpenHelper {
 
     private static final String DB_NAME = "nr_video_backup.db";
-    private static final int DB_VERSION = 1;
+    private static final int DB_VERSION = 4;
 
     // Single table for all backup events
     private static final String TABLE_BACKUP = "backup_events";
@@ -28,27 +51,162 @@ public class VideoEventStorage extends SQLiteOpenHelper {
     private static final String COL_DATA = "event_data";
     private static final String COL_PRIORITY = "priority";
     private static final String COL_TIMESTAMP = "timestamp";
+    private static final String COL_VALUE_CLASS = "value_class";
+    private static final String COL_SIZE = "size_bytes";
+
+    // Attribute name dictionary of the binary records
+    private static final String TABLE_KEYS = "key_dictionary";
+    private static final String COL_KEY_NAME = "name";
+
+    // Priority classes of backed up rows
+    public static final String PRIORITY_LIVE = "live";
+    public static final String PRIORITY_ONDEMAND = "ondemand";
+    public static final String PRIORITY_FAILED = "failed";
+
+    // Upper bound of rows read by one byte-budgeted recovery poll
+    private static final int MAX_RECOVERY_ROWS = 500;
+
+    // Default quota (mobile); NRVideoConfiguration provides device specific values
+    public static final long DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+    public static final int DEFAULT_MAX_ROWS = 5000;
+
+    // Rows older than this are expired
+    static final long MAX_EVENT_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+    // Rows removed by one expiry step
+    public static final int EXPIRY_BATCH_ROWS = 200;
+
+    // Eviction order under quota pressure: lowest class first
+    static final int VALUE_LOW = 0;
+    static final int VALUE_NORMAL = 1;
+    static final int VALUE_HIGH = 2;
+
+    // Ids bound per DELETE ... IN statement (SQLite allows 999 variables)
+    private static final int DELETE_CHUNK = 500;
+
+    private static final String SQL_INSERT = "INSERT INTO " + TABLE_BACKUP + " (" +
+        COL_DATA + ", " + COL_PRIORITY + ", " + COL_TIMESTAMP + ", " + COL_VALUE_CLASS + ", " + COL_SIZE +
+        ") VALUES (?, ?, ?, ?, ?)";
+    private static final String SQL_DELETE_RANGE = "DELETE FROM " + TABLE_BACKUP +
+        " WHERE " + COL_PRIORITY + " = ? AND " + COL_ID + " <= ?";
+    private static final String SQL_DELETE_BETWEEN = "DELETE FROM " + TABLE_BACKUP +
+        " WHERE " + COL_PRIORITY + " = ? AND " + COL_ID + " BETWEEN ? AND ?";
+
+    // Writes are serialized: compiled statements are not thread-safe and the row counter follows the table
+    private final Object writeLock = new Object();
+    private SQLiteDatabase statementDb; // Connection the statements below were compiled on
+    private SQLiteStatement insertStatement;
+    private SQLiteStatement deleteRangeStatement;
+    private SQLiteStatement deleteBetweenStatement;
+    private EventRecordCodec codec; // Loaded with the key dictionary of statementDb
+    private volatile int rowCount = -1; // Unknown until counted once
+    private volatile long byteCount = -1; // Stored record bytes, counted together with rowCount
+    private final AtomicLong evictedEvents = new AtomicLong(0);
+
+    private final long maxBytes;
+    private final int maxRows;
 
     public VideoEventStorage(Context context) {
+        this(context, DEFAULT_MAX_BYTES, DEFAULT_MAX_ROWS);
+    }
+
+    /**
+     * @param maxBytes quota of stored record bytes
+     * @param maxRows quota of stored rows
+     */
+    public VideoEventStorage(Context context, long maxBytes, int maxRows) {
         super(context.getApplicationContext(), DB_NAME, null, DB_VERSION);
+        this.maxBytes = maxBytes;
+        this.maxRows = maxRows;
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // WAL keeps the last commits on a crash; NORMAL sync skips the fsync per transaction
+        db.execSQL("PRAGMA synchronous = NORMAL");
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_BACKUP + " (" +
                    COL_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                   COL_DATA + " TEXT NOT NULL, " +
+                   COL_DATA + " BLOB NOT NULL, " +
                    COL_PRIORITY + " TEXT NOT NULL, " +
-                   COL_TIMESTAMP + " INTEGER NOT NULL)");
+                   COL_TIMESTAMP + " INTEGER NOT NULL, " +
+                   COL_VALUE_CLASS + " INTEGER NOT NULL DEFAULT " + VALUE_NORMAL + ", " +
+                   COL_SIZE + " INTEGER NOT NULL DEFAULT 0)");
 
-        db.execSQL("CREATE INDEX IF NOT EXISTS idx_priority_time ON " + TABLE_BACKUP +
-                   "(" + COL_PRIORITY + ", " + COL_TIMESTAMP + ")");
+        createIndexes(db);
+        createKeyDictionary(db);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_BACKUP);
-        onCreate(db);
+        if (oldVersion < 1 || newVersion < oldVersion) {
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_BACKUP);
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_KEYS);
+            onCreate(db);
+        } else {
+            // Existing rows are kept: JSON rows stay readable next to binary records
+            if (oldVersion < 2) {
+                // Rows are polled in _id order now - only swap the index
+                db.execSQL("DROP INDEX IF EXISTS idx_priority_time");
+                createIndexes(db);
+            }
+            if (oldVersion < 3) {
+                createKeyDictionary(db);
+            }
+            if (oldVersion < 4) {
+                addQuotaColumns(db);
+                createIndexes(db);
+            }
+        }
+        rowCount = -1;
+        byteCount = -1;
+    }
+
+    private static void createIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_priority_id ON " + TABLE_BACKUP +
+                   "(" + COL_PRIORITY + ", " + COL_ID + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_value_id ON " + TABLE_BACKUP +
+                   "(" + COL_VALUE_CLASS + ", " + COL_ID + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_timestamp ON " + TABLE_BACKUP +
+                   "(" + COL_TIMESTAMP + ")");
+    }
+
+    /**
+     * Eviction class and size of rows written before the quota; older rows keep the normal class
+     */
+    private static void addQuotaColumns(SQLiteDatabase db) {
+        if (!hasColumn(db, COL_VALUE_CLASS)) {
+            db.execSQL("ALTER TABLE " + TABLE_BACKUP + " ADD COLUMN " + COL_VALUE_CLASS +
+                       " INTEGER NOT NULL DEFAULT " + VALUE_NORMAL);
+        }
+        if (!hasColumn(db, COL_SIZE)) {
+            db.execSQL("ALTER TABLE " + TABLE_BACKUP + " ADD COLUMN " + COL_SIZE + " INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("UPDATE " + TABLE_BACKUP + " SET " + COL_SIZE + " = length(CAST(" + COL_DATA + " AS BLOB))");
+        }
+    }
+
+    private static boolean hasColumn(SQLiteDatabase db, String column) {
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + TABLE_BACKUP + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndex("name");
+            while (cursor.moveToNext()) {
+                if (column.equals(cursor.getString(nameIndex))) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void createKeyDictionary(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_KEYS + " (" +
+                   COL_ID + " INTEGER PRIMARY KEY, " +
+                   COL_KEY_NAME + " TEXT NOT NULL UNIQUE)");
     }
 
     /**
@@ -56,18 +214,50 @@ public class VideoEventStorage extends SQLiteOpenHelper {
      */
     public void backupEvents(List<Map<String, Object>> liveEvents,
                            List<Map<String, Object>> ondemandEvents) {
-        SQLiteDatabase db = getWritableDatabase();
-        db.beginTransaction();
-        try {
-            for (Map<String, Object> event : liveEvents) {
-                insertEvent(db, event, "live");
+        backupEvents(liveEvents, ondemandEvents, Collections.<Map<String, Object>>emptyList());
+    }
+
+    /**
+     * Backup a snapshot of every in-memory queue in one transaction
+     * Rows over the quota are evicted in the same transaction
+     */
+    public void backupEvents(List<Map<String, Object>> liveEvents,
+                           List<Map<String, Object>> ondemandEvents,
+                           List<Map<String, Object>> failedEvents) {
+        synchronized (writeLock) {
+            SQLiteDatabase db = getWritableDatabase();
+            SQLiteStatement insert = insertStatement(db);
+            ensureCounted();
+            long timestamp = System.currentTimeMillis();
+            long insertedBytes = 0;
+            long[] evicted = null;
+            boolean committed = false;
+            db.beginTransaction();
+            try {
+                for (Map<String, Object> event : liveEvents) {
+                    insertedBytes += insertEvent(insert, event, PRIORITY_LIVE, timestamp);
+                }
+                for (Map<String, Object> event : ondemandEvents) {
+                    insertedBytes += insertEvent(insert, event, PRIORITY_ONDEMAND, timestamp);
+                }
+                for (Map<String, Object> event : failedEvents) {
+                    insertedBytes += insertEvent(insert, event, PRIORITY_FAILED, timestamp);
+                }
+                int insertedRows = liveEvents.size() + ondemandEvents.size() + failedEvents.size();
+                evicted = evictOverQuota(db, rowCount + insertedRows, byteCount + insertedBytes);
+                insertPendingKeys(db, codec);
+                db.setTransactionSuccessful();
+                committed = true;
+            } finally {
+                db.endTransaction();
+                finishKeys(codec, committed);
             }
-            for (Map<String, Object> event : ondemandEvents) {
-                insertEvent(db, event, "ondemand");
+            addRows(liveEvents.size() + ondemandEvents.size() + failedEvents.size() - (int) evicted[0],
+                    insertedBytes - evicted[1]);
+            if (evicted[0] > 0) {
+                evictedEvents.addAndGet(evicted[0]);
+                NRLog.w("Backup quota reached - evicted " + evicted[0] + " low value events");
             }
-            db.setTransactionSuccessful();
-        } finally {
-            db.endTransaction();
         }
     }
 
@@ -75,16 +265,59 @@ public class VideoEventStorage extends SQLiteOpenHelper {
      * Backup failed events when retries exhausted
      */
     public void backupFailedEvents(List<Map<String, Object>> failedEvents) {
-        SQLiteDatabase db = getWritableDatabase();
-        db.beginTransaction();
+        backupEvents(Collections.<Map<String, Object>>emptyList(),
+                     Collections.<Map<String, Object>>emptyList(), failedEvents);
+    }
+
+    /**
+     * Delete the lowest value rows, oldest first, until the table fits the quota
+     * @return evicted rows and bytes
+     */
+    private long[] evictOverQuota(SQLiteDatabase db, long totalRows, long totalBytes) {
+        long excessRows = totalRows - maxRows;
+        long excessBytes = totalBytes - maxBytes;
+        if (excessRows <= 0 && excessBytes <= 0) {
+            return new long[]{0, 0};
+        }
+
+        List<Long> ids = new ArrayList<>();
+        long rows = 0;
+        long bytes = 0;
+        Cursor cursor = db.rawQuery("SELECT " + COL_ID + ", " + COL_SIZE + " FROM " + TABLE_BACKUP +
+                                    " ORDER BY " + COL_VALUE_CLASS + ", " + COL_ID, null);
         try {
-            for (Map<String, Object> event : failedEvents) {
-                insertEvent(db, event, "failed");
+            while ((rows < excessRows || bytes < excessBytes) && cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+                rows++;
+                bytes += cursor.getLong(1);
             }
-            db.setTransactionSuccessful();
         } finally {
-            db.endTransaction();
+            cursor.close();
+        }
+        deleteIds(db, ids);
+        return new long[]{rows, bytes};
+    }
+
+    /**
+     * Eviction class of an event: heartbeats and dropped frame reports are expendable, errors,
+     * QoE aggregates and content/ad start and end events are kept the longest
+     */
+    static int valueClassOf(Map<String, Object> event) {
+        Object action = event.get("actionName");
+        String actionName = action instanceof String ? (String) action : "";
+        if (NRDef.NR_VIDEO_ERROR_EVENT.equals(event.get("eventType"))
+                || actionName.endsWith("_ERROR")
+                || NRDef.QOE_AGGREGATE.equals(actionName)
+                || NRDef.CONTENT_START.equals(actionName) || NRDef.CONTENT_END.equals(actionName)
+                || NRDef.AD_START.equals(actionName) || NRDef.AD_END.equals(actionName)
+                || NRDef.AD_BREAK_START.equals(actionName) || NRDef.AD_BREAK_END.equals(actionName)) {
+            return VALUE_HIGH;
+        }
+        if (NRDef.CONTENT_HEARTBEAT.equals(actionName) || NRDef.AD_HEARTBEAT.equals(actionName)
+                || actionName.contains("DROPPED_FRAMES")) {
+            return VALUE_LOW;
         }
+        return VALUE_NORMAL;
     }
 
     /**
@@ -92,54 +325,194 @@ public class VideoEventStorage extends SQLiteOpenHelper {
      */
     public List<Map<String, Object>> pollEvents(String priority, int maxCount) {
         List<Map<String, Object>> events = new ArrayList<>();
-        SQLiteDatabase db = getWritableDatabase();
+        if (maxCount <= 0) {
+            return events;
+        }
 
-        // Get events to recover
-        String query = "SELECT " + COL_ID + ", " + COL_DATA + " FROM " + TABLE_BACKUP +
-                      " WHERE " + COL_PRIORITY + " = ? ORDER BY " + COL_TIMESTAMP + " LIMIT ?";
+        synchronized (writeLock) {
+            SQLiteDatabase db = getWritableDatabase();
+            prepareStatements(db);
 
-        Cursor cursor = db.rawQuery(query, new String[]{priority, String.valueOf(maxCount)});
-        List<Long> idsToRemove = new ArrayList<>();
+            // Get events to recover
+            String query = "SELECT " + COL_ID + ", " + COL_DATA + ", " + COL_SIZE + " FROM " + TABLE_BACKUP +
+                          " WHERE " + COL_PRIORITY + " = ? ORDER BY " + COL_ID + " LIMIT ?";
 
-        try {
-            while (cursor.moveToNext()) {
-                long id = cursor.getLong(0);
-                String data = cursor.getString(1);
+            Cursor cursor = db.rawQuery(query, new String[]{priority, String.valueOf(maxCount)});
+            long maxId = -1;
+            long consumedBytes = 0;
 
-                Map<String, Object> event = jsonToMap(data);
-                if (event != null) {
-                    events.add(event);
-                    idsToRemove.add(id);
+            try {
+                while (cursor.moveToNext()) {
+                    maxId = cursor.getLong(0);
+                    consumedBytes += cursor.getLong(2);
+                    Map<String, Object> event = readEvent(cursor);
+                    if (event != null) {
+                        events.add(event);
+                    }
                 }
+            } finally {
+                cursor.close();
             }
-        } finally {
-            cursor.close();
+
+            // Remove recovered events - unreadable rows in the range go with them
+            deleteUpTo(db, priority, maxId, consumedBytes);
         }
 
-        // Remove recovered events
-        if (!idsToRemove.isEmpty()) {
-            db.beginTransaction();
+        return events;
+    }
+
+    /**
+     * Poll the oldest rows of a priority class up to maxBytes of JSON
+     * Events come back pre-serialized: the budget is their exact JSON size and the harvest
+     * copies the encoded bytes instead of serializing them again
+     * Rows that can no longer be parsed are deleted with the batch, so they cannot keep
+     * the backlog from ever becoming empty
+     * @param oversizeLimit a first row larger than this (it could never fit a harvest) is taken alone
+     */
+    public RecoveryBatch pollEventsWithinBytes(String priority, long maxBytes, long oversizeLimit) {
+        synchronized (writeLock) {
+            SQLiteDatabase db = getWritableDatabase();
+            RecoveryBatch batch = readWithinBytes(db, priority, -1, Long.MAX_VALUE, maxBytes, oversizeLimit);
+            deleteUpTo(db, priority, batch.lastId, batch.storedBytes);
+            return batch;
+        }
+    }
+
+    /**
+     * Same as pollEventsWithinBytes for the rows with afterId < _id <= lastId, but nothing is
+     * deleted: the caller deletes the returned range with deleteRange once it was delivered
+     * Unreadable rows are part of the range, so they go with it
+     */
+    public RecoveryBatch peekEventsWithinBytes(String priority, long afterId, long lastId,
+                                               long maxBytes, long oversizeLimit) {
+        synchronized (writeLock) {
+            return readWithinBytes(getWritableDatabase(), priority, afterId, lastId, maxBytes, oversizeLimit);
+        }
+    }
+
+    /**
+     * Delete the rows of a priority with firstId <= _id <= lastId
+     * @return rows deleted
+     */
+    public int deleteRange(String priority, long firstId, long lastId) {
+        if (firstId < 0 || lastId < firstId) return 0;
+
+        synchronized (writeLock) {
+            SQLiteDatabase db = getWritableDatabase();
+            prepareStatements(db);
+            String[] args = {priority, String.valueOf(firstId), String.valueOf(lastId)};
+            long bytes = 0;
+            // Quota eviction may have removed part of the range since it was read
+            Cursor cursor = db.rawQuery("SELECT COALESCE(SUM(" + COL_SIZE + "), 0) FROM " + TABLE_BACKUP +
+                                        " WHERE " + COL_PRIORITY + " = ? AND " + COL_ID + " BETWEEN ? AND ?", args);
             try {
-                for (Long id : idsToRemove) {
-                    db.delete(TABLE_BACKUP, COL_ID + " = ?", new String[]{String.valueOf(id)});
+                if (cursor.moveToFirst()) {
+                    bytes = cursor.getLong(0);
                 }
-                db.setTransactionSuccessful();
             } finally {
-                db.endTransaction();
+                cursor.close();
             }
-        }
 
-        return events;
+            deleteBetweenStatement.bindString(1, priority);
+            deleteBetweenStatement.bindLong(2, firstId);
+            deleteBetweenStatement.bindLong(3, lastId);
+            int deleted = deleteBetweenStatement.executeUpdateDelete();
+            deleteBetweenStatement.clearBindings();
+            addRows(-deleted, -bytes);
+            return deleted;
+        }
     }
 
-    public int getEventCount() {
-        SQLiteDatabase db = getReadableDatabase();
-        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + TABLE_BACKUP, null);
+    /**
+     * Read rows in _id order within the JSON byte budget (called under writeLock)
+     * The cursor is walked row by row, each record decoded straight into a pre-serialized event
+     */
+    private RecoveryBatch readWithinBytes(SQLiteDatabase db, String priority, long afterId, long lastId,
+                                          long maxBytes, long oversizeLimit) {
+        prepareStatements(db);
+        List<Map<String, Object>> events = new ArrayList<>();
+        long batchBytes = 0;
+        long storedBytes = 0;
+        long firstId = -1;
+        long maxId = -1;
+        boolean drained = true;
+
+        String query = "SELECT " + COL_ID + ", " + COL_DATA + ", " + COL_SIZE + " FROM " + TABLE_BACKUP +
+                      " WHERE " + COL_PRIORITY + " = ? AND " + COL_ID + " > ? AND " + COL_ID + " <= ?" +
+                      " ORDER BY " + COL_ID + " LIMIT ?";
+
+        Cursor cursor = db.rawQuery(query, new String[]{priority, String.valueOf(afterId),
+            String.valueOf(lastId), String.valueOf(MAX_RECOVERY_ROWS)});
+        long[] eventIds;
         try {
-            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+            int rows = cursor.getCount();
+            eventIds = new long[rows];
+            int taken = 0;
+            while (cursor.moveToNext()) {
+                VideoEvent event = toEncodedEvent(readEvent(cursor));
+                long rowBytes = event != null ? event.getEncoded().length : 0;
+                boolean oversized = taken == 0 && rowBytes > oversizeLimit;
+                if (batchBytes + rowBytes > maxBytes && !oversized) {
+                    drained = false;
+                    break;
+                }
+
+                maxId = cursor.getLong(0);
+                if (event != null) {
+                    eventIds[events.size()] = maxId;
+                    events.add(event);
+                    batchBytes += rowBytes;
+                }
+                if (firstId < 0) {
+                    firstId = maxId;
+                }
+                storedBytes += cursor.getLong(2);
+                taken++;
+                if (oversized) {
+                    drained = rows == 1;
+                    break;
+                }
+            }
+            if (rows >= MAX_RECOVERY_ROWS && taken == rows) {
+                drained = false; // More rows may follow the ones read
+            }
         } finally {
             cursor.close();
         }
+        return new RecoveryBatch(priority, events, batchBytes, drained, firstId, maxId, storedBytes,
+            Arrays.copyOf(eventIds, events.size()));
+    }
+
+    public int getEventCount() {
+        int count = rowCount;
+        if (count >= 0) {
+            return count;
+        }
+        synchronized (writeLock) {
+            ensureCounted();
+            return rowCount;
+        }
+    }
+
+    /**
+     * Stored record bytes of all rows
+     */
+    public long getStoredBytes() {
+        long bytes = byteCount;
+        if (bytes >= 0) {
+            return bytes;
+        }
+        synchronized (writeLock) {
+            ensureCounted();
+            return byteCount;
+        }
+    }
+
+    /**
+     * Events evicted by the quota since this storage was created
+     */
+    public long getEvictedEventCount() {
+        return evictedEvents.get();
     }
 
     public boolean hasBackupData() {
@@ -151,46 +524,313 @@ public class VideoEventStorage extends SQLiteOpenHelper {
     }
 
     public void cleanup() {
-        // Remove events older than 7 days
-        long cutoff = System.currentTimeMillis() - (7L * 24 * 60 * 60 * 1000);
-        SQLiteDatabase db = getWritableDatabase();
-        db.delete(TABLE_BACKUP, COL_TIMESTAMP + " < ?", new String[]{String.valueOf(cutoff)});
+        // One bounded step - the harvest thread keeps expiring the rest
+        expireOldEvents(EXPIRY_BATCH_ROWS);
+    }
+
+    /**
+     * Delete up to maxRows rows older than 7 days, oldest first
+     * @return rows deleted; maxRows means more expired rows may be left
+     */
+    public int expireOldEvents(int maxRows) {
+        long cutoff = System.currentTimeMillis() - MAX_EVENT_AGE_MS;
+        synchronized (writeLock) {
+            SQLiteDatabase db = getWritableDatabase();
+            List<Long> ids = new ArrayList<>();
+            long bytes = 0;
+            Cursor cursor = db.rawQuery("SELECT " + COL_ID + ", " + COL_SIZE + " FROM " + TABLE_BACKUP +
+                                        " WHERE " + COL_TIMESTAMP + " < ? ORDER BY " + COL_TIMESTAMP + " LIMIT ?",
+                                        new String[]{String.valueOf(cutoff), String.valueOf(maxRows)});
+            try {
+                while (cursor.moveToNext()) {
+                    ids.add(cursor.getLong(0));
+                    bytes += cursor.getLong(1);
+                }
+            } finally {
+                cursor.close();
+            }
+            if (ids.isEmpty()) {
+                return 0;
+            }
+
+            deleteIds(db, ids);
+            addRows(-ids.size(), -bytes);
+            return ids.size();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        synchronized (writeLock) {
+            releaseStatements();
+            rowCount = -1;
+            byteCount = -1;
+            super.close();
+        }
     }
 
     // Helper methods
-    private void insertEvent(SQLiteDatabase db, Map<String, Object> event, String priority) {
-        String json = mapToJson(event);
-        long timestamp = System.currentTimeMillis();
 
-        db.execSQL("INSERT INTO " + TABLE_BACKUP + " (" + COL_DATA + ", " + COL_PRIORITY + ", " + COL_TIMESTAMP +
-                   ") VALUES (?, ?, ?)", new Object[]{json, priority, timestamp});
+    /**
+     * Compiled INSERT for the current connection, recompiled if the helper reopened the database
+     */
+    private SQLiteStatement insertStatement(SQLiteDatabase db) {
+        prepareStatements(db);
+        return insertStatement;
+    }
+
+    private void prepareStatements(SQLiteDatabase db) {
+        if (statementDb != db) {
+            releaseStatements();
+            insertStatement = db.compileStatement(SQL_INSERT);
+            deleteRangeStatement = db.compileStatement(SQL_DELETE_RANGE);
+            deleteBetweenStatement = db.compileStatement(SQL_DELETE_BETWEEN);
+            codec = loadCodec(db);
+            statementDb = db;
+        }
+    }
+
+    private void releaseStatements() {
+        if (insertStatement != null) {
+            insertStatement.close();
+            insertStatement = null;
+        }
+        if (deleteRangeStatement != null) {
+            deleteRangeStatement.close();
+            deleteRangeStatement = null;
+        }
+        if (deleteBetweenStatement != null) {
+            deleteBetweenStatement.close();
+            deleteBetweenStatement = null;
+        }
+        codec = null;
+        statementDb = null;
+    }
+
+    /**
+     * Delete every row of a priority up to maxId - polls always consume an _id prefix
+     */
+    private void deleteUpTo(SQLiteDatabase db, String priority, long maxId, long bytes) {
+        if (maxId < 0) return;
+
+        prepareStatements(db);
+        deleteRangeStatement.bindString(1, priority);
+        deleteRangeStatement.bindLong(2, maxId);
+        int deleted = deleteRangeStatement.executeUpdateDelete();
+        deleteRangeStatement.clearBindings();
+        addRows(-deleted, -bytes);
     }
 
-    private String mapToJson(Map<String, Object> map) {
+    private static void deleteIds(SQLiteDatabase db, List<Long> ids) {
+        for (int start = 0; start < ids.size(); start += DELETE_CHUNK) {
+            int end = Math.min(ids.size(), start + DELETE_CHUNK);
+            StringBuilder where = new StringBuilder(COL_ID).append(" IN (");
+            String[] args = new String[end - start];
+            for (int i = start; i < end; i++) {
+                where.append(i > start ? ",?" : "?");
+                args[i - start] = String.valueOf(ids.get(i));
+            }
+            db.delete(TABLE_BACKUP, where.append(')').toString(), args);
+        }
+    }
+
+    /**
+     * Codec with the persisted key dictionary, schema keys are added on first use
+     */
+    private static EventRecordCodec loadCodec(SQLiteDatabase db) {
+        EventRecordCodec codec = new EventRecordCodec();
+        Cursor cursor = db.rawQuery("SELECT " + COL_ID + ", " + COL_KEY_NAME + " FROM " + TABLE_KEYS, null);
         try {
-            JSONObject json = new JSONObject();
-            for (Map.Entry<String, Object> entry : map.entrySet()) {
-                json.put(entry.getKey(), entry.getValue());
+            while (cursor.moveToNext()) {
+                codec.registerKey(cursor.getInt(0), cursor.getString(1));
             }
-            return json.toString();
-        } catch (Exception e) {
-            return "{}";
+        } finally {
+            cursor.close();
         }
+
+        for (int i = 0; i < VideoEvent.getSlotCount(); i++) {
+            if (codec.getKeyId(VideoEvent.getSlotKey(i)) < 0) {
+                codec.addKey(VideoEvent.getSlotKey(i));
+            }
+        }
+        boolean committed = false;
+        db.beginTransaction();
+        try {
+            insertPendingKeys(db, codec);
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            db.endTransaction();
+            finishKeys(codec, committed);
+        }
+        return codec;
+    }
+
+    /**
+     * Persist dictionary keys added while encoding, inside the transaction of the rows using them
+     */
+    private static void insertPendingKeys(SQLiteDatabase db, EventRecordCodec codec) {
+        int id = codec.getFirstPendingKeyId();
+        for (String name : codec.getPendingKeys()) {
+            ContentValues values = new ContentValues(2);
+            values.put(COL_ID, id++);
+            values.put(COL_KEY_NAME, name);
+            db.insertOrThrow(TABLE_KEYS, null, values);
+        }
+    }
+
+    private static void finishKeys(EventRecordCodec codec, boolean committed) {
+        if (committed) {
+            codec.commitKeys();
+        } else {
+            codec.rollbackKeys();
+        }
+    }
+
+    /**
+     * @return stored record size in bytes
+     */
+    private int insertEvent(SQLiteStatement insert, Map<String, Object> event, String priority, long timestamp) {
+        byte[] record = codec.encode(event);
+        insert.bindBlob(1, record);
+        insert.bindString(2, priority);
+        insert.bindLong(3, timestamp);
+        insert.bindLong(4, valueClassOf(event));
+        insert.bindLong(5, record.length);
+        insert.executeInsert();
+        insert.clearBindings();
+        return record.length;
     }
 
-    private Map<String, Object> jsonToMap(String jsonString) {
+    /**
+     * Keep the in-memory counters in step with committed changes (called under writeLock)
+     */
+    private void addRows(int rows, long bytes) {
+        if (rowCount >= 0) {
+            rowCount = Math.max(0, rowCount + rows);
+            byteCount = Math.max(0, byteCount + bytes);
+        }
+    }
+
+    /**
+     * Count rows and bytes once per connection (called under writeLock)
+     */
+    private void ensureCounted() {
+        if (rowCount >= 0) {
+            return;
+        }
+        Cursor cursor = getReadableDatabase().rawQuery(
+            "SELECT COUNT(*), COALESCE(SUM(" + COL_SIZE + "), 0) FROM " + TABLE_BACKUP, null);
         try {
-            JSONObject json = new JSONObject(jsonString);
-            Map<String, Object> map = new HashMap<>();
+            boolean hasRow = cursor.moveToFirst();
+            byteCount = hasRow ? cursor.getLong(1) : 0;
+            rowCount = hasRow ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
 
-            Iterator<String> keys = json.keys();
-            while (keys.hasNext()) {
-                String key = keys.next();
-                map.put(key, json.get(key));
+    /**
+     * Event of the current row (column 1), null if it cannot be read
+     */
+    private Map<String, Object> readEvent(Cursor cursor) {
+        if (cursor.getType(1) == Cursor.FIELD_TYPE_BLOB) {
+            try {
+                return codec.decode(cursor.getBlob(1));
+            } catch (IllegalArgumentException e) {
+                return null;
             }
-            return map;
+        }
+        return jsonToMap(cursor.getString(1)); // Row written before the binary format
+    }
+
+    /**
+     * Attach the JSON encoding, null if the event cannot be serialized
+     */
+    private static VideoEvent toEncodedEvent(Map<String, Object> event) {
+        if (event == null) {
+            return null;
+        }
+        VideoEvent videoEvent = VideoEvent.from(event);
+        try {
+            videoEvent.setEncoded(JsonStreamUtil.encodeEvent(videoEvent));
+            return videoEvent;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parse one JSON event, nested objects and arrays become Map/List; null if unparseable
+     */
+    static Map<String, Object> jsonToMap(String jsonString) {
+        try {
+            return toMap(new JSONObject(jsonString));
         } catch (Exception e) {
             return null;
         }
     }
+
+    private static Map<String, Object> toMap(JSONObject json) throws Exception {
+        Map<String, Object> map = new HashMap<>();
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            map.put(key, fromJson(json.get(key)));
+        }
+        return map;
+    }
+
+    /**
+     * Nested objects and arrays come back as Map/List so they serialize as JSON again
+     */
+    private static Object fromJson(Object value) throws Exception {
+        if (value == JSONObject.NULL) {
+            return null;
+        } else if (value instanceof JSONObject) {
+            return toMap((JSONObject) value);
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            List<Object> list = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                list.add(fromJson(array.get(i)));
+            }
+            return list;
+        }
+        return value;
+    }
+
+    /**
+     * Rows recovered by one byte-budgeted poll
+     */
+    public static final class RecoveryBatch {
+        public final String priority;
+        public final List<Map<String, Object>> events;
+        public final long sizeBytes;
+        // True when no rows of the priority class are left (in the requested range)
+        public final boolean drained;
+        // _id range the batch covers, -1 when empty
+        public final long firstId;
+        public final long lastId;
+        // Stored record bytes of the range
+        final long storedBytes;
+        // _id of each event, rows that could not be read have none
+        final long[] eventIds;
+
+        RecoveryBatch(String priority, List<Map<String, Object>> events, long sizeBytes, boolean drained,
+                      long firstId, long lastId, long storedBytes, long[] eventIds) {
+            this.priority = priority;
+            this.events = events;
+            this.sizeBytes = sizeBytes;
+            this.drained = drained;
+            this.firstId = firstId;
+            this.lastId = lastId;
+            this.storedBytes = storedBytes;
+            this.eventIds = eventIds;
+        }
+
+        public boolean isEmpty() {
+            return firstId < 0;
+        }
+    }
 }
@@ -6,6 +6,7 @@ import com.newrelic.videoagent.core.NewRelicVideoAgent;
 import com.newrelic.videoagent.core.model.NREventAttributes;
 import com.newrelic.videoagent.core.model.NRTimeSince;
 import com.newrelic.videoagent.core.model.NRTimeSinceTable;
+import com.newrelic.videoagent.core.model.VideoEvent;
 import com.newrelic.videoagent.core.utils.NRLog;
 
 import java.util.Iterator;
@@ -25,13 +26,14 @@ public class NRTracker {
     protected final NRVideoConfiguration configuration;
     private final NREventAttributes eventAttributes;
     protected NRTimeSinceTable timeSinceTable;
+    private volatile VideoEvent instrumentationAttributes; // Process-constant attributes, built once
 
     /**
      * Create a new NRTracker with configuration.
      */
     public NRTracker(NRVideoConfiguration configuration) {
         this.configuration = configuration;
-        eventAttributes = new NREventAttributes();
+        eventAttributes = new NREventAttributes(NewRelicVideoAgent.getInstance().getGlobalAttributes());
         generateTimeSinceTable();
     }
 
@@ -42,7 +44,7 @@ public class NRTracker {
     @Deprecated
     public NRTracker() {
         this.configuration = null;
-        eventAttributes = new NREventAttributes();
+        eventAttributes = new NREventAttributes(NewRelicVideoAgent.getInstance().getGlobalAttributes());
         generateTimeSinceTable();
     }
 
@@ -170,10 +172,7 @@ public class NRTracker {
         // Hook for subclasses that need fully-assembled (post-timeSince) attributes (e.g. QoE)
         onQoeEvent(action, attributes);
 
-        attributes.put("agentSession", getAgentSession());
-        attributes.put("instrumentation.provider", "newrelic");
-        attributes.put("instrumentation.name", getInstrumentationName());
-        attributes.put("instrumentation.version", getCoreVersion());
+        attributes.putAll(getInstrumentationAttributes());
 
         // Remove null and empty values
         Iterator<Object> it = attributes.values().iterator();
@@ -276,6 +275,22 @@ public class NRTracker {
     public String getAgentSession() {
         return NewRelicVideoAgent.getInstance().getSessionId();
     }
+    /**
+     * Agent session and instrumentation.* attributes, constant for the tracker lifetime.
+     */
+    private VideoEvent getInstrumentationAttributes() {
+        VideoEvent block = instrumentationAttributes;
+        if (block == null) {
+            block = new VideoEvent();
+            block.put("agentSession", getAgentSession());
+            block.put("instrumentation.provider", "newrelic");
+            block.put("instrumentation.name", getInstrumentationName());
+            block.put("instrumentation.version", getCoreVersion());
+            instrumentationAttributes = block;
+        }
+        return block;
+    }
+
     /**
      * Hook called from {@link #sendEvent} after attributes are fully assembled
      * (post {@code getAttributes} + {@code timeSinceTable.applyAttributes}). No-op in the base
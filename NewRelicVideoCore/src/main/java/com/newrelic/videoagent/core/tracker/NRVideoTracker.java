@@ -6,6 +6,7 @@ import com.newrelic.videoagent.core.NRVideo;
 import com.newrelic.videoagent.core.NRVideoConfiguration;
 import com.newrelic.videoagent.core.model.NRTimeSince;
 import com.newrelic.videoagent.core.model.NRTrackerState;
+import com.newrelic.videoagent.core.model.VideoEvent;
 import com.newrelic.videoagent.core.utils.NRLog;
 import com.newrelic.videoagent.core.harvest.QoeProvider;
 import com.newrelic.videoagent.core.qoe.NRQoEAggregator;
@@ -30,6 +31,7 @@ public class NRVideoTracker extends NRTracker implements QoeProvider {
 
     private static final int CONTENT_HEARTBEAT_INTERVAL_SEC = 30;
     private static final int AD_HEARTBEAT_INTERVAL_SEC = 2;
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
     public final NRTrackerState state;
 
     private final Handler heartbeatHandler;
@@ -48,6 +50,13 @@ public class NRVideoTracker extends NRTracker implements QoeProvider {
     private String bufferType;
     private NRTimeSince lastAdTimeSince;
 
+    // Per-view cache of derived attributes (see invalidateViewAttributes)
+    private volatile VideoEvent viewAttributes; // Constant block: tracker/player names and versions, view session
+    private NRTracker viewAttributesLink;       // Linked tracker the block was built for
+    private volatile String cachedViewId;
+    private String videoIdSrc;                  // Source the memoized videoId was computed from
+    private String videoId;
+
     // QoE (Quality of Experience) aggregator — owns all QoE KPI state + math (thread-safe).
     // Startup ad time is still computed by the tracker (from totalAdPlaytime) and pushed in.
     private final NRQoEAggregator qoeAggregator = new NRQoEAggregator();
@@ -218,24 +227,15 @@ public class NRVideoTracker extends NRTracker implements QoeProvider {
      */
     @Override
     public Map<String, Object> getAttributes(String action, Map<String, Object> attributes) {
-        Map<String, Object> attr;
-
-        if (attributes != null) {
-            attr = new HashMap<>(attributes);
-        } else {
-            attr = new HashMap<>();
-        }
+        // Typed event record: known attributes go to fixed slots, user attributes are copied once
+        Map<String, Object> attr = new VideoEvent(attributes);
 
         if (action.endsWith("_BUFFER_START") || action.endsWith("_BUFFER_END")) {
             attr.put("bufferType", getBufferType());
         }
 
-        attr.put("trackerName", getTrackerName());
-        attr.put("trackerVersion", getTrackerVersion());
-        attr.put("src", getTrackerSrc());
-        attr.put("playerName", getPlayerName());
-        attr.put("playerVersion", getPlayerVersion());
-        attr.put("viewSession", getViewSession());
+        // Session-constant attributes come from the per-view block, only changing values are looked up
+        attr.putAll(getViewAttributes());
         attr.put("viewId", getViewId());
         attr.put("numberOfAds", numberOfAds);
         attr.put("numberOfVideos", numberOfVideos);
@@ -327,7 +327,7 @@ public class NRVideoTracker extends NRTracker implements QoeProvider {
                 && ((NRVideoTracker) linkedTracker).state.isAdBreak;
         qoeAggregator.processAction(action, attributes, state.isPlaying, adBreakActive);
         // Cache the fully-assembled snapshot for the harvest-time QOE envelope.
-        cachedStandardAttributes = new HashMap<>(attributes);
+        cachedStandardAttributes = new VideoEvent(attributes);
     }
     public void updatePlaytime() {
         if (playtimeSinceLastEventTimestamp > 0) {
@@ -345,6 +345,7 @@ public class NRVideoTracker extends NRTracker implements QoeProvider {
     public void sendRequest() {
         if (state.goRequest()) {
             playtimeSinceLastEventTimestamp = 0L;
+            invalidateViewAttributes();
 
             if (state.isAd) {
                 sendVideoAdEvent(AD_REQUEST);
@@ -467,6 +468,7 @@ public class NRVideoTracker extends NRTracker implements QoeProvider {
             stopHeartbeat();
 
             viewIdIndex++;
+            invalidateViewAttributes();
             numberOfErrors = 0;
             playtimeSinceLastEventTimestamp = 0L;
             playtimeSinceLastEvent = 0L;
@@ -1149,7 +1151,12 @@ public class NRVideoTracker extends NRTracker implements QoeProvider {
             return ((NRVideoTracker)this.linkedTracker).getViewId();
         }
         else {
-            return getViewSession() + "-" + viewIdIndex;
+            String viewId = cachedViewId;
+            if (viewId == null) {
+                viewId = getViewSession() + "-" + viewIdIndex;
+                cachedViewId = viewId;
+            }
+            return viewId;
         }
     }
 
@@ -1159,6 +1166,53 @@ public class NRVideoTracker extends NRTracker implements QoeProvider {
      * @return Attribute.
      */
     public String getVideoId() {
+        String src = getSrc() != null ? getSrc() : "";
+
+        // Memoized per source: the MD5 only changes when the media item does
+        synchronized (this) {
+            if (videoId != null && src.equals(videoIdSrc)) {
+                return videoId;
+            }
+        }
+
+        String id = computeVideoId(src);
+        synchronized (this) {
+            videoIdSrc = src;
+            videoId = id;
+        }
+        return id;
+    }
+
+    /**
+     * Invalidate the per-view cache of derived attributes.
+     * Called on CONTENT_REQUEST/END and view changes; trackers should also call it on a media item transition.
+     */
+    protected void invalidateViewAttributes() {
+        viewAttributes = null;
+        cachedViewId = null;
+    }
+
+    /**
+     * Constant attributes for the current view, built once and reused by every event.
+     */
+    private VideoEvent getViewAttributes() {
+        VideoEvent block = viewAttributes;
+        // Tracker linking happens after construction, rebuild if the link changed
+        if (block == null || viewAttributesLink != linkedTracker) {
+            block = new VideoEvent();
+            block.put("trackerName", getTrackerName());
+            block.put("trackerVersion", getTrackerVersion());
+            block.put("src", getTrackerSrc());
+            block.put("playerName", getPlayerName());
+            block.put("playerVersion", getPlayerVersion());
+            block.put("viewSession", getViewSession());
+            viewAttributesLink = linkedTracker;
+            viewAttributes = block;
+        }
+        return block;
+    }
+
+    private static String computeVideoId(String src) {
         MessageDigest md;
         try {
             md = MessageDigest.getInstance("MD5");
@@ -1166,17 +1220,14 @@ public class NRVideoTracker extends NRTracker implements QoeProvider {
         catch (NoSuchAlgorithmException e) {
             return "";
         }
-        String src = "";
-        if (getSrc() != null) {
-            src = getSrc();
-        }
         md.update(src.getBytes());
         byte[] result = md.digest();
-        return String.format("%02X%02X%02X%02X%02X%02X%02X%02X%02X%02X%02X%02X%02X%02X%02X%02X",
-                result[0], result[1], result[2], result[3],
-                result[4], result[5], result[6], result[7],
-                result[8], result[9], result[10], result[11],
-                result[12], result[13], result[14], result[15]);
+        char[] hex = new char[result.length * 2];
+        for (int i = 0; i < result.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(result[i] >> 4) & 0x0F];
+            hex[i * 2 + 1] = HEX_DIGITS[result[i] & 0x0F];
+        }
+        return new String(hex);
     }
 
     /**
@@ -3,7 +3,7 @@ package com.newrelic.videoagent.core.util;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
+import com.newrelic.videoagent.core.model.VideoEvent;
 import java.util.List;
 import java.util.Map;
 
@@ -11,33 +11,81 @@ import java.util.Map;
  * Lightweight JSON streaming utility optimized for mobile/TV performance
  * Avoids JSONObject/JSONArray overhead for better resource usage
  * Provides static methods for streaming JSON directly to OutputStream
+ * Encoding goes through a per-thread JsonStreamWriter, so steady-state serialization allocates nothing
  */
 public class JsonStreamUtil {
 
     private static final String UTF_8 = "UTF-8"; // Compatibility with API level 16
 
+    private static final ThreadLocal<JsonStreamWriter> WRITER = new ThreadLocal<JsonStreamWriter>() {
+        @Override
+        protected JsonStreamWriter initialValue() {
+            return new JsonStreamWriter();
+        }
+    };
+
+    // Per-thread scratch buffer for encodeEvent, dropped if a huge event made it grow too much
+    private static final int MAX_RETAINED_SCRATCH_BYTES = 16 * 1024;
+    private static final ThreadLocal<ScratchBuffer> SCRATCH = new ThreadLocal<ScratchBuffer>() {
+        @Override
+        protected ScratchBuffer initialValue() {
+            return new ScratchBuffer();
+        }
+    };
+
+    // Per-thread byte counter for measureJson
+    private static final ThreadLocal<CountingOutputStream> COUNTER = new ThreadLocal<CountingOutputStream>() {
+        @Override
+        protected CountingOutputStream initialValue() {
+            return new CountingOutputStream();
+        }
+    };
+
+    // Pre-encoded "key": tokens for the VideoEvent schema slots
+    private static final byte[][] SLOT_NAMES = new byte[VideoEvent.getSlotCount()][];
+
+    static {
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        JsonStreamWriter writer = new JsonStreamWriter(256);
+        try {
+            for (int i = 0; i < SLOT_NAMES.length; i++) {
+                names.reset();
+                writer.attach(names);
+                writer.writeName(VideoEvent.getSlotKey(i));
+                writer.flush();
+                SLOT_NAMES[i] = names.toByteArray();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // ByteArrayOutputStream never throws
+        } finally {
+            writer.detach();
+        }
+    }
+
     /**
      * Stream a List of objects to OutputStream as JSON array
      * Optimized for mobile/TV performance with direct streaming
      */
     public static void streamJsonToOutputStream(List<Object> data, OutputStream outputStream) throws IOException {
+        JsonStreamWriter writer = acquireWriter(outputStream);
         try {
-            byte[] openBracket = "[".getBytes(UTF_8);
-            byte[] closeBracket = "]".getBytes(UTF_8);
-            byte[] comma = ",".getBytes(UTF_8);
-
-            outputStream.write(openBracket);
-
-            for (int i = 0; i < data.size(); i++) {
-                if (i > 0) {
-                    outputStream.write(comma);
-                }
-                streamObjectToOutputStream(data.get(i), outputStream);
-            }
+            writeList(data, writer);
+            writer.flush();
+        } finally {
+            writer.detach();
+        }
+    }
 
-            outputStream.write(closeBracket);
-        } catch (UnsupportedEncodingException e) {
-            throw new IOException("UTF-8 encoding not supported", e);
+    /**
+     * Stream events as a JSON array, e.g. between a cached payload prefix and suffix
+     */
+    public static void streamEventsToOutputStream(List<Map<String, Object>> events, OutputStream outputStream) throws IOException {
+        JsonStreamWriter writer = acquireWriter(outputStream);
+        try {
+            writeList(events, writer);
+            writer.flush();
+        } finally {
+            writer.detach();
         }
     }
 
@@ -46,104 +94,54 @@ public class JsonStreamUtil {
      * Optimized for mobile/TV performance with direct streaming
      */
     public static void streamMapToOutputStream(Map<String, Object> map, OutputStream outputStream) throws IOException {
+        JsonStreamWriter writer = acquireWriter(outputStream);
         try {
-            byte[] openBrace = "{".getBytes(UTF_8);
-            byte[] closeBrace = "}".getBytes(UTF_8);
-            byte[] comma = ",".getBytes(UTF_8);
-            byte[] colon = ":".getBytes(UTF_8);
-            byte[] quote = "\"".getBytes(UTF_8);
-
-            outputStream.write(openBrace);
-
-            boolean first = true;
-            for (Map.Entry<String, Object> entry : map.entrySet()) {
-                if (!first) {
-                    outputStream.write(comma);
-                }
-
-                // Write key
-                outputStream.write(quote);
-                outputStream.write(escapeJsonString(entry.getKey()).getBytes(UTF_8));
-                outputStream.write(quote);
-                outputStream.write(colon);
-
-                // Write value
-                streamObjectToOutputStream(entry.getValue(), outputStream);
-                first = false;
-            }
-
-            outputStream.write(closeBrace);
-        } catch (UnsupportedEncodingException e) {
-            throw new IOException("UTF-8 encoding not supported", e);
+            writeMap(map, writer);
+            writer.flush();
+        } finally {
+            writer.detach();
         }
     }
 
     /**
-     * Stream any object to OutputStream with appropriate JSON formatting
+     * Serialize a Map to its exact UTF-8 JSON bytes
+     * Reuses a per-thread scratch buffer, only the exact-size result is allocated
      */
-    private static void streamObjectToOutputStream(Object value, OutputStream outputStream) throws IOException {
+    public static byte[] encodeEvent(Map<String, Object> map) throws IOException {
+        ScratchBuffer scratch = SCRATCH.get();
+        scratch.reset();
         try {
-            byte[] quote = "\"".getBytes(UTF_8);
-
-            if (value == null) {
-                outputStream.write("null".getBytes(UTF_8));
-            } else if (value instanceof String) {
-                outputStream.write(quote);
-                outputStream.write(escapeJsonString((String) value).getBytes(UTF_8));
-                outputStream.write(quote);
-            } else if (value instanceof Number || value instanceof Boolean) {
-                outputStream.write(value.toString().getBytes(UTF_8));
-            } else if (value instanceof List) {
-                streamJsonToOutputStream((List<Object>) value, outputStream);
-            } else if (value instanceof Map) {
-                streamMapToOutputStream((Map<String, Object>) value, outputStream);
-            } else {
-                // Fallback: convert to string and quote it
-                outputStream.write(quote);
-                outputStream.write(escapeJsonString(value.toString()).getBytes(UTF_8));
-                outputStream.write(quote);
+            streamMapToOutputStream(map, scratch);
+            return scratch.toByteArray();
+        } finally {
+            if (scratch.capacity() > MAX_RETAINED_SCRATCH_BYTES) {
+                SCRATCH.remove();
             }
-        } catch (UnsupportedEncodingException e) {
-            throw new IOException("UTF-8 encoding not supported", e);
         }
     }
 
     /**
-     * Escape JSON string values with StringBuilder for better performance
+     * Exact UTF-8 JSON size of a value in bytes, without keeping the encoded bytes
+     * Pre-serialized events answer directly from their encoding
      */
-    private static String escapeJsonString(String str) {
-        if (str == null || str.isEmpty()) {
-            return "";
-        }
-
-        // Pre-allocate StringBuilder with estimated capacity
-        StringBuilder result = new StringBuilder(str.length() + 16);
-
-        for (int i = 0; i < str.length(); i++) {
-            char c = str.charAt(i);
-            switch (c) {
-                case '\\':
-                    result.append("\\\\");
-                    break;
-                case '"':
-                    result.append("\\\"");
-                    break;
-                case '\n':
-                    result.append("\\n");
-                    break;
-                case '\r':
-                    result.append("\\r");
-                    break;
-                case '\t':
-                    result.append("\\t");
-                    break;
-                default:
-                    result.append(c);
-                    break;
+    public static int measureJson(Object value) throws IOException {
+        if (value instanceof VideoEvent) {
+            byte[] encoded = ((VideoEvent) value).getEncoded();
+            if (encoded != null) {
+                return encoded.length;
             }
         }
 
-        return result.toString();
+        CountingOutputStream counter = COUNTER.get();
+        counter.count = 0;
+        JsonStreamWriter writer = acquireWriter(counter);
+        try {
+            writeValue(value, writer);
+            writer.flush();
+        } finally {
+            writer.detach();
+        }
+        return counter.count;
     }
 
     /**
@@ -155,4 +153,140 @@ public class JsonStreamUtil {
         streamJsonToOutputStream(data, baos);
         return baos.toString(UTF_8);
     }
+
+    /**
+     * Per-thread writer, or a fresh one if the thread's writer is already busy
+     * (e.g. a value's toString() serializing JSON itself)
+     */
+    private static JsonStreamWriter acquireWriter(OutputStream outputStream) {
+        JsonStreamWriter writer = WRITER.get();
+        if (writer.isAttached()) {
+            writer = new JsonStreamWriter();
+        }
+        writer.attach(outputStream);
+        return writer;
+    }
+
+    private static void writeList(List<?> list, JsonStreamWriter writer) throws IOException {
+        writer.beginArray();
+        for (int i = 0; i < list.size(); i++) {
+            if (i > 0) {
+                writer.writeSeparator();
+            }
+            writeValue(list.get(i), writer);
+        }
+        writer.endArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeMap(Map<String, Object> map, JsonStreamWriter writer) throws IOException {
+        boolean first = true;
+        VideoEvent sharing = null;
+        if (map instanceof VideoEvent) {
+            VideoEvent event = (VideoEvent) map;
+
+            // Pre-serialized event: plain byte copy
+            byte[] encoded = event.getEncoded();
+            if (encoded != null) {
+                writer.writeRaw(encoded);
+                return;
+            }
+
+            // Typed event: walk the schema slots directly, no entry objects
+            writer.beginObject();
+            for (int i = 0; i < SLOT_NAMES.length; i++) {
+                if (event.hasSlot(i)) {
+                    if (!first) {
+                        writer.writeSeparator();
+                    }
+                    writer.writeRaw(SLOT_NAMES[i]);
+                    writeValue(event.getSlot(i), writer);
+                    first = false;
+                }
+            }
+            map = event.getOverflowAttributes();
+            sharing = event;
+        } else {
+            writer.beginObject();
+        }
+
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            if (!first) {
+                writer.writeSeparator();
+            }
+            writer.writeName(entry.getKey());
+            writeValue(entry.getValue(), writer);
+            first = false;
+        }
+
+        // Shared attributes of the event's action, behind the values that shadow them
+        if (sharing != null) {
+            for (Map.Entry<String, Object> entry : sharing.getSharedAttributes().entrySet()) {
+                if (sharing.hidesShared(entry.getKey())) {
+                    continue;
+                }
+                if (!first) {
+                    writer.writeSeparator();
+                }
+                writer.writeName(entry.getKey());
+                writeValue(entry.getValue(), writer);
+                first = false;
+            }
+        }
+        writer.endObject();
+    }
+
+    /**
+     * Write any object with appropriate JSON formatting
+     */
+    @SuppressWarnings("unchecked")
+    private static void writeValue(Object value, JsonStreamWriter writer) throws IOException {
+        if (value == null) {
+            writer.writeNull();
+        } else if (value instanceof String) {
+            writer.writeString((String) value);
+        } else if (value instanceof Integer || value instanceof Long
+                   || value instanceof Short || value instanceof Byte) {
+            writer.writeLong(((Number) value).longValue());
+        } else if (value instanceof Double) {
+            writer.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            writer.writeFloat((Float) value);
+        } else if (value instanceof Number) {
+            writer.writeNumberLiteral(value.toString());
+        } else if (value instanceof Boolean) {
+            writer.writeBoolean((Boolean) value);
+        } else if (value instanceof List) {
+            writeList((List<?>) value, writer);
+        } else if (value instanceof Map) {
+            writeMap((Map<String, Object>) value, writer);
+        } else {
+            // Fallback: convert to string and quote it
+            writer.writeString(value.toString());
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private int count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            count += length;
+        }
+    }
+
+    private static final class ScratchBuffer extends ByteArrayOutputStream {
+        ScratchBuffer() {
+            super(2048);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
 }
@@ -0,0 +1,358 @@
+package com.newrelic.videoagent.core.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streaming JSON token writer optimized for mobile/TV harvest payloads
+ * Encodes UTF-8 straight into a reusable byte buffer - no intermediate Strings or byte arrays
+ * String escaping uses a lookup table, long/double values are formatted in place
+ * The buffer is flushed to the target OutputStream in chunks when full
+ *
+ * Not thread-safe: JsonStreamUtil keeps one instance per thread
+ */
+public final class JsonStreamWriter {
+
+    private static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+    private static final byte[] NULL_LITERAL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE_LITERAL = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE_LITERAL = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] MIN_LONG_LITERAL = {
+        '-', '9', '2', '2', '3', '3', '7', '2', '0', '3', '6', '8', '5', '4', '7', '7', '5', '8', '0', '8'
+    };
+    private static final byte[] HEX_DIGITS = {
+        '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+    };
+
+    // Escape sequence per ASCII character, null when the character is written as is
+    private static final byte[][] ASCII_ESCAPES = new byte[128][];
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ASCII_ESCAPES[c] = new byte[]{'\\', 'u', '0', '0', HEX_DIGITS[c >> 4], HEX_DIGITS[c & 0xF]};
+        }
+        ASCII_ESCAPES['"'] = new byte[]{'\\', '"'};
+        ASCII_ESCAPES['\\'] = new byte[]{'\\', '\\'};
+        ASCII_ESCAPES['\b'] = new byte[]{'\\', 'b'};
+        ASCII_ESCAPES['\f'] = new byte[]{'\\', 'f'};
+        ASCII_ESCAPES['\n'] = new byte[]{'\\', 'n'};
+        ASCII_ESCAPES['\r'] = new byte[]{'\\', 'r'};
+        ASCII_ESCAPES['\t'] = new byte[]{'\\', 't'};
+    }
+
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    // Doubles in this range are written in plain notation, like Double.toString does
+    private static final double MIN_PLAIN_DOUBLE = 1e-3;
+    private static final double MAX_PLAIN_DOUBLE = 1e7;
+    // Largest scaled mantissa that is still an exact double (2^53)
+    private static final double MAX_EXACT_MANTISSA = 9007199254740992d;
+
+    // Worst case bytes for a single token written without a bounds check per byte
+    private static final int MAX_TOKEN_BYTES = 32;
+
+    private final byte[] buffer;
+    private int position;
+    private OutputStream out;
+
+    public JsonStreamWriter() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    public JsonStreamWriter(int bufferSize) {
+        if (bufferSize < MAX_TOKEN_BYTES) {
+            throw new IllegalArgumentException("Buffer size must be at least " + MAX_TOKEN_BYTES + " bytes");
+        }
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Start writing to a new target, discarding anything not flushed yet
+     */
+    public void attach(OutputStream outputStream) {
+        this.out = outputStream;
+        this.position = 0;
+    }
+
+    /**
+     * Release the target so the writer can be reused
+     */
+    public void detach() {
+        this.out = null;
+        this.position = 0;
+    }
+
+    public boolean isAttached() {
+        return out != null;
+    }
+
+    public void beginObject() throws IOException {
+        writeByte('{');
+    }
+
+    public void endObject() throws IOException {
+        writeByte('}');
+    }
+
+    public void beginArray() throws IOException {
+        writeByte('[');
+    }
+
+    public void endArray() throws IOException {
+        writeByte(']');
+    }
+
+    public void writeSeparator() throws IOException {
+        writeByte(',');
+    }
+
+    /**
+     * Write an object member name followed by the colon
+     */
+    public void writeName(String name) throws IOException {
+        writeString(name);
+        writeByte(':');
+    }
+
+    public void writeNull() throws IOException {
+        writeRaw(NULL_LITERAL, 0, NULL_LITERAL.length);
+    }
+
+    public void writeBoolean(boolean value) throws IOException {
+        byte[] literal = value ? TRUE_LITERAL : FALSE_LITERAL;
+        writeRaw(literal, 0, literal.length);
+    }
+
+    /**
+     * Write a quoted, escaped string encoded as UTF-8
+     * Unpaired surrogates are written as '?', like String.getBytes does
+     */
+    public void writeString(String value) throws IOException {
+        if (value == null) {
+            writeNull();
+            return;
+        }
+
+        writeByte('"');
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                byte[] escape = ASCII_ESCAPES[c];
+                if (escape == null) {
+                    if (position == buffer.length) {
+                        flushBuffer();
+                    }
+                    buffer[position++] = (byte) c;
+                } else {
+                    writeRaw(escape, 0, escape.length);
+                }
+            } else if (c < 0x800) {
+                ensureCapacity(2);
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    ensureCapacity(4);
+                    buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    writeByte('?');
+                }
+            } else {
+                ensureCapacity(3);
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        writeByte('"');
+    }
+
+    public void writeLong(long value) throws IOException {
+        ensureCapacity(MAX_TOKEN_BYTES);
+        if (value == Long.MIN_VALUE) {
+            System.arraycopy(MIN_LONG_LITERAL, 0, buffer, position, MIN_LONG_LITERAL.length);
+            position += MIN_LONG_LITERAL.length;
+            return;
+        }
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        putDigits(value, digitCount(value));
+    }
+
+    /**
+     * Write a double in plain notation without allocating for values between 0.001 and 10^7
+     * (the range Double.toString prints without exponent), falling back to Double.toString otherwise
+     * NaN and infinities have no JSON representation and are written as null
+     */
+    public void writeDouble(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            writeNull();
+            return;
+        }
+        if (!writePlainDecimal(value, false)) {
+            writeAscii(Double.toString(value));
+        }
+    }
+
+    /**
+     * Same as writeDouble with the shortest decimal that round-trips to the float value
+     */
+    public void writeFloat(float value) throws IOException {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            writeNull();
+            return;
+        }
+        if (!writePlainDecimal(value, true)) {
+            writeAscii(Float.toString(value));
+        }
+    }
+
+    /**
+     * Write a number literal already formatted by the caller (BigDecimal, AtomicLong...)
+     */
+    public void writeNumberLiteral(String literal) throws IOException {
+        writeAscii(literal);
+    }
+
+    /**
+     * Copy pre-encoded JSON bytes as is
+     * Large chunks bypass the buffer and go straight to the target
+     */
+    public void writeRaw(byte[] bytes, int offset, int length) throws IOException {
+        if (length > buffer.length - position) {
+            flushBuffer();
+            if (length > buffer.length / 2) {
+                out.write(bytes, offset, length);
+                return;
+            }
+        }
+        System.arraycopy(bytes, offset, buffer, position, length);
+        position += length;
+    }
+
+    public void writeRaw(byte[] bytes) throws IOException {
+        writeRaw(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Hand buffered bytes to the target stream (the stream itself is not flushed)
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+    }
+
+    private boolean writePlainDecimal(double value, boolean isFloat) throws IOException {
+        if (value == 0) {
+            ensureCapacity(4);
+            if (1 / value < 0) {
+                buffer[position++] = '-';
+            }
+            buffer[position++] = '0';
+            buffer[position++] = '.';
+            buffer[position++] = '0';
+            return true;
+        }
+
+        double magnitude = Math.abs(value);
+        if (magnitude < MIN_PLAIN_DOUBLE || magnitude >= MAX_PLAIN_DOUBLE) {
+            return false;
+        }
+
+        // Fewest fractional digits whose decimal parses back to the same value
+        for (int scale = 0; scale < POWERS_OF_TEN.length; scale++) {
+            double scaled = magnitude * POWERS_OF_TEN[scale];
+            if (scaled >= MAX_EXACT_MANTISSA) {
+                return false;
+            }
+            long mantissa = Math.round(scaled);
+            double parsed = mantissa / (double) POWERS_OF_TEN[scale];
+            boolean exact = isFloat ? (float) parsed == (float) magnitude : parsed == magnitude;
+            if (exact) {
+                writeScaled(value < 0, mantissa, scale);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeScaled(boolean negative, long mantissa, int scale) throws IOException {
+        ensureCapacity(MAX_TOKEN_BYTES);
+        if (negative) {
+            buffer[position++] = '-';
+        }
+        long integerPart = mantissa / POWERS_OF_TEN[scale];
+        long fraction = mantissa % POWERS_OF_TEN[scale];
+        putDigits(integerPart, digitCount(integerPart));
+        buffer[position++] = '.';
+        if (scale == 0) {
+            buffer[position++] = '0';
+        } else {
+            putDigits(fraction, scale); // Zero padded to the scale
+        }
+    }
+
+    /**
+     * Write the last 'digits' decimal digits of a non-negative value, zero padded
+     */
+    private void putDigits(long value, int digits) {
+        int end = position + digits;
+        for (int i = end - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        position = end;
+    }
+
+    private static int digitCount(long value) {
+        int digits = 1;
+        while (digits < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[digits]) {
+            digits++;
+        }
+        return digits;
+    }
+
+    private void writeAscii(String value) throws IOException {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (position == buffer.length) {
+                flushBuffer();
+            }
+            buffer[position++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void writeByte(char c) throws IOException {
+        if (position == buffer.length) {
+            flushBuffer();
+        }
+        buffer[position++] = (byte) c;
+    }
+
+    private void ensureCapacity(int bytes) throws IOException {
+        if (position + bytes > buffer.length) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+}
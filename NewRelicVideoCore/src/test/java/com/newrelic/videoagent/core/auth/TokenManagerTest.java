@@ -455,4 +455,74 @@ public class TokenManagerTest {
         assertEquals("value1", prefs1.getString("test", ""));
         assertEquals("value2", prefs2.getString("test", ""));
     }
+
+    @Test
+    public void testRefreshChangesTokenGeneration() {
+        context.getSharedPreferences("nr_video_tokens", Context.MODE_PRIVATE).edit()
+            .putString("app_token", "123456,789012")
+            .putLong("token_timestamp", System.currentTimeMillis())
+            .commit();
+        tokenManager = new TokenManager(context, mockConfiguration);
+        assertTrue(tokenManager.hasValidToken());
+        long generation = tokenManager.getTokenGeneration();
+
+        try {
+            tokenManager.refreshToken(); // No network here - the cached token is dropped anyway
+        } catch (Exception expected) {
+            // Token generation fails without a collector
+        }
+
+        assertNotEquals(generation, tokenManager.getTokenGeneration());
+        assertFalse(tokenManager.hasValidToken());
+    }
+
+    @Test
+    public void testStaleInvalidationKeepsToken() {
+        context.getSharedPreferences("nr_video_tokens", Context.MODE_PRIVATE).edit()
+            .putString("app_token", "123456,789012")
+            .putLong("token_timestamp", System.currentTimeMillis())
+            .commit();
+        tokenManager = new TokenManager(context, mockConfiguration);
+        long generation = tokenManager.getTokenGeneration();
+
+        tokenManager.invalidateToken(generation - 1); // Token of an older generation was rejected
+
+        assertTrue(tokenManager.hasValidToken());
+        assertEquals(generation, tokenManager.getTokenGeneration());
+    }
+
+    @Test
+    public void testPrefetchDoesNotBlockCaller() {
+        context.getSharedPreferences("nr_video_tokens", Context.MODE_PRIVATE).edit().clear().commit();
+        tokenManager = new TokenManager(context, mockConfiguration);
+
+        long start = System.currentTimeMillis();
+        tokenManager.prefetchToken(); // Connect request runs on the refresh thread
+
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    // ========== Connect Response Parsing ==========
+
+    @Test
+    public void testParseTokenResponseSkipsOtherFields() {
+        String response = "{\"config\":{\"nested\":[1,[2,3]],\"name\":\"data_token\"},"
+            + "\"data_token\":[123456,789012],\"account_id\":42}";
+
+        List<Long> token = TokenManager.parseTokenResponse(stream(response));
+
+        assertEquals(java.util.Arrays.asList(123456L, 789012L), token);
+    }
+
+    @Test
+    public void testParseTokenResponseRejectsMissingOrMalformedToken() {
+        assertNull(TokenManager.parseTokenResponse(stream("{\"other\":[1,2]}")));
+        assertNull(TokenManager.parseTokenResponse(stream("{\"data_token\":[\"abc\"]}")));
+        assertNull(TokenManager.parseTokenResponse(stream("{\"data_token\":[]}")));
+        assertNull(TokenManager.parseTokenResponse(stream("not json")));
+    }
+
+    private static java.io.InputStream stream(String value) {
+        return new java.io.ByteArrayInputStream(value.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+    }
 }
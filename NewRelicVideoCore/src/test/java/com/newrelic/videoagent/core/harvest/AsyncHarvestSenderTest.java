@@ -0,0 +1,166 @@
+package com.newrelic.videoagent.core.harvest;
+
+import com.newrelic.videoagent.core.NRVideoConstants;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for AsyncHarvestSender.
+ * Tests lane reservation, independent lanes and completion callbacks.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class AsyncHarvestSenderTest {
+
+    private static final String LIVE = NRVideoConstants.EVENT_TYPE_LIVE;
+    private static final String ONDEMAND = NRVideoConstants.EVENT_TYPE_ONDEMAND;
+
+    private final CountDownLatch unblock = new CountDownLatch(1);
+    private AsyncHarvestSender sender;
+
+    @After
+    public void tearDown() {
+        unblock.countDown();
+        if (sender != null) {
+            sender.shutdown();
+        }
+    }
+
+    @Test
+    public void testBusyLaneCannotBeReserved() {
+        sender = new AsyncHarvestSender((events, endpointType) -> true);
+
+        assertTrue(sender.tryReserve(LIVE));
+        assertFalse(sender.tryReserve(LIVE));
+        assertTrue(sender.tryReserve(ONDEMAND));
+
+        sender.release(LIVE);
+        assertFalse(sender.isInFlight(LIVE));
+        assertTrue(sender.tryReserve(LIVE));
+    }
+
+    @Test
+    public void testStalledLaneDoesNotBlockOtherLane() throws Exception {
+        sender = new AsyncHarvestSender((events, endpointType) -> {
+            if (ONDEMAND.equals(endpointType)) {
+                awaitQuietly(unblock);
+            }
+            return true;
+        });
+        CountDownLatch liveDone = new CountDownLatch(1);
+
+        assertTrue(sender.tryReserve(ONDEMAND));
+        sender.send(ONDEMAND, batch(), success -> { });
+        assertTrue(sender.tryReserve(LIVE));
+        sender.send(LIVE, batch(), success -> liveDone.countDown());
+
+        assertTrue("Live send should complete while on-demand is stalled", liveDone.await(2, TimeUnit.SECONDS));
+        assertTrue(sender.isInFlight(ONDEMAND));
+        assertFalse(sender.tryReserve(ONDEMAND));
+    }
+
+    @Test
+    public void testCompletionReportsOutcomeAndReleasesLane() throws Exception {
+        sender = new AsyncHarvestSender((events, endpointType) -> false);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<Boolean> outcome = new AtomicReference<>();
+        AtomicBoolean busyInCallback = new AtomicBoolean();
+
+        assertTrue(sender.tryReserve(LIVE));
+        sender.send(LIVE, batch(), success -> {
+            outcome.set(success);
+            busyInCallback.set(sender.isInFlight(LIVE));
+            done.countDown();
+        });
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertFalse(outcome.get());
+        assertTrue("Lane stays reserved until ack/nack is done", busyInCallback.get());
+        waitForRelease(LIVE);
+    }
+
+    @Test
+    public void testSendExceptionIsReportedAsFailure() throws Exception {
+        sender = new AsyncHarvestSender((events, endpointType) -> {
+            throw new IllegalStateException("boom");
+        });
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<Boolean> outcome = new AtomicReference<>();
+
+        assertTrue(sender.tryReserve(LIVE));
+        sender.send(LIVE, batch(), success -> {
+            outcome.set(success);
+            done.countDown();
+        });
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertFalse(outcome.get());
+    }
+
+    @Test
+    public void testSendAfterShutdownFailsOnCaller() {
+        sender = new AsyncHarvestSender((events, endpointType) -> true);
+        sender.shutdown();
+        AtomicReference<Boolean> outcome = new AtomicReference<>();
+
+        assertTrue(sender.tryReserve(LIVE));
+        sender.send(LIVE, batch(), outcome::set);
+
+        assertFalse(outcome.get());
+        assertFalse(sender.isInFlight(LIVE));
+    }
+
+    @Test
+    public void testAwaitTerminationWaitsForSendsInFlight() {
+        sender = new AsyncHarvestSender((events, endpointType) -> {
+            awaitQuietly(unblock);
+            return true;
+        });
+        AtomicReference<Boolean> outcome = new AtomicReference<>();
+
+        assertTrue(sender.tryReserve(LIVE));
+        sender.send(LIVE, batch(), outcome::set);
+        sender.shutdown();
+
+        assertFalse("Stalled send should miss the deadline", sender.awaitTermination(50));
+        unblock.countDown();
+        assertTrue(sender.awaitTermination(2000));
+        assertTrue("Completion ran before termination", outcome.get());
+    }
+
+    private void waitForRelease(String lane) throws InterruptedException {
+        for (int i = 0; i < 200 && sender.isInFlight(lane); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(sender.isInFlight(lane));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static List<Map<String, Object>> batch() {
+        Map<String, Object> event = new HashMap<>();
+        event.put("actionName", "CONTENT_START");
+        return Collections.singletonList(event);
+    }
+}
@@ -0,0 +1,80 @@
+package com.newrelic.videoagent.core.harvest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for CircuitBreaker.
+ * Tests the failure-rate window and the closed, open and half-open transitions.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class CircuitBreakerTest {
+
+    private final CircuitBreaker breaker = new CircuitBreaker("test-endpoint");
+
+    @Test
+    public void testOpensOnceFailureRateIsReached() {
+        breaker.recordFailure(0);
+        breaker.recordFailure(0);
+        assertEquals("Below the minimum number of requests", CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.recordFailure(1000);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(1000));
+        assertEquals(CircuitBreaker.BASE_OPEN_MS, breaker.getOpenRemainingMs(1000));
+    }
+
+    @Test
+    public void testOccasionalFailuresKeepCircuitClosed() {
+        for (int i = 0; i < 30; i++) {
+            if (i % 3 == 0) {
+                breaker.recordFailure(i);
+            } else {
+                breaker.recordSuccess();
+            }
+        }
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest(30));
+    }
+
+    @Test
+    public void testHalfOpenLetsOneProbeThrough() {
+        openAt(0);
+        long probeTime = CircuitBreaker.BASE_OPEN_MS;
+
+        assertTrue("First request after the open period is the probe", breaker.allowRequest(probeTime));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse("Only one probe at a time", breaker.allowRequest(probeTime));
+
+        breaker.recordSuccess();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest(probeTime));
+    }
+
+    @Test
+    public void testFailedProbeDoublesOpenPeriod() {
+        openAt(0);
+        long probeTime = CircuitBreaker.BASE_OPEN_MS;
+        assertTrue(breaker.allowRequest(probeTime));
+
+        breaker.recordFailure(probeTime);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.BASE_OPEN_MS * 2, breaker.getOpenRemainingMs(probeTime));
+    }
+
+    private void openAt(long nowMs) {
+        for (int i = 0; i < CircuitBreaker.MIN_REQUESTS; i++) {
+            breaker.recordFailure(nowMs);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+}
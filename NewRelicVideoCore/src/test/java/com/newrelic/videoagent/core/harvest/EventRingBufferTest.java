@@ -0,0 +1,164 @@
+package com.newrelic.videoagent.core.harvest;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for EventRingBuffer.
+ * Tests FIFO ordering, bounded capacity, eviction, peek/conditional poll and concurrent producers.
+ */
+public class EventRingBufferTest {
+
+    // ========== Basic Operations Tests ==========
+
+    @Test
+    public void testOfferAndPollPreserveOrder() {
+        EventRingBuffer<String> ring = new EventRingBuffer<>(4);
+
+        assertTrue(ring.offer("a"));
+        assertTrue(ring.offer("b"));
+        assertTrue(ring.offer("c"));
+
+        assertEquals("a", ring.poll());
+        assertEquals("b", ring.poll());
+        assertEquals("c", ring.poll());
+        assertNull("Empty ring should return null", ring.poll());
+    }
+
+    @Test
+    public void testOfferRejectsWhenFull() {
+        EventRingBuffer<String> ring = new EventRingBuffer<>(2);
+
+        assertTrue(ring.offer("a"));
+        assertTrue(ring.offer("b"));
+        assertFalse("Full ring should reject offer", ring.offer("c"));
+        assertEquals(2, ring.size());
+    }
+
+    @Test
+    public void testOfferRejectsNull() {
+        EventRingBuffer<String> ring = new EventRingBuffer<>(2);
+
+        assertFalse(ring.offer(null));
+        assertEquals(0, ring.offerEvictingOldest(null));
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+        new EventRingBuffer<String>(0);
+    }
+
+    @Test
+    public void testWrapAroundKeepsSizeAccurate() {
+        EventRingBuffer<Integer> ring = new EventRingBuffer<>(3);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(ring.offer(i));
+            assertEquals(1, ring.size());
+            assertEquals(Integer.valueOf(i), ring.poll());
+            assertEquals(0, ring.size());
+        }
+    }
+
+    // ========== Eviction Tests ==========
+
+    @Test
+    public void testOfferEvictingOldestDropsHead() {
+        EventRingBuffer<Integer> ring = new EventRingBuffer<>(3);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, ring.offerEvictingOldest(i));
+        }
+        assertEquals(1, ring.offerEvictingOldest(3));
+
+        assertEquals(3, ring.size());
+        assertEquals("Oldest event should be evicted", Integer.valueOf(1), ring.poll());
+    }
+
+    // ========== Peek / Conditional Poll Tests ==========
+
+    @Test
+    public void testPeekDoesNotRemove() {
+        EventRingBuffer<String> ring = new EventRingBuffer<>(2);
+        ring.offer("a");
+
+        assertEquals("a", ring.peek());
+        assertEquals("a", ring.peek());
+        assertEquals(1, ring.size());
+    }
+
+    @Test
+    public void testPollIfHeadOnlyRemovesExpectedInstance() {
+        EventRingBuffer<String> ring = new EventRingBuffer<>(2);
+        String first = new String("a");
+        ring.offer(first);
+        ring.offer("b");
+
+        assertFalse("Different instance should not be removed", ring.pollIfHead(new String("a")));
+        assertTrue(ring.pollIfHead(first));
+        assertEquals("b", ring.peek());
+    }
+
+    // ========== Batch Drain Tests ==========
+
+    @Test
+    public void testDrainToRespectsLimit() {
+        EventRingBuffer<Integer> ring = new EventRingBuffer<>(10);
+        for (int i = 0; i < 8; i++) {
+            ring.offer(i);
+        }
+
+        List<Integer> batch = new ArrayList<>();
+        assertEquals(5, ring.drainTo(batch, 5));
+        assertEquals(5, batch.size());
+        assertEquals(Integer.valueOf(0), batch.get(0));
+        assertEquals(3, ring.size());
+    }
+
+    @Test
+    public void testClearEmptiesRing() {
+        EventRingBuffer<Integer> ring = new EventRingBuffer<>(4);
+        ring.offer(1);
+        ring.offer(2);
+
+        ring.clear();
+
+        assertTrue(ring.isEmpty());
+        assertNull(ring.peek());
+    }
+
+    // ========== Concurrency Tests ==========
+
+    @Test
+    public void testConcurrentProducersNeverExceedCapacity() throws InterruptedException {
+        final EventRingBuffer<Integer> ring = new EventRingBuffer<>(50);
+        int threadCount = 8;
+        final int perThread = 200;
+        final CountDownLatch latch = new CountDownLatch(threadCount);
+
+        for (int t = 0; t < threadCount; t++) {
+            final int base = t * perThread;
+            new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    ring.offerEvictingOldest(base + i);
+                }
+                latch.countDown();
+            }).start();
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(50, ring.size());
+
+        List<Integer> drained = new ArrayList<>();
+        ring.drainTo(drained, Integer.MAX_VALUE);
+        assertEquals(50, drained.size());
+        assertTrue(ring.isEmpty());
+    }
+}
@@ -0,0 +1,90 @@
+package com.newrelic.videoagent.core.harvest;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for GzipEncoder.
+ * Payloads must be valid gzip streams, also when the encoder is reused.
+ */
+public class GzipEncoderTest {
+
+    private final GzipEncoder encoder = new GzipEncoder(6);
+
+    @After
+    public void tearDown() {
+        encoder.end();
+    }
+
+    @Test
+    public void testPayloadIsValidGzip() throws IOException {
+        String payload = repeat("{\"actionName\":\"CONTENT_HEARTBEAT\",\"contentPlayhead\":1234},", 200);
+
+        byte[] compressed = encode(payload);
+
+        assertEquals(payload, gunzip(compressed));
+        assertTrue("Repetitive JSON should compress well", compressed.length < payload.length() / 5);
+    }
+
+    @Test
+    public void testEncoderIsReusableAcrossPayloads() throws IOException {
+        String first = repeat("{\"actionName\":\"CONTENT_START\"},", 50);
+        String second = repeat("{\"actionName\":\"CONTENT_END\",\"errorCode\":42},", 80);
+
+        assertEquals(first, gunzip(encode(first)));
+        assertEquals(second, gunzip(encode(second)));
+    }
+
+    @Test
+    public void testFinishReportsWrittenBytes() throws IOException {
+        String payload = repeat("x", 5000);
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+
+        encoder.begin(target);
+        encoder.write(payload.getBytes(StandardCharsets.UTF_8));
+        long compressed = encoder.finish();
+
+        assertEquals(target.size(), compressed);
+        assertEquals(5000, encoder.getUncompressedBytes());
+    }
+
+    private byte[] encode(String payload) throws IOException {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        encoder.begin(target);
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        // Uneven chunks, like the JSON writer flushing its buffer
+        for (int offset = 0; offset < bytes.length; offset += 333) {
+            encoder.write(bytes, offset, Math.min(333, bytes.length - offset));
+        }
+        encoder.finish();
+        return target.toByteArray();
+    }
+
+    private static String gunzip(byte[] compressed) throws IOException {
+        try (GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            return new String(output.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String repeat(String value, int times) {
+        StringBuilder builder = new StringBuilder(value.length() * times);
+        for (int i = 0; i < times; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+}
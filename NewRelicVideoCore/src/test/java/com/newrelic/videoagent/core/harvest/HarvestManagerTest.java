@@ -4,6 +4,7 @@ import android.content.Context;
 
 import com.newrelic.videoagent.core.NRVideoConfiguration;
 import com.newrelic.videoagent.core.NRVideoConstants;
+import com.newrelic.videoagent.core.storage.CrashSafeHarvestFactory;
 import com.newrelic.videoagent.core.storage.IntegratedDeadLetterHandler;
 
 import org.junit.Before;
@@ -15,6 +16,7 @@ import org.mockito.MockitoAnnotations;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -251,6 +253,70 @@ public class HarvestManagerTest {
         harvestManager.harvestLive();
     }
 
+    @Test
+    public void testHarvestCoalesced() {
+        harvestManager.recordEvent("CONTENT_START", new HashMap<>());
+        // Should not throw exception
+        harvestManager.harvestCoalesced();
+    }
+
+    @Test
+    public void testHarvestCoalescedSendsLiveFirstInOneRequest() throws Exception {
+        int budget = Math.max(testConfig.getLiveBatchSizeBytes(), testConfig.getRegularBatchSizeBytes());
+        EventLease liveLease = stubLease(1L, NRVideoConstants.EVENT_TYPE_LIVE, "live", 1000);
+        EventLease onDemandLease = stubLease(2L, NRVideoConstants.EVENT_TYPE_ONDEMAND, "ondemand", 500);
+        when(mockHttpClient.sendEventsReportingDelivered(anyList(), anyString(), anyLong())).thenReturn(2);
+        useMockedComponents();
+
+        harvestManager.harvestCoalesced();
+
+        // Live leases the whole larger budget, on-demand fills what it left, retries the rest
+        verify(mockEventBuffer).leaseBatchByPriority(eq(budget), any(), eq(NRVideoConstants.EVENT_TYPE_LIVE));
+        verify(mockEventBuffer).leaseBatchByPriority(eq(budget - 1000), any(), eq(NRVideoConstants.EVENT_TYPE_ONDEMAND));
+        verify(mockDeadLetterHandler).pollRetriesForHarvest(budget - 1500L);
+
+        ArgumentCaptor<List<Map<String, Object>>> sent = ArgumentCaptor.forClass(List.class);
+        // The leased sizes travel with the request, the client does not measure the batch again
+        verify(mockHttpClient, times(1)).sendEventsReportingDelivered(sent.capture(), eq(NRVideoConstants.EVENT_TYPE_LIVE), eq(1500L));
+        assertEquals(2, sent.getValue().size());
+        assertSame(liveLease.getEvents().get(0), sent.getValue().get(0));
+        assertSame(onDemandLease.getEvents().get(0), sent.getValue().get(1));
+
+        verify(mockEventBuffer).ack(1L);
+        verify(mockEventBuffer).ack(2L);
+        verify(mockDeadLetterHandler, never()).handleFailedLease(any(), anyString(), anyList(), anyInt());
+    }
+
+    @Test
+    public void testHarvestCoalescedFailureNacksBothLeases() throws Exception {
+        EventLease liveLease = stubLease(1L, NRVideoConstants.EVENT_TYPE_LIVE, "live", 1000);
+        EventLease onDemandLease = stubLease(2L, NRVideoConstants.EVENT_TYPE_ONDEMAND, "ondemand", 500);
+        when(mockHttpClient.sendEventsReportingDelivered(anyList(), anyString(), anyLong())).thenReturn(0);
+        useMockedComponents();
+
+        harvestManager.harvestCoalesced();
+
+        verify(mockHttpClient, times(1)).sendEventsReportingDelivered(anyList(), eq(NRVideoConstants.EVENT_TYPE_LIVE), anyLong());
+        verify(mockDeadLetterHandler).handleFailedLease(same(liveLease), eq(NRVideoConstants.EVENT_TYPE_LIVE), anyList(), eq(0));
+        verify(mockDeadLetterHandler).handleFailedLease(same(onDemandLease), eq(NRVideoConstants.EVENT_TYPE_ONDEMAND), anyList(), eq(0));
+        verify(mockEventBuffer, never()).ack(anyLong());
+    }
+
+    @Test
+    public void testHarvestCoalescedDeliveredInPartRetriesOnlyTheRest() throws Exception {
+        EventLease liveLease = stubLease(1L, NRVideoConstants.EVENT_TYPE_LIVE, "live", 1000);
+        EventLease onDemandLease = stubLease(2L, NRVideoConstants.EVENT_TYPE_ONDEMAND, "ondemand", 500);
+        // The client split the request and only its first half, the live event, went through
+        when(mockHttpClient.sendEventsReportingDelivered(anyList(), anyString(), anyLong())).thenReturn(1);
+        useMockedComponents();
+
+        harvestManager.harvestCoalesced();
+
+        verify(mockDeadLetterHandler).handleFailedLease(same(liveLease), eq(NRVideoConstants.EVENT_TYPE_LIVE), anyList(), eq(1));
+        verify(mockDeadLetterHandler).handleFailedLease(same(onDemandLease), eq(NRVideoConstants.EVENT_TYPE_ONDEMAND), anyList(), eq(0));
+        verify(mockEventBuffer, never()).ack(anyLong());
+    }
+
     @Test
     public void testMultipleHarvestOnDemandCalls() {
         for (int i = 0; i < 5; i++) {
@@ -536,4 +602,30 @@ public class HarvestManagerTest {
         harvestManager.harvestOnDemand();
         harvestManager.harvestLive();
     }
+
+    // ========== Helper Methods ==========
+
+    /**
+     * Harvest through the mocked buffer, client and dead letter handler, sending synchronously
+     */
+    private void useMockedComponents() throws Exception {
+        CrashSafeHarvestFactory factory = mock(CrashSafeHarvestFactory.class);
+        when(factory.getConfiguration()).thenReturn(testConfig);
+        when(factory.getEventBuffer()).thenReturn(mockEventBuffer);
+        when(factory.getHttpClient()).thenReturn(mockHttpClient);
+        when(factory.getDeadLetterHandler()).thenReturn(mockDeadLetterHandler);
+        Field factoryField = HarvestManager.class.getDeclaredField("factory");
+        factoryField.setAccessible(true);
+        factoryField.set(harvestManager, factory);
+    }
+
+    private EventLease stubLease(long leaseId, String priority, String eventId, long leasedBytes) {
+        List<Map<String, Object>> events = new ArrayList<>();
+        Map<String, Object> event = new HashMap<>();
+        event.put("eventId", eventId);
+        events.add(event);
+        EventLease lease = new EventLease(leaseId, priority, events, leasedBytes);
+        when(mockEventBuffer.leaseBatchByPriority(anyInt(), any(), eq(priority))).thenReturn(lease);
+        return lease;
+    }
 }
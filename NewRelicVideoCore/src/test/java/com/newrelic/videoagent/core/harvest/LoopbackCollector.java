@@ -0,0 +1,121 @@
+package com.newrelic.videoagent.core.harvest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Stand-in collector on the loopback interface for transport tests
+ * Records every payload (gunzipped when needed) and the client connections it came over,
+ * and answers with queued status codes (200 once the queue is empty)
+ */
+public class LoopbackCollector {
+
+    public static final String PATH = "/mobile/v3/data";
+
+    private final HttpServer server;
+    private final List<Request> requests = Collections.synchronizedList(new ArrayList<>());
+    private final Set<InetSocketAddress> clientConnections = Collections.synchronizedSet(new HashSet<>());
+    private final ConcurrentLinkedQueue<Response> responses = new ConcurrentLinkedQueue<>();
+
+    public LoopbackCollector() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(PATH, this::handle);
+        server.start();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+    }
+
+    /**
+     * Answer the next request with a status code and an optional Retry-After header
+     */
+    public void enqueueResponse(int statusCode, String retryAfter) {
+        responses.add(new Response(statusCode, retryAfter));
+    }
+
+    public List<Request> getRequests() {
+        synchronized (requests) {
+            return new ArrayList<>(requests);
+        }
+    }
+
+    /**
+     * Distinct client connections seen so far
+     */
+    public int getConnectionCount() {
+        return clientConnections.size();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        clientConnections.add(exchange.getRemoteAddress());
+        byte[] body = readFully(exchange.getRequestBody());
+        String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        boolean gzip = "gzip".equalsIgnoreCase(encoding);
+        if (gzip) {
+            body = readFully(new GZIPInputStream(new ByteArrayInputStream(body)));
+        }
+        requests.add(new Request(gzip, new String(body, StandardCharsets.UTF_8)));
+
+        Response response = responses.poll();
+        int statusCode = response != null ? response.statusCode : 200;
+        if (response != null && response.retryAfter != null) {
+            exchange.getResponseHeaders().add("Retry-After", response.retryAfter);
+        }
+        byte[] reply = "{}".getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(statusCode, reply.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(reply);
+        }
+    }
+
+    private static byte[] readFully(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    public static final class Request {
+        public final boolean gzip;
+        public final String body;
+
+        Request(boolean gzip, String body) {
+            this.gzip = gzip;
+            this.body = body;
+        }
+    }
+
+    private static final class Response {
+        final int statusCode;
+        final String retryAfter;
+
+        Response(int statusCode, String retryAfter) {
+            this.statusCode = statusCode;
+            this.retryAfter = retryAfter;
+        }
+    }
+}
@@ -553,6 +553,73 @@ public class MultiTaskHarvestSchedulerTest {
         assertNotNull("Scheduler should handle both null tasks", scheduler);
     }
 
+    // ========== Retry Task Tests ==========
+
+    @Test
+    public void testScheduleRetryRunsRetryTask() throws InterruptedException {
+        CountDownLatch retried = new CountDownLatch(1);
+        scheduler = new MultiTaskHarvestScheduler(mockOnDemandTask, mockLiveTask, retried::countDown, mockConfiguration);
+
+        scheduler.scheduleRetry(0);
+
+        assertTrue("Retry task should run on the harvest thread", retried.await(2, TimeUnit.SECONDS));
+        verify(mockOnDemandTask, never()).run();
+    }
+
+    @Test
+    public void testScheduleRetryIgnoredAfterShutdown() throws InterruptedException {
+        AtomicInteger retries = new AtomicInteger(0);
+        scheduler = new MultiTaskHarvestScheduler(mockOnDemandTask, mockLiveTask, retries::incrementAndGet, mockConfiguration);
+        scheduler.shutdown();
+
+        scheduler.scheduleRetry(0);
+        Thread.sleep(100);
+
+        assertEquals(0, retries.get());
+    }
+
+    @Test
+    public void testScheduleRetryWithoutRetryTask() {
+        scheduler = new MultiTaskHarvestScheduler(mockOnDemandTask, mockLiveTask, mockConfiguration);
+
+        scheduler.scheduleRetry(0); // No retry task - nothing to run
+        assertFalse(scheduler.isRunning());
+    }
+
+    // ========== Coalescing Tests ==========
+
+    @Test
+    public void testLiveHarvestCoalescesOnDemandDueWithinWindow() throws InterruptedException {
+        when(mockConfiguration.getHarvestCoalescingWindowMs()).thenReturn(5000L);
+        CountDownLatch coalesced = new CountDownLatch(1);
+        scheduler = new MultiTaskHarvestScheduler(mockOnDemandTask, mockLiveTask, coalesced::countDown, null, mockConfiguration);
+
+        // Live fires after 0.5s, on-demand is due 0.5s later - well inside the window
+        scheduler.start(NRVideoConstants.EVENT_TYPE_ONDEMAND);
+        scheduler.start(NRVideoConstants.EVENT_TYPE_LIVE);
+        ShadowLooper.idleMainLooper(600, TimeUnit.MILLISECONDS);
+
+        assertTrue("Both harvests should go out as one", coalesced.await(2, TimeUnit.SECONDS));
+        verify(mockLiveTask, never()).run();
+        verify(mockOnDemandTask, never()).run();
+    }
+
+    @Test
+    public void testNoCoalescingWhenWindowDisabled() throws InterruptedException {
+        when(mockConfiguration.getHarvestCoalescingWindowMs()).thenReturn(0L);
+        AtomicInteger coalesced = new AtomicInteger(0);
+        CountDownLatch separate = new CountDownLatch(2);
+        scheduler = new MultiTaskHarvestScheduler(separate::countDown, separate::countDown,
+            coalesced::incrementAndGet, null, mockConfiguration);
+
+        scheduler.start(NRVideoConstants.EVENT_TYPE_ONDEMAND);
+        scheduler.start(NRVideoConstants.EVENT_TYPE_LIVE);
+        ShadowLooper.idleMainLooper(1100, TimeUnit.MILLISECONDS);
+
+        assertTrue("Both harvests should run on their own", separate.await(3, TimeUnit.SECONDS));
+        assertEquals(0, coalesced.get());
+    }
+
     // ========== Edge Cases ==========
 
     @Test
@@ -505,4 +505,274 @@ public class OptimizedHttpClientTest {
 
         assertFalse("Without mock HTTP, send should fail", result);
     }
+
+    // ========== Payload Envelope ==========
+
+    @Test
+    public void testCachedEnvelopeProducesFullPayload() throws Exception {
+        DeviceInformation deviceInfo = DeviceInformation.getInstance(context);
+        List<Long> token = Arrays.asList(123456L, 789012L);
+        List<Map<String, Object>> events = createSampleEvents(2);
+
+        java.io.ByteArrayOutputStream spliced = new java.io.ByteArrayOutputStream();
+        OptimizedHttpClient.writePayload(OptimizedHttpClient.encodeEnvelopePrefix(token, deviceInfo), events, spliced);
+
+        HashMap<String, Object> deviceMetadata = new HashMap<>();
+        deviceMetadata.put("size", deviceInfo.getSize());
+        deviceMetadata.put("platform", deviceInfo.getApplicationFramework());
+        deviceMetadata.put("platformVersion", deviceInfo.getApplicationFrameworkVersion());
+        List<Object> payload = new ArrayList<>();
+        payload.add(token);
+        payload.add(Arrays.asList(deviceInfo.getOsName(), deviceInfo.getOsVersion(), deviceInfo.getArchitecture(),
+            deviceInfo.getAgentName(), deviceInfo.getAgentVersion(), deviceInfo.getDeviceId(), "", "",
+            deviceInfo.getManufacturer(), deviceMetadata));
+        payload.add(0);
+        for (int i = 0; i < 5; i++) {
+            payload.add(new ArrayList<>());
+        }
+        payload.add(new HashMap<>());
+        payload.add(events);
+
+        assertEquals(com.newrelic.videoagent.core.util.JsonStreamUtil.streamJsonToString(payload),
+            spliced.toString("UTF-8"));
+    }
+
+    // ========== Transport ==========
+
+    @Test
+    public void testPayloadsReachLoopbackCollectorOverOneConnection() throws Exception {
+        LoopbackCollector collector = new LoopbackCollector();
+        try {
+            OptimizedHttpClient client = clientFor(collector);
+
+            assertTrue(client.sendEvents(createSampleEvents(2), "live"));
+            assertTrue(client.sendEvents(createSampleEvents(50), "ondemand"));
+
+            List<LoopbackCollector.Request> requests = collector.getRequests();
+            assertEquals(2, requests.size());
+            assertFalse("Small payload goes out as is", requests.get(0).gzip);
+            assertTrue("Large payload is compressed", requests.get(1).gzip);
+            assertTrue(requests.get(1).body.startsWith("[[123456,789012],"));
+            assertTrue(requests.get(1).body.contains("\"index\":49"));
+            assertEquals("Keep-alive should reuse the connection", 1, collector.getConnectionCount());
+            assertEquals(2, client.getTransportMetrics().getRequestCount());
+            assertTrue(client.getCompressionRatio() < 1.0);
+        } finally {
+            collector.stop();
+        }
+    }
+
+    @Test
+    public void testRetryAfterFromCollectorIsHonored() throws Exception {
+        LoopbackCollector collector = new LoopbackCollector();
+        try {
+            OptimizedHttpClient client = clientFor(collector);
+            collector.enqueueResponse(429, "30");
+
+            assertFalse(client.sendEvents(createSampleEvents(1), "live"));
+            assertTrue(client.getRetryAfterRemainingMs() > 25000);
+            assertFalse("No request while rate limited", client.sendEvents(createSampleEvents(1), "ondemand"));
+            assertEquals(1, collector.getRequests().size());
+        } finally {
+            collector.stop();
+        }
+    }
+
+    @Test
+    public void testConfiguredTransportIsUsed() throws Exception {
+        HarvestTransport transport = mock(HarvestTransport.class);
+        when(transport.post(anyString(), anyMap(), any())).thenReturn(new TransportResponse(202, null));
+        when(transport.getConnectionsOpened()).thenReturn(1L);
+        when(mockConfiguration.getHarvestTransport()).thenReturn(transport);
+        OptimizedHttpClient client = clientFor("http://collector.test/mobile/v3/data");
+
+        assertTrue(client.sendEvents(createSampleEvents(3), "live"));
+        assertTrue(client.sendEvents(createSampleEvents(3), "live"));
+
+        verify(transport, times(2)).post(eq("http://collector.test/mobile/v3/data"), anyMap(), any());
+        assertEquals(0.5, client.getTransportMetrics().getConnectionReuseRatio(), 0.001);
+    }
+
+    // ========== Circuit Breaker and Failover ==========
+
+    @Test
+    public void testFailingPrimaryFailsOverToFallbackCollector() throws Exception {
+        LoopbackCollector primary = new LoopbackCollector();
+        LoopbackCollector fallback = new LoopbackCollector();
+        try {
+            OptimizedHttpClient client = clientFor(primary.getUrl(), fallback.getUrl());
+            primary.enqueueResponse(503, null);
+
+            assertTrue(client.sendEvents(createSampleEvents(2), "live"));
+
+            assertEquals(1, primary.getRequests().size());
+            assertEquals("Retry goes to the next endpoint", 1, fallback.getRequests().size());
+        } finally {
+            primary.stop();
+            fallback.stop();
+        }
+    }
+
+    @Test
+    public void testOpenCircuitSkipsNetworkAndBlocksSends() throws Exception {
+        LoopbackCollector collector = new LoopbackCollector();
+        try {
+            OptimizedHttpClient client = clientFor(collector);
+            for (int i = 0; i < CircuitBreaker.MIN_REQUESTS; i++) {
+                collector.enqueueResponse(503, null);
+            }
+
+            assertFalse(client.sendEvents(createSampleEvents(1), "live"));
+            assertEquals(CircuitBreaker.MIN_REQUESTS, collector.getRequests().size());
+            assertTrue(client.getSendBlockedRemainingMs() > 0);
+
+            assertFalse(client.sendEvents(createSampleEvents(1), "ondemand"));
+            assertEquals("No request while the circuit is open", CircuitBreaker.MIN_REQUESTS, collector.getRequests().size());
+        } finally {
+            collector.stop();
+        }
+    }
+
+    // ========== Payload Size Limits ==========
+
+    @Test
+    public void testBatchOverPayloadLimitIsSplitInHalves() throws Exception {
+        LoopbackCollector collector = new LoopbackCollector();
+        try {
+            OptimizedHttpClient client = clientFor(collector);
+            assertTrue(client.sendEvents(createSampleEvents(4), "live"));
+            int fourEventBytes = collector.getRequests().get(0).body.length();
+            when(mockConfiguration.getMaxPayloadBytes()).thenReturn(fourEventBytes);
+
+            assertTrue(client.sendEvents(createSampleEvents(8), "live"));
+
+            List<LoopbackCollector.Request> requests = collector.getRequests();
+            assertEquals("Oversized batch should go out as two halves", 3, requests.size());
+            assertTrue(requests.get(1).body.contains("\"index\":3"));
+            assertTrue(requests.get(2).body.contains("\"index\":7"));
+            assertEquals(0, client.getQuarantinedEventCount());
+        } finally {
+            collector.stop();
+        }
+    }
+
+    @Test
+    public void testKnownBatchSizeIsUsedForPayloadLimits() throws Exception {
+        LoopbackCollector collector = new LoopbackCollector();
+        try {
+            OptimizedHttpClient client = clientFor(collector);
+            List<Map<String, Object>> events = createSampleEvents(4);
+            long eventBytes = 0;
+            for (Map<String, Object> event : events) {
+                eventBytes += com.newrelic.videoagent.core.util.JsonStreamUtil.measureJson(event);
+            }
+            assertEquals(4, client.sendEventsReportingDelivered(events, "live", eventBytes));
+            when(mockConfiguration.getMaxPayloadBytes()).thenReturn(collector.getRequests().get(0).body.length());
+
+            // One byte more than the batch really has is enough to split it, the client trusts the size
+            assertEquals(4, client.sendEventsReportingDelivered(createSampleEvents(4), "live", eventBytes + 1));
+
+            List<LoopbackCollector.Request> requests = collector.getRequests();
+            assertEquals(3, requests.size());
+            assertFalse(requests.get(1).body.contains("\"index\":2"));
+            assertTrue(requests.get(2).body.contains("\"index\":3"));
+        } finally {
+            collector.stop();
+        }
+    }
+
+    @Test
+    public void testPayloadTooLargeResponseSplitsAndResends() throws Exception {
+        LoopbackCollector collector = new LoopbackCollector();
+        try {
+            OptimizedHttpClient client = clientFor(collector);
+            collector.enqueueResponse(413, null);
+
+            assertTrue("413 is not a failure once the halves are delivered", client.sendEvents(createSampleEvents(4), "live"));
+
+            List<LoopbackCollector.Request> requests = collector.getRequests();
+            assertEquals(3, requests.size());
+            assertTrue(requests.get(1).body.contains("\"index\":1"));
+            assertFalse(requests.get(1).body.contains("\"index\":2"));
+            assertTrue(requests.get(2).body.contains("\"index\":3"));
+            assertEquals("413 shows the collector is up", 0, client.getSendBlockedRemainingMs());
+        } finally {
+            collector.stop();
+        }
+    }
+
+    @Test
+    public void testFailingHalfReportsOnlyTheHalvesBeforeItAsDelivered() throws Exception {
+        LoopbackCollector collector = new LoopbackCollector();
+        try {
+            OptimizedHttpClient client = clientFor(collector);
+            collector.enqueueResponse(413, null);
+            collector.enqueueResponse(200, null);
+            collector.enqueueResponse(429, "60");
+
+            assertEquals("Only the first half was delivered", 2,
+                client.sendEventsReportingDelivered(createSampleEvents(4), "live"));
+            assertEquals(3, collector.getRequests().size());
+        } finally {
+            collector.stop();
+        }
+    }
+
+    @Test
+    public void testEventTooLargeOnItsOwnIsQuarantined() throws Exception {
+        LoopbackCollector collector = new LoopbackCollector();
+        try {
+            OptimizedHttpClient client = clientFor(collector);
+            when(mockConfiguration.getMaxPayloadBytes()).thenReturn(16 * 1024);
+            List<Map<String, Object>> events = createSampleEvents(2);
+            StringBuilder oversized = new StringBuilder();
+            for (int i = 0; i < 20 * 1024; i++) {
+                oversized.append('x');
+            }
+            events.get(0).put("customAttribute", oversized.toString());
+
+            assertTrue(client.sendEvents(events, "ondemand"));
+
+            List<LoopbackCollector.Request> requests = collector.getRequests();
+            assertEquals(1, requests.size());
+            assertTrue(requests.get(0).body.contains("\"index\":1"));
+            assertEquals(1, client.getQuarantinedEventCount());
+        } finally {
+            collector.stop();
+        }
+    }
+
+    @Test
+    public void testPayloadOverCompressedLimitIsSentWhenItsGzipFits() throws Exception {
+        LoopbackCollector collector = new LoopbackCollector();
+        try {
+            OptimizedHttpClient client = clientFor(collector);
+            assertTrue(client.sendEvents(createSampleEvents(50), "ondemand"));
+            int payloadBytes = collector.getRequests().get(0).body.length();
+            when(mockConfiguration.getMaxCompressedPayloadBytes()).thenReturn(payloadBytes - 1);
+
+            assertTrue(client.sendEvents(createSampleEvents(50), "ondemand"));
+
+            List<LoopbackCollector.Request> requests = collector.getRequests();
+            assertEquals(2, requests.size());
+            assertTrue(requests.get(1).gzip);
+            assertTrue(requests.get(1).body.contains("\"index\":49"));
+        } finally {
+            collector.stop();
+        }
+    }
+
+    private OptimizedHttpClient clientFor(LoopbackCollector collector) {
+        return clientFor(collector.getUrl());
+    }
+
+    private OptimizedHttpClient clientFor(String... collectorUrls) {
+        when(mockConfiguration.getCompressionLevel()).thenReturn(6);
+        // Cached token, so no token request goes out
+        context.getSharedPreferences("nr_video_tokens", Context.MODE_PRIVATE).edit()
+            .putString("app_token", "123456,789012")
+            .putLong("token_timestamp", System.currentTimeMillis())
+            .commit();
+        return new OptimizedHttpClient(mockConfiguration, context, Arrays.asList(collectorUrls));
+    }
 }
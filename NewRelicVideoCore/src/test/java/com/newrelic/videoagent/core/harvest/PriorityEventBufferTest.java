@@ -1,11 +1,13 @@
 package com.newrelic.videoagent.core.harvest;
 
 import com.newrelic.videoagent.core.NRVideoConstants;
+import com.newrelic.videoagent.core.util.JsonStreamUtil;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -313,12 +315,12 @@ public class PriorityEventBufferTest {
             mobileBuffer.addEvent(createLiveEvent("live" + i));
         }
 
-        // Poll in multiple batches
+        // Poll in multiple batches (budget smaller than the ~4.5KB buffered)
         List<Map<String, Object>> batch1 = mobileBuffer.pollBatchByPriority(
-            8192, sizeEstimator, NRVideoConstants.EVENT_TYPE_LIVE
+            2048, sizeEstimator, NRVideoConstants.EVENT_TYPE_LIVE
         );
         List<Map<String, Object>> batch2 = mobileBuffer.pollBatchByPriority(
-            8192, sizeEstimator, NRVideoConstants.EVENT_TYPE_LIVE
+            2048, sizeEstimator, NRVideoConstants.EVENT_TYPE_LIVE
         );
 
         assertTrue("First batch should have events", batch1.size() > 0);
@@ -350,6 +352,177 @@ public class PriorityEventBufferTest {
                   tvBatch.size() >= mobileBatch.size());
     }
 
+    @Test
+    public void testBatchIsNotCappedByEventCount() {
+        for (int i = 0; i < 40; i++) {
+            mobileBuffer.addEvent(createLiveEvent("live" + i));
+        }
+
+        List<Map<String, Object>> batch = mobileBuffer.pollBatchByPriority(
+            64 * 1024, sizeEstimator, NRVideoConstants.EVENT_TYPE_LIVE
+        );
+
+        assertEquals("Whole queue fits the byte budget", 40, batch.size());
+        assertEquals(0, mobileBuffer.getEventCount());
+    }
+
+    @Test
+    public void testBatchStopsAtExactByteBudget() {
+        Map<String, Object> event = createLiveEvent("live");
+        int eventSize = sizeEstimator.estimate(event);
+        for (int i = 0; i < 10; i++) {
+            mobileBuffer.addEvent(createLiveEvent("live"));
+        }
+
+        List<Map<String, Object>> batch = mobileBuffer.pollBatchByPriority(
+            eventSize * 3, sizeEstimator, NRVideoConstants.EVENT_TYPE_LIVE
+        );
+
+        assertEquals(3, batch.size());
+        assertEquals(7, mobileBuffer.getEventCount());
+    }
+
+    @Test
+    public void testSizeEstimatorIsExactUtf8Size() throws Exception {
+        Map<String, Object> event = createLiveEvent("CONTENT_START");
+        event.put("contentTitle", "Caf\u00e9");
+
+        assertEquals(JsonStreamUtil.encodeEvent(event).length, sizeEstimator.estimate(event));
+    }
+
+    @Test
+    public void testBufferedBytesTrackAddPollAndEviction() {
+        int eventSize = sizeEstimator.estimate(createLiveEvent("live"));
+        for (int i = 0; i < 200; i++) {
+            mobileBuffer.addEvent(createLiveEvent("live"));
+        }
+        mobileBuffer.addEvent(createOndemandEvent("ondemand"));
+
+        // Mobile live ring holds 150 events, evicted ones are no longer counted
+        assertEquals(150L * eventSize, mobileBuffer.getBufferedBytes(NRVideoConstants.EVENT_TYPE_LIVE));
+        assertEquals(sizeEstimator.estimate(createOndemandEvent("ondemand")),
+            mobileBuffer.getBufferedBytes(NRVideoConstants.EVENT_TYPE_ONDEMAND));
+
+        mobileBuffer.pollBatchByPriority(eventSize * 50, sizeEstimator, NRVideoConstants.EVENT_TYPE_LIVE);
+        assertEquals(100L * eventSize, mobileBuffer.getBufferedBytes(NRVideoConstants.EVENT_TYPE_LIVE));
+
+        mobileBuffer.clear();
+        assertEquals(0, mobileBuffer.getBufferedBytes(NRVideoConstants.EVENT_TYPE_LIVE));
+        assertEquals(0, mobileBuffer.getBufferedBytes(NRVideoConstants.EVENT_TYPE_ONDEMAND));
+    }
+
+    // ========== Lease Tests ==========
+
+    @Test
+    public void testLeaseKeepsEventsUntilAck() {
+        for (int i = 0; i < 3; i++) {
+            mobileBuffer.addEvent(createOndemandEvent("event" + i));
+        }
+
+        EventLease lease = mobileBuffer.leaseBatchByPriority(100000, sizeEstimator, NRVideoConstants.EVENT_TYPE_ONDEMAND);
+        assertFalse(lease.isDetached());
+        assertEquals(3, lease.getEvents().size());
+        assertEquals(3, mobileBuffer.getLeasedEventCount());
+        assertEquals(0, mobileBuffer.getBufferedBytes(NRVideoConstants.EVENT_TYPE_ONDEMAND));
+
+        mobileBuffer.ack(lease.getLeaseId());
+        assertEquals(0, mobileBuffer.getLeasedEventCount());
+        assertTrue(mobileBuffer.isEmpty());
+    }
+
+    @Test
+    public void testEmptyLeaseIsDetached() {
+        EventLease lease = mobileBuffer.leaseBatchByPriority(100000, sizeEstimator, NRVideoConstants.EVENT_TYPE_LIVE);
+        assertTrue(lease.isDetached());
+        assertTrue(lease.isEmpty());
+        assertTrue(mobileBuffer.nack(lease.getLeaseId(), 3).isEmpty());
+    }
+
+    @Test
+    public void testNackRequeuesAheadOfNewerEvents() {
+        mobileBuffer.addEvent(createOndemandEvent("first"));
+        mobileBuffer.addEvent(createOndemandEvent("second"));
+        EventLease lease = mobileBuffer.leaseBatchByPriority(100000, sizeEstimator, NRVideoConstants.EVENT_TYPE_ONDEMAND);
+        mobileBuffer.addEvent(createOndemandEvent("third"));
+
+        assertTrue(mobileBuffer.nack(lease.getLeaseId(), 3).isEmpty());
+        assertEquals(3, mobileBuffer.getEventCount());
+        assertEquals(0, mobileBuffer.getLeasedEventCount());
+
+        List<Map<String, Object>> batch = mobileBuffer.pollBatchByPriority(100000, sizeEstimator, NRVideoConstants.EVENT_TYPE_ONDEMAND);
+        assertEquals(3, batch.size());
+        assertEquals("first", batch.get(0).get("actionName"));
+        assertEquals("second", batch.get(1).get("actionName"));
+        assertEquals("third", batch.get(2).get("actionName"));
+        // Same instances, no copies
+        assertSame(lease.getEvents().get(0), batch.get(0));
+    }
+
+    @Test
+    public void testNackReleasesEventsAfterMaxRetries() {
+        Map<String, Object> event = createLiveEvent("flaky");
+        mobileBuffer.addEvent(event);
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            EventLease lease = mobileBuffer.leaseBatchByPriority(100000, sizeEstimator, NRVideoConstants.EVENT_TYPE_LIVE);
+            assertTrue(mobileBuffer.nack(lease.getLeaseId(), 2).isEmpty());
+        }
+
+        EventLease lease = mobileBuffer.leaseBatchByPriority(100000, sizeEstimator, NRVideoConstants.EVENT_TYPE_LIVE);
+        List<Map<String, Object>> exhausted = mobileBuffer.nack(lease.getLeaseId(), 2);
+        assertEquals(1, exhausted.size());
+        assertSame(event, exhausted.get(0));
+        assertFalse(event.containsKey("retryMetadata"));
+        assertTrue(mobileBuffer.isEmpty());
+    }
+
+    @Test
+    public void testNackUndeliveredRequeuesOnlyTheTail() {
+        mobileBuffer.addEvent(createOndemandEvent("first"));
+        mobileBuffer.addEvent(createOndemandEvent("second"));
+        mobileBuffer.addEvent(createOndemandEvent("third"));
+        EventLease lease = mobileBuffer.leaseBatchByPriority(100000, sizeEstimator, NRVideoConstants.EVENT_TYPE_ONDEMAND);
+        assertEquals(3, lease.getEvents().size());
+
+        assertTrue(mobileBuffer.nackUndelivered(lease.getLeaseId(), 2, 3).isEmpty());
+        assertEquals(1, mobileBuffer.getEventCount());
+        assertEquals(0, mobileBuffer.getLeasedEventCount());
+
+        List<Map<String, Object>> batch = mobileBuffer.pollBatchByPriority(100000, sizeEstimator, NRVideoConstants.EVENT_TYPE_ONDEMAND);
+        assertEquals(1, batch.size());
+        assertEquals("third", batch.get(0).get("actionName"));
+    }
+
+    @Test
+    public void testNackRestoresBufferedBytes() {
+        int eventSize = sizeEstimator.estimate(createLiveEvent("live"));
+        for (int i = 0; i < 4; i++) {
+            mobileBuffer.addEvent(createLiveEvent("live"));
+        }
+
+        EventLease lease = mobileBuffer.leaseBatchByPriority(eventSize * 2, sizeEstimator, NRVideoConstants.EVENT_TYPE_LIVE);
+        assertEquals(2, lease.getEvents().size());
+        assertEquals(2L * eventSize, mobileBuffer.getBufferedBytes(NRVideoConstants.EVENT_TYPE_LIVE));
+
+        mobileBuffer.nack(lease.getLeaseId(), 3);
+        assertEquals(4L * eventSize, mobileBuffer.getBufferedBytes(NRVideoConstants.EVENT_TYPE_LIVE));
+
+        mobileBuffer.clear();
+        assertEquals(0, mobileBuffer.getBufferedBytes(NRVideoConstants.EVENT_TYPE_LIVE));
+        assertTrue(mobileBuffer.isEmpty());
+    }
+
+    @Test
+    public void testUnleasedEventsAreTrackedSeparately() {
+        mobileBuffer.addEvent(createOndemandEvent("leased"));
+        EventLease lease = mobileBuffer.leaseBatchByPriority(100000, sizeEstimator, NRVideoConstants.EVENT_TYPE_ONDEMAND);
+        lease.getEvents().add(createOndemandEvent("qoe"));
+
+        assertEquals(2, lease.getEvents().size());
+        assertEquals(1, lease.getUnleasedEvents().size());
+        assertEquals("qoe", lease.getUnleasedEvents().get(0).get("actionName"));
+    }
+
     // ========== Edge Cases and State Management Tests ==========
 
     @Test
@@ -547,6 +720,46 @@ public class PriorityEventBufferTest {
         assertTrue("Should poll events", pollCount.get() > 0);
     }
 
+    // ========== Drain Tests ==========
+
+    @Test
+    public void testDrainAllTakesWholeBufferWithRetriesFirst() {
+        mobileBuffer.addEvent(createOndemandEvent("failed"));
+        EventLease failed = mobileBuffer.leaseBatchByPriority(100000, sizeEstimator, NRVideoConstants.EVENT_TYPE_ONDEMAND);
+        mobileBuffer.nack(failed.getLeaseId(), 3);
+        for (int i = 0; i < 140; i++) {
+            mobileBuffer.addEvent(createLiveEvent("live" + i));
+            mobileBuffer.addEvent(createOndemandEvent("ondemand" + i));
+        }
+
+        List<Map<String, Object>> live = new ArrayList<>();
+        List<Map<String, Object>> ondemand = new ArrayList<>();
+        mobileBuffer.drainAll(live, ondemand);
+
+        assertEquals(140, live.size());
+        assertEquals(141, ondemand.size());
+        assertEquals("failed", ondemand.get(0).get("actionName"));
+        assertEquals("live139", live.get(139).get("actionName"));
+        assertTrue(mobileBuffer.isEmpty());
+        assertEquals(0, mobileBuffer.getBufferedBytes(NRVideoConstants.EVENT_TYPE_LIVE));
+        assertEquals(0, mobileBuffer.getBufferedBytes(NRVideoConstants.EVENT_TYPE_ONDEMAND));
+    }
+
+    @Test
+    public void testDrainAllLeavesLeasedEvents() {
+        mobileBuffer.addEvent(createLiveEvent("inFlight"));
+        EventLease lease = mobileBuffer.leaseBatchByPriority(100000, sizeEstimator, NRVideoConstants.EVENT_TYPE_LIVE);
+        mobileBuffer.addEvent(createLiveEvent("buffered"));
+
+        List<Map<String, Object>> live = new ArrayList<>();
+        mobileBuffer.drainAll(live, new ArrayList<Map<String, Object>>());
+
+        assertEquals(1, live.size());
+        assertEquals("buffered", live.get(0).get("actionName"));
+        assertEquals(1, mobileBuffer.getLeasedEventCount());
+        assertEquals(1, mobileBuffer.nack(lease.getLeaseId(), 0).size());
+    }
+
     // ========== Helper Methods ==========
 
     private Map<String, Object> createLiveEvent(String actionName) {
@@ -189,4 +189,133 @@ public class NREventAttributesTest {
         assertNotNull(result);
         assertTrue(result.isEmpty());
     }
+
+    @Test
+    public void testParentScopeAttributesApply() {
+        NREventAttributes globalScope = new NREventAttributes();
+        NREventAttributes trackerScope = new NREventAttributes(globalScope);
+        globalScope.setAttribute("appVersion", "1.2.3", null);
+
+        Map<String, Object> result = trackerScope.generateAttributes("CONTENT_START", null);
+        assertEquals("1.2.3", result.get("appVersion"));
+    }
+
+    @Test
+    public void testLaterTrackerValueOverridesParentScope() {
+        NREventAttributes globalScope = new NREventAttributes();
+        NREventAttributes trackerScope = new NREventAttributes(globalScope);
+        globalScope.setAttribute("key", "global", null);
+        trackerScope.setAttribute("key", "tracker", null);
+
+        Map<String, Object> result = trackerScope.generateAttributes("CONTENT_START", null);
+        assertEquals("tracker", result.get("key"));
+    }
+
+    @Test
+    public void testLaterParentValueOverridesTrackerScope() {
+        NREventAttributes globalScope = new NREventAttributes();
+        NREventAttributes trackerScope = new NREventAttributes(globalScope);
+        trackerScope.setAttribute("key", "tracker", null);
+        assertEquals("tracker", trackerScope.resolveAttributes("CONTENT_START").get("key"));
+
+        globalScope.setAttribute("key", "global", null);
+
+        assertEquals("global", trackerScope.generateAttributes("CONTENT_START", null).get("key"));
+    }
+
+    @Test
+    public void testLaterWriteWinsAcrossOverlappingFilters() {
+        eventAttributes.setAttribute("key", "specific", "VIDEO_START");
+        eventAttributes.setAttribute("key", "video", "VIDEO_.*");
+
+        assertEquals("video", eventAttributes.generateAttributes("VIDEO_START", null).get("key"));
+
+        eventAttributes.setAttribute("key", "specific again", "VIDEO_START");
+        assertEquals("specific again", eventAttributes.generateAttributes("VIDEO_START", null).get("key"));
+    }
+
+    @Test
+    public void testParentChangeInvalidatesResolvedAttributes() {
+        NREventAttributes globalScope = new NREventAttributes();
+        NREventAttributes trackerScope = new NREventAttributes(globalScope);
+        globalScope.setAttribute("key", "first", null);
+
+        assertEquals("first", trackerScope.resolveAttributes("CONTENT_START").get("key"));
+
+        globalScope.setAttribute("key", "second", null);
+        assertEquals("second", trackerScope.resolveAttributes("CONTENT_START").get("key"));
+    }
+
+    @Test
+    public void testResolvedAttributesAreSharedUntilChanged() {
+        eventAttributes.setAttribute("key", "value", null);
+
+        Map<String, Object> first = eventAttributes.resolveAttributes("CONTENT_START");
+        Map<String, Object> second = eventAttributes.resolveAttributes("CONTENT_START");
+        assertSame(first, second);
+
+        eventAttributes.setAttribute("other", "value", null);
+        assertNotSame(first, eventAttributes.resolveAttributes("CONTENT_START"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testResolvedAttributesAreImmutable() {
+        eventAttributes.setAttribute("key", "value", null);
+
+        eventAttributes.resolveAttributes("CONTENT_START").put("key", "changed");
+    }
+
+    @Test
+    public void testNewFilterAppliesToAlreadySeenAction() {
+        eventAttributes.generateAttributes("VIDEO_START", null);
+
+        eventAttributes.setAttribute("late", "value", "VIDEO_.*");
+
+        assertEquals("value", eventAttributes.generateAttributes("VIDEO_START", null).get("late"));
+    }
+
+    @Test
+    public void testGetAllKeysIncludesParentScope() {
+        NREventAttributes globalScope = new NREventAttributes();
+        NREventAttributes trackerScope = new NREventAttributes(globalScope);
+        globalScope.setAttribute("globalKey", "a", null);
+        trackerScope.setAttribute("trackerKey", "b", "VIDEO_.*");
+
+        assertTrue(trackerScope.getAllKeys().contains("globalKey"));
+        assertTrue(trackerScope.getAllKeys().contains("trackerKey"));
+    }
+
+    @Test
+    public void testGenerateAttributesDoesNotModifyInput() {
+        eventAttributes.setAttribute("key", "value", null);
+        Map<String, Object> input = new HashMap<>();
+        input.put("own", "attr");
+
+        eventAttributes.generateAttributes("REQUEST", input);
+
+        assertEquals(1, input.size());
+    }
+
+    @Test
+    public void testEventReferencesResolvedSnapshot() {
+        eventAttributes.setAttribute("key", "value", null);
+        VideoEvent event = new VideoEvent();
+
+        eventAttributes.generateAttributes("CONTENT_START", event);
+
+        assertSame(eventAttributes.resolveAttributes("CONTENT_START"), event.getSharedAttributes());
+        assertTrue(event.getOverflowAttributes().isEmpty());
+        assertEquals("value", event.get("key"));
+    }
+
+    @Test
+    public void testLaterWritesDoNotReachGeneratedEvents() {
+        eventAttributes.setAttribute("key", "before", null);
+        Map<String, Object> event = eventAttributes.generateAttributes("CONTENT_START", null);
+
+        eventAttributes.setAttribute("key", "after", null);
+
+        assertEquals("before", event.get("key"));
+        assertEquals("after", eventAttributes.generateAttributes("CONTENT_START", null).get("key"));
+    }
 }
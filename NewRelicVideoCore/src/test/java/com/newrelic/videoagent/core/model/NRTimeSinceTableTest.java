@@ -218,4 +218,43 @@ public class NRTimeSinceTableTest {
         timeSinceTable.applyAttributes("AUDIO_START", audioAttrs);
         assertTrue(audioAttrs.containsKey("timeSinceVideoStart"));
     }
+
+    @Test
+    public void testEntryAddedAfterPlanIsApplied() {
+        timeSinceTable.addEntryWith("VIDEO_START", "timeSinceVideoStart", "VIDEO_END");
+
+        Map<String, Object> firstEnd = new HashMap<>();
+        timeSinceTable.applyAttributes("VIDEO_END", firstEnd);
+        assertFalse(firstEnd.containsKey("timeSinceLastAd"));
+
+        timeSinceTable.addEntryWith("AD_END", "timeSinceLastAd", "VIDEO_.*");
+
+        Map<String, Object> secondEnd = new HashMap<>();
+        timeSinceTable.applyAttributes("VIDEO_END", secondEnd);
+        assertTrue(secondEnd.containsKey("timeSinceLastAd"));
+        assertTrue(secondEnd.containsKey("timeSinceVideoStart"));
+    }
+
+    @Test
+    public void testSelfMatchingEntryReportsBeforeReset() {
+        timeSinceTable.addEntryWith("HEARTBEAT", "timeSinceLastHeartbeat", "HEARTBEAT");
+
+        Map<String, Object> first = new HashMap<>();
+        timeSinceTable.applyAttributes("HEARTBEAT", first);
+        assertTrue(first.containsKey("timeSinceLastHeartbeat"));
+        assertNull("First occurrence has no previous timestamp", first.get("timeSinceLastHeartbeat"));
+
+        Map<String, Object> second = new HashMap<>();
+        timeSinceTable.applyAttributes("HEARTBEAT", second);
+        assertNotNull(second.get("timeSinceLastHeartbeat"));
+    }
+
+    @Test
+    public void testNullActionIsIgnored() {
+        timeSinceTable.addEntryWith("VIDEO_START", "timeSinceVideoStart", ".*");
+
+        Map<String, Object> attributes = new HashMap<>();
+        timeSinceTable.applyAttributes(null, attributes);
+        assertTrue(attributes.isEmpty());
+    }
 }
@@ -0,0 +1,277 @@
+package com.newrelic.videoagent.core.model;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for VideoEvent.
+ */
+public class VideoEventTest {
+
+    @Test
+    public void testSchemaAttributeUsesSlot() {
+        VideoEvent event = new VideoEvent();
+        event.put("contentTitle", "Movie");
+
+        int index = VideoEvent.getSlotIndex("contentTitle");
+        assertTrue(index >= 0);
+        assertTrue(event.hasSlot(index));
+        assertEquals("Movie", event.getSlot(index));
+        assertTrue(event.getOverflowAttributes().isEmpty());
+    }
+
+    @Test
+    public void testCustomAttributeUsesOverflow() {
+        VideoEvent event = new VideoEvent();
+        event.put("myCustomAttr", 42);
+
+        assertEquals(-1, VideoEvent.getSlotIndex("myCustomAttr"));
+        assertEquals(42, event.get("myCustomAttr"));
+        assertEquals(42, event.getOverflowAttributes().get("myCustomAttr"));
+    }
+
+    @Test
+    public void testSizeCountsSlotsAndOverflow() {
+        VideoEvent event = new VideoEvent();
+        event.put("actionName", "CONTENT_START");
+        event.put("viewId", "abc-1");
+        event.put("custom", "x");
+        event.put("viewId", "abc-2");
+
+        assertEquals(3, event.size());
+        assertEquals("abc-2", event.get("viewId"));
+    }
+
+    @Test
+    public void testNullValueIsPresent() {
+        VideoEvent event = new VideoEvent();
+        event.put("contentBitrate", null);
+
+        assertTrue(event.containsKey("contentBitrate"));
+        assertNull(event.get("contentBitrate"));
+        assertEquals(1, event.size());
+    }
+
+    @Test
+    public void testRemove() {
+        VideoEvent event = new VideoEvent();
+        event.put("adTitle", "Ad");
+        event.put("custom", "x");
+
+        assertEquals("Ad", event.remove("adTitle"));
+        assertEquals("x", event.remove("custom"));
+        assertNull(event.remove("adTitle"));
+        assertTrue(event.isEmpty());
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        VideoEvent event = new VideoEvent();
+        event.put("contentTitle", "");
+        event.put("contentId", "id");
+        event.put("custom", "");
+
+        Iterator<Object> it = event.values().iterator();
+        while (it.hasNext()) {
+            if ("".equals(it.next())) {
+                it.remove();
+            }
+        }
+
+        assertEquals(1, event.size());
+        assertEquals("id", event.get("contentId"));
+    }
+
+    @Test
+    public void testEntrySetValueWritesThrough() {
+        VideoEvent event = new VideoEvent();
+        event.put("contentSrc", "http://a");
+
+        for (Map.Entry<String, Object> entry : event.entrySet()) {
+            entry.setValue("http://b");
+        }
+
+        assertEquals("http://b", event.get("contentSrc"));
+    }
+
+    @Test
+    public void testCopyConstructorIsIndependent() {
+        VideoEvent event = new VideoEvent();
+        event.put("contentTitle", "Movie");
+        event.put("custom", "x");
+
+        VideoEvent copy = new VideoEvent(event);
+        copy.put("contentTitle", "Other");
+        copy.put("custom", "y");
+
+        assertEquals("Movie", event.get("contentTitle"));
+        assertEquals("x", event.get("custom"));
+        assertEquals(event.size(), copy.size());
+    }
+
+    @Test
+    public void testFromReusesInstance() {
+        VideoEvent event = new VideoEvent();
+        assertSame(event, VideoEvent.from(event));
+
+        Map<String, Object> map = new HashMap<>();
+        map.put("contentTitle", "Movie");
+        VideoEvent converted = VideoEvent.from(map);
+        assertEquals("Movie", converted.get("contentTitle"));
+    }
+
+    @Test
+    public void testEqualsHashMapWithSameContent() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("actionName", "CONTENT_START");
+        map.put("custom", 1);
+
+        VideoEvent event = new VideoEvent(map);
+
+        assertEquals(map, event);
+        assertEquals(event, map);
+        assertEquals(map.hashCode(), event.hashCode());
+    }
+
+    @Test
+    public void testClear() {
+        VideoEvent event = new VideoEvent();
+        event.put("actionName", "CONTENT_START");
+        event.put("custom", 1);
+
+        event.clear();
+
+        assertTrue(event.isEmpty());
+        assertFalse(event.containsKey("actionName"));
+    }
+
+    @Test
+    public void testAnyChangeDropsEncoding() {
+        byte[] encoded = new byte[]{'{', '}'};
+        VideoEvent event = new VideoEvent();
+        event.put("contentTitle", "Movie");
+        event.put("custom", "x");
+
+        event.setEncoded(encoded);
+        assertSame(encoded, event.getEncoded());
+        event.put("contentTitle", "Other");
+        assertNull(event.getEncoded());
+
+        event.setEncoded(encoded);
+        event.remove("custom");
+        assertNull(event.getEncoded());
+
+        event.put("custom", "x");
+        event.setEncoded(encoded);
+        for (Map.Entry<String, Object> entry : event.entrySet()) {
+            if ("custom".equals(entry.getKey())) {
+                entry.setValue("y");
+            }
+        }
+        assertNull(event.getEncoded());
+        assertEquals("y", event.get("custom"));
+
+        event.setEncoded(encoded);
+        event.values().iterator().next();
+        assertSame("Reading should keep the encoding", encoded, event.getEncoded());
+
+        event.setEncoded(encoded);
+        event.clear();
+        assertNull(event.getEncoded());
+    }
+
+    @Test
+    public void testCopyDoesNotShareEncoding() {
+        VideoEvent event = new VideoEvent();
+        event.put("contentTitle", "Movie");
+        event.setEncoded(new byte[]{'{', '}'});
+
+        assertNull(new VideoEvent(event).getEncoded());
+    }
+
+    @Test
+    public void testSharedAttributesAreReadThrough() {
+        Map<String, Object> shared = sharedSnapshot();
+        VideoEvent event = new VideoEvent();
+        event.put("actionName", "CONTENT_START");
+        event.put("contentTitle", "Own title");
+
+        event.setSharedAttributes(shared);
+
+        // The snapshot replaces values held before, nothing is copied into the event
+        assertEquals("Shared title", event.get("contentTitle"));
+        assertEquals("1.0", event.get("appVersion"));
+        assertTrue(event.containsKey("appVersion"));
+        assertTrue(event.getOverflowAttributes().isEmpty());
+        assertFalse(event.hasSlot(VideoEvent.getSlotIndex("contentTitle")));
+        assertSame(shared, event.getSharedAttributes());
+        assertEquals(3, event.size());
+    }
+
+    @Test
+    public void testOwnValuesShadowSharedAttributes() {
+        Map<String, Object> shared = sharedSnapshot();
+        VideoEvent event = new VideoEvent();
+        event.setSharedAttributes(shared);
+
+        assertEquals("1.0", event.put("appVersion", "2.0"));
+        event.put("contentTitle", "Own title");
+
+        assertEquals("2.0", event.get("appVersion"));
+        assertEquals("Own title", event.get("contentTitle"));
+        assertEquals(2, event.size());
+        assertEquals("1.0", shared.get("appVersion"));
+    }
+
+    @Test
+    public void testRemovedSharedAttributeStaysRemoved() {
+        Map<String, Object> shared = sharedSnapshot();
+        VideoEvent event = new VideoEvent();
+        event.setSharedAttributes(shared);
+        event.put("appVersion", "2.0");
+
+        assertEquals("2.0", event.remove("appVersion"));
+        assertFalse(event.containsKey("appVersion"));
+        assertNull(event.get("appVersion"));
+
+        Iterator<Map.Entry<String, Object>> iterator = event.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if ("contentTitle".equals(iterator.next().getKey())) {
+                iterator.remove();
+            }
+        }
+        assertTrue(event.isEmpty());
+        assertEquals(2, shared.size());
+    }
+
+    @Test
+    public void testCopyKeepsSharedAttributes() {
+        VideoEvent event = new VideoEvent();
+        event.put("actionName", "CONTENT_START");
+        event.setSharedAttributes(sharedSnapshot());
+        event.remove("appVersion");
+
+        VideoEvent copy = new VideoEvent(event);
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("actionName", "CONTENT_START");
+        expected.put("contentTitle", "Shared title");
+        assertEquals(expected, copy);
+        assertEquals(expected, event);
+
+        copy.put("contentTitle", "Copy title");
+        assertEquals("Shared title", event.get("contentTitle"));
+    }
+
+    private static Map<String, Object> sharedSnapshot() {
+        Map<String, Object> shared = new HashMap<>();
+        shared.put("contentTitle", "Shared title");
+        shared.put("appVersion", "1.0");
+        return Collections.unmodifiableMap(shared);
+    }
+}
@@ -5,8 +5,12 @@ import android.content.Context;
 import com.newrelic.videoagent.core.NRVideoConfiguration;
 import com.newrelic.videoagent.core.NRVideoConstants;
 import com.newrelic.videoagent.core.harvest.EventBufferInterface;
+import com.newrelic.videoagent.core.harvest.EventLease;
+import com.newrelic.videoagent.core.harvest.DefaultSizeEstimator;
 import com.newrelic.videoagent.core.harvest.SizeEstimator;
+import com.newrelic.videoagent.core.model.VideoEvent;
 
+import org.json.JSONObject;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -17,6 +21,7 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -497,6 +502,330 @@ public class CrashSafeEventBufferTest {
         tvBuffer.cleanup();
     }
 
+    @Test
+    public void testPreSerializedEventsAreEncodedOnAdd() throws Exception {
+        when(mockConfiguration.isPreSerializedEventsEnabled()).thenReturn(true);
+        CrashSafeEventBuffer preSerializingBuffer = new CrashSafeEventBuffer(context, mockConfiguration, storage);
+        preSerializingBuffer.setCapacityCallback(new EventBufferInterface.CapacityCallback() {
+            @Override
+            public void onCapacityThresholdReached(double currentCapacity, String bufferType) {
+                // Do nothing in tests
+            }
+        });
+
+        VideoEvent event = new VideoEvent(createTestEvent("event1"));
+        preSerializingBuffer.addEvent(event);
+
+        assertNotNull("Event should be encoded on enqueue", event.getEncoded());
+        String json = new String(event.getEncoded(), "UTF-8");
+        assertTrue(json.contains("\"eventId\":\"event1\""));
+
+        // Exact size is used for batching
+        assertEquals(event.getEncoded().length, new DefaultSizeEstimator().estimate(event));
+
+        List<Map<String, Object>> batch = preSerializingBuffer.pollBatchByPriority(
+            10000, new DefaultSizeEstimator(), NRVideoConstants.EVENT_TYPE_LIVE);
+        assertEquals(1, batch.size());
+        assertSame(event, batch.get(0));
+    }
+
+    @Test
+    public void testEventsAreNotEncodedByDefault() {
+        VideoEvent event = new VideoEvent(createTestEvent("event1"));
+        buffer.addEvent(event);
+
+        assertNull(event.getEncoded());
+    }
+
+    @Test
+    public void testEmergencyBackupOfPreSerializedEvents() {
+        when(mockConfiguration.isPreSerializedEventsEnabled()).thenReturn(true);
+        CrashSafeEventBuffer preSerializingBuffer = new CrashSafeEventBuffer(context, mockConfiguration, storage);
+        preSerializingBuffer.setCapacityCallback(new EventBufferInterface.CapacityCallback() {
+            @Override
+            public void onCapacityThresholdReached(double currentCapacity, String bufferType) {
+                // Do nothing in tests
+            }
+        });
+
+        preSerializingBuffer.addEvent(new VideoEvent(createTestEvent("event1")));
+        preSerializingBuffer.emergencyBackup();
+
+        List<Map<String, Object>> recovered = storage.pollEvents(NRVideoConstants.EVENT_TYPE_LIVE, 10);
+        assertEquals(1, recovered.size());
+        assertEquals("event1", recovered.get(0).get("eventId"));
+        assertEquals("test data", recovered.get(0).get("data"));
+    }
+
+    @Test
+    public void testRecoveryDrainsFailedRowsAndEnds() {
+        buffer.backupFailedEvents(createTestEventList(3));
+        assertTrue(buffer.getRecoveryStats().isRecovering);
+        assertFalse(buffer.isEmpty());
+
+        EventLease lease = buffer.leaseBatchByPriority(100000, new DefaultSizeEstimator(), NRVideoConstants.EVENT_TYPE_ONDEMAND);
+
+        // Recovered rows are leased and stay stored until the harvest is acked
+        assertEquals(3, lease.getEvents().size());
+        assertTrue(lease.getUnleasedEvents().isEmpty());
+        assertFalse(lease.isDetached());
+        assertFalse(buffer.getRecoveryStats().isRecovering);
+        assertTrue(buffer.isEmpty());
+        assertEquals(3, storage.getEventCount());
+
+        buffer.ack(lease.getLeaseId());
+        assertTrue(storage.isEmpty());
+    }
+
+    @Test
+    public void testNackedRecoveryRowsAreReadAgain() {
+        buffer.backupFailedEvents(createTestEventList(3));
+        EventLease failed = buffer.leaseBatchByPriority(100000, new DefaultSizeEstimator(), NRVideoConstants.EVENT_TYPE_LIVE);
+        assertEquals(3, failed.getEvents().size());
+
+        assertTrue(buffer.nack(failed.getLeaseId(), 3).isEmpty());
+        assertTrue(buffer.getRecoveryStats().isRecovering);
+        assertEquals(3, storage.getEventCount());
+
+        EventLease retried = buffer.leaseBatchByPriority(100000, new DefaultSizeEstimator(), NRVideoConstants.EVENT_TYPE_LIVE);
+        assertEquals(3, retried.getEvents().size());
+        assertEquals("event0", retried.getEvents().get(0).get("eventId"));
+        buffer.ack(retried.getLeaseId());
+        assertTrue(storage.isEmpty());
+    }
+
+    @Test
+    public void testRecoveryRowsInFlightAreNotReadTwice() {
+        buffer.backupFailedEvents(createTestEventList(4));
+        int rowBytes = new JSONObject(createTestEvent("event0")).toString().length();
+
+        EventLease first = buffer.leaseBatchByPriority(rowBytes * 2, new DefaultSizeEstimator(), NRVideoConstants.EVENT_TYPE_LIVE);
+        EventLease second = buffer.leaseBatchByPriority(rowBytes * 2, new DefaultSizeEstimator(), NRVideoConstants.EVENT_TYPE_ONDEMAND);
+
+        // The second harvest continues after the rows still in flight
+        assertEquals(2, first.getEvents().size());
+        assertFalse(second.getEvents().isEmpty());
+        assertEquals("event0", first.getEvents().get(0).get("eventId"));
+        assertEquals("event2", second.getEvents().get(0).get("eventId"));
+        assertNotEquals(first.getLeaseId(), second.getLeaseId());
+
+        buffer.ack(second.getLeaseId());
+        assertEquals(4 - second.getEvents().size(), storage.getEventCount());
+        buffer.ack(first.getLeaseId());
+        assertEquals(2 - second.getEvents().size(), storage.getEventCount());
+    }
+
+    @Test
+    public void testRecoveryDrainsEveryPriorityClass() {
+        for (int i = 0; i < 4; i++) {
+            buffer.addEvent(createTestEvent("live" + i, NRVideoConstants.EVENT_TYPE_LIVE));
+            buffer.addEvent(createTestEvent("vod" + i, NRVideoConstants.EVENT_TYPE_ONDEMAND));
+        }
+        buffer.emergencyBackup();
+        List<Map<String, Object>> failed = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            failed.add(createTestEvent("err" + i, NRVideoConstants.EVENT_TYPE_ONDEMAND));
+        }
+        buffer.backupFailedEvents(failed);
+
+        // A live harvest recovers all classes, each within its share of the budget
+        int rowBytes = new JSONObject(createTestEvent("err0", NRVideoConstants.EVENT_TYPE_ONDEMAND)).toString().length();
+        EventLease lease = buffer.leaseBatchByPriority(rowBytes * 7, new DefaultSizeEstimator(), NRVideoConstants.EVENT_TYPE_LIVE);
+
+        int live = 0, ondemand = 0, failedCount = 0;
+        for (Map<String, Object> event : lease.getEvents()) {
+            String id = (String) event.get("eventId");
+            if (id.startsWith("live")) live++;
+            else if (id.startsWith("vod")) ondemand++;
+            else failedCount++;
+        }
+        assertTrue("Every class should be recovered", live > 0 && ondemand > 0 && failedCount > 0);
+        assertTrue(lease.getEvents().size() <= 7);
+
+        // Keep harvesting until the backlog is empty, then recovery ends
+        buffer.ack(lease.getLeaseId());
+        for (int i = 0; i < 10 && buffer.getRecoveryStats().isRecovering; i++) {
+            buffer.ack(buffer.leaseBatchByPriority(rowBytes * 7, new DefaultSizeEstimator(), NRVideoConstants.EVENT_TYPE_ONDEMAND).getLeaseId());
+        }
+        assertFalse(buffer.getRecoveryStats().isRecovering);
+        assertTrue(storage.isEmpty());
+    }
+
+    @Test
+    public void testRecoveryKeepsShareOfBudgetWhenMemoryIsBusy() {
+        buffer.backupFailedEvents(createTestEventList(2));
+        for (int i = 0; i < 50; i++) {
+            buffer.addEvent(createTestEvent("mem" + i));
+        }
+
+        int rowBytes = new JSONObject(createTestEvent("event0")).toString().length();
+        EventLease lease = buffer.leaseBatchByPriority(rowBytes * 8, new DefaultSizeEstimator(), NRVideoConstants.EVENT_TYPE_LIVE);
+
+        boolean hasRecovered = false;
+        for (Map<String, Object> event : lease.getEvents()) {
+            hasRecovered |= ((String) event.get("eventId")).startsWith("event");
+        }
+        assertTrue("Recovered rows should get a share of a full harvest", hasRecovered);
+    }
+
+    @Test
+    public void testBackupAfterRecoveryRestartsRecovery() {
+        buffer.backupFailedEvents(createTestEventList(1));
+        buffer.leaseBatchByPriority(100000, new DefaultSizeEstimator(), NRVideoConstants.EVENT_TYPE_LIVE);
+        assertFalse(buffer.getRecoveryStats().isRecovering);
+
+        buffer.backupFailedEvents(createTestEventList(1));
+        assertTrue(buffer.getRecoveryStats().isRecovering);
+        assertEquals(1, buffer.leaseBatchByPriority(100000, new DefaultSizeEstimator(), NRVideoConstants.EVENT_TYPE_LIVE).getEvents().size());
+    }
+
+    @Test
+    public void testJournaledEventsAreReplayedAfterCrash() {
+        when(mockConfiguration.isEventJournalEnabled()).thenReturn(true);
+        CrashSafeEventBuffer journaling = new CrashSafeEventBuffer(context, mockConfiguration, storage);
+        journaling.setCapacityCallback(new EventBufferInterface.CapacityCallback() {
+            @Override
+            public void onCapacityThresholdReached(double currentCapacity, String bufferType) {
+                // Do nothing in tests
+            }
+        });
+        journaling.addEvent(createTestEvent("harvested"));
+        EventLease lease = journaling.leaseBatchByPriority(100000, new DefaultSizeEstimator(), NRVideoConstants.EVENT_TYPE_LIVE);
+        journaling.ack(lease.getLeaseId());
+        journaling.addEvent(createTestEvent("live", NRVideoConstants.EVENT_TYPE_LIVE));
+        journaling.addEvent(createTestEvent("ondemand", NRVideoConstants.EVENT_TYPE_ONDEMAND));
+
+        // Process dies without emergency backup - the next launch replays the journal into SQLite
+        new CrashSafeEventBuffer(context, mockConfiguration, storage);
+
+        List<Map<String, Object>> live = storage.pollEvents(VideoEventStorage.PRIORITY_LIVE, 10);
+        List<Map<String, Object>> ondemand = storage.pollEvents(VideoEventStorage.PRIORITY_ONDEMAND, 10);
+        assertEquals(1, live.size());
+        assertEquals("live", live.get(0).get("eventId"));
+        assertEquals(1, ondemand.size());
+        assertEquals("ondemand", ondemand.get(0).get("eventId"));
+        deleteJournal();
+    }
+
+    @Test
+    public void testEmergencyBackupReleasesJournaledEvents() {
+        when(mockConfiguration.isEventJournalEnabled()).thenReturn(true);
+        CrashSafeEventBuffer journaling = new CrashSafeEventBuffer(context, mockConfiguration, storage);
+        journaling.setCapacityCallback(new EventBufferInterface.CapacityCallback() {
+            @Override
+            public void onCapacityThresholdReached(double currentCapacity, String bufferType) {
+                // Do nothing in tests
+            }
+        });
+        journaling.addEvent(createTestEvent("event1"));
+        journaling.emergencyBackup();
+
+        new CrashSafeEventBuffer(context, mockConfiguration, storage);
+
+        assertEquals(1, storage.getEventCount()); // Backed up once, not replayed again
+        deleteJournal();
+    }
+
+    @Test
+    public void testEvictedEventsAreReleasedFromJournal() {
+        when(mockConfiguration.isEventJournalEnabled()).thenReturn(true);
+        CrashSafeEventBuffer journaling = journalingBuffer();
+        for (int i = 0; i < 160; i++) {
+            journaling.addEvent(createTestEvent("live" + i, NRVideoConstants.EVENT_TYPE_LIVE));
+        }
+
+        new CrashSafeEventBuffer(context, mockConfiguration, storage);
+
+        // Mobile live ring holds 150 events, the 10 evicted ones are not replayed
+        List<Map<String, Object>> live = storage.pollEvents(VideoEventStorage.PRIORITY_LIVE, 500);
+        assertEquals(150, live.size());
+        assertEquals("live10", live.get(0).get("eventId"));
+        deleteJournal();
+    }
+
+    @Test
+    public void testNackedEventsStayJournaledUntilBackedUp() {
+        when(mockConfiguration.isEventJournalEnabled()).thenReturn(true);
+        CrashSafeEventBuffer journaling = journalingBuffer();
+        journaling.addEvent(createTestEvent("exhausted"));
+        journaling.addEvent(createTestEvent("backedUp"));
+        EventLease lease = journaling.leaseBatchByPriority(100000, new DefaultSizeEstimator(), NRVideoConstants.EVENT_TYPE_LIVE);
+
+        List<Map<String, Object>> released = journaling.nack(lease.getLeaseId(), 0);
+        assertEquals(2, released.size());
+        journaling.backupFailedEvents(released.subList(1, 2));
+
+        new CrashSafeEventBuffer(context, mockConfiguration, storage);
+
+        // The event still held by the caller is replayed, the backed up one is not duplicated
+        List<Map<String, Object>> live = storage.pollEvents(VideoEventStorage.PRIORITY_LIVE, 10);
+        assertEquals(1, live.size());
+        assertEquals("exhausted", live.get(0).get("eventId"));
+        assertEquals(1, storage.pollEvents(VideoEventStorage.PRIORITY_FAILED, 10).size());
+        deleteJournal();
+    }
+
+    @Test
+    public void testBackupLeasedEventsKeepsLeaseOutstanding() {
+        buffer.addEvent(createTestEvent("inFlight", NRVideoConstants.EVENT_TYPE_LIVE));
+        buffer.addEvent(createTestEvent("buffered", NRVideoConstants.EVENT_TYPE_ONDEMAND));
+        EventLease lease = buffer.leaseBatchByPriority(100000, new DefaultSizeEstimator(), NRVideoConstants.EVENT_TYPE_LIVE);
+
+        buffer.backupLeasedEvents();
+
+        List<Map<String, Object>> live = storage.pollEvents(VideoEventStorage.PRIORITY_LIVE, 10);
+        assertEquals(1, live.size());
+        assertEquals("inFlight", live.get(0).get("eventId"));
+        assertEquals(0, storage.pollEvents(VideoEventStorage.PRIORITY_ONDEMAND, 10).size());
+
+        // Still leased - a late nack returns the event to the buffer
+        assertTrue(buffer.nack(lease.getLeaseId(), 3).isEmpty());
+        assertEquals(2, buffer.getRecoveryStats().memoryEvents);
+    }
+
+    @Test
+    public void testEmergencyBackupDrainsFullBufferAndDeadLetters() {
+        for (int i = 0; i < 120; i++) {
+            buffer.addEvent(createTestEvent("live" + i, NRVideoConstants.EVENT_TYPE_LIVE));
+            buffer.addEvent(createTestEvent("ondemand" + i, NRVideoConstants.EVENT_TYPE_ONDEMAND));
+        }
+        List<Map<String, Object>> deadLetters = new ArrayList<>();
+        deadLetters.add(createTestEvent("dead", NRVideoConstants.EVENT_TYPE_ONDEMAND));
+
+        buffer.emergencyBackup(deadLetters);
+
+        assertEquals(0, buffer.getRecoveryStats().memoryEvents);
+        assertEquals(241, storage.getEventCount());
+        assertEquals(1, storage.pollEvents(VideoEventStorage.PRIORITY_FAILED, 10).size());
+        assertEquals(120, storage.pollEvents(VideoEventStorage.PRIORITY_LIVE, 500).size());
+    }
+
+    private CrashSafeEventBuffer journalingBuffer() {
+        CrashSafeEventBuffer journaling = new CrashSafeEventBuffer(context, mockConfiguration, storage);
+        journaling.setOverflowCallback(new EventBufferInterface.OverflowCallback() {
+            @Override
+            public void onBufferNearFull(String bufferType) {
+                // Do nothing in tests
+            }
+        });
+        journaling.setCapacityCallback(new EventBufferInterface.CapacityCallback() {
+            @Override
+            public void onCapacityThresholdReached(double currentCapacity, String bufferType) {
+                // Do nothing in tests
+            }
+        });
+        return journaling;
+    }
+
+    private void deleteJournal() {
+        File[] files = new File(context.getFilesDir(), "nr_video_journal").listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
     // Helper methods
 
     private Map<String, Object> createTestEvent(String eventId) {
@@ -0,0 +1,124 @@
+package com.newrelic.videoagent.core.storage;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for EmergencyBackupExecutor.
+ * Tests non-blocking requests, coalescing, bounded waits and ordered shutdown.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class EmergencyBackupExecutorTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger runs = new AtomicInteger();
+    private EmergencyBackupExecutor executor;
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        if (executor != null) {
+            executor.shutdownAfter(() -> { });
+        }
+    }
+
+    private EmergencyBackupExecutor blockingExecutor(CountDownLatch started) {
+        return new EmergencyBackupExecutor(() -> {
+            runs.incrementAndGet();
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    @Test
+    public void testRequestReturnsWhileBackupRuns() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        executor = blockingExecutor(started);
+
+        long start = System.nanoTime();
+        executor.request();
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+
+        assertTrue(started.await(2, TimeUnit.SECONDS));
+        assertFalse(executor.await(50)); // Deadline passes, backup still blocked
+        release.countDown();
+        assertTrue(executor.await(2000));
+    }
+
+    @Test
+    public void testQueuedRequestsShareOneRun() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        executor = blockingExecutor(started);
+
+        executor.request();
+        assertTrue(started.await(2, TimeUnit.SECONDS));
+        // Running backup took its snapshot - these need one more run between them
+        executor.request();
+        executor.request();
+        executor.request();
+        release.countDown();
+
+        assertTrue(executor.await(2000));
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void testAwaitWithoutRequest() {
+        executor = new EmergencyBackupExecutor(() -> { });
+        assertTrue(executor.await(10));
+    }
+
+    @Test
+    public void testShutdownRunsFinalTaskAfterQueuedBackup() throws Exception {
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(1);
+        executor = new EmergencyBackupExecutor(() -> order.add("backup"));
+
+        executor.request();
+        executor.shutdownAfter(() -> {
+            order.add("cleanup");
+            done.countDown();
+        });
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(2, order.size());
+        assertEquals("backup", order.get(0));
+        assertEquals("cleanup", order.get(1));
+        assertTrue(executor.isShutdown());
+
+        executor.request(); // Ignored after shutdown
+        executor = null;
+    }
+
+    @Test
+    public void testFailingBackupDoesNotStopExecutor() {
+        executor = new EmergencyBackupExecutor(() -> {
+            if (runs.incrementAndGet() == 1) {
+                throw new IllegalStateException("disk full");
+            }
+        });
+
+        executor.request();
+        assertTrue(executor.await(2000));
+        executor.request();
+        assertTrue(executor.await(2000));
+        assertEquals(2, runs.get());
+    }
+}
@@ -0,0 +1,187 @@
+package com.newrelic.videoagent.core.storage;
+
+import com.newrelic.videoagent.core.model.VideoEvent;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for EventJournal.
+ * Tests appends, release/rewind, segment rotation and replay by a later process.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class EventJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("journal");
+    }
+
+    @Test
+    public void testUnreleasedEventsAreReplayedByNextProcess() {
+        EventJournal journal = new EventJournal(directory);
+        journal.append(createEvent("event1"));
+        journal.append(createEvent("event2"));
+
+        // A new instance over the same directory plays the next launch
+        EventJournal next = new EventJournal(directory);
+        List<Map<String, Object>> replayed = next.readLeftoverEvents();
+
+        assertEquals(2, replayed.size());
+        assertEquals("event1", replayed.get(0).get("eventId"));
+        assertEquals("event2", replayed.get(1).get("eventId"));
+    }
+
+    @Test
+    public void testReleasedEventsAreNotReplayed() {
+        EventJournal journal = new EventJournal(directory);
+        Map<String, Object> acked = createEvent("acked");
+        journal.append(acked);
+        journal.append(createEvent("pending"));
+
+        journal.release(Collections.singletonList(acked));
+
+        // Same segment - the acknowledged record stays on disk but is marked released
+        List<Map<String, Object>> replayed = new EventJournal(directory).readLeftoverEvents();
+        assertEquals(1, replayed.size());
+        assertEquals("pending", replayed.get(0).get("eventId"));
+
+        assertEquals(1, journal.getOutstandingCount());
+    }
+
+    @Test
+    public void testReappendedEventIsReplayedOnce() {
+        EventJournal journal = new EventJournal(directory);
+        Map<String, Object> event = createEvent("twice");
+        journal.append(event);
+        journal.append(createEvent("other"));
+        event.put("eventId", "twice-updated");
+        journal.append(event);
+
+        List<Map<String, Object>> replayed = new EventJournal(directory).readLeftoverEvents();
+        assertEquals(2, replayed.size());
+        assertEquals("other", replayed.get(0).get("eventId"));
+        assertEquals("twice-updated", replayed.get(1).get("eventId"));
+    }
+
+    @Test
+    public void testFullyReleasedSegmentIsRewound() {
+        EventJournal journal = new EventJournal(directory);
+        List<Map<String, Object>> events = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Map<String, Object> event = createEvent("long-event-with-padding-" + i);
+            events.add(event);
+            journal.append(event);
+        }
+        journal.release(events);
+        journal.append(createEvent("short"));
+
+        // Stale records behind the new one must not be replayed
+        List<Map<String, Object>> replayed = new EventJournal(directory).readLeftoverEvents();
+        assertEquals(1, replayed.size());
+        assertEquals("short", replayed.get(0).get("eventId"));
+    }
+
+    @Test
+    public void testSegmentsRotateAndAreDeletedWhenReleased() {
+        EventJournal journal = new EventJournal(directory, 256);
+        List<Map<String, Object>> events = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Map<String, Object> event = createEvent("event" + i);
+            events.add(event);
+            assertTrue(journal.append(event));
+        }
+        assertTrue(journal.getSegmentCount() > 1);
+
+        journal.release(events);
+
+        assertEquals(1, journal.getSegmentCount());
+        assertEquals(0, journal.getOutstandingCount());
+        assertEquals(0, new EventJournal(directory, 256).readLeftoverEvents().size());
+    }
+
+    @Test
+    public void testOldestSegmentsAreDroppedBeyondLimit() {
+        EventJournal journal = new EventJournal(directory, 128);
+        for (int i = 0; i < EventJournal.MAX_SEGMENTS * 4; i++) {
+            journal.append(createEvent("event" + i));
+        }
+
+        assertEquals(EventJournal.MAX_SEGMENTS, journal.getSegmentCount());
+        File[] files = directory.listFiles();
+        assertNotNull(files);
+        assertEquals(EventJournal.MAX_SEGMENTS, files.length);
+    }
+
+    @Test
+    public void testEventLargerThanSegmentIsNotJournaled() {
+        EventJournal journal = new EventJournal(directory, 64);
+        Map<String, Object> event = createEvent("event");
+        event.put("payload", new String(new char[128]).replace('\0', 'x'));
+
+        assertFalse(journal.append(event));
+        assertEquals(0, journal.getOutstandingCount());
+    }
+
+    @Test
+    public void testPreSerializedEventsAreCopied() throws Exception {
+        EventJournal journal = new EventJournal(directory);
+        VideoEvent event = new VideoEvent(createEvent("encoded"));
+        event.setEncoded("{\"eventId\":\"from-encoding\"}".getBytes("UTF-8"));
+
+        journal.append(event);
+
+        assertEquals("from-encoding", new EventJournal(directory).readLeftoverEvents().get(0).get("eventId"));
+    }
+
+    @Test
+    public void testLeftoverSegmentsAreDeletedButNotOwnOnes() {
+        new EventJournal(directory).append(createEvent("previous"));
+
+        EventJournal journal = new EventJournal(directory);
+        journal.append(createEvent("current"));
+        assertEquals(1, journal.readLeftoverEvents().size());
+        journal.deleteLeftoverSegments();
+
+        assertEquals(0, journal.readLeftoverEvents().size());
+        List<Map<String, Object>> replayed = new EventJournal(directory).readLeftoverEvents();
+        assertEquals(1, replayed.size());
+        assertEquals("current", replayed.get(0).get("eventId"));
+    }
+
+    @Test
+    public void testClosedJournalRejectsAppends() {
+        EventJournal journal = new EventJournal(directory);
+        journal.close();
+
+        assertFalse(journal.append(createEvent("late")));
+    }
+
+    private static Map<String, Object> createEvent(String eventId) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("eventId", eventId);
+        event.put("timestamp", 1700000000000L);
+        return event;
+    }
+}
@@ -0,0 +1,205 @@
+package com.newrelic.videoagent.core.storage;
+
+import com.newrelic.videoagent.core.model.VideoEvent;
+import com.newrelic.videoagent.core.util.JsonStreamUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for EventRecordCodec.
+ * Tests the binary record format, type preservation and the key dictionary.
+ */
+public class EventRecordCodecTest {
+
+    private EventRecordCodec codec;
+
+    @Before
+    public void setUp() {
+        codec = new EventRecordCodec();
+        for (int i = 0; i < VideoEvent.getSlotCount(); i++) {
+            codec.addKey(VideoEvent.getSlotKey(i));
+        }
+        codec.commitKeys();
+    }
+
+    @Test
+    public void testRoundTripAllValueTypes() {
+        Map<String, Object> nested = new HashMap<>();
+        nested.put("inner", "value");
+        nested.put("none", null);
+        List<Object> list = new ArrayList<>(Arrays.asList(1, "two", 3.5, null, Boolean.TRUE));
+
+        VideoEvent event = new VideoEvent();
+        event.put("actionName", "CONTENT_START");
+        event.put("timestamp", 1700000000000L);
+        event.put("contentBitrate", 1500000);
+        event.put("contentPlayrate", 1.25f);
+        event.put("contentPlayhead", 12.5);
+        event.put("contentIsMuted", false);
+        event.put("shortValue", (short) -7);
+        event.put("byteValue", (byte) 3);
+        event.put("decimal", new BigDecimal("12345678901234567890.5"));
+        event.put("nullValue", null);
+        event.put("nested", nested);
+        event.put("list", list);
+        event.put("unicode", "Café € 🎬");
+
+        VideoEvent decoded = codec.decode(codec.encode(event));
+
+        assertEquals(event, decoded);
+        assertEquals(Long.class, decoded.get("timestamp").getClass());
+        assertEquals(Short.class, decoded.get("shortValue").getClass());
+        assertTrue(decoded.containsKey("nullValue"));
+    }
+
+    @Test
+    public void testRoundTripPlainMap() {
+        Map<String, Object> event = new HashMap<>();
+        event.put("eventType", "VideoAction");
+        event.put("negative", Long.MIN_VALUE);
+        event.put("positive", Integer.MAX_VALUE);
+
+        assertEquals(event, codec.decode(codec.encode(event)));
+    }
+
+    @Test
+    public void testRecordIsMuchSmallerThanJson() throws Exception {
+        VideoEvent event = new VideoEvent();
+        event.put("eventType", "VideoAction");
+        event.put("actionName", "CONTENT_HEARTBEAT");
+        event.put("timestamp", 1700000000000L);
+        event.put("timeSinceLoad", 123456L);
+        event.put("contentBitrate", 1500000);
+        event.put("contentPlayhead", 65432L);
+        event.put("contentDuration", 3600000L);
+        event.put("contentIsMuted", false);
+        event.put("contentIsFullscreen", true);
+
+        int recordBytes = codec.encode(event).length;
+        int jsonBytes = JsonStreamUtil.encodeEvent(event).length;
+
+        assertTrue("record " + recordBytes + " vs json " + jsonBytes, recordBytes * 2 < jsonBytes);
+    }
+
+    @Test
+    public void testUnknownTopLevelKeysAreLearned() {
+        Map<String, Object> event = new HashMap<>();
+        event.put("customAttribute", "x");
+
+        codec.encode(event);
+
+        assertEquals(VideoEvent.getSlotCount(), codec.getFirstPendingKeyId());
+        assertEquals(Arrays.asList("customAttribute"), codec.getPendingKeys());
+        codec.commitKeys();
+        assertTrue(codec.getPendingKeys().isEmpty());
+        assertTrue(codec.getKeyId("customAttribute") >= 0);
+    }
+
+    @Test
+    public void testRollbackForgetsPendingKeys() {
+        Map<String, Object> event = new HashMap<>();
+        event.put("customAttribute", "x");
+        codec.encode(event);
+
+        codec.rollbackKeys();
+
+        assertEquals(-1, codec.getKeyId("customAttribute"));
+        assertTrue(codec.getPendingKeys().isEmpty());
+        assertEquals("x", codec.decode(codec.encode(event)).get("customAttribute"));
+    }
+
+    @Test
+    public void testNestedKeysAreNotLearned() {
+        Map<String, Object> nested = new HashMap<>();
+        nested.put("deepKey", 1);
+        Map<String, Object> event = new HashMap<>();
+        event.put("actionName", "X");
+        event.put("payload", nested);
+
+        byte[] record = codec.encode(event);
+
+        assertEquals(Arrays.asList("payload"), codec.getPendingKeys());
+        assertEquals(event, codec.decode(record));
+    }
+
+    @Test
+    public void testLearnedKeysAreCapped() {
+        Map<String, Object> event = new HashMap<>();
+        for (int i = 0; i < EventRecordCodec.MAX_LEARNED_KEYS + 10; i++) {
+            event.put("custom" + i, i);
+        }
+
+        byte[] record = codec.encode(event);
+
+        assertEquals(EventRecordCodec.MAX_LEARNED_KEYS, codec.getPendingKeys().size());
+        assertEquals(event, codec.decode(record));
+    }
+
+    @Test
+    public void testRegisteredKeysDecodeRecordsOfAnotherCodec() {
+        Map<String, Object> event = new HashMap<>();
+        event.put("actionName", "CONTENT_START");
+        event.put("customAttribute", 42L);
+        byte[] record = codec.encode(event);
+        List<String> learned = codec.getPendingKeys();
+        int firstLearned = codec.getFirstPendingKeyId();
+
+        EventRecordCodec reopened = new EventRecordCodec();
+        for (int i = 0; i < VideoEvent.getSlotCount(); i++) {
+            reopened.registerKey(i, VideoEvent.getSlotKey(i));
+        }
+        for (int i = 0; i < learned.size(); i++) {
+            reopened.registerKey(firstLearned + i, learned.get(i));
+        }
+
+        assertEquals(event, reopened.decode(record));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownKeyIdIsRejected() {
+        Map<String, Object> event = new HashMap<>();
+        event.put("actionName", "CONTENT_START");
+        new EventRecordCodec().decode(codec.encode(event));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncatedRecordIsRejected() {
+        Map<String, Object> event = new HashMap<>();
+        event.put("actionName", "CONTENT_START");
+        byte[] record = codec.encode(event);
+        codec.decode(Arrays.copyOf(record, record.length - 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownVersionIsRejected() {
+        codec.decode(new byte[]{(byte) (EventRecordCodec.FORMAT_VERSION + 1), 0});
+    }
+
+    @Test
+    public void testSharedAttributesAreEncodedWithTheEvent() {
+        Map<String, Object> shared = new HashMap<>();
+        shared.put("contentTitle", "Shared");
+        shared.put("appVersion", "1.0");
+        VideoEvent event = new VideoEvent();
+        event.put("actionName", "CONTENT_START");
+        event.setSharedAttributes(Collections.unmodifiableMap(shared));
+        event.put("appVersion", "2.0");
+
+        VideoEvent decoded = codec.decode(codec.encode(event));
+
+        assertEquals(event, decoded);
+        assertEquals("Shared", decoded.get("contentTitle"));
+        assertEquals("2.0", decoded.get("appVersion"));
+    }
+}
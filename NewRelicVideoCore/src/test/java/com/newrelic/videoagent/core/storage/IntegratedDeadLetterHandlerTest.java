@@ -2,11 +2,17 @@ package com.newrelic.videoagent.core.storage;
 
 import com.newrelic.videoagent.core.NRVideoConfiguration;
 import com.newrelic.videoagent.core.NRVideoConstants;
+import com.newrelic.videoagent.core.harvest.AsyncHarvestSender;
+import com.newrelic.videoagent.core.harvest.DeadLetterEventBuffer;
+import com.newrelic.videoagent.core.harvest.DefaultSizeEstimator;
+import com.newrelic.videoagent.core.harvest.EventLease;
 import com.newrelic.videoagent.core.harvest.HttpClientInterface;
+import com.newrelic.videoagent.core.harvest.SchedulerInterface;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Answers;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.RobolectricTestRunner;
@@ -31,12 +37,16 @@ public class IntegratedDeadLetterHandlerTest {
     @Mock
     private CrashSafeEventBuffer mockMainBuffer;
 
-    @Mock
+    // Real default methods, so sends reporting their delivered events go through the stubbed sendEvents
+    @Mock(answer = Answers.CALLS_REAL_METHODS)
     private HttpClientInterface mockHttpClient;
 
     @Mock
     private NRVideoConfiguration mockConfiguration;
 
+    @Mock
+    private SchedulerInterface mockScheduler;
+
     private IntegratedDeadLetterHandler handler;
 
     @Before
@@ -556,7 +566,59 @@ public class IntegratedDeadLetterHandlerTest {
         handler.handleFailedEvents(events1, NRVideoConstants.EVENT_TYPE_ONDEMAND);
         handler.handleFailedEvents(events2, NRVideoConstants.EVENT_TYPE_LIVE);
 
-        // Second call should be skipped due to AtomicBoolean guard
+        // Calls are serialized, so both batches are kept for retry
+        verify(mockMainBuffer, never()).backupFailedEvents(anyList());
+    }
+
+    // ========== handleFailedLease Tests ==========
+
+    @Test
+    public void testHandleFailedLeaseNacksLeasedEvents() {
+        List<Map<String, Object>> events = createSampleEvents(3);
+        EventLease lease = new EventLease(7L, NRVideoConstants.EVENT_TYPE_ONDEMAND, events);
+        when(mockMainBuffer.nack(eq(7L), anyInt())).thenReturn(new ArrayList<>());
+
+        handler.handleFailedLease(lease, NRVideoConstants.EVENT_TYPE_ONDEMAND);
+
+        verify(mockMainBuffer).nack(eq(7L), anyInt());
+        verify(mockMainBuffer, never()).backupFailedEvents(anyList());
+    }
+
+    @Test
+    public void testHandleFailedLeaseBacksUpExhaustedEvents() {
+        List<Map<String, Object>> events = createSampleEvents(2);
+        EventLease lease = new EventLease(8L, NRVideoConstants.EVENT_TYPE_LIVE, events);
+        List<Map<String, Object>> exhausted = new ArrayList<>(events.subList(0, 1));
+        when(mockMainBuffer.nack(eq(8L), anyInt())).thenReturn(exhausted);
+
+        handler.handleFailedLease(lease, NRVideoConstants.EVENT_TYPE_LIVE);
+
+        verify(mockMainBuffer).backupFailedEvents(argThat(list -> list.size() == 1));
+    }
+
+    @Test
+    public void testHandleFailedLeaseRetriesUnleasedEvents() {
+        List<Map<String, Object>> events = createSampleEvents(1);
+        EventLease lease = new EventLease(9L, NRVideoConstants.EVENT_TYPE_ONDEMAND, events);
+        events.add(createEventWithRetryCount(5)); // Added after leasing, e.g. a recovered event
+        when(mockMainBuffer.nack(eq(9L), anyInt())).thenReturn(new ArrayList<>());
+
+        handler.handleFailedLease(lease, NRVideoConstants.EVENT_TYPE_ONDEMAND);
+
+        // Only the unleased event takes the dead letter path
+        verify(mockMainBuffer).backupFailedEvents(argThat(list -> list.size() == 1 && !list.get(0).containsKey("retryMetadata")));
+    }
+
+    @Test
+    public void testHandleFailedDetachedLease() {
+        List<Map<String, Object>> events = new ArrayList<>();
+        events.add(createEventWithRetryCount(5));
+        EventLease lease = EventLease.detached(NRVideoConstants.EVENT_TYPE_ONDEMAND, events);
+
+        handler.handleFailedLease(lease, NRVideoConstants.EVENT_TYPE_ONDEMAND);
+
+        verify(mockMainBuffer, never()).nack(anyLong(), anyInt());
+        verify(mockMainBuffer).backupFailedEvents(anyList());
     }
 
     @Test
@@ -578,6 +640,265 @@ public class IntegratedDeadLetterHandlerTest {
         // Should handle complex event data
     }
 
+    // ========== Retry Scheduling Tests ==========
+
+    @Test
+    public void testFailedEventsScheduleOneRetry() {
+        handler.setRetryScheduler(mockScheduler);
+
+        handler.handleFailedEvents(createSampleEvents(2), NRVideoConstants.EVENT_TYPE_ONDEMAND);
+        handler.handleFailedEvents(createSampleEvents(2), NRVideoConstants.EVENT_TYPE_ONDEMAND);
+
+        // First backoff is the base interval (60s) with jitter in its upper half
+        verify(mockScheduler, times(1)).scheduleRetry(longThat(delay -> delay >= 30000L && delay <= 60000L));
+    }
+
+    @Test
+    public void testLiveRetryUsesShorterInterval() {
+        handler.setRetryScheduler(mockScheduler);
+
+        handler.handleFailedEvents(createSampleEvents(1), NRVideoConstants.EVENT_TYPE_LIVE);
+
+        verify(mockScheduler).scheduleRetry(longThat(delay -> delay >= 15000L && delay <= 30000L));
+    }
+
+    @Test
+    public void testRetryPendingEventsSendsQueuedEvents() {
+        handler.setRetryScheduler(mockScheduler);
+        when(mockHttpClient.sendEvents(anyList(), anyString())).thenReturn(true);
+        handler.handleFailedEvents(createSampleEvents(3), NRVideoConstants.EVENT_TYPE_ONDEMAND);
+
+        handler.retryPendingEvents();
+        handler.retryPendingEvents(); // Queue is empty now
+
+        verify(mockHttpClient, times(1)).sendEvents(argThat(list -> list.size() == 3), eq(NRVideoConstants.EVENT_TYPE_ONDEMAND));
+        assertEquals(0, handler.getConsecutiveRetryFailures());
+    }
+
+    @Test
+    public void testRetryBackoffGrowsWithFailures() {
+        handler.setRetryScheduler(mockScheduler);
+        when(mockHttpClient.sendEvents(anyList(), anyString())).thenReturn(false);
+        handler.handleFailedEvents(createSampleEvents(1), NRVideoConstants.EVENT_TYPE_ONDEMAND);
+
+        handler.retryPendingEvents();
+        handler.retryPendingEvents();
+
+        assertEquals(2, handler.getConsecutiveRetryFailures());
+        long delay = handler.computeRetryDelayMs(NRVideoConstants.EVENT_TYPE_ONDEMAND);
+        assertTrue("Backoff should be 4x the base interval with jitter", delay >= 120000L && delay <= 240000L);
+    }
+
+    @Test
+    public void testRetryExhaustedEventsAreBackedUp() {
+        handler.setRetryScheduler(mockScheduler);
+        when(mockHttpClient.sendEvents(anyList(), anyString())).thenReturn(false);
+        handler.handleFailedEvents(createSampleEvents(1), NRVideoConstants.EVENT_TYPE_ONDEMAND);
+
+        // Mobile allows 3 retries
+        for (int i = 0; i < 3; i++) {
+            handler.retryPendingEvents();
+        }
+
+        verify(mockHttpClient, times(3)).sendEvents(anyList(), anyString());
+        verify(mockMainBuffer).backupFailedEvents(argThat(list -> list.size() == 1));
+    }
+
+    @Test
+    public void testRetryWaitsForRetryAfter() {
+        handler.setRetryScheduler(mockScheduler);
+        handler.handleFailedEvents(createSampleEvents(1), NRVideoConstants.EVENT_TYPE_ONDEMAND);
+        when(mockHttpClient.getRetryAfterRemainingMs()).thenReturn(300000L);
+
+        handler.retryPendingEvents();
+
+        verify(mockHttpClient, never()).sendEvents(anyList(), anyString());
+        verify(mockScheduler).scheduleRetry(300000L);
+    }
+
+    @Test
+    public void testRetryWaitsWhileEveryCircuitIsOpen() {
+        handler.setRetryScheduler(mockScheduler);
+        handler.handleFailedEvents(createSampleEvents(2), NRVideoConstants.EVENT_TYPE_ONDEMAND);
+        when(mockHttpClient.getSendBlockedRemainingMs()).thenReturn(120000L);
+
+        handler.retryPendingEvents();
+        handler.retryPendingEvents();
+
+        verify(mockHttpClient, never()).sendEventsReportingDelivered(anyList(), anyString());
+        verify(mockScheduler, times(2)).scheduleRetry(longThat(delay -> delay >= 120000L));
+        assertTrue("Harvests carry no retries meanwhile", handler.pollRetriesForHarvest(Long.MAX_VALUE).isEmpty());
+        assertEquals(0, handler.getConsecutiveRetryFailures());
+        verify(mockMainBuffer, never()).backupFailedEvents(anyList());
+
+        // Once a circuit closes, the events come back with the attempt they were queued with
+        when(mockHttpClient.getSendBlockedRemainingMs()).thenReturn(0L);
+        List<DeadLetterEventBuffer.RetryEvent> retries = handler.pollRetriesForHarvest(Long.MAX_VALUE);
+        assertEquals(2, retries.size());
+        assertEquals(1, retries.get(0).retryCount);
+        assertEquals(1, retries.get(1).retryCount);
+    }
+
+    @Test
+    public void testRetryBatchHoldsOnlyTheOldestLaneWithinItsBatchSize() {
+        long eventSize = new DefaultSizeEstimator().estimate(createSampleEvents(1).get(0));
+        when(mockConfiguration.getLiveBatchSizeBytes()).thenReturn((int) (eventSize * 2));
+        IntegratedDeadLetterHandler laneHandler = new IntegratedDeadLetterHandler(
+            mockMainBuffer, mockHttpClient, mockConfiguration);
+        laneHandler.setRetryScheduler(mockScheduler);
+        when(mockHttpClient.sendEvents(anyList(), anyString())).thenReturn(true);
+        laneHandler.handleFailedEvents(createSampleEvents(1), NRVideoConstants.EVENT_TYPE_LIVE);
+        laneHandler.handleFailedEvents(createSampleEvents(2), NRVideoConstants.EVENT_TYPE_ONDEMAND);
+        laneHandler.handleFailedEvents(createSampleEvents(2), NRVideoConstants.EVENT_TYPE_LIVE);
+
+        laneHandler.retryPendingEvents(); // Live lane, two events fill its batch size
+        laneHandler.retryPendingEvents(); // On-demand events are the oldest now
+        laneHandler.retryPendingEvents();
+
+        verify(mockHttpClient).sendEvents(argThat(list -> list.size() == 2), eq(NRVideoConstants.EVENT_TYPE_LIVE));
+        verify(mockHttpClient).sendEvents(argThat(list -> list.size() == 2), eq(NRVideoConstants.EVENT_TYPE_ONDEMAND));
+        verify(mockHttpClient).sendEvents(argThat(list -> list.size() == 1), eq(NRVideoConstants.EVENT_TYPE_LIVE));
+        assertTrue(laneHandler.pollRetriesForHarvest(Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void testBlockedLiveRetryKeepsLiveInterval() {
+        handler.setRetryScheduler(mockScheduler);
+        handler.handleFailedEvents(createSampleEvents(1), NRVideoConstants.EVENT_TYPE_LIVE);
+        when(mockHttpClient.getSendBlockedRemainingMs()).thenReturn(1000L);
+
+        handler.retryPendingEvents();
+
+        // Live base interval is 30s, jitter keeps it below that - on-demand would wait 30s to 60s
+        verify(mockScheduler, times(2)).scheduleRetry(longThat(delay -> delay >= 15000L && delay < 30000L));
+    }
+
+    @Test
+    public void testRetryIsPostedThroughSender() {
+        handler.setRetryScheduler(mockScheduler);
+        AsyncHarvestSender sender = new AsyncHarvestSender(mockHttpClient);
+        handler.setSender(sender);
+        when(mockHttpClient.sendEvents(anyList(), anyString())).thenReturn(true);
+        handler.handleFailedEvents(createSampleEvents(2), NRVideoConstants.EVENT_TYPE_LIVE);
+
+        handler.retryPendingEvents();
+
+        verify(mockHttpClient, timeout(1000)).sendEvents(argThat(list -> list.size() == 2), eq(NRVideoConstants.EVENT_TYPE_LIVE));
+        verify(mockMainBuffer, timeout(1000)).releaseDelivered(argThat(list -> list.size() == 2));
+        sender.shutdown();
+    }
+
+    @Test
+    public void testRetryWaitsWhileLaneIsInFlight() {
+        handler.setRetryScheduler(mockScheduler);
+        AsyncHarvestSender sender = new AsyncHarvestSender(mockHttpClient);
+        handler.setSender(sender);
+        handler.handleFailedEvents(createSampleEvents(1), NRVideoConstants.EVENT_TYPE_ONDEMAND);
+        assertTrue(sender.tryReserve(NRVideoConstants.EVENT_TYPE_ONDEMAND)); // A harvest is in flight
+
+        handler.retryPendingEvents();
+
+        verify(mockHttpClient, never()).sendEvents(anyList(), anyString());
+        verify(mockScheduler).scheduleRetry(1000L);
+        assertEquals(0, handler.getConsecutiveRetryFailures());
+        assertTrue(sender.isInFlight(NRVideoConstants.EVENT_TYPE_ONDEMAND)); // The harvest keeps its lane
+        sender.shutdown();
+    }
+
+    @Test
+    public void testRetryDeliveredInPartRequeuesOnlyTheRest() {
+        handler.setRetryScheduler(mockScheduler);
+        when(mockHttpClient.sendEventsReportingDelivered(anyList(), anyString())).thenReturn(2);
+        handler.handleFailedEvents(createSampleEvents(3), NRVideoConstants.EVENT_TYPE_ONDEMAND);
+
+        handler.retryPendingEvents();
+
+        verify(mockMainBuffer).releaseDelivered(argThat(list -> list.size() == 2));
+        List<DeadLetterEventBuffer.RetryEvent> requeued = handler.pollRetriesForHarvest(Long.MAX_VALUE);
+        assertEquals(1, requeued.size());
+        assertEquals(2, requeued.get(0).event.get("index"));
+        assertEquals(1, handler.getConsecutiveRetryFailures());
+    }
+
+    @Test
+    public void testHandleFailedLeaseDeliveredInPart() {
+        List<Map<String, Object>> events = createSampleEvents(3);
+        EventLease lease = new EventLease(10L, NRVideoConstants.EVENT_TYPE_ONDEMAND, events);
+        events.add(createSampleEvents(1).get(0)); // Added after leasing, e.g. a QOE event
+        when(mockMainBuffer.nackUndelivered(eq(10L), anyInt(), anyInt())).thenReturn(new ArrayList<>());
+
+        handler.handleFailedLease(lease, NRVideoConstants.EVENT_TYPE_ONDEMAND,
+            new ArrayList<DeadLetterEventBuffer.RetryEvent>(), 2);
+
+        // Two leased events were delivered, the third one and the unleased event are retried
+        verify(mockMainBuffer).nackUndelivered(eq(10L), eq(2), anyInt());
+        verify(mockMainBuffer, never()).nack(anyLong(), anyInt());
+        assertEquals(1, handler.pollRetriesForHarvest(Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void testPollRetriesForHarvestRespectsSpareBudget() {
+        handler.handleFailedEvents(createSampleEvents(3), NRVideoConstants.EVENT_TYPE_ONDEMAND);
+        long eventSize = new DefaultSizeEstimator().estimate(createSampleEvents(3).get(0));
+
+        assertTrue(handler.pollRetriesForHarvest(0).isEmpty());
+        assertTrue(handler.pollRetriesForHarvest(eventSize - 1).isEmpty());
+
+        List<DeadLetterEventBuffer.RetryEvent> retries = handler.pollRetriesForHarvest(eventSize * 2 + 1);
+        assertEquals(2, retries.size());
+        assertEquals(1, retries.get(0).retryCount);
+    }
+
+    @Test
+    public void testPollRetriesForHarvestIsBoundedByBytesOnly() {
+        handler.handleFailedEvents(createSampleEvents(40), NRVideoConstants.EVENT_TYPE_ONDEMAND);
+
+        List<DeadLetterEventBuffer.RetryEvent> retries = handler.pollRetriesForHarvest(100000);
+
+        assertEquals("No event count cap, only the byte budget", 40, retries.size());
+    }
+
+    @Test
+    public void testRetryThatDoesNotFitKeepsItsPlace() {
+        handler.handleFailedEvents(createSampleEvents(4), NRVideoConstants.EVENT_TYPE_ONDEMAND);
+        long eventSize = new DefaultSizeEstimator().estimate(createSampleEvents(1).get(0));
+
+        List<DeadLetterEventBuffer.RetryEvent> first = handler.pollRetriesForHarvest(eventSize * 2 + 1);
+        List<DeadLetterEventBuffer.RetryEvent> rest = handler.pollRetriesForHarvest(100000);
+
+        assertEquals(2, first.size());
+        assertEquals(2, rest.size());
+        assertEquals(2, rest.get(0).event.get("index"));
+        assertEquals(3, rest.get(1).event.get("index"));
+    }
+
+    @Test
+    public void testPollRetriesForHarvestSkippedWhileRateLimited() {
+        handler.handleFailedEvents(createSampleEvents(1), NRVideoConstants.EVENT_TYPE_ONDEMAND);
+        when(mockHttpClient.getRetryAfterRemainingMs()).thenReturn(1000L);
+
+        assertTrue(handler.pollRetriesForHarvest(100000).isEmpty());
+    }
+
+    @Test
+    public void testFailedPiggybackedRetriesKeepTheirCount() {
+        handler.handleFailedEvents(createSampleEvents(1), NRVideoConstants.EVENT_TYPE_ONDEMAND);
+        List<DeadLetterEventBuffer.RetryEvent> retries = handler.pollRetriesForHarvest(100000);
+        assertEquals(1, retries.size());
+
+        List<Map<String, Object>> events = createSampleEvents(2);
+        EventLease lease = new EventLease(11L, NRVideoConstants.EVENT_TYPE_ONDEMAND, events);
+        events.add(retries.get(0).event);
+        when(mockMainBuffer.nack(eq(11L), anyInt())).thenReturn(new ArrayList<>());
+
+        handler.handleFailedLease(lease, NRVideoConstants.EVENT_TYPE_ONDEMAND, retries);
+
+        List<DeadLetterEventBuffer.RetryEvent> requeued = handler.pollRetriesForHarvest(100000);
+        assertEquals(1, requeued.size());
+        assertEquals(2, requeued.get(0).retryCount);
+        assertSame(retries.get(0).event, requeued.get(0).event);
+    }
+
     // ========== Helper Methods ==========
 
     private List<Map<String, Object>> createSampleEvents(int count) {
@@ -1,8 +1,12 @@
 package com.newrelic.videoagent.core.storage;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
+import com.newrelic.videoagent.core.model.VideoEvent;
+
+import org.json.JSONObject;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -420,8 +424,350 @@ public class VideoEventStorageTest {
         assertTrue(storage.isEmpty());
     }
 
+    @Test
+    public void testPollEventsWithinBytesRespectsBudget() {
+        List<Map<String, Object>> events = createTestEvents(5);
+        storage.backupFailedEvents(events);
+        long rowBytes = new JSONObject(events.get(0)).toString().length();
+
+        VideoEventStorage.RecoveryBatch batch = storage.pollEventsWithinBytes(
+            VideoEventStorage.PRIORITY_FAILED, rowBytes * 2, Long.MAX_VALUE);
+
+        assertEquals(2, batch.events.size());
+        assertEquals(rowBytes * 2, batch.sizeBytes);
+        assertFalse(batch.drained);
+        assertEquals(3, storage.getEventCount());
+    }
+
+    @Test
+    public void testPollEventsWithinBytesReportsDrained() {
+        storage.backupFailedEvents(createTestEvents(3));
+
+        VideoEventStorage.RecoveryBatch batch = storage.pollEventsWithinBytes(
+            VideoEventStorage.PRIORITY_FAILED, 100000, Long.MAX_VALUE);
+
+        assertEquals(3, batch.events.size());
+        assertTrue(batch.drained);
+        assertTrue(storage.isEmpty());
+
+        VideoEventStorage.RecoveryBatch empty = storage.pollEventsWithinBytes(
+            VideoEventStorage.PRIORITY_LIVE, 100000, Long.MAX_VALUE);
+        assertTrue(empty.events.isEmpty());
+        assertTrue(empty.drained);
+    }
+
+    @Test
+    public void testPollEventsWithinBytesTakesOversizedRowAlone() {
+        storage.backupFailedEvents(createTestEvents(2));
+
+        // Rows larger than any harvest go alone instead of blocking the class
+        VideoEventStorage.RecoveryBatch batch = storage.pollEventsWithinBytes(
+            VideoEventStorage.PRIORITY_FAILED, 10, 10);
+
+        assertEquals(1, batch.events.size());
+        assertFalse(batch.drained);
+
+        // Within the harvest limit a row that does not fit stays
+        VideoEventStorage.RecoveryBatch none = storage.pollEventsWithinBytes(
+            VideoEventStorage.PRIORITY_FAILED, 10, Long.MAX_VALUE);
+        assertTrue(none.events.isEmpty());
+        assertFalse(none.drained);
+        assertEquals(1, storage.getEventCount());
+    }
+
+    @Test
+    public void testWriteAheadLoggingEnabled() {
+        assertTrue(storage.getWritableDatabase().isWriteAheadLoggingEnabled());
+    }
+
+    @Test
+    public void testRowCountTracksWritesDeletesAndReopen() {
+        storage.backupFailedEvents(createTestEvents(4));
+        storage.backupEvents(createTestEvents(2), createTestEvents(3));
+        assertEquals(9, storage.getEventCount());
+
+        storage.pollEvents("ondemand", 2);
+        storage.pollEventsWithinBytes(VideoEventStorage.PRIORITY_FAILED, 100000, Long.MAX_VALUE);
+        assertEquals(3, storage.getEventCount());
+
+        // Counter is rebuilt from the table after reopening
+        storage.close();
+        storage = new VideoEventStorage(context);
+        assertEquals(3, storage.getEventCount());
+    }
+
+    @Test
+    public void testRangeDeleteOnlyTouchesPolledPriority() {
+        storage.backupEvents(createTestEvents(3), createTestEvents(3));
+        storage.backupFailedEvents(createTestEvents(3));
+
+        storage.pollEvents("ondemand", 3);
+
+        assertEquals(6, storage.getEventCount());
+        assertEquals(3, storage.pollEvents("live", 10).size());
+        assertEquals(3, storage.pollEvents("failed", 10).size());
+        assertTrue(storage.isEmpty());
+    }
+
+    @Test
+    public void testUpgradeFromVersion1KeepsRows() {
+        storage.backupFailedEvents(createTestEvents(3));
+
+        storage.onUpgrade(storage.getWritableDatabase(), 1, 2);
+
+        assertEquals(3, storage.getEventCount());
+        assertEquals(3, storage.pollEvents("failed", 10).size());
+    }
+
+    @Test
+    public void testNestedValuesRoundTrip() {
+        Map<String, Object> nested = new HashMap<>();
+        nested.put("key", "value");
+        List<Object> array = new ArrayList<>();
+        array.add(1);
+        array.add("two");
+        Map<String, Object> event = new HashMap<>();
+        event.put("nested", nested);
+        event.put("array", array);
+        List<Map<String, Object>> events = new ArrayList<>();
+        events.add(event);
+
+        storage.backupFailedEvents(events);
+        Map<String, Object> restored = storage.pollEvents("failed", 1).get(0);
+
+        assertEquals(nested, restored.get("nested"));
+        assertEquals(array, restored.get("array"));
+    }
+
+    @Test
+    public void testLargeEmergencyBackupInOneTransaction() {
+        storage.backupEvents(createTestEvents(500), createTestEvents(500));
+
+        assertEquals(1000, storage.getEventCount());
+        assertEquals(500, storage.pollEvents("live", 1000).size());
+        assertEquals(500, storage.getEventCount());
+    }
+
+    @Test
+    public void testRowsAreStoredAsBinaryRecords() {
+        storage.backupFailedEvents(createTestEvents(1));
+
+        Cursor cursor = storage.getReadableDatabase()
+            .rawQuery("SELECT typeof(event_data) FROM backup_events", null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("blob", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testValueTypesArePreserved() {
+        Map<String, Object> event = new HashMap<>();
+        event.put("eventType", "VideoAction");
+        event.put("timeSinceLoad", 5L);
+        event.put("contentBitrate", 1500000);
+        event.put("contentPlayrate", 1.5f);
+        event.put("contentIsMuted", false);
+        List<Map<String, Object>> events = new ArrayList<>();
+        events.add(event);
+
+        storage.backupFailedEvents(events);
+        Map<String, Object> restored = storage.pollEvents("failed", 1).get(0);
+
+        assertEquals(event, restored);
+        assertEquals(Long.class, restored.get("timeSinceLoad").getClass());
+        assertEquals(Float.class, restored.get("contentPlayrate").getClass());
+    }
+
+    @Test
+    public void testLegacyJsonRowsAreStillRecovered() {
+        SQLiteDatabase db = storage.getWritableDatabase();
+        db.execSQL("INSERT INTO backup_events (event_data, priority, timestamp) VALUES (?, ?, ?)",
+            new Object[]{"{\"eventType\":\"VideoAction\",\"count\":3}", "failed", System.currentTimeMillis()});
+        storage.backupFailedEvents(createTestEvents(1));
+
+        List<Map<String, Object>> restored = storage.pollEvents("failed", 10);
+
+        assertEquals(2, restored.size());
+        assertEquals("VideoAction", restored.get(0).get("eventType"));
+        assertEquals(3, restored.get(0).get("count"));
+        assertEquals("event_0", restored.get(1).get("eventId"));
+    }
+
+    @Test
+    public void testLearnedKeysSurviveReopen() {
+        List<Map<String, Object>> events = new ArrayList<>();
+        Map<String, Object> event = new HashMap<>();
+        event.put("customAttribute", "custom");
+        events.add(event);
+        storage.backupFailedEvents(events);
+        storage.close();
+
+        storage = new VideoEventStorage(context);
+        Cursor cursor = storage.getReadableDatabase()
+            .rawQuery("SELECT COUNT(*) FROM key_dictionary WHERE name = 'customAttribute'", null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(1, cursor.getInt(0));
+        } finally {
+            cursor.close();
+        }
+        assertEquals("custom", storage.pollEvents("failed", 1).get(0).get("customAttribute"));
+    }
+
+    @Test
+    public void testRecoveredEventsArePreSerialized() throws Exception {
+        storage.backupFailedEvents(createTestEvents(2));
+
+        VideoEventStorage.RecoveryBatch batch = storage.pollEventsWithinBytes("failed", 10000, 10000);
+
+        assertEquals(2, batch.events.size());
+        long expectedBytes = 0;
+        for (Map<String, Object> event : batch.events) {
+            byte[] encoded = ((VideoEvent) event).getEncoded();
+            assertNotNull(encoded);
+            assertEquals(new JSONObject(event).toString().length(), encoded.length);
+            expectedBytes += encoded.length;
+        }
+        assertEquals(expectedBytes, batch.sizeBytes);
+    }
+
+    @Test
+    public void testUpgradeFromVersion2KeepsRows() {
+        storage.backupFailedEvents(createTestEvents(3));
+
+        storage.onUpgrade(storage.getWritableDatabase(), 2, 3);
+
+        assertEquals(3, storage.getEventCount());
+        assertEquals(3, storage.pollEvents("failed", 10).size());
+    }
+
+    @Test
+    public void testRowQuotaEvictsLowValueEventsFirst() {
+        storage.close();
+        storage = new VideoEventStorage(context, VideoEventStorage.DEFAULT_MAX_BYTES, 4);
+        List<Map<String, Object>> events = new ArrayList<>();
+        events.add(actionEvent("CONTENT_START"));
+        events.add(actionEvent("CONTENT_HEARTBEAT"));
+        events.add(actionEvent("CONTENT_BUFFER_START"));
+        events.add(actionEvent("CONTENT_DROPPED_FRAMES"));
+        events.add(actionEvent("CONTENT_ERROR"));
+        events.add(actionEvent("CONTENT_HEARTBEAT"));
+
+        storage.backupFailedEvents(events);
+
+        assertEquals(4, storage.getEventCount());
+        assertEquals(2, storage.getEvictedEventCount());
+        List<Map<String, Object>> restored = storage.pollEvents("failed", 10);
+        assertEquals("CONTENT_START", restored.get(0).get("actionName"));
+        assertEquals("CONTENT_BUFFER_START", restored.get(1).get("actionName"));
+        assertEquals("CONTENT_ERROR", restored.get(2).get("actionName"));
+        assertEquals("CONTENT_HEARTBEAT", restored.get(3).get("actionName")); // Newest heartbeat kept
+    }
+
+    @Test
+    public void testByteQuotaKeepsStoredBytesBounded() {
+        storage.close();
+        storage = new VideoEventStorage(context, 4096, VideoEventStorage.DEFAULT_MAX_ROWS);
+
+        for (int i = 0; i < 10; i++) {
+            storage.backupFailedEvents(createTestEvents(20));
+        }
+
+        assertTrue(storage.getStoredBytes() <= 4096);
+        assertTrue(storage.getEventCount() > 0);
+        assertEquals(200, storage.getEventCount() + storage.getEvictedEventCount());
+    }
+
+    @Test
+    public void testStoredBytesTrackWritesAndPolls() {
+        storage.backupFailedEvents(createTestEvents(5));
+        long stored = storage.getStoredBytes();
+        assertTrue(stored > 0);
+
+        storage.pollEvents("failed", 2);
+        long afterPoll = storage.getStoredBytes();
+        assertTrue(afterPoll < stored);
+
+        storage.close();
+        storage = new VideoEventStorage(context);
+        assertEquals(afterPoll, storage.getStoredBytes());
+    }
+
+    @Test
+    public void testValueClassOf() {
+        assertEquals(VideoEventStorage.VALUE_LOW, VideoEventStorage.valueClassOf(actionEvent("AD_HEARTBEAT")));
+        assertEquals(VideoEventStorage.VALUE_LOW, VideoEventStorage.valueClassOf(actionEvent("CONTENT_DROPPED_FRAMES")));
+        assertEquals(VideoEventStorage.VALUE_NORMAL, VideoEventStorage.valueClassOf(actionEvent("CONTENT_PAUSE")));
+        assertEquals(VideoEventStorage.VALUE_HIGH, VideoEventStorage.valueClassOf(actionEvent("QOE_AGGREGATE")));
+        assertEquals(VideoEventStorage.VALUE_HIGH, VideoEventStorage.valueClassOf(actionEvent("AD_BREAK_END")));
+        Map<String, Object> error = new HashMap<>();
+        error.put("eventType", "VideoErrorAction");
+        assertEquals(VideoEventStorage.VALUE_HIGH, VideoEventStorage.valueClassOf(error));
+    }
+
+    @Test
+    public void testExpireOldEventsIsIncremental() {
+        storage.backupFailedEvents(createTestEvents(5));
+        long old = System.currentTimeMillis() - VideoEventStorage.MAX_EVENT_AGE_MS - 1000;
+        storage.getWritableDatabase().execSQL("UPDATE backup_events SET timestamp = ? WHERE _id <= 3",
+            new Object[]{old});
+
+        assertEquals(2, storage.expireOldEvents(2));
+        assertEquals(3, storage.getEventCount());
+        assertEquals(1, storage.expireOldEvents(2));
+        assertEquals(0, storage.expireOldEvents(2));
+        assertEquals(2, storage.getEventCount());
+    }
+
+    @Test
+    public void testUpgradeFromVersion3AddsQuotaColumns() {
+        SQLiteDatabase db = storage.getWritableDatabase();
+        db.execSQL("DROP TABLE backup_events");
+        db.execSQL("CREATE TABLE backup_events (_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                   "event_data BLOB NOT NULL, priority TEXT NOT NULL, timestamp INTEGER NOT NULL)");
+        db.execSQL("INSERT INTO backup_events (event_data, priority, timestamp) VALUES (?, ?, ?)",
+            new Object[]{"{\"eventType\":\"VideoAction\"}", "failed", System.currentTimeMillis()});
+
+        storage.onUpgrade(db, 3, 4);
+
+        assertEquals(1, storage.getEventCount());
+        assertEquals("{\"eventType\":\"VideoAction\"}".length(), storage.getStoredBytes());
+        assertEquals("VideoAction", storage.pollEvents("failed", 1).get(0).get("eventType"));
+    }
+
+    @Test
+    public void testPeekKeepsRowsUntilRangeIsDeleted() {
+        storage.backupFailedEvents(createTestEvents(5));
+        long stored = storage.getStoredBytes();
+
+        VideoEventStorage.RecoveryBatch first = storage.peekEventsWithinBytes("failed", -1, Long.MAX_VALUE, 100000, 100000);
+        assertEquals(5, first.events.size());
+        assertTrue(first.drained);
+        assertEquals(5, storage.getEventCount());
+
+        // A bounded range re-reads exactly the rows it names
+        VideoEventStorage.RecoveryBatch range = storage.peekEventsWithinBytes("failed", first.firstId, first.firstId + 2, 100000, 100000);
+        assertEquals(2, range.events.size());
+        assertEquals("event_1", range.events.get(0).get("eventId"));
+
+        assertEquals(2, storage.deleteRange("failed", range.firstId, range.lastId));
+        assertEquals(3, storage.getEventCount());
+        assertTrue(storage.getStoredBytes() < stored);
+        assertEquals(0, storage.deleteRange("live", first.firstId, first.lastId));
+    }
+
     // Helper methods
 
+    private Map<String, Object> actionEvent(String actionName) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("eventType", "VideoAction");
+        event.put("actionName", actionName);
+        return event;
+    }
+
     private List<Map<String, Object>> createTestEvents(int count) {
         List<Map<String, Object>> events = new ArrayList<>();
         for (int i = 0; i < count; i++) {
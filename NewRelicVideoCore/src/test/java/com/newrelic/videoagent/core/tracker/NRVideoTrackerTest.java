@@ -764,4 +764,73 @@ public class NRVideoTrackerTest {
 
         // Should handle concurrent attribute access
     }
+
+    // ========== Derived Attribute Cache Tests ==========
+
+    @Test
+    public void testVideoIdIsMd5OfSource() {
+        SourceTracker sourceTracker = new SourceTracker();
+        assertEquals("MD5 of empty source", "D41D8CD98F00B204E9800998ECF8427E", sourceTracker.getVideoId());
+
+        sourceTracker.src = "http://example.com/video.mp4";
+        String videoId = sourceTracker.getVideoId();
+        assertEquals(32, videoId.length());
+        assertEquals(videoId.toUpperCase(), videoId);
+        assertEquals(videoId, sourceTracker.getVideoId());
+        sourceTracker.dispose();
+    }
+
+    @Test
+    public void testVideoIdFollowsSourceChange() {
+        SourceTracker sourceTracker = new SourceTracker();
+        sourceTracker.src = "http://example.com/a.mp4";
+        String first = sourceTracker.getVideoId();
+
+        sourceTracker.src = "http://example.com/b.mp4";
+        String second = sourceTracker.getVideoId();
+
+        assertNotEquals(first, second);
+        sourceTracker.dispose();
+    }
+
+    @Test
+    public void testViewIdChangesAfterEnd() {
+        tracker.setPlayer(new Object());
+        tracker.sendRequest();
+        tracker.sendStart();
+        String firstViewId = (String) tracker.getAttributes(CONTENT_HEARTBEAT, null).get("viewId");
+
+        tracker.sendEnd();
+        String secondViewId = (String) tracker.getAttributes(CONTENT_REQUEST, null).get("viewId");
+
+        assertNotEquals(firstViewId, secondViewId);
+        assertTrue(secondViewId.endsWith("-1"));
+    }
+
+    @Test
+    public void testViewAttributesRebuiltAfterInvalidation() {
+        SourceTracker sourceTracker = new SourceTracker();
+        sourceTracker.trackerName = "first";
+        assertEquals("first", sourceTracker.getAttributes(CONTENT_START, null).get("trackerName"));
+
+        sourceTracker.trackerName = "second";
+        sourceTracker.invalidateViewAttributes();
+        assertEquals("second", sourceTracker.getAttributes(CONTENT_START, null).get("trackerName"));
+        sourceTracker.dispose();
+    }
+
+    private static class SourceTracker extends NRVideoTracker {
+        String src;
+        String trackerName = "SourceTracker";
+
+        @Override
+        public String getSrc() {
+            return src;
+        }
+
+        @Override
+        public String getTrackerName() {
+            return trackerName;
+        }
+    }
 }
@@ -1,10 +1,13 @@
 package com.newrelic.videoagent.core.util;
 
+import com.newrelic.videoagent.core.model.VideoEvent;
+
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -179,4 +182,84 @@ public class JsonStreamUtilTest {
         assertTrue(result.contains("Item0"));
         assertTrue(result.contains("Item99"));
     }
+
+    @Test
+    public void testStreamVideoEventWritesSlotsAndOverflow() throws IOException {
+        VideoEvent event = new VideoEvent();
+        event.put("actionName", "CONTENT_START");
+        event.put("contentIsLive", false);
+        event.put("custom", "value");
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        JsonStreamUtil.streamMapToOutputStream(event, outputStream);
+
+        String result = outputStream.toString("UTF-8");
+        assertTrue(result.startsWith("{"));
+        assertTrue(result.endsWith("}"));
+        assertTrue(result.contains("\"actionName\":\"CONTENT_START\""));
+        assertTrue(result.contains("\"contentIsLive\":false"));
+        assertTrue(result.contains("\"custom\":\"value\""));
+        assertEquals(2, result.split(",").length - 1);
+    }
+
+    @Test
+    public void testEncodeEventMatchesStreamedJson() throws IOException {
+        VideoEvent event = new VideoEvent();
+        event.put("actionName", "CONTENT_START");
+        event.put("contentTitle", "Caf\u00e9 \"live\"");
+        event.put("custom", 7);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        JsonStreamUtil.streamMapToOutputStream(event, outputStream);
+
+        assertArrayEquals(outputStream.toByteArray(), JsonStreamUtil.encodeEvent(event));
+    }
+
+    @Test
+    public void testStreamMapEscapesControlCharactersAndFormatsNumbers() throws IOException {
+        Map<String, Object> map = new HashMap<>();
+        map.put("message", "line\u0001break");
+        map.put("bitrate", 1.5);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        JsonStreamUtil.streamMapToOutputStream(map, outputStream);
+
+        String result = outputStream.toString("UTF-8");
+        assertTrue(result.contains("\"message\":\"line\\u0001break\""));
+        assertTrue(result.contains("\"bitrate\":1.5"));
+    }
+
+    @Test
+    public void testStreamPreSerializedEventWritesEncodedBytes() throws IOException {
+        VideoEvent event = new VideoEvent();
+        event.put("actionName", "CONTENT_START");
+        event.setEncoded("{\"actionName\":\"ENCODED\"}".getBytes("UTF-8"));
+
+        List<Object> list = new ArrayList<>();
+        list.add(event);
+
+        assertEquals("[{\"actionName\":\"ENCODED\"}]", JsonStreamUtil.streamJsonToString(list));
+    }
+
+    @Test
+    public void testStreamVideoEventMergesSharedAttributes() throws IOException {
+        Map<String, Object> shared = new HashMap<>();
+        shared.put("contentTitle", "Shared");
+        shared.put("appVersion", "1.0");
+        shared.put("removed", "x");
+        VideoEvent event = new VideoEvent();
+        event.put("actionName", "CONTENT_START");
+        event.setSharedAttributes(Collections.unmodifiableMap(shared));
+        event.put("contentTitle", "Own");
+        event.remove("removed");
+
+        String result = new String(JsonStreamUtil.encodeEvent(event), "UTF-8");
+
+        assertTrue(result.contains("\"contentTitle\":\"Own\""));
+        assertTrue(result.contains("\"appVersion\":\"1.0\""));
+        assertFalse(result.contains("Shared"));
+        assertFalse(result.contains("removed"));
+        assertEquals(2, result.split(",").length - 1);
+        assertEquals(result.length(), JsonStreamUtil.measureJson(event));
+    }
 }
@@ -0,0 +1,178 @@
+package com.newrelic.videoagent.core.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for JsonStreamWriter.
+ * Tests escaping, UTF-8 encoding, number formatting and chunked flushing.
+ */
+public class JsonStreamWriterTest {
+
+    private interface WriteAction {
+        void write(JsonStreamWriter writer) throws IOException;
+    }
+
+    private static String write(int bufferSize, WriteAction action) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        JsonStreamWriter writer = new JsonStreamWriter(bufferSize);
+        writer.attach(outputStream);
+        action.write(writer);
+        writer.flush();
+        writer.detach();
+        return outputStream.toString("UTF-8");
+    }
+
+    private static String write(WriteAction action) throws IOException {
+        return write(1024, action);
+    }
+
+    // ========== String Tests ==========
+
+    @Test
+    public void testEscapesQuotesAndBackslashes() throws IOException {
+        assertEquals("\"a\\\"b\\\\c\"", write(w -> w.writeString("a\"b\\c")));
+    }
+
+    @Test
+    public void testEscapesAllControlCharacters() throws IOException {
+        assertEquals("\"\\n\\r\\t\\b\\f\\u0000\\u001f\"",
+            write(w -> w.writeString("\n\r\t\b\f\u0000\u001f")));
+    }
+
+    @Test
+    public void testEncodesUtf8() throws IOException {
+        String value = "Caf\u00e9 \u20ac \uD83C\uDFAC";
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        JsonStreamWriter writer = new JsonStreamWriter();
+        writer.attach(outputStream);
+        writer.writeString(value);
+        writer.flush();
+
+        assertArrayEquals(("\"" + value + "\"").getBytes("UTF-8"), outputStream.toByteArray());
+    }
+
+    @Test
+    public void testUnpairedSurrogateIsReplaced() throws IOException {
+        assertEquals("\"a?b\"", write(w -> w.writeString("a\uD83Cb")));
+    }
+
+    @Test
+    public void testNullStringWritesNull() throws IOException {
+        assertEquals("null", write(w -> w.writeString(null)));
+    }
+
+    // ========== Number Tests ==========
+
+    @Test
+    public void testWriteLong() throws IOException {
+        assertEquals("0", write(w -> w.writeLong(0)));
+        assertEquals("-42", write(w -> w.writeLong(-42)));
+        assertEquals("1700000000000", write(w -> w.writeLong(1700000000000L)));
+        assertEquals(String.valueOf(Long.MAX_VALUE), write(w -> w.writeLong(Long.MAX_VALUE)));
+        assertEquals(String.valueOf(Long.MIN_VALUE), write(w -> w.writeLong(Long.MIN_VALUE)));
+    }
+
+    @Test
+    public void testWriteDoubleMatchesDoubleToString() throws IOException {
+        double[] values = {1.5, 0.1, 100.0, -2.25, 0.001, 1234567.875, 3.14159, 9999999.5, 0.3};
+        for (double value : values) {
+            assertEquals(Double.toString(value), write(w -> w.writeDouble(value)));
+        }
+    }
+
+    @Test
+    public void testWriteDoubleOutsidePlainRange() throws IOException {
+        assertEquals("1.0E10", write(w -> w.writeDouble(1e10)));
+        assertEquals("1.0E-4", write(w -> w.writeDouble(0.0001)));
+        assertEquals("0.0", write(w -> w.writeDouble(0.0)));
+        assertEquals("-0.0", write(w -> w.writeDouble(-0.0)));
+    }
+
+    @Test
+    public void testWriteDoubleRoundTrips() throws IOException {
+        double value = 0.1 + 0.2;
+        assertEquals(value, Double.parseDouble(write(w -> w.writeDouble(value))), 0);
+    }
+
+    @Test
+    public void testNonFiniteNumbersWriteNull() throws IOException {
+        assertEquals("null", write(w -> w.writeDouble(Double.NaN)));
+        assertEquals("null", write(w -> w.writeDouble(Double.POSITIVE_INFINITY)));
+        assertEquals("null", write(w -> w.writeFloat(Float.NaN)));
+    }
+
+    @Test
+    public void testWriteFloatUsesFloatPrecision() throws IOException {
+        assertEquals("1.1", write(w -> w.writeFloat(1.1f)));
+        assertEquals("29.97", write(w -> w.writeFloat(29.97f)));
+    }
+
+    // ========== Buffering Tests ==========
+
+    @Test
+    public void testSmallBufferFlushesInChunks() throws IOException {
+        StringBuilder expected = new StringBuilder("[");
+        for (int i = 0; i < 50; i++) {
+            if (i > 0) {
+                expected.append(',');
+            }
+            expected.append("\"item\\n").append(i).append("\u00e9\"");
+        }
+        expected.append(']');
+
+        String result = write(32, w -> {
+            w.beginArray();
+            for (int i = 0; i < 50; i++) {
+                if (i > 0) {
+                    w.writeSeparator();
+                }
+                w.writeString("item\n" + i + "\u00e9");
+            }
+            w.endArray();
+        });
+
+        assertEquals(expected.toString(), result);
+    }
+
+    @Test
+    public void testWriteRawLargerThanBuffer() throws IOException {
+        StringBuilder raw = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            raw.append('x');
+        }
+        byte[] bytes = raw.toString().getBytes("UTF-8");
+
+        assertEquals("[" + raw + "]", write(32, w -> {
+            w.beginArray();
+            w.writeRaw(bytes);
+            w.endArray();
+        }));
+    }
+
+    @Test
+    public void testAttachDiscardsUnflushedBytes() throws IOException {
+        JsonStreamWriter writer = new JsonStreamWriter();
+        writer.attach(new ByteArrayOutputStream());
+        writer.writeString("lost");
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        writer.attach(outputStream);
+        writer.writeBoolean(true);
+        writer.flush();
+
+        assertEquals("true", outputStream.toString("UTF-8"));
+        assertTrue(writer.isAttached());
+        writer.detach();
+        assertFalse(writer.isAttached());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBufferTooSmall() {
+        new JsonStreamWriter(8);
+    }
+}